@@ -0,0 +1,1610 @@
+package pt.haslab.causalSolver;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.haslab.causalSolver.solver.Solver;
+import pt.haslab.causalSolver.stats.Stats;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.CausalPairListener;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * Constraint model encoding the happens-before relationships among the events of a set of threads, which is built
+ * and solved with its own Solver. A model either covers the whole trace or a set of threads that has no causal
+ * relationship with the remaining ones (see ConstraintComponents), so that independent models can be solved in
+ * parallel.
+ *
+ * Locking constraints are only encoded as disjunctions when the other happens-before constraints do not already
+ * decide the order of the two critical sections, and waits are only matched with the notifies that these
+ * constraints do not order after them (see HappensBeforeIndex).
+ *
+ * Events that only take part in the program order of their thread (e.g. LOG, READ and WRITE events) can be left out
+ * of the solver, whose model then only has the events that other constraints refer to; the clocks of the events
+ * left out follow from the clocks of the events before them (see setReduceLocalEvents).
+ *
+ * A model of the whole trace can also be extended with the events appended to the trace after it was solved
+ * (see enableSegments), by adding only the new constraints in a solver scope and solving it again.
+ */
+public class CausalModel
+{
+    private static Logger logger = LoggerFactory.getLogger( CausalModel.class );
+
+    //compact solver variables: event -> index of its variable
+    private static final String VAR_PREFIX = "e";
+
+    //upper bound of the clocks of models extended with segments, whose number of events is not known in advance
+    private static final int SEGMENT_MAX_CLOCK = 1 << 30;
+
+    private final TraceProcessor trace;
+
+    /* threads whose events are encoded in this model, or null for all the threads in the trace */
+    private final Set<String> threads;
+
+    /* events of the model sorted by timestamp, or null to not add timestamp constraints */
+    private final Iterable<Event> timestampOrder;
+
+    private final Solver solver;
+
+    private final boolean compactNames;
+
+    private final HashMap<String, Event> allEvents; //map: string (event.toString) -> Event object
+
+    private final IdentityHashMap<Event, Integer> eventVariables;
+
+    /* upper bound of the clocks, or 0 to use the number of events in the model */
+    private int maxClock;
+
+    /* Map: condition -> variable with the clock of the earliest notify on that condition in a previous model */
+    private final Map<String, String> carriedNotifies;
+
+    /* map: notify event -> list of all binary vars corresponding to that notify */
+    private final HashMap<SyncEvent, Set<String>> binaryVars;
+
+    /* indicates whether events appended to the trace can be added to the model (see enableSegments) */
+    private boolean segments;
+
+    /* state of a model extended with segments: number of segments added, and the last event and number of events
+    of each thread, the locking pairs of each variable, the forks whose child has not started and the last
+    timestamp constraint encoded so far */
+    private int numSegments;
+
+    private final Map<String, Event> lastEncoded;
+
+    private final Map<String, Integer> encodedPerThread;
+
+    private final Map<String, List<CausalPair<SyncEvent, SyncEvent>>> encodedLockPairs;
+
+    private final List<ThreadCreationEvent> pendingForks;
+
+    private Event timestampPivot;
+
+    private Event lastTimestampEvent;
+
+    /* causal pairs completed by the events appended to the trace since the last segment */
+    private final List<MessageCausalPair> newMessagePairs;
+
+    private final List<CausalPair<SocketEvent, SocketEvent>> newConnAcptPairs;
+
+    private final List<String> newLockVariables;
+
+    private final List<CausalPair<SyncEvent, SyncEvent>> newLockPairs;
+
+    /* RCV events of the messages encoded so far, per SND event, or null if the model is not extended with segments
+    (the messages completed by appended events are matched again from their first SND and RCV) */
+    private IdentityHashMap<SocketEvent, Set<SocketEvent>> encodedMessages;
+
+    /* events of the last segment, and whether its constraints may change the clocks of previous events */
+    private List<Event> segmentEvents;
+
+    private Set<Event> segmentEventSet;
+
+    private boolean segmentTouchesOld;
+
+    /* indicates whether the model has disjunctive (locking or wait-notify) constraints, with which the clocks of
+    previous events may change when new events are added */
+    private boolean disjunctive;
+
+    /* clocks found for the events of a model extended with segments (see applyClocks) */
+    private final IdentityHashMap<Event, Integer> clocks;
+
+    /* edges between threads encoded before the locking and wait-notify constraints, as (from, to) pairs, or null
+    once the happens-before index is built from them */
+    private List<Event> crossEdges;
+
+    /* happens-before relation given by the program order and the edges between threads, used to prune the
+    locking and wait-notify constraints, or null if it could not be built */
+    private HappensBeforeIndex happensBefore;
+
+    /* indicates whether non-overlapping critical sections of the same node are committed to their timestamp order */
+    private boolean lockTimestampOrder;
+
+    /* maximum time (in ms) between a wait and the notifies of the same node it can be matched with, or 0 for
+    no limit */
+    private long waitNotifyWindow;
+
+    /* indicates whether thread-local events are left out of the solver (see setReduceLocalEvents) */
+    private boolean reduceLocalEvents;
+
+    /* events left out of the solver, and the timelines they belong to */
+    private final Set<Event> localEvents;
+
+    private final List<SortedSet<Event>> reducedTimelines;
+
+    /* Map: event in the solver -> number of events left out of the solver right after it in its thread */
+    private final IdentityHashMap<Event, Integer> localEventsAfter;
+
+    /**
+     * @param trace the processed event trace.
+     * @param threads the threads whose events are encoded in the model, or null for all the threads in the trace.
+     * @param timestampOrder the events of the model sorted by timestamp, or null to not add timestamp constraints.
+     * @param solver the solver, already initiated, to which the model is written.
+     * @param compactNames true to name solver variables e0, e1, ... instead of after their events.
+     */
+    public CausalModel( TraceProcessor trace, Set<String> threads, Iterable<Event> timestampOrder, Solver solver,
+                        boolean compactNames )
+    {
+        this.trace = trace;
+        this.threads = threads;
+        this.timestampOrder = timestampOrder;
+        this.solver = solver;
+        this.compactNames = compactNames;
+        this.allEvents = new HashMap<String, Event>();
+        this.eventVariables = new IdentityHashMap<Event, Integer>();
+        this.maxClock = 0;
+        this.carriedNotifies = new HashMap<String, String>();
+        this.binaryVars = new HashMap<SyncEvent, Set<String>>();
+        this.segments = false;
+        this.numSegments = 0;
+        this.lastEncoded = new HashMap<String, Event>();
+        this.encodedPerThread = new HashMap<String, Integer>();
+        this.encodedLockPairs = new HashMap<String, List<CausalPair<SyncEvent, SyncEvent>>>();
+        this.pendingForks = new ArrayList<ThreadCreationEvent>();
+        this.newMessagePairs = new ArrayList<MessageCausalPair>();
+        this.newConnAcptPairs = new ArrayList<CausalPair<SocketEvent, SocketEvent>>();
+        this.newLockVariables = new ArrayList<String>();
+        this.newLockPairs = new ArrayList<CausalPair<SyncEvent, SyncEvent>>();
+        this.encodedMessages = null;
+        this.disjunctive = false;
+        this.clocks = new IdentityHashMap<Event, Integer>();
+        this.crossEdges = new ArrayList<Event>();
+        this.happensBefore = null;
+        this.lockTimestampOrder = false;
+        this.waitNotifyWindow = 0;
+        this.reduceLocalEvents = false;
+        this.localEvents = Collections.newSetFromMap( new IdentityHashMap<Event, Boolean>() );
+        this.reducedTimelines = new ArrayList<SortedSet<Event>>();
+        this.localEventsAfter = new IdentityHashMap<Event, Integer>();
+    }
+
+    /**
+     * Allows extending the model with the events appended to the trace after it is built (see addSegment). Must
+     * be called before building the model, which must cover all the threads in the trace. The clocks are then no
+     * longer bounded by the number of events in the trace.
+     *
+     * @return void
+     */
+    public void enableSegments()
+    {
+        segments = true;
+        encodedMessages = new IdentityHashMap<SocketEvent, Set<SocketEvent>>();
+        trace.addCausalPairListener( new CausalPairListener()
+        {
+            public void onMessagePair( String messageId, MessageCausalPair pair )
+            {
+                newMessagePairs.add( pair );
+            }
+
+            public void onConnectAccept( String socket, CausalPair<SocketEvent, SocketEvent> pair )
+            {
+                newConnAcptPairs.add( pair );
+            }
+
+            public void onLockPair( String variable, CausalPair<SyncEvent, SyncEvent> pair )
+            {
+                newLockVariables.add( variable );
+                newLockPairs.add( pair );
+            }
+        } );
+    }
+
+    /**
+     * Sets the upper bound of the clocks, for models whose clocks follow those of previously solved models.
+     *
+     * @param maxClock the upper bound of the clocks.
+     * @return void
+     */
+    public void setMaxClock( int maxClock )
+    {
+        this.maxClock = maxClock;
+    }
+
+    /**
+     * Commits the critical sections on the same locking object and node to their timestamp order, whenever one
+     * ends before the next one starts, instead of letting the solver choose their order. Timestamps of the same
+     * node come from the same clock, so this only rules out orders that the trace did not show, but the model
+     * becomes unsat if the other constraints contradict the timestamps.
+     *
+     * @param lockTimestampOrder true to commit critical sections to their timestamp order.
+     * @return void
+     */
+    public void setLockTimestampOrder( boolean lockTimestampOrder )
+    {
+        this.lockTimestampOrder = lockTimestampOrder;
+    }
+
+    /**
+     * Limits the notifies that a wait can be matched with to those of other nodes and those of the same node
+     * logged before the wait, at most a given time before it. If no notify is left within the window, the wait
+     * can still be matched with any notify allowed by the other constraints.
+     *
+     * @param waitNotifyWindow maximum time (in ms) between a notify and a wait of the same node, or 0 for no limit.
+     * @return void
+     */
+    public void setWaitNotifyWindow( long waitNotifyWindow )
+    {
+        this.waitNotifyWindow = waitNotifyWindow;
+    }
+
+    /**
+     * Leaves out of the solver the events that only take part in the program order of their thread (LOG, READ,
+     * WRITE, HANDLERBEGIN and HANDLEREND events, except the first and last events of each thread). The events
+     * around them are constrained to leave room for their clocks and weighted in the objective function by the
+     * number of events they stand for, so the clocks found are the same as with the events in the solver: each
+     * event left out gets the clock of the event before it plus one.
+     * It has no effect on models with timestamp constraints, which also order thread-local events with the events
+     * of other threads, or on models extended with segments.
+     *
+     * @param reduceLocalEvents true to leave thread-local events out of the solver.
+     * @return void
+     */
+    public void setReduceLocalEvents( boolean reduceLocalEvents )
+    {
+        this.reduceLocalEvents = reduceLocalEvents;
+    }
+
+    /**
+     * Indicates conditions that had notifies in previously solved models, which the waits of this model can be
+     * matched with as well. Must be called before building the model.
+     *
+     * @param conditions the condition variables.
+     * @return void
+     */
+    public void setCarriedNotifies( Set<String> conditions )
+    {
+        for ( String condition : conditions )
+        {
+            String var = compactNames ? "n" + carriedNotifies.size() : "CARRIED_NOTIFY_" + condition;
+            carriedNotifies.put( condition, var );
+        }
+    }
+
+    /**
+     * Constrains the clock of an event to be at least a given value, e.g. to follow the clock of its predecessor
+     * in a previously solved model. Must be called after building the model and before solving it.
+     *
+     * @param e an event of the model.
+     * @param clock the minimum clock of the event.
+     * @return void
+     * @throws IOException
+     */
+    public void addLowerBound( Event e, long clock )
+                    throws IOException
+    {
+        addBounds( var( e ), clock, upperBound() );
+    }
+
+    /**
+     * Sets the clock of the earliest notify on a condition in the previously solved models (see setCarriedNotifies).
+     *
+     * @param condition the condition variable.
+     * @param clock the clock of the notify.
+     * @return void
+     * @throws IOException
+     */
+    public void setCarriedNotifyClock( String condition, long clock )
+                    throws IOException
+    {
+        if ( carriedNotifies.containsKey( condition ) )
+            addBounds( carriedNotifies.get( condition ), clock, clock );
+    }
+
+    private void addBounds( String var, long min, long max )
+                    throws IOException
+    {
+        Stats.numHBConstraints.incrementAndGet();
+        solver.writeBounds( var, min, max );
+    }
+
+    /**
+     * Declares the variable of an event, bounded by [0, max].
+     */
+    private void declareVar( Event e, int max )
+                    throws IOException
+    {
+        Stats.numVarConstraints.incrementAndGet();
+        solver.writeIntVar( var( e ), 0, max );
+    }
+
+    /**
+     * Asserts that an event happens before another one.
+     */
+    private void assertOrder( Event before, Event after, String label )
+                    throws IOException
+    {
+        Stats.numHBConstraints.incrementAndGet();
+        solver.writeOrder( var( before ), var( after ), 0, label, false );
+    }
+
+    private int upperBound()
+    {
+        if ( segments )
+            return SEGMENT_MAX_CLOCK;
+        return maxClock > 0 ? maxClock : allEvents.size();
+    }
+
+    /**
+     * Returns the events encoded in the model.
+     *
+     * @return map: string (event.toString) -> Event object.
+     */
+    public Map<String, Event> getEvents()
+    {
+        return allEvents;
+    }
+
+    public void close()
+                    throws IOException
+    {
+        solver.close();
+    }
+
+    public void buildConstraintModel()
+                    throws IOException
+    {
+        genProgramOrderConstraints();
+        genCommunicationConstraints();
+        genForkStartConstraints();
+        genJoinExitConstraints();
+        buildHappensBeforeIndex();
+        genLockingConstraints();
+        genWaitNotifyConstraints();
+        if ( timestampOrder != null )
+        {
+            genTimestampConstraints();
+        }
+        genCausalOrderFunction();
+    }
+
+    /**
+     * Solves the model and, if it is satisfiable, augments each event with the logical clock found by the solver.
+     *
+     * @return true if the model is satisfiable, false otherwise.
+     * @throws IOException if the clocks cannot be obtained from the solver.
+     */
+    public boolean solve()
+                    throws IOException
+    {
+        boolean result = solver.solveModel();
+        if ( result )
+        {
+            parseSolverOutput();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the events appended to the trace since the model was last built or extended, in a new solver scope
+     * (push) with only the constraints of the new events: their program order after the last event encoded for
+     * each thread, the causal pairs completed by them, and their own objective function, which the solver
+     * minimizes after the objectives of the previous segments.
+     * Waits are only matched with the notifies known when they are added, and locking pairs are only ordered
+     * once they have both their LOCK and their UNLOCK.
+     *
+     * @return the number of events added.
+     * @throws IOException
+     */
+    public int addSegment()
+                    throws IOException
+    {
+        if ( !segments )
+            throw new IllegalStateException( "The model cannot be extended with segments" );
+
+        numSegments++;
+        String segment = "S" + numSegments + "_";
+        segmentEvents = new ArrayList<Event>();
+        segmentEventSet = Collections.newSetFromMap( new IdentityHashMap<Event, Boolean>() );
+        segmentTouchesOld = false;
+
+        solver.writeConstraint( solver.push() );
+        solver.writeComment( "SEGMENT " + numSegments + " - PROGRAM ORDER CONSTRAINTS" );
+        int counterPO = 0;
+        for ( Map.Entry<String, SortedSet<Event>> entry : trace.eventsPerThread.entrySet() )
+        {
+            SortedSet<Event> timeline = entry.getValue();
+            Integer numEncoded = encodedPerThread.get( entry.getKey() );
+            int numNew = timeline.size() - ( numEncoded == null ? 0 : numEncoded );
+            if ( numNew == 0 )
+                continue;
+
+            Event last = lastEncoded.get( entry.getKey() );
+            List<Event> chain = new ArrayList<Event>();
+            if ( last != null )
+                chain.add( last );
+            for ( Event e : ( last == null ) ? timeline : timeline.tailSet( last ) )
+            {
+                if ( e != last )
+                    chain.add( e );
+            }
+
+            if ( chain.size() - ( last == null ? 0 : 1 ) == numNew )
+            {
+                for ( Event e : chain )
+                {
+                    if ( e != last )
+                        declareSegmentEvent( e );
+                }
+                if ( chain.size() > 1 )
+                    chainProgramOrder( chain, "PO_" + segment + counterPO++ );
+            }
+            else
+            {
+                //some events are older than the last event encoded for the thread (e.g. events of another file
+                //of the same node), so the new events are chained between their encoded neighbours instead
+                Event previous = null;
+                List<Event> run = new ArrayList<Event>();
+                for ( Event e : timeline )
+                {
+                    if ( !isEncoded( e ) )
+                    {
+                        declareSegmentEvent( e );
+                        run.add( e );
+                        continue;
+                    }
+                    if ( !run.isEmpty() )
+                    {
+                        checkForward( e );
+                        run.add( e );
+                        if ( previous != null )
+                            run.add( 0, previous );
+                        chainProgramOrder( run, "PO_" + segment + counterPO++ );
+                        run.clear();
+                    }
+                    previous = e;
+                }
+                if ( previous != null && !run.isEmpty() )
+                    run.add( 0, previous );
+                if ( run.size() > 1 )
+                    chainProgramOrder( run, "PO_" + segment + counterPO++ );
+            }
+            encodedPerThread.put( entry.getKey(), timeline.size() );
+            lastEncoded.put( entry.getKey(), timeline.last() );
+        }
+
+        solver.writeComment( "SEGMENT " + numSegments + " - SYNCHRONIZATION CONSTRAINTS" );
+        int counterFRK_STR = 0;
+        Iterator<ThreadCreationEvent> forkIt = pendingForks.iterator();
+        while ( forkIt.hasNext() )
+        {
+            if ( addForkConstraint( forkIt.next(), "FS_" + segment + counterFRK_STR ) )
+            {
+                forkIt.remove();
+                counterFRK_STR++;
+            }
+        }
+        int counterJOIN_END = 0;
+        int counterCLS_SHT = 0;
+        Set<SyncEvent> waitedNotifies = new HashSet<SyncEvent>();
+        for ( Event e : segmentEvents )
+        {
+            switch ( e.getType() )
+            {
+                case CREATE:
+                    ThreadCreationEvent fork = (ThreadCreationEvent) e;
+                    if ( addForkConstraint( fork, "FS_" + segment + counterFRK_STR ) )
+                        counterFRK_STR++;
+                    else
+                        pendingForks.add( fork );
+                    break;
+                case JOIN:
+                    ThreadCreationEvent join = (ThreadCreationEvent) e;
+                    if ( trace.eventsPerThread.containsKey( join.getChildThread() ) )
+                        addJoinConstraint( join, "JE_" + segment + counterJOIN_END++ );
+                    break;
+                case CLOSE:
+                case SHUTDOWN:
+                    //the pair is added along with its last event
+                    CausalPair<SocketEvent, SocketEvent> pair = trace.closeShutEvents.get( ( (SocketEvent) e ).getSocket() );
+                    if ( pair != null && pair.getFirst() != null && pair.getSecond() != null
+                                    && ( pair.getSecond() == e
+                                    || ( pair.getFirst() == e && !segmentEventSet.contains( pair.getSecond() ) ) ) )
+                        addPairConstraint( pair.getFirst(), pair.getSecond(), "CS_" + segment + counterCLS_SHT++ );
+                    break;
+                case WAIT:
+                    SyncEvent wait = (SyncEvent) e;
+                    waitedNotifies.addAll( addWaitConstraint( wait.getVariable(), wait ) );
+                    break;
+                default:
+                    break;
+            }
+        }
+        for ( SyncEvent notify : waitedNotifies )
+        {
+            addNotifyConstraint( notify );
+        }
+
+        solver.writeComment( "SEGMENT " + numSegments + " - CAUSAL PAIRS" );
+        int counterSND_RCV = 0;
+        for ( MessageCausalPair pair : newMessagePairs )
+        {
+            counterSND_RCV = genMessageConstraints( pair, "SR_" + segment, counterSND_RCV );
+        }
+        int counterCON_ACC = 0;
+        for ( CausalPair<SocketEvent, SocketEvent> pair : newConnAcptPairs )
+        {
+            addPairConstraint( pair.getFirst(), pair.getSecond(), "CA_" + segment + counterCON_ACC++ );
+        }
+        for ( int i = 0; i < newLockPairs.size(); i++ )
+        {
+            CausalPair<SyncEvent, SyncEvent> pair = newLockPairs.get( i );
+            if ( !isComplete( pair ) )
+                continue;
+
+            List<CausalPair<SyncEvent, SyncEvent>> pairs = encodedLockPairs.get( newLockVariables.get( i ) );
+            if ( pairs == null )
+            {
+                pairs = new ArrayList<CausalPair<SyncEvent, SyncEvent>>();
+                encodedLockPairs.put( newLockVariables.get( i ), pairs );
+            }
+            //pairs of reentrant locks are reported again with their new UNLOCK, so they are ordered again
+            boolean encoded = false;
+            for ( CausalPair<SyncEvent, SyncEvent> other : pairs )
+            {
+                if ( other == pair )
+                    encoded = true;
+                else
+                    addLockConstraint( pair, other );
+            }
+            if ( !encoded )
+                pairs.add( pair );
+        }
+        newMessagePairs.clear();
+        newConnAcptPairs.clear();
+        newLockVariables.clear();
+        newLockPairs.clear();
+
+        if ( timestampOrder != null )
+        {
+            solver.writeComment( "SEGMENT " + numSegments + " - TIMESTAMP CONSTRAINTS" );
+            SortedSet<Event> sorted = trace.sortedByTimestamp;
+            List<Event> newTimestamps = new ArrayList<Event>();
+            for ( Event e : ( lastTimestampEvent == null ) ? sorted : sorted.tailSet( lastTimestampEvent ) )
+            {
+                if ( segmentEventSet.contains( e ) )
+                    newTimestamps.add( e );
+            }
+            if ( timestampPivot == null && !newTimestamps.isEmpty() )
+                timestampPivot = newTimestamps.remove( 0 );
+            if ( timestampPivot != null )
+                chainTimestamps( newTimestamps.iterator(), timestampPivot, "TS_" + segment );
+        }
+
+        solver.writeComment( "SEGMENT " + numSegments + " - CAUSALITY OBJECTIVE FUNCTION" );
+        if ( !segmentEvents.isEmpty() )
+            minimize( segmentEvents );
+        return segmentEvents.size();
+    }
+
+    /**
+     * Indicates whether an event was already added to the model. With compact names this does not depend on
+     * Event.toString, which changes for socket events whose message id is only known once later events arrive.
+     */
+    private boolean isEncoded( Event e )
+    {
+        return compactNames ? eventVariables.containsKey( e ) : allEvents.get( e.toString() ) == e;
+    }
+
+    private void declareSegmentEvent( Event e )
+                    throws IOException
+    {
+        declareVar( e, SEGMENT_MAX_CLOCK );
+        allEvents.put( e.toString(), e );
+        segmentEvents.add( e );
+        segmentEventSet.add( e );
+    }
+
+    /**
+     * Solves the model extended with the last segment and, if it is satisfiable, augments with the clocks found
+     * by the solver the events whose clocks may have changed. These are only the new events, unless a new
+     * constraint ends in a previous event or the model has locking or wait-notify constraints, with which the
+     * solver may reorder the previous events as well.
+     *
+     * @return true if the model is satisfiable, false otherwise.
+     * @throws IOException if the clocks cannot be obtained from the solver.
+     */
+    public boolean solveSegment()
+                    throws IOException
+    {
+        if ( !solver.solveModel() )
+            return false;
+
+        Collection<Event> changed = ( segmentTouchesOld || disjunctive ) ? allEvents.values() : segmentEvents;
+        logger.info( "Request the clocks of " + changed.size() + " events" );
+        parseSolverOutput( changed );
+        return true;
+    }
+
+    /**
+     * Discards the last segment (pop), e.g. when it is not satisfiable, keeping the model of the previous
+     * segments. The model cannot be extended any further.
+     *
+     * @return void
+     * @throws IOException
+     */
+    public void discardSegment()
+                    throws IOException
+    {
+        solver.writeConstraint( solver.pop() );
+        for ( Event e : segmentEvents )
+        {
+            allEvents.remove( e.toString() );
+        }
+        segments = false;
+    }
+
+    /**
+     * Records whether a constraint of the segment being added ends in a previous event, whose clock may then
+     * change.
+     */
+    private void checkForward( Event later )
+    {
+        if ( segmentEventSet != null && !segmentEventSet.contains( later ) )
+            segmentTouchesOld = true;
+    }
+
+    /**
+     * Records an edge between threads for the happens-before index of the locking and wait-notify constraints,
+     * unless the index is already built.
+     */
+    private void addCrossEdge( Event from, Event to )
+    {
+        if ( crossEdges != null )
+        {
+            crossEdges.add( from );
+            crossEdges.add( to );
+        }
+    }
+
+    /**
+     * Indicates whether an event belongs to one of the threads encoded in the model.
+     */
+    private boolean inModel( Event e )
+    {
+        return threads == null || threads.contains( e.getThread() );
+    }
+
+    /**
+     * Logs the steps of building a model for the whole trace, which are too verbose when solving many models
+     * (components, or windows whose clocks are bounded by setMaxClock).
+     */
+    private void logStep( String step )
+    {
+        if ( threads == null && maxClock == 0 )
+            logger.info( step );
+        else if ( logger.isDebugEnabled() )
+            logger.debug( step + " for threads " + threads );
+    }
+
+    /**
+     * Generates soft constraints that attempt to order the events of the different threads according to the
+     * original timestamp order.
+     * @throws IOException
+     */
+    private void genTimestampConstraints()
+                    throws IOException
+    {
+        logStep( "Add timestamp constraints" );
+        String tagTS = "TS_";
+        solver.writeComment( "TIMESTAMP CONSTRAINTS" );
+
+
+        Iterator<Event> timestampIt = timestampOrder.iterator();
+        if( !timestampIt.hasNext() )
+            return;
+
+        Event event_i = timestampIt.next();
+        lastTimestampEvent = event_i;
+        chainTimestamps( timestampIt, event_i, tagTS );
+    }
+
+    /**
+     * Adds soft constraints ordering the events given by an iterator after a previous event, following
+     * their timestamp order.
+     *
+     * @param timestampIt the events sorted by timestamp.
+     * @param event_i the event that precedes them.
+     * @param tagTS prefix of the constraints' labels.
+     * @throws IOException
+     */
+    private void chainTimestamps( Iterator<Event> timestampIt, Event event_i, String tagTS )
+                    throws IOException
+    {
+        int counterTS = 0;
+        Event event_j;
+
+        /*
+         Iterate through all events and add constraints only for contiguous events that belong to different threads.
+        */
+        while( timestampIt.hasNext() )
+        {
+            event_j = timestampIt.next();
+            lastTimestampEvent = event_j;
+
+            if( !event_j.getThread().equals( event_i.getThread() ) )
+            {
+                Stats.numHBConstraints.incrementAndGet();
+                solver.writeOrder( var( event_i ), var( event_j ), 0, tagTS + counterTS++, true );
+
+                // update event pointers
+                event_i = event_j;
+            }
+        }
+        timestampPivot = event_i;
+    }
+
+    private void genProgramOrderConstraints()
+                    throws IOException
+    {
+        logStep( "Add program order constraints" );
+        String tagPO = "PO_";
+        int counterPO = 0;
+        int max = 0;
+        List<SortedSet<Event>> timelines = new ArrayList<SortedSet<Event>>();
+        for ( SortedSet<Event> l : trace.eventsPerThread.values() )
+        {
+            if ( !l.isEmpty() && inModel( l.first() ) )
+            {
+                max += l.size();
+                timelines.add( l );
+            }
+        }
+
+        if ( maxClock > 0 || segments )
+            max = upperBound();
+
+        //generate program order variables and constraints
+        boolean reduce = reduceLocalEvents && timestampOrder == null && !segments;
+        for ( SortedSet<Event> events : timelines )
+        {
+            solver.writeComment( "PROGRAM ORDER CONSTRAINTS - THREAD " + events.first().getThread() );
+            List<Event> solverEvents = reduce ? reduceTimeline( events ) : null;
+            for ( Event e : ( solverEvents != null ) ? solverEvents : events )
+            {
+                declareVar( e, max );
+            }
+            for ( Event e : events )
+            {
+                //store event in allEvents
+                allEvents.put( e.toString(), e );
+            }
+            if ( solverEvents != null )
+            {
+                counterPO = chainReducedProgramOrder( solverEvents, tagPO, counterPO );
+            }
+            else if ( events.size() > 1 )
+            {
+                chainProgramOrder( events, tagPO + counterPO++ );
+            }
+            lastEncoded.put( events.first().getThread(), events.last() );
+            encodedPerThread.put( events.first().getThread(), events.size() );
+        }
+        if ( !localEvents.isEmpty() )
+        {
+            Stats.numLocalEvents.addAndGet( localEvents.size() );
+            logStep( "Left " + localEvents.size() + " thread-local events out of the solver" );
+        }
+    }
+
+    /**
+     * Returns the events of a thread that are encoded in the solver, recording those left out, or null if all the
+     * events are encoded.
+     */
+    private List<Event> reduceTimeline( SortedSet<Event> events )
+    {
+        List<Event> solverEvents = new ArrayList<Event>();
+        Event last = events.last();
+        Event previous = null;
+        int skipped = 0;
+        for ( Event e : events )
+        {
+            if ( previous != null && e != last && isThreadLocal( e ) )
+            {
+                localEvents.add( e );
+                skipped++;
+                continue;
+            }
+            if ( skipped > 0 )
+                localEventsAfter.put( previous, skipped );
+            solverEvents.add( e );
+            previous = e;
+            skipped = 0;
+        }
+        if ( solverEvents.size() == events.size() )
+            return null;
+
+        reducedTimelines.add( events );
+        return solverEvents;
+    }
+
+    /**
+     * Indicates whether an event only takes part in the program order of its thread.
+     */
+    private static boolean isThreadLocal( Event e )
+    {
+        switch ( e.getType() )
+        {
+            case LOG:
+            case READ:
+            case WRITE:
+            case HNDLBEG:
+            case HNDLEND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Asserts the program order of the events of a thread encoded in the solver: runs of consecutive events are
+     * chained as usual, and an event followed by k events left out of the solver happens at least k + 1 before
+     * the next one.
+     *
+     * @return the counter of the next constraint's label.
+     */
+    private int chainReducedProgramOrder( List<Event> solverEvents, String tagPO, int counterPO )
+                    throws IOException
+    {
+        int runStart = 0;
+        for ( int i = 0; i < solverEvents.size(); i++ )
+        {
+            Integer skipped = localEventsAfter.get( solverEvents.get( i ) );
+            if ( skipped == null && i + 1 < solverEvents.size() )
+                continue;
+
+            if ( i > runStart )
+                chainProgramOrder( solverEvents.subList( runStart, i + 1 ), tagPO + counterPO++ );
+            if ( skipped != null )
+            {
+                Stats.numHBConstraints.incrementAndGet();
+                solver.writeOrder( var( solverEvents.get( i ) ), var( solverEvents.get( i + 1 ) ), skipped,
+                                   tagPO + counterPO++, false );
+            }
+            runStart = i + 1;
+        }
+        return counterPO;
+    }
+
+    /**
+     * Asserts that a sequence of events of the same thread happen in that order.
+     */
+    private void chainProgramOrder( Collection<Event> events, String label )
+                    throws IOException
+    {
+        //the chain is streamed to the solver, as it has as many terms as the thread has events
+        Stats.numHBConstraints.incrementAndGet();
+        solver.openExpression( "assert" );
+        solver.openExpression( "!" );
+        solver.openExpression( "<" );
+        for ( Event e : events )
+        {
+            solver.writeTerm( var( e ) );
+        }
+        solver.closeExpression();
+        solver.writeTerm( ":named" );
+        solver.writeTerm( label );
+        solver.closeExpression();
+        solver.closeExpression();
+        solver.endConstraint();
+    }
+
+    private void addSndRcvConstraint(SocketEvent currentSnd,
+                                     SocketEvent currentRcv,
+                                     String tagSND_RCV,
+                                     int counterSND_RCV) throws IOException
+    {
+        //messages completed by appended events are matched again, so skip the constraints added before
+        if ( encodedMessages != null )
+        {
+            Set<SocketEvent> rcvs = encodedMessages.get( currentSnd );
+            if ( rcvs == null )
+            {
+                rcvs = Collections.newSetFromMap( new IdentityHashMap<SocketEvent, Boolean>() );
+                encodedMessages.put( currentSnd, rcvs );
+            }
+            if ( !rcvs.add( currentRcv ) )
+                return;
+        }
+
+        currentRcv.addDependency( currentSnd );
+        checkForward( currentRcv );
+        addCrossEdge( currentSnd, currentRcv );
+        assertOrder( currentSnd, currentRcv, tagSND_RCV + counterSND_RCV );
+    }
+
+    private void genCommunicationConstraints()
+                    throws IOException
+    {
+        logStep( "Add communication constraints" );
+        String tagSND_RCV = "SR_";
+        int counterSND_RCV = 0;
+        solver.writeComment( "COMMUNICATION CONSTRAINTS - SEND / RECEIVE" );
+
+        for ( MessageCausalPair pair : trace.sndRcvPairs.values() )
+        {
+            if ( ObjectUtils.isEmpty(pair.getSndList()) && ObjectUtils.isEmpty(pair.getRcvList()) )
+                continue;
+
+            //all the events of a message belong to the same component
+            Event first = ObjectUtils.isEmpty( pair.getSndList() ) ? pair.getRcvList().get( 0 ) : pair.getSndList().get( 0 );
+            if ( !inModel( first ) )
+                continue;
+
+            counterSND_RCV = genMessageConstraints( pair, tagSND_RCV, counterSND_RCV );
+        }
+
+        solver.writeComment( "COMMUNICATION CONSTRAINTS - CONNECT / ACCEPT" );
+        String tagCON_ACC = "CA_";
+        int counterCON_ACC = 0;
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.connAcptEvents.values() )
+        {
+            if ( pair.getFirst() != null && pair.getSecond() != null && inModel( pair.getFirst() ) )
+            {
+                addPairConstraint( pair.getFirst(), pair.getSecond(), tagCON_ACC + counterCON_ACC++ );
+            }
+        }
+
+        solver.writeComment( "COMMUNICATION CONSTRAINTS - CLOSE / SHUTDOWN" );
+        String tagCLS_SHT = "CS_";
+        int counterCLS_SHT = 0;
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.closeShutEvents.values() )
+        {
+            if ( pair.getFirst() != null && pair.getSecond() != null && inModel( pair.getFirst() ) )
+            {
+                addPairConstraint( pair.getFirst(), pair.getSecond(), tagCLS_SHT + counterCLS_SHT++ );
+            }
+        }
+    }
+
+    /**
+     * Adds the constraints matching the SND and RCV events of a message, according to the bytes of each event.
+     *
+     * @return the counter of the next constraint's label.
+     */
+    private int genMessageConstraints( MessageCausalPair pair, String tagSND_RCV, int counterSND_RCV )
+                    throws IOException
+    {
+        Iterator<SocketEvent> rcvIterator = pair.getRcvList().iterator();
+        Iterator<SocketEvent> sndIterator = pair.getSndList().iterator();
+
+        while(sndIterator.hasNext() && rcvIterator.hasNext())
+        {
+            SocketEvent currentSnd = sndIterator.next();
+            SocketEvent currentRcv = rcvIterator.next();
+            int bytesSnd = currentSnd.getSize();
+            int bytesRcv = currentRcv.getSize();
+
+            while( bytesSnd >= bytesRcv && bytesRcv > 0) {
+                addSndRcvConstraint(currentSnd, currentRcv, tagSND_RCV, counterSND_RCV++);
+
+                bytesSnd -= bytesRcv;
+                if(rcvIterator.hasNext())
+                {
+                    currentRcv = rcvIterator.next();
+                    bytesRcv = currentRcv.getSize();
+                }
+                else
+                {
+                    bytesRcv = 0;
+                }
+            }
+
+            while( bytesRcv >= bytesSnd && bytesSnd > 0) {
+                addSndRcvConstraint(currentSnd, currentRcv, tagSND_RCV, counterSND_RCV++);
+
+                bytesRcv -= bytesSnd;
+                if(sndIterator.hasNext())
+                {
+                    currentSnd = sndIterator.next();
+                    bytesSnd = currentSnd.getSize();
+                }
+                else
+                {
+                    bytesSnd = 0;
+                }
+            }
+
+            if(!rcvIterator.hasNext() && bytesSnd > 0) {
+                addSndRcvConstraint(currentSnd, currentRcv, tagSND_RCV, counterSND_RCV++);
+            }
+        }
+        return counterSND_RCV;
+    }
+
+    /**
+     * Adds the constraint of a (connect,accept) or (close,shutdown) causal pair.
+     */
+    private void addPairConstraint( SocketEvent first, SocketEvent second, String label )
+                    throws IOException
+    {
+        second.setDependency( first );
+        checkForward( second );
+        addCrossEdge( first, second );
+        assertOrder( first, second, label );
+    }
+
+    private void genLockingConstraints()
+                    throws IOException
+    {
+        logStep( "Add locking constraints" );
+        solver.writeComment( "LOCKING CONSTRAINTS" );
+        for ( String var : trace.lockEvents.keySet() )
+        {
+            //all the pairs on the same locking object belong to the same component
+            List<CausalPair<SyncEvent, SyncEvent>> pairs = trace.lockEvents.get( var );
+            if ( pairs.isEmpty() )
+                continue;
+            CausalPair<SyncEvent, SyncEvent> firstPair = pairs.get( 0 );
+            if ( !inModel( firstPair.getFirst() != null ? firstPair.getFirst() : firstPair.getSecond() ) )
+                continue;
+            if ( segments )
+                encodedLockPairs.put( var, new ArrayList<CausalPair<SyncEvent, SyncEvent>>( pairs ) );
+
+            //pairs in the same chain of critical sections committed to their timestamp order are already ordered
+            IdentityHashMap<CausalPair<SyncEvent, SyncEvent>, Integer> chains = lockTimestampOrder ?
+                            commitTimestampOrder( pairs ) : null;
+
+            // for two lock/unlock pairs on the same locking object,
+            // one pair must be executed either before or after the other
+            ListIterator<CausalPair<SyncEvent, SyncEvent>> pairIterator_i = pairs.listIterator( 0 );
+            ListIterator<CausalPair<SyncEvent, SyncEvent>> pairIterator_j;
+
+            while ( pairIterator_i.hasNext() )
+            {
+                CausalPair<SyncEvent, SyncEvent> pair_i = pairIterator_i.next();
+                if ( !isComplete( pair_i ) )
+                    continue;
+                Integer chain_i = chains == null ? null : chains.get( pair_i );
+                //advance iterator to have two different pairs
+                pairIterator_j = pairs.listIterator( pairIterator_i.nextIndex() );
+
+                while ( pairIterator_j.hasNext() )
+                {
+                    CausalPair<SyncEvent, SyncEvent> pair_j = pairIterator_j.next();
+                    if ( chain_i != null && chain_i.equals( chains.get( pair_j ) ) )
+                    {
+                        if ( !pair_i.getFirst().getThread().equals( pair_j.getFirst().getThread() ) )
+                            Stats.numLockPairsCommitted.incrementAndGet();
+                        continue;
+                    }
+                    addLockConstraint( pair_i, pair_j );
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the happens-before index of the edges encoded so far, which are no longer recorded afterwards.
+     */
+    private void buildHappensBeforeIndex()
+    {
+        List<SortedSet<Event>> timelines = new ArrayList<SortedSet<Event>>();
+        for ( SortedSet<Event> l : trace.eventsPerThread.values() )
+        {
+            if ( !l.isEmpty() && inModel( l.first() ) )
+                timelines.add( l );
+        }
+        boolean needed = !trace.lockEvents.isEmpty() || !trace.waitEvents.isEmpty();
+        happensBefore = needed ? HappensBeforeIndex.build( timelines, crossEdges ) : null;
+        crossEdges = null;
+        if ( happensBefore == null && needed )
+            logger.warn( "The happens-before edges form a cycle, locking and wait-notify constraints are not pruned" );
+    }
+
+    /**
+     * Orders the complete locking pairs on a locking object by the timestamps of their LOCKs and asserts that
+     * each critical section happens before the next one, as long as both are on the same node, the first ends
+     * before the next one starts and no other constraint orders them the other way around. Each maximal sequence
+     * of critical sections ordered this way forms a chain, whose pairs need no locking constraints among them.
+     *
+     * @return map: locking pair -> index of its chain.
+     */
+    private IdentityHashMap<CausalPair<SyncEvent, SyncEvent>, Integer> commitTimestampOrder(
+                    List<CausalPair<SyncEvent, SyncEvent>> pairs )
+                    throws IOException
+    {
+        List<CausalPair<SyncEvent, SyncEvent>> sorted = new ArrayList<CausalPair<SyncEvent, SyncEvent>>();
+        for ( CausalPair<SyncEvent, SyncEvent> pair : pairs )
+        {
+            if ( isComplete( pair ) )
+                sorted.add( pair );
+        }
+        Collections.sort( sorted, new Comparator<CausalPair<SyncEvent, SyncEvent>>()
+        {
+            public int compare( CausalPair<SyncEvent, SyncEvent> p1, CausalPair<SyncEvent, SyncEvent> p2 )
+            {
+                return Long.compare( p1.getFirst().getTimestampValue(), p2.getFirst().getTimestampValue() );
+            }
+        } );
+
+        IdentityHashMap<CausalPair<SyncEvent, SyncEvent>, Integer> chains =
+                        new IdentityHashMap<CausalPair<SyncEvent, SyncEvent>, Integer>();
+        int chain = 0;
+        CausalPair<SyncEvent, SyncEvent> previous = null;
+        for ( CausalPair<SyncEvent, SyncEvent> pair : sorted )
+        {
+            if ( previous != null )
+            {
+                SyncEvent unlock = previous.getSecond();
+                SyncEvent lock = pair.getFirst();
+                if ( unlock.getNodeId().equals( lock.getNodeId() )
+                                && unlock.getTimestampValue() < lock.getTimestampValue()
+                                && ( happensBefore == null || !happensBefore.happensBefore( lock, unlock ) ) )
+                {
+                    //program order already orders critical sections of the same thread
+                    if ( !unlock.getThread().equals( lock.getThread() ) )
+                    {
+                        assertOrder( unlock, lock, "LT" );
+                    }
+                }
+                else
+                {
+                    chain++;
+                }
+            }
+            chains.put( pair, chain );
+            previous = pair;
+        }
+        return chains;
+    }
+
+    /**
+     * Indicates whether a locking pair has both its LOCK and its UNLOCK, as the pairs left open at the end of
+     * the trace (or of the events appended so far) cannot be ordered with the others.
+     */
+    private static boolean isComplete( CausalPair<SyncEvent, SyncEvent> pair )
+    {
+        return pair.getFirst() != null && pair.getSecond() != null;
+    }
+
+    /**
+     * Adds the constraint stating that two locking pairs on the same locking object do not overlap.
+     */
+    private void addLockConstraint( CausalPair<SyncEvent, SyncEvent> pair_i, CausalPair<SyncEvent, SyncEvent> pair_j )
+                    throws IOException
+    {
+        //there is no need to add constraints for locking pairs of the same thread
+        //as they are already encoded in the program order constraints
+        if ( !isComplete( pair_j ) || pair_i.getFirst().getThread().equals( pair_j.getFirst().getThread() ) )
+            return;
+
+        if ( happensBefore != null )
+        {
+            //the constraint holds if one critical section already happens before the other
+            if ( happensBefore.happensBefore( pair_i.getSecond(), pair_j.getFirst() )
+                            || happensBefore.happensBefore( pair_j.getSecond(), pair_i.getFirst() ) )
+            {
+                Stats.numLockPairsPruned.incrementAndGet();
+                return;
+            }
+            //if one critical section starts before the other ends, the other must come first
+            if ( happensBefore.happensBefore( pair_j.getFirst(), pair_i.getSecond() ) )
+            {
+                addLockOrder( pair_j, pair_i );
+                return;
+            }
+            if ( happensBefore.happensBefore( pair_i.getFirst(), pair_j.getSecond() ) )
+            {
+                addLockOrder( pair_i, pair_j );
+                return;
+            }
+        }
+
+        // Ui < Lj || Uj < Li
+        String constraintUi_Lj = solver.cLt( var( pair_i.getSecond() ), var( pair_j.getFirst() ) );
+        String constraintUj_Li = solver.cLt( var( pair_j.getSecond() ), var( pair_i.getFirst() ) );
+        String lockConstraint = solver.cOr( constraintUi_Lj, constraintUj_Li );
+        solver.writeConstraint( solver.postNamedAssert( lockConstraint, "LC" ) );
+        Stats.numLockConstraints.incrementAndGet();
+        disjunctive = true;
+    }
+
+    /**
+     * Adds the constraint stating that a locking pair happens before another one on the same locking object, when
+     * the other happens-before constraints rule out the opposite order.
+     */
+    private void addLockOrder( CausalPair<SyncEvent, SyncEvent> first, CausalPair<SyncEvent, SyncEvent> second )
+                    throws IOException
+    {
+        assertOrder( first.getSecond(), second.getFirst(), "LC" );
+        Stats.numLockPairsDecided.incrementAndGet();
+    }
+
+    private void genForkStartConstraints()
+                    throws IOException
+    {
+        logStep( "Add fork-start constraints" );
+        String tagFRK_STR = "FS_";
+        int counterFRK_STR = 0;
+        solver.writeComment( "FORK-START CONSTRAINTS" );
+        for ( List<ThreadCreationEvent> l : trace.forkEvents.values() )
+        {
+            for ( ThreadCreationEvent forkevent : l )
+            {
+                if ( !inModel( forkevent ) )
+                    continue;
+
+                if ( !addForkConstraint( forkevent, tagFRK_STR + counterFRK_STR ) )
+                    pendingForks.add( forkevent );
+                else
+                    counterFRK_STR++;
+            }
+        }
+    }
+
+    /**
+     * Adds the constraint stating that a fork happens before the start of its child thread.
+     *
+     * @return true if the constraint was added, false if the child thread has not started yet (in the events
+     * encoded so far).
+     */
+    private boolean addForkConstraint( ThreadCreationEvent forkevent, String label )
+                    throws IOException
+    {
+        Event startEvent = allEvents.get( "START_" + forkevent.getChildThread() );
+        if ( startEvent == null )
+            return false;
+
+        checkForward( startEvent );
+        addCrossEdge( forkevent, startEvent );
+        assertOrder( forkevent, startEvent, label );
+        //set dependency
+        startEvent.setDependency( forkevent );
+        return true;
+    }
+
+    private void genJoinExitConstraints()
+                    throws IOException
+    {
+        logStep( "Add join-exit constraints" );
+        solver.writeComment( "JOIN-END CONSTRAINTS" );
+        String tagJOIN_END = "JE_";
+        int counterJOIN_END = 0;
+        for ( List<ThreadCreationEvent> l : trace.joinEvents.values() )
+        {
+            for ( ThreadCreationEvent joinEvent : l )
+            {
+                String childThread = joinEvent.getChildThread();
+                if ( inModel( joinEvent ) && trace.eventsPerThread.containsKey( childThread ) )
+                {
+                    addJoinConstraint( joinEvent, tagJOIN_END + counterJOIN_END++ );
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the constraint stating that the last event of a thread happens before the join of that thread.
+     */
+    private void addJoinConstraint( ThreadCreationEvent joinEvent, String label )
+                    throws IOException
+    {
+        Event endEvent = trace.eventsPerThread.get( joinEvent.getChildThread() ).last();
+        assertOrder( endEvent, joinEvent, label );
+        //set dependency
+        joinEvent.setDependency( endEvent );
+        addCrossEdge( endEvent, joinEvent );
+    }
+
+    private void genWaitNotifyConstraints()
+                    throws IOException
+    {
+        logStep( "Add wait-notify constraints" );
+        solver.writeComment( "WAIT-NOTIFY CONSTRAINTS" );
+        for ( String carried : carriedNotifies.values() )
+        {
+            solver.writeConstraint( solver.declareIntVar( carried ) );
+        }
+        //for a given condition, each notify can be mapped to any wait
+        //but a wait can only have a single notify
+        for ( String condition : trace.waitEvents.keySet() )
+        {
+            for ( SyncEvent wait : trace.waitEvents.get( condition ) )
+            {
+                //the waits and notifies on the same condition belong to the same component
+                if ( !inModel( wait ) )
+                    continue;
+
+                addWaitConstraint( condition, wait );
+            }
+        }
+
+        //add constraints stating that a given notify can only be mapped to a single wait operation
+        for ( SyncEvent notify : binaryVars.keySet() )
+        {
+            addNotifyConstraint( notify );
+        }
+    }
+
+    /**
+     * Adds the constraint stating that a wait is matched with one of the notifies on the same condition, unless
+     * there is none it can be matched with (e.g. its notify was not traced).
+     *
+     * @return the notifies that the wait can be matched with.
+     */
+    private List<SyncEvent> addWaitConstraint( String condition, SyncEvent wait )
+                    throws IOException
+    {
+        StringBuilder globalOr = new StringBuilder();
+
+        List<SyncEvent> notifies = candidateNotifies( condition, wait );
+        Stats.numWaitPairs.addAndGet( notifies.size() );
+        for ( SyncEvent notify : notifies )
+        {
+            //binary var used to indicate whether the signal operation is mapped to a wait operation or not
+            String binVar = compactNames ?
+                            ( "b" + var( wait ) + var( notify ) ) :
+                            ( "B_" + condition + "-W_" + wait.getThread() + "_" + wait.getEventId() + "-N_"
+                                            + notify.getThread() + "_" + notify.getEventId() );
+
+            if ( !binaryVars.containsKey( notify ) )
+            {
+                binaryVars.put( notify, new HashSet<String>() );
+            }
+            binaryVars.get( notify ).add( binVar );
+
+            //const: Oa_sg < Oa_wt && b^{a_sg}_{a_wt} = 1
+            globalOr.append( solver.cAnd( solver.cLt( var( notify ), var( wait ) ),
+                                          solver.cEq( binVar, "1" ) ) );
+            solver.writeConstraint( solver.declareIntVar( binVar, 0, 1 ) );
+        }
+        //a notify of a previous model always precedes a wait whose clock is higher
+        String carried = carriedNotifies.get( condition );
+        if ( carried != null )
+        {
+            globalOr.append( solver.cLt( carried, var( wait ) ) );
+        }
+        else if ( notifies.isEmpty() )
+        {
+            //an empty disjunction would make the model unsat, so the wait is left unconstrained instead
+            logger.warn( "No notify can be matched with " + wait + ", leaving it unconstrained" );
+            return notifies;
+        }
+        solver.writeConstraint( solver.postNamedAssert( solver.cOr( globalOr.toString() ), "WN" ) );
+        disjunctive = true;
+        return notifies;
+    }
+
+    /**
+     * Returns the notifies on a condition that a wait can be matched with: those that the other constraints do
+     * not order after the wait and, with a wait-notify window, that are within the window (see
+     * setWaitNotifyWindow).
+     */
+    private List<SyncEvent> candidateNotifies( String condition, SyncEvent wait )
+    {
+        List<SyncEvent> notifies = trace.notifyEvents.get( condition );
+        if ( notifies == null )
+            return Collections.emptyList();
+
+        List<SyncEvent> candidates = new ArrayList<SyncEvent>();
+        List<SyncEvent> inWindow = new ArrayList<SyncEvent>();
+        for ( SyncEvent notify : notifies )
+        {
+            if ( happensBefore != null && happensBefore.happensBefore( wait, notify ) )
+            {
+                Stats.numWaitPairsPruned.incrementAndGet();
+                continue;
+            }
+            candidates.add( notify );
+            if ( waitNotifyWindow > 0 && inWindow( notify, wait ) )
+                inWindow.add( notify );
+        }
+        if ( inWindow.isEmpty() )
+            return candidates;
+
+        Stats.numWaitPairsOutOfWindow.addAndGet( candidates.size() - inWindow.size() );
+        return inWindow;
+    }
+
+    /**
+     * Indicates whether a notify is within the wait-notify window of a wait. Timestamps of different nodes come
+     * from different clocks, so notifies of other nodes always are.
+     */
+    private boolean inWindow( SyncEvent notify, SyncEvent wait )
+    {
+        if ( !notify.getNodeId().equals( wait.getNodeId() ) )
+            return true;
+        long elapsed = wait.getTimestampValue() - notify.getTimestampValue();
+        return elapsed >= 0 && elapsed <= waitNotifyWindow;
+    }
+
+    /**
+     * Adds the constraint stating that a notify is matched with at most one wait (any number for notifyAll).
+     */
+    private void addNotifyConstraint( SyncEvent notify )
+                    throws IOException
+    {
+        //for notifyAll, we don't constrain the number of waits that can be matched with this notify
+        if ( notify.getType() == EventType.NOTIFYALL )
+        {
+            //const: Sum_{x \in WT} b^{a_sg}_{x} >= 0
+            solver.writeConstraint( solver.postNamedAssert(
+                            solver.cGeq( solver.cSummation( binaryVars.get( notify ) ), "0" ), "WN" ) );
+        }
+        else
+        {
+            //const: Sum_{x \in WT} b^{a_sg}_{x} <= 1
+            solver.writeConstraint( solver.postNamedAssert(
+                            solver.cLeq( solver.cSummation( binaryVars.get( notify ) ), "1" ), "WN" ) );
+        }
+    }
+
+    /**
+     * Objective function consists in minimizing the order (logical timestamp) of each event
+     * in such a way that preserves the happens-before constraint
+     *
+     * @throws IOException
+     */
+    private void genCausalOrderFunction()
+                    throws IOException
+    {
+        logStep( "Add causality objective function" );
+        solver.writeComment( "CAUSALITY OBJECTIVE FUNCTION" );
+        minimize( solverEvents() );
+    }
+
+    private void minimize( Collection<Event> events )
+                    throws IOException
+    {
+        //the sum has one term per event, so it is streamed to the solver instead of using cSummation
+        solver.openExpression( "minimize" );
+        solver.openExpression( "+" );
+        for ( Event event : events )
+        {
+            //events left out of the solver count as many times as the clock of the event before them
+            Integer skipped = localEventsAfter.get( event );
+            solver.writeTerm( skipped == null ? var( event ) : solver.cMult( String.valueOf( skipped + 1 ), var( event ) ) );
+        }
+        solver.closeExpression();
+        solver.closeExpression();
+        solver.endConstraint();
+    }
+
+    /**
+     * Returns the name of the solver variable that represents an event. Variables are named after the event
+     * (Event.toString) or, when using compact names, "e" followed by a number assigned to the event.
+     *
+     * @param e the event.
+     * @return the name of the event's variable.
+     */
+    private String var( Event e )
+    {
+        if ( !compactNames )
+            return e.toString();
+
+        Integer index = eventVariables.get( e );
+        if ( index == null )
+        {
+            index = eventVariables.size();
+            eventVariables.put( e, index );
+        }
+        return VAR_PREFIX + index;
+    }
+
+    /**
+     * Augment each event with the corresponding logical clock found by the solver. The clocks of all events are
+     * requested from the solver at once, and returned in the order in which the events were requested.
+     *
+     * @throws IOException if the clocks cannot be obtained from the solver.
+     */
+    private void parseSolverOutput()
+                    throws IOException
+    {
+        parseSolverOutput( solverEvents() );
+        if ( !reducedTimelines.isEmpty() )
+            fillLocalClocks();
+    }
+
+    /**
+     * Returns the events encoded in the solver.
+     */
+    private Collection<Event> solverEvents()
+    {
+        if ( localEvents.isEmpty() )
+            return allEvents.values();
+
+        List<Event> events = new ArrayList<Event>( allEvents.size() - localEvents.size() );
+        for ( Event e : allEvents.values() )
+        {
+            if ( !localEvents.contains( e ) )
+                events.add( e );
+        }
+        return events;
+    }
+
+    /**
+     * Augments the events left out of the solver with the clock of the event before them plus one.
+     */
+    private void fillLocalClocks()
+    {
+        for ( SortedSet<Event> timeline : reducedTimelines )
+        {
+            //the timeline is sorted by schedule order after its timestamp, so it is copied before the clocks change
+            long clock = 0;
+            for ( Event e : new ArrayList<Event>( timeline ) )
+            {
+                if ( localEvents.contains( e ) )
+                    e.setScheduleOrder( (int) ++clock );
+                else
+                    clock = e.getScheduleOrder();
+            }
+        }
+    }
+
+    private void parseSolverOutput( Collection<Event> clockEvents )
+                    throws IOException
+    {
+        List<Event> events = new ArrayList<Event>( clockEvents );
+        List<String> vars = new ArrayList<String>( events.size() );
+        for ( Event e : events )
+        {
+            vars.add( var( e ) );
+        }
+
+        int[] orders = solver.getValues( vars );
+        for ( int i = 0; i < orders.length; i++ )
+        {
+            if ( segments )
+                clocks.put( events.get( i ), orders[i] );
+            else
+                events.get( i ).setScheduleOrder( orders[i] );
+        }
+    }
+
+    /**
+     * Augments the events of a model extended with segments with the clocks found so far. Until then, the clocks
+     * are kept apart, as the timelines of the trace, which are sorted by timestamp and then by schedule order,
+     * must not change while events are appended to the trace.
+     *
+     * @return void
+     */
+    public void applyClocks()
+    {
+        for ( Event e : allEvents.values() )
+        {
+            Integer clock = clocks.get( e );
+            if ( clock != null )
+                e.setScheduleOrder( clock );
+        }
+    }
+}
@@ -1,37 +1,43 @@
 package pt.haslab.causalSolver;
 
-import org.apache.commons.lang3.ObjectUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pt.haslab.causalSolver.solver.HappensBeforeSolver;
 import pt.haslab.causalSolver.solver.Solver;
 import pt.haslab.causalSolver.solver.Z3Solver;
 import pt.haslab.causalSolver.stats.Stats;
 import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.analysis.DataRace;
+import pt.haslab.taz.analysis.MessageRace;
+import pt.haslab.taz.analysis.MessageRaceDetector;
+import pt.haslab.taz.analysis.RaceDetector;
 import pt.haslab.taz.causality.CausalPair;
-import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.causality.VectorClocks;
 import pt.haslab.taz.events.Event;
-import pt.haslab.taz.events.EventType;
-import pt.haslab.taz.events.SocketEvent;
 import pt.haslab.taz.events.SyncEvent;
-import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.io.JSONEventWriter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by nunomachado on 30/03/17.
@@ -50,18 +56,44 @@ public class CausalSolver
     //event trace processor
     public static TraceProcessor trace;
 
-    //solver stuff
-    public static Solver solver;
-
     public static HashMap<String, Event> allEvents; //map: string (event.toString) -> Event object
 
+    private static boolean compactNames;
+
+    private static boolean lockTimestampOrder;
+
+    private static long waitNotifyWindow;
+
+    private static boolean reduceLocalEvents;
+
+    //components with fewer events are solved together, to avoid launching a solver per tiny component
+    private static final int MIN_EVENTS_PER_MODEL = 1000;
+
+    //each model scans the causal pairs of the whole trace, so components are packed into a few models per worker
+    private static final int MODELS_PER_WORKER = 4;
+
     //command line config
     public enum Parameters
     {
         EVENT_FILE( "event-file" ),
         SOLVER( "solver-bin" ),
         OUTPUT( "output-file" ),
-        GOAL_TS( "use-timestamp" );
+        OUTPUT_FORMAT( "output-format" ),
+        GOAL_TS( "use-timestamp" ),
+        SNAPSHOT( "trace-snapshot" ),
+        NATIVE_SOLVER( "native-solver" ),
+        COMPACT_NAMES( "compact-names" ),
+        SOLVER_WORKERS( "solver-workers" ),
+        WINDOW_EVENTS( "window-events" ),
+        WINDOW_MILLIS( "window-millis" ),
+        APPEND_FILES( "append-files" ),
+        LOCK_TIMESTAMP_ORDER( "lock-timestamp-order" ),
+        WAIT_NOTIFY_WINDOW( "wait-notify-window" ),
+        REDUCE_LOCAL_EVENTS( "reduce-local-events" ),
+        WRITE_MODEL( "write-model" ),
+        VECTOR_CLOCKS( "vector-clocks" ),
+        DATA_RACES( "data-races" ),
+        MESSAGE_RACES( "message-races" );
 
         private final String desc;
 
@@ -91,30 +123,42 @@ public class CausalSolver
                 props.load( is );
 
                 parseParameters( args );
+                compactNames = props.getProperty( Parameters.COMPACT_NAMES.toString(), "true" ).equals( "true" );
+                lockTimestampOrder = props.getProperty( Parameters.LOCK_TIMESTAMP_ORDER.toString(), "false" )
+                                          .equals( "true" );
+                waitNotifyWindow = Long.parseLong( props.getProperty( Parameters.WAIT_NOTIFY_WINDOW.toString(), "0" ) );
+                reduceLocalEvents = props.getProperty( Parameters.REDUCE_LOCAL_EVENTS.toString(), "true" )
+                                         .equals( "true" );
 
                 //populate data structures
                 String traceFile = props.getProperty( Parameters.EVENT_FILE.toString() );
-                trace = TraceProcessor.INSTANCE;
+                // timelines are only read after loading the whole trace
+                boolean useSnapshots = props.getProperty( Parameters.SNAPSHOT.toString(), "false" ).equals( "true" );
+                trace = TraceProcessor.builder().appendSortedTimelines( true ).useSnapshots( useSnapshots ).build();
                 trace.loadEventTrace( traceFile );
                 Stats.numEventsTrace = trace.getNumberOfEvents();
 
-                //build constraint model with causality constraints
-                initSolver();
-                long modelStart = System.currentTimeMillis();
-                buildConstraintModel();
-                Stats.buildingModeltime = System.currentTimeMillis() - modelStart;
+                //build and solve the constraint model(s) with causality constraints
+                int workers = Integer.parseInt( props.getProperty( Parameters.SOLVER_WORKERS.toString(), "1" ) );
+                int windowEvents = Integer.parseInt( props.getProperty( Parameters.WINDOW_EVENTS.toString(), "0" ) );
+                long windowMillis = Long.parseLong( props.getProperty( Parameters.WINDOW_MILLIS.toString(), "0" ) );
+                String appendFiles = props.getProperty( Parameters.APPEND_FILES.toString(), "" ).trim();
+                boolean result;
+                if ( !appendFiles.isEmpty() )
+                    result = solveSegments( appendFiles.split( "," ) );
+                else if ( windowEvents > 0 || windowMillis > 0 )
+                    result = solveWindows( windowEvents, windowMillis );
+                else
+                    result = workers > 1 ? solveComponents( workers ) : solveTrace();
 
-                //solve model
-                logger.info( "Start constraint solving..." );
-                long solvingStart = System.currentTimeMillis();
-                boolean result = solver.solveModel();
-                Stats.solvingTime = System.currentTimeMillis() - solvingStart;
+                // races only depend on the causal pairs of the trace, so they are reported even if unsat
+                if ( props.getProperty( Parameters.DATA_RACES.toString(), "false" ).equals( "true" ) )
+                    reportDataRaces();
+                if ( props.getProperty( Parameters.MESSAGE_RACES.toString(), "false" ).equals( "true" ) )
+                    reportMessageRaces();
 
-                //parse solver's output and obtain causal order
                 if ( result )
                 {
-                    parseSolverOutput();
-
                     //generate JSON file with events causally ordered
                     outputCausalOrderJSON();
 
@@ -122,8 +166,6 @@ public class CausalSolver
                 }
                 else
                     logger.info( "unsat" );
-
-                solver.close();
             }
         }
         catch ( FileNotFoundException e )
@@ -136,353 +178,434 @@ public class CausalSolver
         }
     }
 
-    public static void initSolver()
+    /**
+     * Creates a solver for a model, according to the configuration.
+     *
+     * @param modelFile the file to which Z3 writes a copy of the model, unless disabled in the configuration.
+     * @return a new solver, already initiated.
+     * @throws IOException
+     */
+    public static Solver newSolver( String modelFile )
                     throws IOException
     {
         String solverPath = props.getProperty( Parameters.SOLVER.toString() ); //set up solver path
-        logger.info( "Initiate solver: " + solverPath );
-        solver = Z3Solver.getInstance();
+        boolean useNativeSolver = props.getProperty( Parameters.NATIVE_SOLVER.toString(), "false" ).equals( "true" );
+        if ( !props.getProperty( Parameters.WRITE_MODEL.toString(), "true" ).equals( "true" ) )
+            modelFile = null;
+        // the native solver only falls back to Z3 for models that are not plain happens-before graphs
+        Solver solver = useNativeSolver ? new HappensBeforeSolver( new Z3Solver( modelFile ) ) : new Z3Solver( modelFile );
         solver.init( solverPath );
+        return solver;
     }
 
-    public static void buildConstraintModel()
+    /**
+     * Builds and solves a single constraint model with all the events in the trace.
+     *
+     * @return true if the model is satisfiable, false otherwise.
+     * @throws IOException
+     */
+    public static boolean solveTrace()
                     throws IOException
     {
-        genProgramOrderConstraints();
-        genCommunicationConstraints();
-        genForkStartConstraints();
-        genJoinExitConstraints();
-        genLockingConstraints();
-        genWaitNotifyConstraints();
-        boolean useTimestamps = props.getProperty( Parameters.GOAL_TS.toString() ).equals( "true" );
-        if ( useTimestamps )
-        {
-            genTimestampConstraints();
-        }
-        genCausalOrderFunction();
+        logger.info( "Initiate solver: " + props.getProperty( Parameters.SOLVER.toString() ) );
+        Iterable<Event> timestampOrder = useTimestamps() ? trace.sortedByTimestamp : null;
+        CausalModel model = new CausalModel( trace, null, timestampOrder, newSolver( "model.txt" ), compactNames );
+        model.setLockTimestampOrder( lockTimestampOrder );
+        model.setWaitNotifyWindow( waitNotifyWindow );
+        model.setReduceLocalEvents( reduceLocalEvents );
+
+        long modelStart = System.currentTimeMillis();
+        model.buildConstraintModel();
+        Stats.buildingModeltime = System.currentTimeMillis() - modelStart;
+
+        //solve model
+        logger.info( "Start constraint solving..." );
+        long solvingStart = System.currentTimeMillis();
+        boolean result = model.solve();
+        Stats.solvingTime = System.currentTimeMillis() - solvingStart;
+
+        allEvents.putAll( model.getEvents() );
+        model.close();
+        return result;
     }
 
     /**
-     * Generates soft constraints that attempt to order the events of the different threads according to the
-     * original timestamp order.
+     * Builds and solves a single constraint model with all the events in the trace, and then extends it with the
+     * events of each appended file, in order. The solver is kept alive between segments: each segment only adds
+     * the constraints of its new events in a solver scope (push), and only the clocks that may have changed are
+     * read back. If a segment is unsat, its scope is discarded (pop) and the order of the previous segments is kept.
+     *
+     * @param appendFiles the files with the events that follow the trace, in order.
+     * @return true if the model of the trace is satisfiable, false otherwise.
+     * @throws JSONException if an appended file is malformed.
      * @throws IOException
      */
-    private static void genTimestampConstraints()
-                    throws IOException
+    public static boolean solveSegments( String[] appendFiles )
+                    throws JSONException, IOException
     {
-        logger.info( "Add timestamp constraints" );
-        String tagTS = "TS_";
-        int counterTS = 0;
-        solver.writeComment( "TIMESTAMP CONSTRAINTS" );
-
-
-        Iterator<Event> timestampIt = trace.sortedByTimestamp.iterator();
-        if( !timestampIt.hasNext() )
-            return;
-
-        Event event_i = timestampIt.next();
-        Event event_j;
-
-        /*
-         Iterate through all events and add constraints only for contiguous events that belong to different threads.
-        */
-        while( timestampIt.hasNext() )
+        logger.info( "Initiate solver: " + props.getProperty( Parameters.SOLVER.toString() ) );
+        Iterable<Event> timestampOrder = useTimestamps() ? trace.sortedByTimestamp : null;
+        CausalModel model = new CausalModel( trace, null, timestampOrder, newSolver( "model.txt" ), compactNames );
+        model.setLockTimestampOrder( lockTimestampOrder );
+        model.setWaitNotifyWindow( waitNotifyWindow );
+        model.setReduceLocalEvents( reduceLocalEvents );
+        try
         {
-            event_j = timestampIt.next();
-
-            if( !event_j.getThread().equals( event_i.getThread() ) )
+            model.enableSegments();
+            long modelStart = System.currentTimeMillis();
+            model.buildConstraintModel();
+            Stats.buildingModeltime = System.currentTimeMillis() - modelStart;
+
+            logger.info( "Start constraint solving..." );
+            long solvingStart = System.currentTimeMillis();
+            boolean result = model.solve();
+            Stats.solvingTime = System.currentTimeMillis() - solvingStart;
+            if ( !result )
+                return false;
+
+            for ( String appendFile : appendFiles )
             {
-                String tsConstraint = event_i.toString() + " " + event_j.toString();
-                solver.writeConstraint( solver.postNamedSoftAssert( solver.cLt( tsConstraint ), tagTS + counterTS++ ) );
-
-                // update event pointers
-                event_i = event_j;
+                long segmentStart = System.currentTimeMillis();
+                trace.appendEventTrace( appendFile.trim() );
+                Stats.numEventsTrace = trace.getNumberOfEvents();
+                int numEvents = model.addSegment();
+                if ( !model.solveSegment() )
+                {
+                    logger.info( "Segment " + appendFile + " is unsat, keeping the order of the previous segments" );
+                    model.discardSegment();
+                    break;
+                }
+                long segmentTime = System.currentTimeMillis() - segmentStart;
+                Stats.numSegments++;
+                Stats.segmentsTime += segmentTime;
+                logger.info( "Added segment " + appendFile + " with " + numEvents + " events in " + segmentTime + " ms" );
             }
         }
+        finally
+        {
+            model.applyClocks();
+            allEvents.putAll( model.getEvents() );
+            model.close();
+        }
+        return true;
     }
 
-    public static void genProgramOrderConstraints()
+    /**
+     * Splits the trace into groups of threads with no constraints among them and solves the model of each group
+     * with its own solver, using at most the given number of worker threads. The logical clocks of the different
+     * models are independent, so they are merged by simply ordering all events by their clocks.
+     *
+     * @param workers maximum number of models solved at the same time.
+     * @return true if all the models are satisfiable, false otherwise.
+     * @throws IOException
+     */
+    public static boolean solveComponents( int workers )
                     throws IOException
     {
-        logger.info( "Add program order constraints" );
-        String tagPO = "PO_";
-        int counterPO = 0;
-        int max = 0;
-        for ( SortedSet<Event> l : trace.eventsPerThread.values() )
+        long start = System.currentTimeMillis();
+        // timelines are sorted here, as they are read concurrently by the models
+        int minEventsPerModel = (int) Math.max( MIN_EVENTS_PER_MODEL, Stats.numEventsTrace / ( workers * MODELS_PER_WORKER ) );
+        List<Set<String>> groups = ConstraintComponents.partition( trace, minEventsPerModel );
+        if ( groups.size() <= 1 )
         {
-            max += l.size();
+            logger.info( "The constraint model has a single component" );
+            return solveTrace();
         }
+        Stats.numModels = groups.size();
+        logger.info( "Solve " + groups.size() + " independent models with " + workers + " workers" );
 
-        //generate program order variables and constraints
-        for ( SortedSet<Event> events : trace.eventsPerThread.values() )
+        // split the timestamp order by model, instead of having each model scan the events of the whole trace
+        List<List<Event>> timestampOrders = null;
+        if ( useTimestamps() )
         {
-            if ( !events.isEmpty() )
+            Map<String, List<Event>> orderPerThread = new HashMap<String, List<Event>>();
+            timestampOrders = new ArrayList<List<Event>>( groups.size() );
+            for ( Set<String> group : groups )
+            {
+                List<Event> order = new ArrayList<Event>();
+                timestampOrders.add( order );
+                for ( String thread : group )
+                    orderPerThread.put( thread, order );
+            }
+            for ( Event e : trace.sortedByTimestamp )
             {
-                solver.writeComment( "PROGRAM ORDER CONSTRAINTS - THREAD " + events.first().getThread() );
-                String threadOrder = "";
-                for ( Event e : events )
+                orderPerThread.get( e.getThread() ).add( e );
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool( Math.min( workers, groups.size() ) );
+        List<Future<CausalModel>> results = new ArrayList<Future<CausalModel>>( groups.size() );
+        for ( int i = 0; i < groups.size(); i++ )
+        {
+            final Set<String> threads = groups.get( i );
+            final Iterable<Event> timestampOrder = timestampOrders == null ? null : timestampOrders.get( i );
+            final String modelFile = "model_" + i + ".txt";
+            results.add( pool.submit( new Callable<CausalModel>()
+            {
+                public CausalModel call()
+                                throws IOException
                 {
-                    String var = solver.declareIntVar( e.toString(), "0", String.valueOf( max ) );
-                    solver.writeConstraint( var );
-                    threadOrder += ( e.toString() + " " );
+                    CausalModel model = new CausalModel( trace, threads, timestampOrder, newSolver( modelFile ),
+                                                         compactNames );
+                    model.setLockTimestampOrder( lockTimestampOrder );
+                    model.setWaitNotifyWindow( waitNotifyWindow );
+                    model.setReduceLocalEvents( reduceLocalEvents );
+                    try
+                    {
+                        model.buildConstraintModel();
+                        return model.solve() ? model : null;
+                    }
+                    finally
+                    {
+                        model.close();
+                    }
+                }
+            } ) );
+        }
+        pool.shutdown();
 
-                    //store event in allEvents
-                    allEvents.put( e.toString(), e );
+        boolean result = true;
+        try
+        {
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                CausalModel model = results.get( i ).get();
+                if ( model == null )
+                {
+                    logger.info( "Model of threads " + groups.get( i ) + " is unsat" );
+                    result = false;
                 }
-                if ( events.size() > 1 )
+                else
                 {
-                    solver.writeConstraint( solver.postNamedAssert( solver.cLt( threadOrder ), tagPO + counterPO++ ) );
+                    allEvents.putAll( model.getEvents() );
                 }
             }
         }
-    }
+        catch ( InterruptedException e )
+        {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while solving the models", e );
+        }
+        catch ( ExecutionException e )
+        {
+            pool.shutdownNow();
+            if ( e.getCause() instanceof IOException )
+                throw (IOException) e.getCause();
+            throw new IOException( "Failed to solve a model", e.getCause() );
+        }
 
-    private static void addSndRcvConstraint(SocketEvent currentSnd,
-                                     SocketEvent currentRcv,
-                                     String tagSND_RCV,
-                                     int counterSND_RCV) throws IOException
-    {
-        currentRcv.addDependency( currentSnd );
-        String msgConstraint = solver.cLt( currentSnd.toString(), currentRcv.toString() );
-        solver.writeConstraint( solver.postNamedAssert( msgConstraint, tagSND_RCV + counterSND_RCV ) );
+        // models are built and solved concurrently, so only the overall time is meaningful
+        Stats.buildingModeltime = System.currentTimeMillis() - start;
+        return result;
     }
 
-    public static void genCommunicationConstraints()
+    /**
+     * Cuts the trace into windows (see TraceWindows) and solves them in order, each with its own solver. The clocks
+     * found for a window are carried into the next ones as lower bounds: the first event of each thread follows
+     * the thread's last event, the locking pairs on a variable follow the last unlock of that variable, and waits
+     * may be matched with the earliest notify on their condition. As every happens-before relation between
+     * windows goes forward, the clocks of all windows form a single, globally consistent order.
+     * Windows are pipelined: the model of the next window is built by another thread while a window is solved.
+     *
+     * @param maxEvents number of events after which a new window starts (0 for no limit).
+     * @param maxMillis time span after which a new window starts (0 for no limit).
+     * @return true if all the windows are satisfiable, false otherwise.
+     * @throws IOException
+     */
+    public static boolean solveWindows( int maxEvents, long maxMillis )
                     throws IOException
     {
-        logger.info( "Add communication constraints" );
-        String tagSND_RCV = "SR_";
-        int counterSND_RCV = 0;
-        solver.writeComment( "COMMUNICATION CONSTRAINTS - SEND / RECEIVE" );
-
-        for ( MessageCausalPair pair : trace.sndRcvPairs.values() )
+        long start = System.currentTimeMillis();
+        final List<TraceProcessor> windows = TraceWindows.split( trace, maxEvents, maxMillis );
+        Stats.numWindows = windows.size();
+        logger.info( "Solve the trace in " + windows.size() + " windows" );
+        if ( windows.isEmpty() )
+            return true;
+
+        // clocks carried into the next windows
+        Map<String, Long> lastClocks = new HashMap<String, Long>(); //map: thread -> clock of its last event
+        Map<String, Long> unlockClocks = new HashMap<String, Long>(); //map: lock variable -> clock of last unlock
+        Map<String, Long> notifyClocks = new HashMap<String, Long>(); //map: condition -> clock of first notify
+
+        // conditions with notifies in each window's predecessors, known before solving any window
+        final List<Set<String>> carriedConditions = new ArrayList<Set<String>>( windows.size() );
+        Set<String> notified = new HashSet<String>();
+        for ( TraceProcessor window : windows )
         {
-            if ( ObjectUtils.isEmpty(pair.getSndList()) && ObjectUtils.isEmpty(pair.getRcvList()) )
-                continue;
-
-            Iterator<SocketEvent> rcvIterator = pair.getRcvList().iterator();
-            Iterator<SocketEvent> sndIterator = pair.getSndList().iterator();
-
-            while(sndIterator.hasNext() && rcvIterator.hasNext())
+            Set<String> carried = new HashSet<String>( window.waitEvents.keySet() );
+            carried.retainAll( notified );
+            carriedConditions.add( carried );
+            for ( Map.Entry<String, List<SyncEvent>> entry : window.notifyEvents.entrySet() )
             {
-                SocketEvent currentSnd = sndIterator.next();
-                SocketEvent currentRcv = rcvIterator.next();
-                int bytesSnd = currentSnd.getSize();
-                int bytesRcv = currentRcv.getSize();
+                if ( !entry.getValue().isEmpty() )
+                    notified.add( entry.getKey() );
+            }
+        }
 
-                while( bytesSnd >= bytesRcv && bytesRcv > 0) {
-                    addSndRcvConstraint(currentSnd, currentRcv, tagSND_RCV, counterSND_RCV++);
+        ExecutorService builder = Executors.newSingleThreadExecutor();
+        // model being built for the next window, which must be closed if the loop ends early
+        Future<CausalModel> next = null;
+        try
+        {
+            next = buildWindow( builder, windows.get( 0 ), carriedConditions.get( 0 ), 0 );
+            for ( int i = 0; i < windows.size(); i++ )
+            {
+                CausalModel model = next.get();
+                next = ( i + 1 < windows.size() ) ?
+                                buildWindow( builder, windows.get( i + 1 ), carriedConditions.get( i + 1 ), i + 1 ) : null;
 
-                    bytesSnd -= bytesRcv;
-                    if(rcvIterator.hasNext())
+                TraceProcessor window = windows.get( i );
+                try
+                {
+                    // boundary clocks of the windows solved so far
+                    for ( Map.Entry<String, SortedSet<Event>> entry : window.eventsPerThread.entrySet() )
                     {
-                        currentRcv = rcvIterator.next();
-                        bytesRcv = currentRcv.getSize();
+                        Long clock = lastClocks.get( entry.getKey() );
+                        if ( clock != null )
+                            model.addLowerBound( entry.getValue().first(), clock + 1 );
                     }
-                    else
+                    for ( Map.Entry<String, List<CausalPair<SyncEvent, SyncEvent>>> entry : window.lockEvents.entrySet() )
                     {
-                        bytesRcv = 0;
+                        Long clock = unlockClocks.get( entry.getKey() );
+                        if ( clock == null )
+                            continue;
+                        for ( CausalPair<SyncEvent, SyncEvent> pair : entry.getValue() )
+                        {
+                            if ( pair.getFirst() != null )
+                                model.addLowerBound( pair.getFirst(), clock + 1 );
+                        }
                     }
-                }
-
-                while( bytesRcv >= bytesSnd && bytesSnd > 0) {
-                    addSndRcvConstraint(currentSnd, currentRcv, tagSND_RCV, counterSND_RCV++);
-
-                    bytesRcv -= bytesSnd;
-                    if(sndIterator.hasNext())
+                    for ( String condition : carriedConditions.get( i ) )
                     {
-                        currentSnd = sndIterator.next();
-                        bytesSnd = currentSnd.getSize();
+                        model.setCarriedNotifyClock( condition, notifyClocks.get( condition ) );
                     }
-                    else
+
+                    if ( !model.solve() )
                     {
-                        bytesSnd = 0;
+                        logger.info( "Window " + i + " is unsat" );
+                        return false;
                     }
                 }
+                finally
+                {
+                    model.close();
+                }
+                allEvents.putAll( model.getEvents() );
 
-                if(!rcvIterator.hasNext() && bytesSnd > 0) {
-                    addSndRcvConstraint(currentSnd, currentRcv, tagSND_RCV, counterSND_RCV++);
+                // carry the clocks of this window into the next ones
+                for ( Map.Entry<String, SortedSet<Event>> entry : window.eventsPerThread.entrySet() )
+                {
+                    lastClocks.put( entry.getKey(), entry.getValue().last().getScheduleOrder() );
+                }
+                for ( Map.Entry<String, List<CausalPair<SyncEvent, SyncEvent>>> entry : window.lockEvents.entrySet() )
+                {
+                    for ( CausalPair<SyncEvent, SyncEvent> pair : entry.getValue() )
+                    {
+                        Long clock = unlockClocks.get( entry.getKey() );
+                        if ( pair.getSecond() != null && ( clock == null || pair.getSecond().getScheduleOrder() > clock ) )
+                            unlockClocks.put( entry.getKey(), pair.getSecond().getScheduleOrder() );
+                    }
+                }
+                for ( Map.Entry<String, List<SyncEvent>> entry : window.notifyEvents.entrySet() )
+                {
+                    for ( SyncEvent notify : entry.getValue() )
+                    {
+                        Long clock = notifyClocks.get( entry.getKey() );
+                        if ( clock == null || notify.getScheduleOrder() < clock )
+                            notifyClocks.put( entry.getKey(), notify.getScheduleOrder() );
+                    }
                 }
             }
         }
-
-        solver.writeComment( "COMMUNICATION CONSTRAINTS - CONNECT / ACCEPT" );
-        String tagCON_ACC = "CA_";
-        int counterCON_ACC = 0;
-        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.connAcptEvents.values() )
+        catch ( InterruptedException e )
         {
-            if ( pair.getFirst() != null && pair.getSecond() != null )
-            {
-                pair.getSecond().setDependency( pair.getFirst() );
-                String connAcptConstraint = solver.cLt( pair.getFirst().toString(), pair.getSecond().toString() );
-                solver.writeConstraint( solver.postNamedAssert( connAcptConstraint, tagCON_ACC + counterCON_ACC++ ) );
-            }
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while building the windows", e );
         }
-
-        solver.writeComment( "COMMUNICATION CONSTRAINTS - CLOSE / SHUTDOWN" );
-        String tagCLS_SHT = "CS_";
-        int counterCLS_SHT = 0;
-        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.closeShutEvents.values() )
+        catch ( ExecutionException e )
         {
-            if ( pair.getFirst() != null && pair.getSecond() != null )
-            {
-                pair.getSecond().setDependency( pair.getFirst() );
-                String closeShutdownConstraint = solver.cLt( pair.getFirst().toString(), pair.getSecond().toString() );
-                solver.writeConstraint( solver.postNamedAssert( closeShutdownConstraint, tagCLS_SHT + counterCLS_SHT++ ) );
-            }
+            if ( e.getCause() instanceof IOException )
+                throw (IOException) e.getCause();
+            throw new IOException( "Failed to build a window", e.getCause() );
+        }
+        finally
+        {
+            builder.shutdown();
+            discardWindow( next );
         }
+
+        // windows are built and solved concurrently, so only the overall time is meaningful
+        Stats.buildingModeltime = System.currentTimeMillis() - start;
+        return true;
     }
 
-    public static void genLockingConstraints()
-                    throws IOException
+    /**
+     * Builds the model of a window in the background.
+     */
+    private static Future<CausalModel> buildWindow( ExecutorService builder, final TraceProcessor window,
+                                                    final Set<String> carriedConditions, final int index )
     {
-        logger.info( "Add locking constraints" );
-        solver.writeComment( "LOCKING CONSTRAINTS" );
-        for ( String var : trace.lockEvents.keySet() )
+        return builder.submit( new Callable<CausalModel>()
         {
-            // for two lock/unlock pairs on the same locking object,
-            // one pair must be executed either before or after the other
-            ListIterator<CausalPair<SyncEvent, SyncEvent>> pairIterator_i =
-                            trace.lockEvents.get( var ).listIterator( 0 );
-            ListIterator<CausalPair<SyncEvent, SyncEvent>> pairIterator_j;
-
-            while ( pairIterator_i.hasNext() )
+            public CausalModel call()
+                            throws IOException
             {
-                CausalPair<SyncEvent, SyncEvent> pair_i = pairIterator_i.next();
-                //advance iterator to have two different pairs
-                pairIterator_j = trace.lockEvents.get( var ).listIterator( pairIterator_i.nextIndex() );
-
-                while ( pairIterator_j.hasNext() )
+                Iterable<Event> timestampOrder = useTimestamps() ? window.sortedByTimestamp : null;
+                CausalModel model = new CausalModel( window, null, timestampOrder, newSolver( "model_" + index + ".txt" ),
+                                                     compactNames );
+                boolean built = false;
+                try
                 {
-                    CausalPair<SyncEvent, SyncEvent> pair_j = pairIterator_j.next();
-
-                    //there is no need to add constraints for locking pairs of the same thread
-                    //as they are already encoded in the program order constraints
-                    if ( pair_i.getFirst().getThread().equals( pair_j.getFirst().getThread() ) )
-                        continue;
-
-                    // Ui < Lj || Uj < Li
-                    String constraintUi_Lj = solver.cLt( pair_i.getSecond().toString(), pair_j.getFirst().toString() );
-                    String constraintUj_Li = solver.cLt( pair_j.getSecond().toString(), pair_i.getFirst().toString() );
-                    String lockConstraint = solver.cOr( constraintUi_Lj, constraintUj_Li );
-                    solver.writeConstraint( solver.postNamedAssert( lockConstraint, "LC" ) );
+                    model.setLockTimestampOrder( lockTimestampOrder );
+                    model.setWaitNotifyWindow( waitNotifyWindow );
+                    model.setReduceLocalEvents( reduceLocalEvents );
+                    // clocks follow those of the previous windows, so they are only bounded by the size of the trace
+                    model.setMaxClock( (int) Stats.numEventsTrace );
+                    model.setCarriedNotifies( carriedConditions );
+                    model.buildConstraintModel();
+                    built = true;
+                    return model;
+                }
+                finally
+                {
+                    if ( !built )
+                        model.close();
                 }
             }
-        }
+        } );
     }
 
-    public static void genForkStartConstraints()
-                    throws IOException
+    /**
+     * Closes the solver of a window that will not be solved, once its model is built. The build is not cancelled,
+     * as a cancelled build that already started would still open a solver that nobody closes.
+     */
+    private static void discardWindow( Future<CausalModel> window )
     {
-        logger.info( "Add fork-start constraints" );
-        String tagFRK_STR = "FS_";
-        int counterFRK_STR = 0;
-        solver.writeComment( "FORK-START CONSTRAINTS" );
-        for ( List<ThreadCreationEvent> l : trace.forkEvents.values() )
+        if ( window == null )
+            return;
+
+        try
         {
-            for ( ThreadCreationEvent forkevent : l )
-            {
-                String startEvent = "START_" + forkevent.getChildThread();
-                String forkStartConstraint = solver.cLt( forkevent.toString(), startEvent );
-                solver.writeConstraint( solver.postNamedAssert( forkStartConstraint, tagFRK_STR + counterFRK_STR++ ) );
-                //set dependency
-                allEvents.get( startEvent ).setDependency( forkevent );
-            }
+            window.get().close();
         }
-    }
-
-    public static void genJoinExitConstraints()
-                    throws IOException
-    {
-        logger.info( "Add join-exit constraints" );
-        solver.writeComment( "JOIN-END CONSTRAINTS" );
-        String tagJOIN_END = "JE_";
-        int counterJOIN_END = 0;
-        for ( List<ThreadCreationEvent> l : trace.joinEvents.values() )
+        catch ( InterruptedException e )
         {
-            for ( ThreadCreationEvent joinEvent : l )
-            {
-                String childThread = joinEvent.getChildThread();
-                if ( trace.eventsPerThread.containsKey( childThread ) )
-                {
-                    Event endEvent = trace.eventsPerThread.get( joinEvent.getChildThread() ).last();
-                    String joinEndConstraint = solver.cLt( endEvent.toString(), joinEvent.toString() );
-                    solver.writeConstraint( solver.postNamedAssert( joinEndConstraint, tagJOIN_END + counterJOIN_END++ ) );
-                    //set dependency
-                    joinEvent.setDependency( endEvent );
-                }
-            }
+            Thread.currentThread().interrupt();
         }
-    }
-
-    public static void genWaitNotifyConstraints()
-                    throws IOException
-    {
-        logger.info( "Add wait-notify constraints" );
-        solver.writeComment( "WAIT-NOTIFY CONSTRAINTS" );
-        HashMap<SyncEvent, Set<String>> binaryVars =
-                        new HashMap<SyncEvent, Set<String>>(); //map: notify event -> list of all binary vars corresponding to that notify
-
-        //for a given condition, each notify can be mapped to any wait
-        //but a wait can only have a single notify
-        for ( String condition : trace.waitEvents.keySet() )
+        catch ( ExecutionException e )
         {
-            for ( SyncEvent wait : trace.waitEvents.get( condition ) )
-            {
-                StringBuilder globalOr = new StringBuilder();
-
-                for ( SyncEvent notify : trace.notifyEvents.get( condition ) )
-                {
-                    //binary var used to indicate whether the signal operation is mapped to a wait operation or not
-                    String binVar = "B_" + condition + "-W_" + wait.getThread() + "_" + wait.getEventId() + "-N_"
-                                    + notify.getThread() + "_" + notify.getEventId();
-
-                    if ( !binaryVars.containsKey( notify ) )
-                    {
-                        binaryVars.put( notify, new HashSet<String>() );
-                    }
-                    binaryVars.get( notify ).add( binVar );
-
-                    //const: Oa_sg < Oa_wt && b^{a_sg}_{a_wt} = 1
-                    globalOr.append( solver.cAnd( solver.cLt( notify.toString(), wait.toString() ),
-                                                  solver.cEq( binVar, "1" ) ) );
-                    solver.writeConstraint( solver.declareIntVar( binVar, 0, 1 ) );
-                }
-                solver.writeConstraint( solver.postNamedAssert( solver.cOr( globalOr.toString() ), "WN" ) );
-            }
+            // the build failed, and closed the model itself
         }
-
-        //add constraints stating that a given notify can only be mapped to a single wait operation
-        for ( SyncEvent notify : binaryVars.keySet() )
+        catch ( IOException e )
         {
-            //for notifyAll, we don't constrain the number of waits that can be matched with this notify
-            if ( notify.getType() == EventType.NOTIFYALL )
-            {
-                //const: Sum_{x \in WT} b^{a_sg}_{x} >= 0
-                solver.writeConstraint( solver.postNamedAssert(
-                                solver.cGeq( solver.cSummation( binaryVars.get( notify ) ), "0" ), "WN" ) );
-            }
-            else
-            {
-                //const: Sum_{x \in WT} b^{a_sg}_{x} <= 1
-                solver.writeConstraint( solver.postNamedAssert(
-                                solver.cLeq( solver.cSummation( binaryVars.get( notify ) ), "1" ), "WN" ) );
-            }
+            logger.warn( "Failed to close the solver of a discarded window: " + e.getMessage() );
         }
     }
 
-    /**
-     * Objective function consists in minimizing the order (logical timestamp) of each event
-     * in such a way that preserves the happens-before constraint
-     *
-     * @throws IOException
-     */
-    public static void genCausalOrderFunction()
-                    throws IOException
+    private static boolean useTimestamps()
     {
-        logger.info( "Add causality objective function" );
-        solver.writeComment( "CAUSALITY OBJECTIVE FUNCTION" );
-        solver.writeConstraint( solver.cMinimize( solver.cSummation( allEvents.keySet() ) ) );
+        return props.getProperty( Parameters.GOAL_TS.toString() ).equals( "true" );
     }
 
     /**
@@ -510,10 +633,70 @@ public class CausalSolver
             {
                 props.setProperty( Parameters.OUTPUT.toString(), value );
             }
+            else if ( flag.equals( option + Parameters.OUTPUT_FORMAT ) )
+            {
+                props.setProperty( Parameters.OUTPUT_FORMAT.toString(), value );
+            }
             else if ( flag.equals( option + Parameters.GOAL_TS ) )
             {
                 props.setProperty( Parameters.GOAL_TS.toString(), value );
             }
+            else if ( flag.equals( option + Parameters.SNAPSHOT ) )
+            {
+                props.setProperty( Parameters.SNAPSHOT.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.NATIVE_SOLVER ) )
+            {
+                props.setProperty( Parameters.NATIVE_SOLVER.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.COMPACT_NAMES ) )
+            {
+                props.setProperty( Parameters.COMPACT_NAMES.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.SOLVER_WORKERS ) )
+            {
+                props.setProperty( Parameters.SOLVER_WORKERS.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.WINDOW_EVENTS ) )
+            {
+                props.setProperty( Parameters.WINDOW_EVENTS.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.WINDOW_MILLIS ) )
+            {
+                props.setProperty( Parameters.WINDOW_MILLIS.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.APPEND_FILES ) )
+            {
+                props.setProperty( Parameters.APPEND_FILES.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.LOCK_TIMESTAMP_ORDER ) )
+            {
+                props.setProperty( Parameters.LOCK_TIMESTAMP_ORDER.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.WAIT_NOTIFY_WINDOW ) )
+            {
+                props.setProperty( Parameters.WAIT_NOTIFY_WINDOW.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.REDUCE_LOCAL_EVENTS ) )
+            {
+                props.setProperty( Parameters.REDUCE_LOCAL_EVENTS.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.WRITE_MODEL ) )
+            {
+                props.setProperty( Parameters.WRITE_MODEL.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.VECTOR_CLOCKS ) )
+            {
+                props.setProperty( Parameters.VECTOR_CLOCKS.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.DATA_RACES ) )
+            {
+                props.setProperty( Parameters.DATA_RACES.toString(), value );
+            }
+            else if ( flag.equals( option + Parameters.MESSAGE_RACES ) )
+            {
+                props.setProperty( Parameters.MESSAGE_RACES.toString(), value );
+            }
             else
             { //error - unkown input
                 System.err.print( "Wrong input: " + flag );
@@ -522,11 +705,60 @@ public class CausalSolver
                 System.err.println(
                                 "--output-file <path-to-output-file>\tSave the global, causally-ordered trace "
                                                 + "produced by Falcon. Default: 'trace-ordered.out'." );
+                System.err.println(
+                                "--output-format <json/ndjson>		Write the output as a single JSON array (=json) "
+                                                + "or with one event per line (=ndjson). Default: 'json'." );
                 System.err.println(
                                 "--use-timestamp <true/false>\t\tSolve the model according to the original event "
                                                 + "timestamps (=true) or to minimize the logical clocks (=false). "
                                                 + "Default: 'true'." );
                 System.err.println( "--solver-bin <path-to-solver-bin>\tPath to the Z3 binary. Default: 'z3'" );
+                System.err.println(
+                                "--trace-snapshot <true/false>\t\tReload the parsed trace from a snapshot next to the "
+                                                + "event file, or create it if missing. Default: 'false'." );
+                System.err.println(
+                                "--native-solver <true/false>\t\tSolve happens-before-only models in the JVM, using "
+                                                + "Z3 only for locking and wait-notify constraints. Default: 'false'." );
+                System.err.println(
+                                "--compact-names <true/false>\t\tName solver variables e0, e1, ... instead of after "
+                                                + "their events. Default: 'true'." );
+                System.err.println(
+                                "--solver-workers <n>\t\t\tSplit the model into independent components and solve "
+                                                + "them with up to n solvers in parallel (n > 1). Default: '1'." );
+                System.err.println(
+                                "--window-events <n>\t\t\tSolve the trace in consecutive windows of about n events "
+                                                + "(0 = no windows). Default: '0'." );
+                System.err.println(
+                                "--window-millis <ms>\t\t\tSolve the trace in consecutive windows spanning about ms "
+                                                + "milliseconds (0 = no windows). Default: '0'." );
+                System.err.println(
+                                "--append-files <f1,f2,...>\t\tAdd the events of each file, in order, to the solved "
+                                                + "trace, solving only their new constraints. Default: none." );
+                System.err.println(
+                                "--lock-timestamp-order <true/false>\tOrder the non-overlapping critical sections "
+                                                + "of each node by their timestamps instead of letting the solver "
+                                                + "choose. Default: 'false'." );
+                System.err.println(
+                                "--wait-notify-window <ms>\t\tOnly match waits with the notifies of the same node "
+                                                + "logged at most ms milliseconds before (0 = no limit). "
+                                                + "Default: '0'." );
+                System.err.println(
+                                "--reduce-local-events <true/false>\tLeave events that only take part in program "
+                                                + "order out of the solver when timestamps are not used, and derive "
+                                                + "their clocks afterwards. Default: 'true'." );
+                System.err.println(
+                                "--write-model <true/false>\t\tWrite a copy of each model sent to Z3 to a file "
+                                                + "(e.g. 'model.txt'). Default: 'true'." );
+                System.err.println(
+                                "--vector-clocks <true/false>\t\tAdd the vector clock of each event under "
+                                                + "happens-before to the output, next to its order. Default: 'false'." );
+                System.err.println(
+                                "--data-races <true/false>\t\tLog the data races of the trace: conflicting reads "
+                                                + "and writes not ordered by happens-before. Default: 'false'." );
+                System.err.println(
+                                "--message-races <true/false>\t\tLog the message races of the trace: RCV events "
+                                                + "on the same endpoint not ordered by happens-before. "
+                                                + "Default: 'false'." );
 
                 System.exit( 1 );
             }
@@ -534,79 +766,77 @@ public class CausalSolver
     }
 
     /**
-     * Augment each event with the corresponding logical clock output by Z3.
+     * Logs the data races of the trace, one per variable and pair of lines of code.
      */
-    public static void parseSolverOutput()
+    public static void reportDataRaces()
     {
-        String output = solver.readOutputLine();
-        while ( !output.equals( "" ) && !output.equals( ")" ) )
+        long start = System.currentTimeMillis();
+        Map<String, List<DataRace>> races = RaceDetector.detect( trace.getProcessedTrace() );
+        Stats.dataRacesTime = System.currentTimeMillis() - start;
+        Stats.numDataRaces = 0;
+        for ( List<DataRace> variableRaces : races.values() )
         {
-            logger.debug( output );
-
-            //it's an event - parse event reference and logical causal order
-            if ( output.contains( "(define-fun" ) )
-            {
-                String[] content = output.split( " " );
-                String var = content[3];
-
-                if ( var.startsWith( EventType.CREATE.toString() )
-                                || var.startsWith( EventType.START.toString() )
-                                || var.startsWith( EventType.END.toString() )
-                                || var.startsWith( EventType.JOIN.toString() )
-                                || var.startsWith( EventType.LOG.toString() )
-                                || var.startsWith( EventType.READ.toString() + "_" )
-                                || var.startsWith( EventType.WRITE.toString() + "_" )
-                                || var.startsWith( EventType.SND.toString() )
-                                || var.startsWith( EventType.RCV.toString() )
-                                || var.startsWith( EventType.CONNECT.toString() )
-                                || var.startsWith( EventType.ACCEPT.toString() )
-                                || var.startsWith( EventType.CLOSE.toString() )
-                                || var.startsWith( EventType.SHUTDOWN.toString() )
-                                || var.startsWith( EventType.HNDLBEG.toString() )
-                                || var.startsWith( EventType.HNDLEND.toString() )
-                                || var.startsWith( EventType.LOCK.toString() )
-                                || var.startsWith( EventType.UNLOCK.toString() )
-                                || var.startsWith( EventType.WAIT.toString() )
-                                || var.startsWith( EventType.NOTIFYALL.toString() )
-                                || var.startsWith( EventType.NOTIFY.toString() )
-                                )
-                {
-                    output = solver.readOutputLine().trim();
-                    int endPos = output.indexOf( ")" );
-                    int order = Integer.valueOf( output.substring( 0, endPos ) );
-
-                    if ( allEvents.containsKey( var ) )
-                        allEvents.get( var ).setScheduleOrder( order );
-                }
+            for ( DataRace race : variableRaces )
+            {
+                logger.info( "Data race on " + race );
+                Stats.numDataRaces++;
             }
-            else if ( output.contains( "error" ) )
-                logger.debug( output );
+        }
+    }
 
-            output = solver.readOutputLine();
+    /**
+     * Logs the message races of the trace, i.e. the pairs of RCV events on the same endpoint whose messages could be
+     * received in the other order.
+     */
+    public static void reportMessageRaces()
+    {
+        long start = System.currentTimeMillis();
+        Map<String, List<MessageRace>> races = MessageRaceDetector.detect( trace.getProcessedTrace() );
+        Stats.messageRacesTime = System.currentTimeMillis() - start;
+        Stats.numMessageRaces = 0;
+        for ( List<MessageRace> endpointRaces : races.values() )
+        {
+            for ( MessageRace race : endpointRaces )
+            {
+                logger.info( "Message race on " + race );
+                Stats.numMessageRaces++;
+            }
         }
     }
 
     /**
-     * Generate global ordered trace in JSON format
+     * Generate global ordered trace in JSON format. Events are streamed to the output file in schedule order, one at a
+     * time, either as a single JSON array or with one event per line.
      */
     public static void outputCausalOrderJSON()
     {
-        TreeSet<Event> orderedEvents = new TreeSet<Event>( allEvents.values() );
+        // events with the same schedule order are broken by Event.compareTo (thread, type, ...), so that the output
+        // does not depend on the iteration order of allEvents
+        Event[] orderedEvents = allEvents.values().toArray( new Event[allEvents.size()] );
+        Arrays.sort( orderedEvents );
+        VectorClocks clocks = null;
+        if ( props.getProperty( Parameters.VECTOR_CLOCKS.toString(), "false" ).equals( "true" ) )
+        {
+            long start = System.currentTimeMillis();
+            clocks = VectorClocks.compute( trace.getProcessedTrace() );
+            Stats.vectorClocksTime = System.currentTimeMillis() - start;
+            Stats.numClockEntries = clocks.getNumStoredEntries();
+        }
+        String outputFile = props.getProperty( Parameters.OUTPUT.toString() );
+        boolean lineDelimited = props.getProperty( Parameters.OUTPUT_FORMAT.toString(), "json" ).equals( "ndjson" );
+        JSONEventWriter writer = null;
         try
         {
-            String outputFile = props.getProperty( Parameters.OUTPUT.toString() );
-            FileWriter fileWriter = new FileWriter( new File( props.getProperty( Parameters.OUTPUT.toString() ) ) );
-            JSONArray jsonEvents = new JSONArray();
+            writer = new JSONEventWriter( new BufferedWriter( new FileWriter( new File( outputFile ) ), 1 << 16 ),
+                                          lineDelimited );
             for ( Event e : orderedEvents )
             {
-                JSONObject json = e.toJSONObject();
+                writer.write( e, clocks == null ? null : clocks.getClock( e ) );
                 if ( logger.isDebugEnabled() )
-                    logger.debug( json.toString() );
-                jsonEvents.put( json );
+                    logger.debug( e.toJSONObject().toString() );
             }
-            fileWriter.write( jsonEvents.toString() );
-            fileWriter.flush();
-            fileWriter.close();
+            writer.close();
+            writer = null;
 
             logger.info( "Output saved to: " + outputFile );
         }
@@ -618,5 +848,19 @@ public class CausalSolver
         {
             exc.printStackTrace();
         }
+        finally
+        {
+            if ( writer != null )
+            {
+                try
+                {
+                    writer.close();
+                }
+                catch ( IOException exc )
+                {
+                    logger.error( "Cannot close output file: " + exc.getMessage() );
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,230 @@
+package pt.haslab.causalSolver;
+
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * Splits the threads of a trace into the connected components of its constraint graph, i.e. into groups of threads
+ * that never exchange messages, connect, fork or join each other, lock the same variable or wait and notify on the
+ * same condition. As no constraint relates the events of different components, each component can be solved by
+ * itself and the logical clocks of all components merged afterwards.
+ */
+public class ConstraintComponents
+{
+    /* Map: thread -> index of the thread in the union-find forest */
+    private final Map<String, Integer> threadIds;
+
+    /* parent of each thread in the union-find forest */
+    private int[] parent;
+
+    private ConstraintComponents()
+    {
+        threadIds = new LinkedHashMap<String, Integer>();
+        parent = new int[16];
+    }
+
+    /**
+     * Computes the connected components of the constraint graph of a trace and packs them into groups to be solved
+     * as separate models. Components with fewer than minEventsPerModel events are packed together, so that traces
+     * with many tiny components do not launch a solver per component.
+     *
+     * @param trace the processed event trace.
+     * @param minEventsPerModel minimum number of events of a group of components (unless the trace is smaller).
+     * @return the groups of threads to be solved as separate models, largest first.
+     */
+    public static List<Set<String>> partition( TraceProcessor trace, int minEventsPerModel )
+    {
+        ConstraintComponents components = new ConstraintComponents();
+        components.unionConstraints( trace );
+
+        // gather the threads and number of events of each component
+        Map<Integer, Set<String>> threadsPerRoot = new LinkedHashMap<Integer, Set<String>>();
+        Map<Integer, Integer> eventsPerRoot = new HashMap<Integer, Integer>();
+        for ( Map.Entry<String, Integer> entry : components.threadIds.entrySet() )
+        {
+            int root = components.find( entry.getValue() );
+            Set<String> threads = threadsPerRoot.get( root );
+            if ( threads == null )
+            {
+                threads = new HashSet<String>();
+                threadsPerRoot.put( root, threads );
+                eventsPerRoot.put( root, 0 );
+            }
+            threads.add( entry.getKey() );
+            SortedSet<Event> events = trace.eventsPerThread.get( entry.getKey() );
+            if ( events != null )
+                eventsPerRoot.put( root, eventsPerRoot.get( root ) + events.size() );
+        }
+
+        final Map<Integer, Integer> sizes = eventsPerRoot;
+        List<Integer> roots = new ArrayList<Integer>( threadsPerRoot.keySet() );
+        Collections.sort( roots, new Comparator<Integer>()
+        {
+            public int compare( Integer r1, Integer r2 )
+            {
+                return sizes.get( r2 ).compareTo( sizes.get( r1 ) );
+            }
+        } );
+
+        // pack the components, largest first, into groups of at least minEventsPerModel events
+        List<Set<String>> groups = new ArrayList<Set<String>>();
+        Set<String> group = new HashSet<String>();
+        int groupEvents = 0;
+        for ( Integer root : roots )
+        {
+            group.addAll( threadsPerRoot.get( root ) );
+            groupEvents += sizes.get( root );
+            if ( groupEvents >= minEventsPerModel )
+            {
+                groups.add( group );
+                group = new HashSet<String>();
+                groupEvents = 0;
+            }
+        }
+        if ( !group.isEmpty() )
+            groups.add( group );
+
+        return groups;
+    }
+
+    /**
+     * Joins the threads related by any of the constraints of the model.
+     */
+    private void unionConstraints( TraceProcessor trace )
+    {
+        for ( String thread : trace.eventsPerThread.keySet() )
+        {
+            id( thread );
+        }
+
+        for ( MessageCausalPair pair : trace.sndRcvPairs.values() )
+        {
+            String first = null;
+            if ( pair.getSndList() != null )
+            {
+                for ( SocketEvent snd : pair.getSndList() )
+                    first = union( first, snd.getThread() );
+            }
+            if ( pair.getRcvList() != null )
+            {
+                for ( SocketEvent rcv : pair.getRcvList() )
+                    first = union( first, rcv.getThread() );
+            }
+        }
+
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.connAcptEvents.values() )
+        {
+            if ( pair.getFirst() != null && pair.getSecond() != null )
+                union( pair.getFirst().getThread(), pair.getSecond().getThread() );
+        }
+
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.closeShutEvents.values() )
+        {
+            if ( pair.getFirst() != null && pair.getSecond() != null )
+                union( pair.getFirst().getThread(), pair.getSecond().getThread() );
+        }
+
+        for ( List<ThreadCreationEvent> l : trace.forkEvents.values() )
+        {
+            for ( ThreadCreationEvent fork : l )
+                union( fork.getThread(), fork.getChildThread() );
+        }
+
+        for ( List<ThreadCreationEvent> l : trace.joinEvents.values() )
+        {
+            for ( ThreadCreationEvent join : l )
+                union( join.getThread(), join.getChildThread() );
+        }
+
+        for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : trace.lockEvents.values() )
+        {
+            String first = null;
+            for ( CausalPair<SyncEvent, SyncEvent> pair : pairs )
+            {
+                if ( pair.getFirst() != null )
+                    first = union( first, pair.getFirst().getThread() );
+                if ( pair.getSecond() != null )
+                    first = union( first, pair.getSecond().getThread() );
+            }
+        }
+
+        for ( Map.Entry<String, List<SyncEvent>> entry : trace.waitEvents.entrySet() )
+        {
+            String first = null;
+            for ( SyncEvent wait : entry.getValue() )
+                first = union( first, wait.getThread() );
+
+            List<SyncEvent> notifies = trace.notifyEvents.get( entry.getKey() );
+            if ( notifies != null )
+            {
+                for ( SyncEvent notify : notifies )
+                    first = union( first, notify.getThread() );
+            }
+        }
+    }
+
+    /**
+     * Returns the index of a thread, adding it to the forest if needed.
+     */
+    private int id( String thread )
+    {
+        Integer id = threadIds.get( thread );
+        if ( id == null )
+        {
+            id = threadIds.size();
+            threadIds.put( thread, id );
+            if ( id == parent.length )
+                parent = Arrays.copyOf( parent, id * 2 );
+            parent[id] = id;
+        }
+        return id;
+    }
+
+    private int find( int id )
+    {
+        while ( parent[id] != id )
+        {
+            // path halving
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Joins the components of two threads.
+     *
+     * @return the second thread, or the first one if the second is null, so that a list of threads can be
+     * joined by passing the result as the first thread of the next call.
+     */
+    private String union( String thread1, String thread2 )
+    {
+        if ( thread1 == null )
+            return thread2;
+        if ( thread2 == null )
+            return thread1;
+
+        int root1 = find( id( thread1 ) );
+        int root2 = find( id( thread2 ) );
+        if ( root1 != root2 )
+            parent[root1] = root2;
+        return thread2;
+    }
+}
@@ -0,0 +1,52 @@
+package pt.haslab.causalSolver;
+
+import pt.haslab.taz.causality.SparseClocks;
+import pt.haslab.taz.events.Event;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Happens-before relation given by the hard constraints of a model that involve no choice: the program order of
+ * each thread plus the edges between threads (messages, connect/accept, close/shutdown, fork/start and end/join).
+ * It is used to drop the locking constraints whose outcome these edges already decide.
+ *
+ * The relation is answered by the sparse vector clocks of taz (SparseClocks), which are only stored for the events
+ * with incoming edges from other threads, as deltas to the previous clock of the same thread.
+ */
+public class HappensBeforeIndex
+{
+    private final SparseClocks clocks;
+
+    private HappensBeforeIndex( SparseClocks clocks )
+    {
+        this.clocks = clocks;
+    }
+
+    /**
+     * Builds the index of a set of threads and the edges between their events.
+     *
+     * @param timelines the events of each thread, in program order.
+     * @param edges the edges between events of different threads, as a flat list of (from, to) pairs. Edges
+     *              with events not in the timelines are ignored.
+     * @return the index, or null if the edges form a cycle with the program order (the model is then unsat).
+     */
+    public static HappensBeforeIndex build( List<? extends Collection<Event>> timelines, List<Event> edges )
+    {
+        SparseClocks clocks = SparseClocks.build( timelines, edges, false );
+        return clocks == null ? null : new HappensBeforeIndex( clocks );
+    }
+
+    /**
+     * Indicates whether an event happens before another one, according to the indexed edges. Events that are not
+     * indexed (e.g. added to the model afterwards) are not ordered with any other.
+     *
+     * @param e1 the first event.
+     * @param e2 the second event.
+     * @return true if e1 happens before e2.
+     */
+    public boolean happensBefore( Event e1, Event e2 )
+    {
+        return clocks.happensBefore( e1, e2 );
+    }
+}
@@ -0,0 +1,346 @@
+package pt.haslab.causalSolver;
+
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.events.TimestampComparator;
+import pt.haslab.taz.utils.AppendSortedSet;
+import pt.haslab.taz.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Cuts a trace into consecutive windows, so that very long traces can be solved one window at a time.
+ * Events are first assigned to windows by timestamp, either by number of events or by duration, and then moved
+ * to later windows until no happens-before relation goes back to an earlier window and all the events of a causal
+ * pair (message, connect/accept, close/shutdown, fork/start, end/join, lock/unlock) are in the same window,
+ * and each wait is in the window of the earliest notify on its condition or in a later one. This way, pairs left
+ * open at the end of a window (e.g. a SND whose RCV comes later, or a LOCK whose UNLOCK comes later) are carried
+ * into the next window, and the only relations between windows are the program order of each thread, the order
+ * of the locking pairs on the same variable and the notifies of earlier windows that waits can be matched with
+ * (see CausalSolver.solveWindows).
+ */
+public class TraceWindows
+{
+    /* Map: event -> index of its window */
+    private final IdentityHashMap<Event, Integer> windows;
+
+    private final TraceProcessor trace;
+
+    private TraceWindows( TraceProcessor trace )
+    {
+        this.trace = trace;
+        this.windows = new IdentityHashMap<Event, Integer>();
+    }
+
+    /**
+     * Splits a trace into windows, each holding its events in the data structures of a TraceProcessor of its own.
+     *
+     * @param trace the processed event trace.
+     * @param maxEvents number of events after which a new window starts (0 for no limit).
+     * @param maxMillis time span, according to the events' timestamps, after which a new window starts
+     *                  (0 for no limit).
+     * @return the windows, in order, with at least one event each.
+     */
+    public static List<TraceProcessor> split( TraceProcessor trace, int maxEvents, long maxMillis )
+    {
+        TraceWindows traceWindows = new TraceWindows( trace );
+        int numWindows = traceWindows.assignWindows( maxEvents, maxMillis );
+        while ( traceWindows.propagateWindows() )
+        {
+            // repeat until all happens-before relations go forward in the windows
+        }
+        return traceWindows.buildWindows( numWindows );
+    }
+
+    /**
+     * Assigns each event to a window according to its timestamp.
+     *
+     * @return the number of windows.
+     */
+    private int assignWindows( int maxEvents, long maxMillis )
+    {
+        List<Event> events = new ArrayList<Event>();
+        for ( SortedSet<Event> timeline : trace.eventsPerThread.values() )
+        {
+            events.addAll( timeline );
+        }
+        Event[] sorted = events.toArray( new Event[events.size()] );
+        // timestamps alone, as ties in TimestampComparator are not consistent before events are ordered
+        Arrays.sort( sorted, new Comparator<Event>()
+        {
+            public int compare( Event e1, Event e2 )
+            {
+                return TimestampComparator.compareTimestamps( e1, e2 );
+            }
+        } );
+
+        int window = 0;
+        int count = 0;
+        long windowStart = 0;
+        for ( Event e : sorted )
+        {
+            if ( count > 0 && ( ( maxEvents > 0 && count >= maxEvents )
+                            || ( maxMillis > 0 && e.getTimestampValue() - windowStart >= maxMillis ) ) )
+            {
+                window++;
+                count = 0;
+            }
+            if ( count == 0 )
+                windowStart = e.getTimestampValue();
+
+            windows.put( e, window );
+            count++;
+        }
+        return window + 1;
+    }
+
+    /**
+     * Moves events to later windows so that the windows of each thread's events do not decrease, all the
+     * events of a causal pair are in the same window and no wait comes before every notify it can be matched with.
+     *
+     * @return true if any event was moved.
+     */
+    private boolean propagateWindows()
+    {
+        boolean changed = false;
+
+        for ( SortedSet<Event> timeline : trace.eventsPerThread.values() )
+        {
+            int window = 0;
+            for ( Event e : timeline )
+            {
+                int current = windows.get( e );
+                if ( current < window )
+                {
+                    windows.put( e, window );
+                    changed = true;
+                }
+                else
+                {
+                    window = current;
+                }
+            }
+        }
+
+        for ( MessageCausalPair pair : trace.sndRcvPairs.values() )
+        {
+            List<Event> events = new ArrayList<Event>();
+            if ( pair.getSndList() != null )
+                events.addAll( pair.getSndList() );
+            if ( pair.getRcvList() != null )
+                events.addAll( pair.getRcvList() );
+            changed |= sameWindow( events.toArray( new Event[events.size()] ) );
+        }
+
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.connAcptEvents.values() )
+        {
+            changed |= sameWindow( pair.getFirst(), pair.getSecond() );
+        }
+
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.closeShutEvents.values() )
+        {
+            changed |= sameWindow( pair.getFirst(), pair.getSecond() );
+        }
+
+        for ( List<ThreadCreationEvent> l : trace.forkEvents.values() )
+        {
+            for ( ThreadCreationEvent fork : l )
+            {
+                SortedSet<Event> child = trace.eventsPerThread.get( fork.getChildThread() );
+                if ( child != null && !child.isEmpty() && child.first().getType() == EventType.START )
+                    changed |= sameWindow( fork, child.first() );
+            }
+        }
+
+        for ( List<ThreadCreationEvent> l : trace.joinEvents.values() )
+        {
+            for ( ThreadCreationEvent join : l )
+            {
+                SortedSet<Event> child = trace.eventsPerThread.get( join.getChildThread() );
+                if ( child != null && !child.isEmpty() )
+                    changed |= sameWindow( child.last(), join );
+            }
+        }
+
+        for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : trace.lockEvents.values() )
+        {
+            for ( CausalPair<SyncEvent, SyncEvent> pair : pairs )
+            {
+                changed |= sameWindow( pair.getFirst(), pair.getSecond() );
+            }
+        }
+
+        for ( Map.Entry<String, List<SyncEvent>> entry : trace.waitEvents.entrySet() )
+        {
+            // a wait can only be matched with the notifies of its own window or of earlier ones
+            int window = firstWindow( trace.notifyEvents.get( entry.getKey() ) );
+            for ( SyncEvent wait : entry.getValue() )
+            {
+                if ( windows.get( wait ) < window )
+                {
+                    windows.put( wait, window );
+                    changed = true;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Returns the earliest window of a list of events, or 0 if the list is null or empty.
+     */
+    private int firstWindow( List<? extends Event> events )
+    {
+        if ( events == null || events.isEmpty() )
+            return 0;
+
+        int window = Integer.MAX_VALUE;
+        for ( Event e : events )
+            window = Math.min( window, windows.get( e ) );
+        return window;
+    }
+
+    /**
+     * Moves a set of events to the latest window among them. Null events are ignored.
+     *
+     * @return true if any event was moved.
+     */
+    private boolean sameWindow( Event... events )
+    {
+        int window = 0;
+        for ( Event e : events )
+        {
+            if ( e != null && windows.get( e ) > window )
+                window = windows.get( e );
+        }
+
+        boolean changed = false;
+        for ( Event e : events )
+        {
+            if ( e != null && windows.get( e ) < window )
+            {
+                windows.put( e, window );
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private int windowOf( Event e )
+    {
+        return windows.get( e );
+    }
+
+    /**
+     * Distributes the events and causal pairs of the trace by the windows, skipping the windows left empty.
+     */
+    private List<TraceProcessor> buildWindows( int numWindows )
+    {
+        TraceProcessor[] subTraces = new TraceProcessor[numWindows];
+        for ( int i = 0; i < numWindows; i++ )
+        {
+            subTraces[i] = new TraceProcessor();
+        }
+
+        for ( Map.Entry<String, SortedSet<Event>> entry : trace.eventsPerThread.entrySet() )
+        {
+            for ( Event e : entry.getValue() )
+            {
+                Map<String, SortedSet<Event>> eventsPerThread = subTraces[windowOf( e )].eventsPerThread;
+                SortedSet<Event> timeline = eventsPerThread.get( entry.getKey() );
+                if ( timeline == null )
+                {
+                    timeline = new AppendSortedSet<Event>( new TimestampComparator() );
+                    eventsPerThread.put( entry.getKey(), timeline );
+                }
+                timeline.add( e );
+            }
+        }
+
+        for ( Event e : trace.sortedByTimestamp )
+        {
+            subTraces[windowOf( e )].sortedByTimestamp.add( e );
+        }
+
+        for ( Map.Entry<String, MessageCausalPair> entry : trace.sndRcvPairs.entrySet() )
+        {
+            MessageCausalPair pair = entry.getValue();
+            List<SocketEvent> events = ( pair.getSndList() == null || pair.getSndList().isEmpty() ) ?
+                            pair.getRcvList() : pair.getSndList();
+            if ( events != null && !events.isEmpty() )
+                subTraces[windowOf( events.get( 0 ) )].sndRcvPairs.put( entry.getKey(), pair );
+        }
+
+        for ( Map.Entry<String, CausalPair<SocketEvent, SocketEvent>> entry : trace.connAcptEvents.entrySet() )
+        {
+            if ( entry.getValue().getFirst() != null )
+                subTraces[windowOf( entry.getValue().getFirst() )].connAcptEvents.put( entry.getKey(), entry.getValue() );
+        }
+
+        for ( Map.Entry<String, CausalPair<SocketEvent, SocketEvent>> entry : trace.closeShutEvents.entrySet() )
+        {
+            if ( entry.getValue().getFirst() != null )
+                subTraces[windowOf( entry.getValue().getFirst() )].closeShutEvents.put( entry.getKey(), entry.getValue() );
+        }
+
+        for ( Map.Entry<String, List<ThreadCreationEvent>> entry : trace.forkEvents.entrySet() )
+        {
+            for ( ThreadCreationEvent fork : entry.getValue() )
+                Utils.insertInMapToLists( subTraces[windowOf( fork )].forkEvents, entry.getKey(), fork );
+        }
+
+        for ( Map.Entry<String, List<ThreadCreationEvent>> entry : trace.joinEvents.entrySet() )
+        {
+            for ( ThreadCreationEvent join : entry.getValue() )
+                Utils.insertInMapToLists( subTraces[windowOf( join )].joinEvents, entry.getKey(), join );
+        }
+
+        for ( Map.Entry<String, List<CausalPair<SyncEvent, SyncEvent>>> entry : trace.lockEvents.entrySet() )
+        {
+            for ( CausalPair<SyncEvent, SyncEvent> pair : entry.getValue() )
+            {
+                Event e = pair.getFirst() != null ? pair.getFirst() : pair.getSecond();
+                Utils.insertInMapToLists( subTraces[windowOf( e )].lockEvents, entry.getKey(), pair );
+            }
+        }
+
+        for ( Map.Entry<String, List<SyncEvent>> entry : trace.waitEvents.entrySet() )
+        {
+            for ( SyncEvent wait : entry.getValue() )
+            {
+                TraceProcessor subTrace = subTraces[windowOf( wait )];
+                Utils.insertInMapToLists( subTrace.waitEvents, entry.getKey(), wait );
+                // waits may only have notifies in earlier windows
+                if ( !subTrace.notifyEvents.containsKey( entry.getKey() ) )
+                    subTrace.notifyEvents.put( entry.getKey(), new ArrayList<SyncEvent>() );
+            }
+        }
+
+        for ( Map.Entry<String, List<SyncEvent>> entry : trace.notifyEvents.entrySet() )
+        {
+            for ( SyncEvent notify : entry.getValue() )
+                Utils.insertInMapToLists( subTraces[windowOf( notify )].notifyEvents, entry.getKey(), notify );
+        }
+
+        List<TraceProcessor> result = new ArrayList<TraceProcessor>( numWindows );
+        for ( TraceProcessor subTrace : subTraces )
+        {
+            if ( !subTrace.eventsPerThread.isEmpty() )
+                result.add( subTrace );
+        }
+        return result;
+    }
+}
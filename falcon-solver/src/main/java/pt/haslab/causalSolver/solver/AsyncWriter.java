@@ -0,0 +1,200 @@
+package pt.haslab.causalSolver.solver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writer whose output is written to another writer by a background thread. What is written is gathered into
+ * chunks, which are handed to the thread through a bounded queue, so that the caller only blocks on a slow
+ * destination (e.g. a solver parsing its input, or a disk) when the queue is full. The destination is flushed
+ * whenever the thread runs out of chunks, besides when this writer is flushed.
+ * Errors of the destination are reported by the next call on this writer.
+ */
+class AsyncWriter
+                extends Writer
+{
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /* markers queued by flush and close, compared by identity */
+    private static final String FLUSH = new String( "flush" );
+
+    private static final String CLOSE = new String( "close" );
+
+    private final Writer out;
+
+    private final BlockingQueue<String> chunks;
+
+    private final Thread thread;
+
+    /* chunk being gathered by the caller */
+    private final StringBuilder buffer;
+
+    private volatile IOException error;
+
+    private boolean closed;
+
+    /**
+     * @param out the destination writer.
+     * @param capacity the maximum number of chunks waiting to be written.
+     * @param name the name of the background thread.
+     */
+    AsyncWriter( Writer out, int capacity, String name )
+    {
+        this.out = out;
+        this.chunks = new ArrayBlockingQueue<String>( capacity );
+        this.buffer = new StringBuilder( CHUNK_SIZE );
+        this.error = null;
+        this.closed = false;
+        this.thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                writeChunks();
+            }
+        }, name );
+        this.thread.setDaemon( true );
+        this.thread.start();
+    }
+
+    public void write( int c )
+                    throws IOException
+    {
+        buffer.append( (char) c );
+        if ( buffer.length() >= CHUNK_SIZE )
+            handOff();
+    }
+
+    public void write( char[] cbuf, int off, int len )
+                    throws IOException
+    {
+        buffer.append( cbuf, off, len );
+        if ( buffer.length() >= CHUNK_SIZE )
+            handOff();
+    }
+
+    public void write( String str, int off, int len )
+                    throws IOException
+    {
+        buffer.append( str, off, off + len );
+        if ( buffer.length() >= CHUNK_SIZE )
+            handOff();
+    }
+
+    /**
+     * Hands what was written so far to the background thread, which flushes the destination after writing it.
+     * It does not wait for the data to be written.
+     */
+    public void flush()
+                    throws IOException
+    {
+        handOff();
+        put( FLUSH );
+    }
+
+    /**
+     * Writes what is left, closes the destination and waits for the background thread to finish.
+     */
+    public void close()
+                    throws IOException
+    {
+        if ( closed )
+            return;
+        closed = true;
+        if ( error == null )
+            handOff();
+        try
+        {
+            // the destination is closed even after an error
+            chunks.put( CLOSE );
+            thread.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while closing " + thread.getName() );
+        }
+        checkError();
+    }
+
+    private void handOff()
+                    throws IOException
+    {
+        if ( buffer.length() == 0 )
+            return;
+        put( buffer.toString() );
+        buffer.setLength( 0 );
+    }
+
+    private void put( String chunk )
+                    throws IOException
+    {
+        checkError();
+        try
+        {
+            chunks.put( chunk );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while writing to " + thread.getName() );
+        }
+    }
+
+    private void checkError()
+                    throws IOException
+    {
+        if ( error != null )
+            throw new IOException( thread.getName() + " failed", error );
+    }
+
+    /**
+     * Loop of the background thread. After an error, chunks are still taken from the queue (and dropped) until
+     * the writer is closed, so that the caller never blocks on a full queue.
+     */
+    private void writeChunks()
+    {
+        while ( true )
+        {
+            String chunk;
+            try
+            {
+                chunk = chunks.take();
+            }
+            catch ( InterruptedException e )
+            {
+                return;
+            }
+
+            try
+            {
+                if ( chunk == CLOSE )
+                {
+                    out.close();
+                    return;
+                }
+                if ( error != null )
+                    continue;
+                if ( chunk == FLUSH || chunks.isEmpty() )
+                {
+                    if ( chunk != FLUSH )
+                        out.write( chunk );
+                    out.flush();
+                }
+                else
+                {
+                    out.write( chunk );
+                }
+            }
+            catch ( IOException e )
+            {
+                if ( error == null )
+                    error = e;
+                if ( chunk == CLOSE )
+                    return;
+            }
+        }
+    }
+}
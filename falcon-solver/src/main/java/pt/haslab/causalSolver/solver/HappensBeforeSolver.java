@@ -0,0 +1,1182 @@
+package pt.haslab.causalSolver.solver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Solver that finds the causal order of a model without an external solver, as long as the model only
+ * consists of happens-before relations, i.e. constraints of the form a < b (or chains a < b < c ...) between
+ * integer variables with a lower bound, plus the objective of minimizing a (weighted) sum of the variables.
+ * Such a model is a DAG with one node per event, and its optimum assigns each event the length of the longest
+ * path that reaches it, which is computed in linear time by sorting the DAG topologically. Constraints of the
+ * form (+ a k) < b, i.e. b is at least k + 1 after a, are edges of weight k + 1. Variables, bounds and edges
+ * written with writeIntVar, writeBounds and writeOrder are added to the graph as they are; those written as
+ * text (writeConstraint) are parsed first.
+ *
+ * Soft constraints a < b (e.g. the timestamp constraints) are added to the DAG as well, in the order in which
+ * they were posted, skipping those that would create a cycle. When all soft constraints can be satisfied together
+ * the result is the same as Z3's; otherwise the set of satisfied soft constraints is maximal, but not necessarily
+ * of maximum size as with Z3's MaxSMT. Constraints of any other form (e.g. the disjunctions of the locking and
+ * wait-notify constraints) make the solver hand the whole model over to a fallback solver (Z3) instead.
+ *
+ * The model found by the solver is read with getValues; readOutputLine only returns solver output once the model
+ * has been handed over to the fallback solver. Until then, the commands written are logged to a temporary file to be
+ * replayed to the fallback solver, so that models solved natively do not keep them in memory.
+ *
+ * Constraints can be added in scopes (push/pop) and the model solved again after each one. When the constraints
+ * added since the last solveModel only constrain new nodes (e.g. the events appended to a trace), the clocks
+ * found before are kept and only those of the new nodes are computed, in time proportional to the new part.
+ */
+public class HappensBeforeSolver
+                implements Solver
+{
+    private static Logger logger = LoggerFactory.getLogger( HappensBeforeSolver.class );
+
+    private static final Pattern DECLARE = Pattern.compile( "\\(declare-const (\\S+) Int\\)" );
+
+    private static final Pattern BOUNDS =
+                    Pattern.compile( "\\(and \\(>= (\\S+) (-?\\d+)\\) \\(<= (\\S+) (-?\\d+)\\)\\)" );
+
+    private static final Pattern LT_CHAIN = Pattern.compile( "\\(<([^()]*)\\)" );
+
+    private static final Pattern LT_GAP = Pattern.compile( "\\(< \\(\\+ (\\S+) (\\d+)\\) (\\S+)\\)" );
+
+    private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+
+    /* kinds of the commands recorded to be replayed to the fallback solver */
+    private static final byte CONSTRAINT = 0;
+
+    private static final byte COMMENT = 1;
+
+    private static final byte OPEN = 2;
+
+    private static final byte TERM = 3;
+
+    private static final byte CLOSE = 4;
+
+    private static final byte END = 5;
+
+    private static final byte INT_VAR = 6;
+
+    private static final byte BOUNDS_CONSTRAINT = 7;
+
+    private static final byte ORDER = 8;
+
+    /* solver to which the model is handed over when it is not a plain happens-before graph */
+    private final Solver fallback;
+
+    private String solverPath;
+
+    /* indicates whether the model has been handed over to the fallback solver */
+    private boolean delegated;
+
+    /* temporary file with the commands written so far, to be replayed to the fallback solver if needed */
+    private File commandFile;
+
+    private DataOutputStream commands;
+
+    /* operators of the expressions open in the constraint being streamed */
+    private Deque<String> openOperators;
+
+    /* node written last in the chain (<) being streamed, or -1 */
+    private int chainNode;
+
+    /* indicates whether the constraint being streamed is a soft constraint */
+    private boolean softConstraint;
+
+    /* reason why the constraint being streamed is not supported, or null if it is */
+    private String unsupported;
+
+    /* Map: variable -> node of the happens-before graph */
+    private Map<String, Integer> nodes;
+
+    private List<String> names;
+
+    /* lower and upper bounds of the nodes' variables */
+    private int[] lowerBounds;
+
+    private int[] upperBounds;
+
+    private EdgeList hardEdges;
+
+    private EdgeList softEdges;
+
+    /* clocks of the nodes in the model found by solveModel */
+    private int[] clocks;
+
+    /* number of nodes, hard edges and soft edges covered by the clocks found by the last solveModel */
+    private int solvedNodes;
+
+    private int solvedHardEdges;
+
+    private int solvedSoftEdges;
+
+    /* indicates whether the bounds of a node covered by the clocks changed since the last solveModel */
+    private boolean solvedBoundsChanged;
+
+    /* scopes opened with push: number of nodes, hard edges, soft edges and saved bounds when each was opened */
+    private Deque<int[]> scopes;
+
+    /* bounds of the nodes before they were changed in an open scope (node, lower, upper), restored by pop */
+    private int[] savedBounds;
+
+    private int numSavedBounds;
+
+    public HappensBeforeSolver( Solver fallback )
+    {
+        this.fallback = fallback;
+    }
+
+    public void init( String solverPath )
+                    throws IOException
+    {
+        this.solverPath = solverPath;
+        this.delegated = false;
+        discardCommands();
+        this.commandFile = File.createTempFile( "falcon-commands", ".tmp" );
+        this.commandFile.deleteOnExit();
+        this.commands = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( commandFile ), 1 << 16 ) );
+        this.openOperators = new ArrayDeque<String>();
+        this.chainNode = -1;
+        this.softConstraint = false;
+        this.unsupported = null;
+        this.nodes = new HashMap<String, Integer>();
+        this.names = new ArrayList<String>();
+        this.lowerBounds = new int[1024];
+        this.upperBounds = new int[1024];
+        this.hardEdges = new EdgeList();
+        this.softEdges = new EdgeList();
+        this.clocks = null;
+        this.solvedNodes = 0;
+        this.solvedHardEdges = 0;
+        this.solvedSoftEdges = 0;
+        this.solvedBoundsChanged = false;
+        this.scopes = new ArrayDeque<int[]>();
+        this.savedBounds = new int[96];
+        this.numSavedBounds = 0;
+    }
+
+    public void close()
+                    throws IOException
+    {
+        discardCommands();
+        if ( delegated )
+            fallback.close();
+    }
+
+    public void flush()
+                    throws IOException
+    {
+        if ( delegated )
+            fallback.flush();
+    }
+
+    public void writeConstraint( String constraint )
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.writeConstraint( constraint );
+            return;
+        }
+
+        record( CONSTRAINT, constraint );
+        for ( String line : constraint.split( "\n" ) )
+        {
+            if ( !addConstraint( line.trim() ) )
+            {
+                delegate( "unsupported constraint " + line );
+                return;
+            }
+        }
+    }
+
+    public void writeComment( String comment )
+                    throws IOException
+    {
+        if ( delegated )
+            fallback.writeComment( comment );
+        else
+            record( COMMENT, comment );
+    }
+
+    public void openExpression( String operator )
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.openExpression( operator );
+            return;
+        }
+
+        record( OPEN, operator );
+        String parent = openOperators.peek();
+        if ( parent == null )
+        {
+            softConstraint = operator.equals( "assert-soft" );
+            if ( !operator.equals( "assert" ) && !softConstraint && !operator.equals( "minimize" ) )
+                unsupported = "(" + operator;
+        }
+        else if ( operator.equals( "<" ) && ( parent.startsWith( "assert" ) || parent.equals( "!" ) ) )
+        {
+            chainNode = -1;
+        }
+        else if ( !( operator.equals( "!" ) && parent.startsWith( "assert" ) )
+                        && !( operator.equals( "+" ) && parent.equals( "minimize" ) ) )
+        {
+            unsupported = "(" + parent + " (" + operator;
+        }
+        openOperators.push( operator );
+    }
+
+    public void writeTerm( String term )
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.writeTerm( term );
+            return;
+        }
+
+        record( TERM, term );
+        String operator = openOperators.peek();
+        if ( "<".equals( operator ) )
+        {
+            Integer node = nodes.get( term );
+            if ( node == null )
+            {
+                unsupported = "undeclared variable " + term;
+                return;
+            }
+            if ( chainNode >= 0 )
+                ( softConstraint ? softEdges : hardEdges ).add( chainNode, node );
+            chainNode = node;
+        }
+        else if ( !"+".equals( operator ) && !"!".equals( operator ) )
+        {
+            // terms of the objective function and labels are the only other terms supported
+            unsupported = "term " + term + " of " + operator;
+        }
+    }
+
+    public void closeExpression()
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.closeExpression();
+            return;
+        }
+
+        record( CLOSE, null );
+        openOperators.poll();
+    }
+
+    public void endConstraint()
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.endConstraint();
+            return;
+        }
+
+        record( END, null );
+        String reason = unsupported;
+        openOperators.clear();
+        unsupported = null;
+        if ( reason != null )
+            delegate( "unsupported constraint " + reason );
+    }
+
+    public void writeIntVar( String varname, long min, long max )
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.writeIntVar( varname, min, max );
+            return;
+        }
+
+        commands.writeByte( INT_VAR );
+        writeString( varname );
+        commands.writeLong( min );
+        commands.writeLong( max );
+        if ( nodes.containsKey( varname ) )
+        {
+            delegate( "variable " + varname + " declared twice" );
+            return;
+        }
+        addNode( varname );
+        if ( !addBounds( names.size() - 1, min, max ) )
+            delegate( "bounds of " + varname + " out of range" );
+    }
+
+    public void writeBounds( String varname, long min, long max )
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.writeBounds( varname, min, max );
+            return;
+        }
+
+        commands.writeByte( BOUNDS_CONSTRAINT );
+        writeString( varname );
+        commands.writeLong( min );
+        commands.writeLong( max );
+        Integer node = nodes.get( varname );
+        if ( node == null )
+            delegate( "undeclared variable " + varname );
+        else if ( !addBounds( node, min, max ) )
+            delegate( "bounds of " + varname + " out of range" );
+    }
+
+    public void writeOrder( String before, String after, int gap, String label, boolean soft )
+                    throws IOException
+    {
+        if ( delegated )
+        {
+            fallback.writeOrder( before, after, gap, label, soft );
+            return;
+        }
+
+        commands.writeByte( ORDER );
+        writeString( before );
+        writeString( after );
+        commands.writeInt( gap );
+        writeString( label );
+        commands.writeBoolean( soft );
+        Integer src = nodes.get( before );
+        Integer dst = nodes.get( after );
+        if ( src == null || dst == null )
+            delegate( "undeclared variable " + ( ( src == null ) ? before : after ) );
+        else if ( gap < 0 )
+            delegate( "negative gap " + gap );
+        else
+            ( soft ? softEdges : hardEdges ).add( src, dst, gap + 1 );
+    }
+
+    public boolean solveModel()
+    {
+        if ( delegated )
+            return fallback.solveModel();
+
+        // the nodes covered by the previous clocks were already checked
+        for ( int node = ( clocks == null ) ? 0 : solvedNodes; node < names.size(); node++ )
+        {
+            if ( lowerBounds[node] == Integer.MIN_VALUE )
+                return delegateSolving( "variable " + names.get( node ) + " has no lower bound" );
+        }
+
+        long start = System.currentTimeMillis();
+        if ( clocks != null && !solvedBoundsChanged )
+        {
+            int[] extended = extendClocks();
+            if ( extended != null )
+            {
+                logger.info( "Extended happens-before graph with " + ( names.size() - solvedNodes ) + " nodes and "
+                                             + ( hardEdges.size - solvedHardEdges + softEdges.size - solvedSoftEdges )
+                                             + " edges in " + ( System.currentTimeMillis() - start ) + " ms" );
+                setSolved( extended );
+                return true;
+            }
+        }
+
+        int[] topologicalOrder = new int[names.size()];
+        int[] clocks = computeClocks( 0, lowerBounds, hardEdges, null, topologicalOrder );
+        if ( clocks == null )
+        {
+            logger.info( "Happens-before graph is cyclic or exceeds the variables' bounds" );
+            return false;
+        }
+
+        if ( softEdges.size > 0 )
+        {
+            int[] softClocks = computeClocks( 0, lowerBounds, hardEdges, softEdges, null );
+            if ( softClocks == null )
+            {
+                // some soft constraints conflict with the others, so keep only those that do not close a cycle
+                EdgeList satisfiable = filterSoftEdges( topologicalOrder, hardEdges, softEdges );
+                logger.info( ( softEdges.size - satisfiable.size ) + " out of " + softEdges.size
+                                             + " soft constraints conflict with the happens-before graph and were dropped" );
+                softEdges = satisfiable;
+                softClocks = computeClocks( 0, lowerBounds, hardEdges, softEdges, null );
+                if ( softClocks == null )
+                    return delegateSolving( "soft constraints exceed the variables' bounds" );
+            }
+            clocks = softClocks;
+        }
+
+        setSolved( clocks );
+
+        logger.info( "Solved happens-before graph with " + names.size() + " nodes and "
+                                     + ( hardEdges.size + softEdges.size ) + " edges in "
+                                     + ( System.currentTimeMillis() - start ) + " ms" );
+        return true;
+    }
+
+    public String readOutputLine()
+    {
+        if ( delegated )
+            return fallback.readOutputLine();
+
+        return "";
+    }
+
+    public int[] getValues( List<String> variables )
+                    throws IOException
+    {
+        if ( delegated )
+            return fallback.getValues( variables );
+        if ( clocks == null )
+            throw new IOException( "There is no model to get values from" );
+
+        int[] values = new int[variables.size()];
+        int index = 0;
+        for ( String var : variables )
+        {
+            Integer node = nodes.get( var );
+            if ( node == null )
+                throw new IOException( "Unknown variable: " + var );
+            values[index++] = clocks[node];
+        }
+        return values;
+    }
+
+    private void setSolved( int[] clocks )
+    {
+        this.clocks = clocks;
+        solvedNodes = names.size();
+        solvedHardEdges = hardEdges.size;
+        solvedSoftEdges = softEdges.size;
+        solvedBoundsChanged = false;
+    }
+
+    /**
+     * Adds a constraint to the happens-before graph.
+     *
+     * @param line a single SMT-LIB command, as produced by this solver's methods.
+     * @return true if the constraint could be added, false if it is not supported by this solver.
+     */
+    private boolean addConstraint( String line )
+    {
+        if ( line.isEmpty() || line.startsWith( ";" ) || line.startsWith( "(set-option" ) )
+            return true;
+
+        if ( line.startsWith( "(minimize (+" ) )
+            return true;
+
+        if ( line.equals( "(push)" ) )
+        {
+            scopes.push( new int[] { names.size(), hardEdges.size, softEdges.size, numSavedBounds } );
+            return true;
+        }
+
+        if ( line.equals( "(pop)" ) )
+            return popScope();
+
+        Matcher declare = DECLARE.matcher( line );
+        if ( declare.matches() )
+        {
+            if ( nodes.containsKey( declare.group( 1 ) ) )
+                return false;
+
+            addNode( declare.group( 1 ) );
+            return true;
+        }
+
+        boolean soft = line.startsWith( "(assert-soft " );
+        if ( !soft && !line.startsWith( "(assert " ) )
+            return false;
+
+        String body = assertedExpression( line );
+
+        Matcher bounds = BOUNDS.matcher( body );
+        if ( bounds.matches() && !soft && bounds.group( 1 ).equals( bounds.group( 3 ) ) )
+        {
+            Integer node = nodes.get( bounds.group( 1 ) );
+            return node != null && addBounds( node, Long.parseLong( bounds.group( 2 ) ),
+                                               Long.parseLong( bounds.group( 4 ) ) );
+        }
+
+        Matcher chain = LT_CHAIN.matcher( body );
+        if ( chain.matches() )
+        {
+            String[] vars = WHITESPACE.split( chain.group( 1 ).trim() );
+            if ( vars.length < 2 )
+                return false;
+
+            int[] chainNodes = new int[vars.length];
+            for ( int i = 0; i < vars.length; i++ )
+            {
+                Integer node = nodes.get( vars[i] );
+                if ( node == null )
+                    return false;
+                chainNodes[i] = node;
+            }
+            for ( int i = 1; i < chainNodes.length; i++ )
+            {
+                ( soft ? softEdges : hardEdges ).add( chainNodes[i - 1], chainNodes[i] );
+            }
+            return true;
+        }
+
+        Matcher gap = LT_GAP.matcher( body );
+        if ( gap.matches() )
+        {
+            Integer src = nodes.get( gap.group( 1 ) );
+            Integer dst = nodes.get( gap.group( 3 ) );
+            if ( src == null || dst == null )
+                return false;
+
+            ( soft ? softEdges : hardEdges ).add( src, dst, Integer.parseInt( gap.group( 2 ) ) + 1 );
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Discards the nodes, edges and bounds added since the last push. As the clocks of the remaining nodes may
+     * have been changed by the discarded constraints, the next solveModel computes all clocks again.
+     *
+     * @return true if there was a scope to discard, false otherwise.
+     */
+    private boolean popScope()
+    {
+        int[] scope = scopes.poll();
+        if ( scope == null )
+            return false;
+
+        for ( int node = names.size() - 1; node >= scope[0]; node-- )
+        {
+            nodes.remove( names.remove( node ) );
+        }
+        hardEdges.size = scope[1];
+        // soft edges may have been filtered by solveModel, so also drop those left pointing to discarded nodes
+        softEdges.size = Math.min( softEdges.size, scope[2] );
+        softEdges.retainNodes( names.size() );
+        for ( int i = numSavedBounds - 1; i >= scope[3]; i-- )
+        {
+            int node = savedBounds[3 * i];
+            lowerBounds[node] = savedBounds[3 * i + 1];
+            upperBounds[node] = savedBounds[3 * i + 2];
+        }
+        numSavedBounds = scope[3];
+
+        clocks = null;
+        return true;
+    }
+
+    /**
+     * Narrows the bounds of a node's variable.
+     *
+     * @return true if the bounds were added, false if they do not fit the bounds supported by this solver.
+     */
+    private boolean addBounds( int node, long min, long max )
+    {
+        if ( min < Integer.MIN_VALUE + 1 || max > Integer.MAX_VALUE )
+            return false;
+
+        if ( !scopes.isEmpty() )
+            saveBounds( node );
+        if ( node < solvedNodes )
+            solvedBoundsChanged = true;
+        lowerBounds[node] = Math.max( lowerBounds[node], (int) min );
+        upperBounds[node] = Math.min( upperBounds[node], (int) max );
+        return true;
+    }
+
+    private void saveBounds( int node )
+    {
+        if ( 3 * numSavedBounds == savedBounds.length )
+            savedBounds = Arrays.copyOf( savedBounds, savedBounds.length * 2 );
+        savedBounds[3 * numSavedBounds] = node;
+        savedBounds[3 * numSavedBounds + 1] = lowerBounds[node];
+        savedBounds[3 * numSavedBounds + 2] = upperBounds[node];
+        numSavedBounds++;
+    }
+
+    /**
+     * Computes the clocks of the nodes added since the last solveModel, keeping those found before. This is only
+     * possible if every edge added since then ends in a new node, as the clocks of the previous nodes do not
+     * change in that case. As in a full solve, new soft edges that close a cycle are dropped.
+     *
+     * @return the clocks of all nodes, or null if an edge ends in a previous node, the new nodes have cycles
+     * or a clock exceeds its upper bound.
+     */
+    private int[] extendClocks()
+    {
+        int first = solvedNodes;
+        int[] initial = Arrays.copyOfRange( lowerBounds, first, names.size() );
+
+        // edges among the new nodes, indexed from the first new node, while the edges from previous nodes
+        // only raise the initial clocks of the new ones
+        EdgeList newHardEdges = new EdgeList();
+        EdgeList newSoftEdges = new EdgeList();
+        EdgeList[] lists = { hardEdges, softEdges };
+        EdgeList[] newLists = { newHardEdges, newSoftEdges };
+        int[] from = { solvedHardEdges, solvedSoftEdges };
+        for ( int l = 0; l < lists.length; l++ )
+        {
+            for ( int i = from[l]; i < lists[l].size; i++ )
+            {
+                int src = lists[l].src[i];
+                int dst = lists[l].dst[i];
+                int weight = lists[l].weight[i];
+                if ( dst < first )
+                    return null;
+                if ( src < first )
+                    initial[dst - first] = Math.max( initial[dst - first], clocks[src] + weight );
+                else
+                    newLists[l].add( src - first, dst - first, weight );
+            }
+        }
+
+        int[] topologicalOrder = new int[initial.length];
+        int[] newClocks = computeClocks( first, initial, newHardEdges, null, topologicalOrder );
+        if ( newClocks == null )
+            return null;
+
+        if ( newSoftEdges.size > 0 )
+        {
+            int[] softClocks = computeClocks( first, initial, newHardEdges, newSoftEdges, null );
+            if ( softClocks == null )
+            {
+                EdgeList satisfiable = filterSoftEdges( topologicalOrder, newHardEdges, newSoftEdges );
+                logger.info( ( newSoftEdges.size - satisfiable.size ) + " out of " + newSoftEdges.size
+                                             + " new soft constraints conflict with the happens-before graph and were dropped" );
+                softClocks = computeClocks( first, initial, newHardEdges, satisfiable, null );
+                if ( softClocks == null )
+                    return null;
+
+                // keep only the satisfiable soft edges, as a full solve would
+                softEdges.size = solvedSoftEdges;
+                for ( int i = 0; i < satisfiable.size; i++ )
+                    softEdges.add( first + satisfiable.src[i], first + satisfiable.dst[i], satisfiable.weight[i] );
+            }
+            newClocks = softClocks;
+        }
+
+        int[] clocks = Arrays.copyOf( this.clocks, names.size() );
+        System.arraycopy( newClocks, 0, clocks, first, newClocks.length );
+        return clocks;
+    }
+
+    /**
+     * Returns the expression of an (assert ...) or (assert-soft ...) command, without its label if it is named.
+     */
+    private static String assertedExpression( String line )
+    {
+        String body = line.substring( line.indexOf( ' ' ) + 1, line.length() - 1 ).trim();
+        if ( body.startsWith( "(! " ) )
+        {
+            int label = body.lastIndexOf( ":named " );
+            body = ( label < 0 ) ? body : body.substring( 3, label ).trim();
+        }
+        return body;
+    }
+
+    private void addNode( String name )
+    {
+        int node = names.size();
+        if ( node == lowerBounds.length )
+        {
+            lowerBounds = Arrays.copyOf( lowerBounds, node * 2 );
+            upperBounds = Arrays.copyOf( upperBounds, node * 2 );
+        }
+        lowerBounds[node] = Integer.MIN_VALUE;
+        upperBounds[node] = Integer.MAX_VALUE;
+        nodes.put( name, node );
+        names.add( name );
+    }
+
+    /**
+     * Returns the soft edges that can be added to the graph of hard edges without creating cycles, trying them
+     * in the order in which they were posted.
+     *
+     * @param topologicalOrder a topological order of the graph of hard edges.
+     */
+    private static EdgeList filterSoftEdges( int[] topologicalOrder, EdgeList hardEdges, EdgeList softEdges )
+    {
+        IncrementalTopologicalOrder order = new IncrementalTopologicalOrder( topologicalOrder );
+        for ( int i = 0; i < hardEdges.size; i++ )
+            order.addOrderedEdge( hardEdges.src[i], hardEdges.dst[i] );
+
+        EdgeList satisfiable = new EdgeList();
+        for ( int i = 0; i < softEdges.size; i++ )
+        {
+            if ( order.addEdge( softEdges.src[i], softEdges.dst[i] ) )
+                satisfiable.add( softEdges.src[i], softEdges.dst[i], softEdges.weight[i] );
+        }
+        return satisfiable;
+    }
+
+    /**
+     * Computes the minimal clock of each node, i.e. its lower bound or the length of the longest (weighted) path
+     * that reaches it (from nodes at their lower bound), by traversing the graph in topological order (Kahn's algorithm).
+     * The graph may be restricted to the nodes from a given one on, whose indexes in the edges, in the initial
+     * clocks and in the result then start at 0.
+     *
+     * @param first the first node of the graph.
+     * @param initial the minimal clocks of the nodes (e.g. their lower bounds).
+     * @param edges the edges of the graph.
+     * @param extraEdges additional edges of the graph (may be null).
+     * @param topologicalOrder array filled with the nodes in topological order (may be null).
+     * @return the clocks of the nodes, or null if the graph has cycles or a clock exceeds its upper bound.
+     */
+    private int[] computeClocks( int first, int[] initial, EdgeList edges, EdgeList extraEdges, int[] topologicalOrder )
+    {
+        int numNodes = names.size() - first;
+
+        // adjacency lists in compressed form: successors of node n are in targets[offsets[n] .. offsets[n+1]-1]
+        int[] offsets = new int[numNodes + 1];
+        int[] inDegree = new int[numNodes];
+        for ( EdgeList list : new EdgeList[] { edges, extraEdges } )
+        {
+            if ( list == null )
+                continue;
+            for ( int i = 0; i < list.size; i++ )
+            {
+                offsets[list.src[i] + 1]++;
+                inDegree[list.dst[i]]++;
+            }
+        }
+        for ( int node = 0; node < numNodes; node++ )
+        {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] targets = new int[offsets[numNodes]];
+        int[] weights = new int[offsets[numNodes]];
+        int[] next = Arrays.copyOf( offsets, numNodes );
+        for ( EdgeList list : new EdgeList[] { edges, extraEdges } )
+        {
+            if ( list == null )
+                continue;
+            for ( int i = 0; i < list.size; i++ )
+            {
+                weights[next[list.src[i]]] = list.weight[i];
+                targets[next[list.src[i]]++] = list.dst[i];
+            }
+        }
+
+        int[] clocks = Arrays.copyOf( initial, numNodes );
+        int[] queue = new int[numNodes];
+        int head = 0;
+        int tail = 0;
+        for ( int node = 0; node < numNodes; node++ )
+        {
+            if ( inDegree[node] == 0 )
+                queue[tail++] = node;
+        }
+        while ( head < tail )
+        {
+            int node = queue[head++];
+            if ( clocks[node] > upperBounds[first + node] )
+                return null;
+
+            for ( int i = offsets[node]; i < offsets[node + 1]; i++ )
+            {
+                int succ = targets[i];
+                clocks[succ] = Math.max( clocks[succ], clocks[node] + weights[i] );
+                if ( --inDegree[succ] == 0 )
+                    queue[tail++] = succ;
+            }
+        }
+
+        // nodes never added to the queue are part of (or reachable from) a cycle
+        if ( tail < numNodes )
+            return null;
+
+        if ( topologicalOrder != null )
+            System.arraycopy( queue, 0, topologicalOrder, 0, numNodes );
+        return clocks;
+    }
+
+    /**
+     * Hands the model over to the fallback solver, by replaying all constraints written so far.
+     */
+    private void delegate( String reason )
+                    throws IOException
+    {
+        logger.info( "Model is not a plain happens-before graph (" + reason + "), solving it with the fallback solver" );
+        delegated = true;
+        fallback.init( solverPath );
+        commands.close();
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( commandFile ), 1 << 16 ) );
+        try
+        {
+            replay( in );
+        }
+        finally
+        {
+            in.close();
+            discardCommands();
+        }
+
+        nodes = null;
+        names = null;
+        lowerBounds = null;
+        upperBounds = null;
+        hardEdges = null;
+        softEdges = null;
+    }
+
+    /**
+     * Writes the commands logged by record to the fallback solver.
+     */
+    private void replay( DataInputStream in )
+                    throws IOException
+    {
+        int kind = in.read();
+        while ( kind != -1 )
+        {
+            switch ( kind )
+            {
+                case INT_VAR:
+                {
+                    String varname = readString( in );
+                    long min = in.readLong();
+                    fallback.writeIntVar( varname, min, in.readLong() );
+                    break;
+                }
+                case BOUNDS_CONSTRAINT:
+                {
+                    String varname = readString( in );
+                    long min = in.readLong();
+                    fallback.writeBounds( varname, min, in.readLong() );
+                    break;
+                }
+                case ORDER:
+                {
+                    String before = readString( in );
+                    String after = readString( in );
+                    int gap = in.readInt();
+                    String label = readString( in );
+                    fallback.writeOrder( before, after, gap, label, in.readBoolean() );
+                    break;
+                }
+                default:
+                    replay( kind, readString( in ) );
+                    break;
+            }
+            kind = in.read();
+        }
+    }
+
+    /**
+     * Writes a command with a single (possibly null) argument to the fallback solver.
+     */
+    private void replay( int kind, String argument )
+                    throws IOException
+    {
+        switch ( kind )
+        {
+            case CONSTRAINT:
+                fallback.writeConstraint( argument );
+                break;
+            case COMMENT:
+                fallback.writeComment( argument );
+                break;
+            case OPEN:
+                fallback.openExpression( argument );
+                break;
+            case TERM:
+                fallback.writeTerm( argument );
+                break;
+            case CLOSE:
+                fallback.closeExpression();
+                break;
+            default:
+                fallback.endConstraint();
+                break;
+        }
+    }
+
+    private void record( byte kind, String argument )
+                    throws IOException
+    {
+        commands.writeByte( kind );
+        writeString( argument );
+    }
+
+    private void writeString( String str )
+                    throws IOException
+    {
+        if ( str == null )
+        {
+            commands.writeInt( -1 );
+            return;
+        }
+
+        byte[] bytes = str.getBytes( StandardCharsets.UTF_8 );
+        commands.writeInt( bytes.length );
+        commands.write( bytes );
+    }
+
+    private static String readString( DataInputStream in )
+                    throws IOException
+    {
+        int length = in.readInt();
+        if ( length < 0 )
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Closes and deletes the file with the commands written so far, if any.
+     */
+    private void discardCommands()
+                    throws IOException
+    {
+        if ( commandFile == null )
+            return;
+
+        try
+        {
+            commands.close();
+        }
+        finally
+        {
+            commandFile.delete();
+            commandFile = null;
+            commands = null;
+        }
+    }
+
+    private boolean delegateSolving( String reason )
+    {
+        try
+        {
+            delegate( reason );
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+            return false;
+        }
+        return fallback.solveModel();
+    }
+
+    public String cDistinct( String exp )
+    {
+        return fallback.cDistinct( exp );
+    }
+
+    public String cAnd( String exp1, String exp2 )
+    {
+        return fallback.cAnd( exp1, exp2 );
+    }
+
+    public String cAnd( String exp1 )
+    {
+        return fallback.cAnd( exp1 );
+    }
+
+    public String cOr( String exp1, String exp2 )
+    {
+        return fallback.cOr( exp1, exp2 );
+    }
+
+    public String cOr( String exp1 )
+    {
+        return fallback.cOr( exp1 );
+    }
+
+    public String cEq( String exp1, String exp2 )
+    {
+        return fallback.cEq( exp1, exp2 );
+    }
+
+    public String cNeq( String exp1, String exp2 )
+    {
+        return fallback.cNeq( exp1, exp2 );
+    }
+
+    public String cGeq( String exp1, String exp2 )
+    {
+        return fallback.cGeq( exp1, exp2 );
+    }
+
+    public String cGt( String exp1, String exp2 )
+    {
+        return fallback.cGt( exp1, exp2 );
+    }
+
+    public String cLeq( String exp1, String exp2 )
+    {
+        return fallback.cLeq( exp1, exp2 );
+    }
+
+    public String cLt( String exp1, String exp2 )
+    {
+        return fallback.cLt( exp1, exp2 );
+    }
+
+    public String cLt( String exp1 )
+    {
+        return fallback.cLt( exp1 );
+    }
+
+    public String cDiv( String exp1, String exp2 )
+    {
+        return fallback.cDiv( exp1, exp2 );
+    }
+
+    public String cMod( String exp1, String exp2 )
+    {
+        return fallback.cMod( exp1, exp2 );
+    }
+
+    public String cPlus( String exp1, String exp2 )
+    {
+        return fallback.cPlus( exp1, exp2 );
+    }
+
+    public String cMinus( String exp1, String exp2 )
+    {
+        return fallback.cMinus( exp1, exp2 );
+    }
+
+    public String cMult( String exp1, String exp2 )
+    {
+        return fallback.cMult( exp1, exp2 );
+    }
+
+    public String cSummation( Set<String> sum )
+    {
+        return fallback.cSummation( sum );
+    }
+
+    public String cMinimize( String constraint )
+    {
+        return fallback.cMinimize( constraint );
+    }
+
+    public String cMaximize( String constraint )
+    {
+        return fallback.cMaximize( constraint );
+    }
+
+    public String declareIntVar( String varname )
+    {
+        return fallback.declareIntVar( varname );
+    }
+
+    public String declareIntVar( String varname, int min, int max )
+    {
+        return fallback.declareIntVar( varname, min, max );
+    }
+
+    public String declareIntVar( String varname, String min, String max )
+    {
+        return fallback.declareIntVar( varname, min, max );
+    }
+
+    public String postAssert( String constraint )
+    {
+        return fallback.postAssert( constraint );
+    }
+
+    public String push()
+    {
+        return fallback.push();
+    }
+
+    public String pop()
+    {
+        return fallback.pop();
+    }
+
+    public String postNamedAssert( String constraint, String label )
+    {
+        return fallback.postNamedAssert( constraint, label );
+    }
+
+    public String postSoftAssert( String constraint )
+    {
+        return fallback.postSoftAssert( constraint );
+    }
+
+    public String postNamedSoftAssert( String constraint, String label )
+    {
+        return fallback.postNamedSoftAssert( constraint, label );
+    }
+
+    /**
+     * Growable list of edges (src -> dst) between nodes, with the minimal difference between the clocks of dst
+     * and src (1 for a < b).
+     */
+    private static class EdgeList
+    {
+        private int[] src = new int[1024];
+
+        private int[] dst = new int[1024];
+
+        private int[] weight = new int[1024];
+
+        private int size = 0;
+
+        void add( int from, int to )
+        {
+            add( from, to, 1 );
+        }
+
+        void add( int from, int to, int distance )
+        {
+            if ( size == src.length )
+            {
+                src = Arrays.copyOf( src, size * 2 );
+                dst = Arrays.copyOf( dst, size * 2 );
+                weight = Arrays.copyOf( weight, size * 2 );
+            }
+            src[size] = from;
+            dst[size] = to;
+            weight[size] = distance;
+            size++;
+        }
+
+        /**
+         * Removes the edges from or to nodes greater than or equal to numNodes, keeping the order of the others.
+         */
+        void retainNodes( int numNodes )
+        {
+            int kept = 0;
+            for ( int i = 0; i < size; i++ )
+            {
+                if ( src[i] < numNodes && dst[i] < numNodes )
+                {
+                    src[kept] = src[i];
+                    dst[kept] = dst[i];
+                    weight[kept] = weight[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+    }
+}
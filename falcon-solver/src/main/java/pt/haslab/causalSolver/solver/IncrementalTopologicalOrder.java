@@ -0,0 +1,189 @@
+package pt.haslab.causalSolver.solver;
+
+import java.util.Arrays;
+
+/**
+ * Topological order of a DAG that is kept up-to-date while edges are added, rejecting the edges that would
+ * create a cycle (Pearce and Kelly's dynamic topological sort). Adding an edge x -> y only visits the nodes
+ * placed between y and x in the current order, so edges that agree with the order cost O(1).
+ */
+class IncrementalTopologicalOrder
+{
+    /* Map: node -> position in the topological order */
+    private final int[] ord;
+
+    /* adjacency lists stored as linked lists of edges: first edge of each node and next edge of each edge */
+    private int[] succHead;
+
+    private int[] predHead;
+
+    private int[] succNext;
+
+    private int[] predNext;
+
+    private int[] edgeSrc;
+
+    private int[] edgeDst;
+
+    private int numEdges;
+
+    /* marks of the nodes visited while adding an edge */
+    private final boolean[] visited;
+
+    private int[] stack;
+
+    /**
+     * @param topologicalOrder the nodes of the DAG (numbered from 0) in a topological order.
+     */
+    IncrementalTopologicalOrder( int[] topologicalOrder )
+    {
+        int numNodes = topologicalOrder.length;
+        ord = new int[numNodes];
+        for ( int i = 0; i < numNodes; i++ )
+        {
+            ord[topologicalOrder[i]] = i;
+        }
+        succHead = new int[numNodes];
+        predHead = new int[numNodes];
+        Arrays.fill( succHead, -1 );
+        Arrays.fill( predHead, -1 );
+        succNext = new int[16];
+        predNext = new int[16];
+        edgeSrc = new int[16];
+        edgeDst = new int[16];
+        numEdges = 0;
+        visited = new boolean[numNodes];
+        stack = new int[16];
+    }
+
+    /**
+     * Adds an edge that is known to agree with the current order (e.g. an edge of the initial DAG).
+     *
+     * @return void
+     */
+    void addOrderedEdge( int src, int dst )
+    {
+        if ( numEdges == edgeSrc.length )
+        {
+            int capacity = numEdges * 2;
+            succNext = Arrays.copyOf( succNext, capacity );
+            predNext = Arrays.copyOf( predNext, capacity );
+            edgeSrc = Arrays.copyOf( edgeSrc, capacity );
+            edgeDst = Arrays.copyOf( edgeDst, capacity );
+        }
+        edgeSrc[numEdges] = src;
+        edgeDst[numEdges] = dst;
+        succNext[numEdges] = succHead[src];
+        succHead[src] = numEdges;
+        predNext[numEdges] = predHead[dst];
+        predHead[dst] = numEdges;
+        numEdges++;
+    }
+
+    /**
+     * Adds an edge src -> dst, unless it would create a cycle, and updates the order accordingly.
+     *
+     * @return true if the edge was added, false if it was rejected.
+     */
+    boolean addEdge( int src, int dst )
+    {
+        if ( src == dst )
+            return false;
+
+        int lowerBound = ord[dst];
+        int upperBound = ord[src];
+        if ( lowerBound > upperBound )
+        {
+            addOrderedEdge( src, dst );
+            return true;
+        }
+
+        // nodes reachable from dst that are not after src in the order; finding src means there is a cycle
+        int[] forward = collect( dst, upperBound, true );
+        if ( forward == null )
+            return false;
+
+        // nodes that reach src and are not before dst in the order
+        int[] backward = collect( src, lowerBound, false );
+
+        // reuse the positions of both sets, placing the nodes that reach src before those reachable from dst
+        int[] positions = new int[forward.length + backward.length];
+        for ( int i = 0; i < backward.length; i++ )
+            positions[i] = ord[backward[i]];
+        for ( int i = 0; i < forward.length; i++ )
+            positions[backward.length + i] = ord[forward[i]];
+        Arrays.sort( positions );
+        sortByOrder( backward );
+        sortByOrder( forward );
+        for ( int i = 0; i < backward.length; i++ )
+            ord[backward[i]] = positions[i];
+        for ( int i = 0; i < forward.length; i++ )
+            ord[forward[i]] = positions[backward.length + i];
+
+        addOrderedEdge( src, dst );
+        return true;
+    }
+
+    /**
+     * Collects the nodes reachable from (or reaching, if forward is false) a node whose position lies within
+     * the given bound.
+     *
+     * @return the nodes collected, or null if a forward search reaches the node at position bound.
+     */
+    private int[] collect( int start, int bound, boolean forward )
+    {
+        int size = 0;
+        int[] nodes = new int[16];
+        int top = 0;
+        stack[top++] = start;
+        visited[start] = true;
+        boolean cycle = false;
+
+        while ( top > 0 && !cycle )
+        {
+            int node = stack[--top];
+            if ( size == nodes.length )
+                nodes = Arrays.copyOf( nodes, size * 2 );
+            nodes[size++] = node;
+
+            int edge = forward ? succHead[node] : predHead[node];
+            while ( edge >= 0 )
+            {
+                int next = forward ? edgeDst[edge] : edgeSrc[edge];
+                if ( forward && ord[next] == bound )
+                {
+                    cycle = true;
+                    break;
+                }
+                boolean inRange = forward ? ord[next] < bound : ord[next] > bound;
+                if ( inRange && !visited[next] )
+                {
+                    visited[next] = true;
+                    if ( top == stack.length )
+                        stack = Arrays.copyOf( stack, top * 2 );
+                    stack[top++] = next;
+                }
+                edge = forward ? succNext[edge] : predNext[edge];
+            }
+        }
+
+        // clear the marks, including those of the nodes still in the stack
+        for ( int i = 0; i < size; i++ )
+            visited[nodes[i]] = false;
+        for ( int i = 0; i < top; i++ )
+            visited[stack[i]] = false;
+
+        return cycle ? null : Arrays.copyOf( nodes, size );
+    }
+
+    private void sortByOrder( int[] nodes )
+    {
+        // sort (position,node) pairs packed in longs, as positions are distinct
+        long[] keys = new long[nodes.length];
+        for ( int i = 0; i < nodes.length; i++ )
+            keys[i] = ( (long) ord[nodes[i]] << 32 ) | nodes[i];
+        Arrays.sort( keys );
+        for ( int i = 0; i < nodes.length; i++ )
+            nodes[i] = (int) keys[i];
+    }
+}
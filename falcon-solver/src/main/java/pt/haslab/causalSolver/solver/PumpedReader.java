@@ -0,0 +1,117 @@
+package pt.haslab.causalSolver.solver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reader of the output of a process, which a background thread reads as soon as the process writes it. This way
+ * the process never blocks on a full output pipe while the caller is busy with something else (e.g. still writing
+ * the process's input), and the output waits in memory until the caller reads it.
+ */
+class PumpedReader
+                extends Reader
+{
+    private static final int BLOCK_SIZE = 8192;
+
+    /* marker of the end of the output, compared by identity */
+    private static final char[] EOF = new char[0];
+
+    private final Reader in;
+
+    private final BlockingQueue<char[]> blocks;
+
+    private final Thread thread;
+
+    private volatile IOException error;
+
+    /* block being read by the caller */
+    private char[] block;
+
+    private int position;
+
+    /**
+     * @param in the output of the process.
+     * @param name the name of the background thread.
+     */
+    PumpedReader( Reader in, String name )
+    {
+        this.in = in;
+        this.blocks = new LinkedBlockingQueue<char[]>();
+        this.error = null;
+        this.block = null;
+        this.position = 0;
+        this.thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                readBlocks();
+            }
+        }, name );
+        this.thread.setDaemon( true );
+        this.thread.start();
+    }
+
+    public int read( char[] cbuf, int off, int len )
+                    throws IOException
+    {
+        if ( len == 0 )
+            return 0;
+
+        if ( block == null || position == block.length )
+        {
+            try
+            {
+                block = blocks.take();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while reading from " + thread.getName() );
+            }
+            position = 0;
+            if ( block == EOF )
+            {
+                // the end of the output is seen by any later read as well
+                blocks.add( EOF );
+                block = null;
+                if ( error != null )
+                    throw new IOException( thread.getName() + " failed", error );
+                return -1;
+            }
+        }
+
+        int count = Math.min( len, block.length - position );
+        System.arraycopy( block, position, cbuf, off, count );
+        position += count;
+        return count;
+    }
+
+    public void close()
+                    throws IOException
+    {
+        in.close();
+    }
+
+    private void readBlocks()
+    {
+        char[] buffer = new char[BLOCK_SIZE];
+        try
+        {
+            int count;
+            while ( ( count = in.read( buffer ) ) >= 0 )
+            {
+                if ( count > 0 )
+                    blocks.add( Arrays.copyOf( buffer, count ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            error = e;
+        }
+        blocks.add( EOF );
+    }
+}
@@ -1,6 +1,7 @@
 package pt.haslab.causalSolver.solver;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -24,10 +25,84 @@ public interface Solver
     void writeComment( String comment )
                     throws IOException;
 
+    /**
+     * Opens an expression with the given operator, e.g. openExpression( "<" ) writes "(<".
+     * Together with writeTerm, closeExpression and endConstraint, this allows writing large constraints (e.g. the
+     * program order of a thread or the objective function) term by term straight to the solver, instead of
+     * building them as a single String first. A constraint is written by opening its top-level command
+     * (e.g. "assert"), writing its terms and nested expressions, closing every expression and calling endConstraint.
+     */
+    void openExpression( String operator )
+                    throws IOException;
+
+    /**
+     * Writes a term (variable, constant or label) of the expression currently open.
+     */
+    void writeTerm( String term )
+                    throws IOException;
+
+    /**
+     * Closes the innermost expression currently open.
+     */
+    void closeExpression()
+                    throws IOException;
+
+    /**
+     * Ends a constraint written with openExpression, writeTerm and closeExpression.
+     */
+    void endConstraint()
+                    throws IOException;
+
+    /**
+     * Declares an integer variable bounded by [min, max], i.e. writes declareIntVar( varname, min, max ).
+     * Like writeBounds and writeOrder, this hands the constraint over as plain values, so that solvers that
+     * do not need its text (e.g. HappensBeforeSolver) do not have to parse it.
+     */
+    void writeIntVar( String varname, long min, long max )
+                    throws IOException;
+
+    /**
+     * Asserts that an integer variable is bounded by [min, max].
+     */
+    void writeBounds( String varname, long min, long max )
+                    throws IOException;
+
+    /**
+     * Asserts that a variable is at least gap + 1 smaller than another one, i.e. (< (+ before gap) after), or
+     * (< before after) when gap is 0.
+     *
+     * @param gap a non-negative number.
+     * @param label the name of the assertion, or null for an unnamed one.
+     * @param soft indicates whether the assertion is soft (assert-soft) rather than hard.
+     */
+    void writeOrder( String before, String after, int gap, String label, boolean soft )
+                    throws IOException;
+
+    /**
+     * Returns the command that opens a new scope (SMT-LIB push), to be written with writeConstraint. Constraints
+     * written after it can be discarded with pop, while those written before are kept by the solver.
+     */
+    String push();
+
+    /**
+     * Returns the command that discards the constraints written since the matching push (SMT-LIB pop).
+     */
+    String pop();
+
     boolean solveModel();
 
     String readOutputLine();
 
+    /**
+     * Returns the values of integer variables in the model found by solveModel.
+     *
+     * @param variables the names of the variables.
+     * @return the values of the variables, in the same order.
+     * @throws IOException if the values cannot be obtained from the solver.
+     */
+    int[] getValues( List<String> variables )
+                    throws IOException;
+
     String cDistinct( String exp );
 
     String cAnd( String exp1, String exp2 );
@@ -0,0 +1,183 @@
+package pt.haslab.causalSolver.solver;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parses the reply of an SMT-LIB (get-value (v1 v2 ... vn)) command with integer values, i.e.
+ * ((v1 3) (v2 (- 1)) ... (vn 12)), in a single pass over its characters. Values are stored by the position of
+ * their variable in the request, so the names of the variables are skipped rather than read into Strings.
+ */
+class ValueReplyParser
+{
+    private static final int EOF = -1;
+
+    private final Reader in;
+
+    private final char[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    ValueReplyParser( Reader in )
+    {
+        this.in = in;
+        this.buffer = new char[8192];
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Reads the values of a (get-value) reply.
+     *
+     * @param count the number of variables requested.
+     * @return the values of the variables, in the order in which they were requested.
+     * @throws IOException if the reply is an error or is malformed.
+     */
+    int[] parse( int count )
+                    throws IOException
+    {
+        int[] values = new int[count];
+
+        expect( '(' );
+        int c = skipWhitespace();
+        if ( c != '(' )
+        {
+            // e.g. (error "line 10 column 5: unknown constant e7")
+            throw new IOException( "Solver replied to get-value with: (" + readRestOfLine() );
+        }
+
+        int index = 0;
+        while ( c == '(' )
+        {
+            position++;
+            if ( index == count )
+                throw new IOException( "Solver replied with more than the " + count + " values requested" );
+
+            skipAtom();
+            values[index++] = readInt();
+            expect( ')' );
+            c = skipWhitespace();
+        }
+        expect( ')' );
+
+        if ( index < count )
+            throw new IOException( "Solver replied with " + index + " out of " + count + " values requested" );
+        return values;
+    }
+
+    /**
+     * Reads an integer, either a numeral or a negative number (- n).
+     */
+    private int readInt()
+                    throws IOException
+    {
+        int c = skipWhitespace();
+        boolean negative = false;
+        if ( c == '(' )
+        {
+            position++;
+            expect( '-' );
+            negative = true;
+            c = skipWhitespace();
+        }
+
+        if ( c < '0' || c > '9' )
+            throw new IOException( "Expected an integer value in the solver's reply, found '" + (char) c + "'" );
+
+        long value = 0;
+        while ( c >= '0' && c <= '9' )
+        {
+            value = value * 10 + ( c - '0' );
+            if ( value > Integer.MAX_VALUE )
+                throw new IOException( "Value out of range in the solver's reply" );
+            position++;
+            c = peek();
+        }
+
+        if ( negative )
+            expect( ')' );
+        return (int) ( negative ? -value : value );
+    }
+
+    /**
+     * Skips a symbol (possibly quoted with |...|).
+     */
+    private void skipAtom()
+                    throws IOException
+    {
+        int c = skipWhitespace();
+        if ( c == '|' )
+        {
+            position++;
+            while ( ( c = peek() ) != '|' && c != EOF )
+                position++;
+            position++;
+            return;
+        }
+
+        while ( c != EOF && c != '(' && c != ')' && !Character.isWhitespace( c ) )
+        {
+            position++;
+            c = peek();
+        }
+    }
+
+    private void expect( char expected )
+                    throws IOException
+    {
+        int c = skipWhitespace();
+        if ( c != expected )
+        {
+            throw new IOException( "Expected '" + expected + "' in the solver's reply, found "
+                                                   + ( c == EOF ? "end of stream" : "'" + (char) c + "'" ) );
+        }
+        position++;
+    }
+
+    private int skipWhitespace()
+                    throws IOException
+    {
+        int c = peek();
+        while ( c != EOF && Character.isWhitespace( c ) )
+        {
+            position++;
+            c = peek();
+        }
+        return c;
+    }
+
+    private String readRestOfLine()
+                    throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c = peek();
+        while ( c != EOF && c != '\n' )
+        {
+            line.append( (char) c );
+            position++;
+            c = peek();
+        }
+        return line.toString();
+    }
+
+    /**
+     * Returns the next character without consuming it, refilling the buffer if needed.
+     */
+    private int peek()
+                    throws IOException
+    {
+        if ( position >= limit )
+        {
+            limit = in.read( buffer, 0, buffer.length );
+            position = 0;
+            if ( limit <= 0 )
+            {
+                limit = 0;
+                return EOF;
+            }
+        }
+        return buffer[position];
+    }
+}
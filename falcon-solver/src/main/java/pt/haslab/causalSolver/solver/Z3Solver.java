@@ -14,10 +14,15 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Created by nunomachado on 03/04/17.
+ *
+ * The solver's input, its output and the copy of the model are each handled by a thread of their own, so that
+ * generating the constraints overlaps with the solver parsing them and neither side blocks on a full pipe.
  */
 public class Z3Solver
                 implements Solver
@@ -26,16 +31,37 @@ public class Z3Solver
 
     private static Z3Solver instance = null;
 
-    private static Process z3Process;
+    /* maximum number of chunks (of 64 KB) waiting to be written to the solver or to the model file */
+    private static final int QUEUE_CAPACITY = 64;
 
-    private static BufferedReader reader;
+    /* file to which a copy of the model is written, or null to not write it */
+    private final String modelFile;
 
-    private static BufferedWriter writer;
+    private Process z3Process;
 
-    private static FileWriter outfile;
+    private BufferedReader reader;
+
+    private Writer writer;
+
+    /* null when no copy of the model is written */
+    private Writer outfile;
+
+    /* number of expressions open in the constraint being streamed */
+    private int openExpressions = 0;
 
     private Z3Solver()
     {
+        this( "model.txt" );
+    }
+
+    /**
+     * Creates a solver with its own Z3 process (started by init), so that several models can be solved at once.
+     *
+     * @param modelFile the file to which a copy of the model is written, or null to not write it.
+     */
+    public Z3Solver( String modelFile )
+    {
+        this.modelFile = modelFile;
     }
 
     public static Z3Solver getInstance()
@@ -51,38 +77,78 @@ public class Z3Solver
                     throws IOException
     {
         ProcessBuilder builder = new ProcessBuilder( solverPath, "-smt2", "-in" );
-        builder.redirectErrorStream( true );
+        builder.redirectErrorStream( false );
         z3Process = builder.start();
         InputStream pout = z3Process.getInputStream();
         OutputStream pin = z3Process.getOutputStream();
 
-        reader = new BufferedReader( new InputStreamReader( pout ) );
-        writer = new BufferedWriter( new OutputStreamWriter( pin ) );
-        outfile = new FileWriter( new File( "model.txt" ) );
+        reader = new BufferedReader( new PumpedReader( new InputStreamReader( pout ), "z3-reader" ) );
+        writer = new AsyncWriter( new BufferedWriter( new OutputStreamWriter( pin ) ), QUEUE_CAPACITY, "z3-writer" );
+        if ( modelFile != null )
+            outfile = new AsyncWriter( new FileWriter( new File( modelFile ) ), QUEUE_CAPACITY, "model-writer" );
+        logErrors( z3Process.getErrorStream() );
 
         this.writeConstraint( "(set-option :produce-unsat-cores true)" );
     }
 
+    /**
+     * Logs the error output of the solver, which is kept apart from the replies to the commands.
+     */
+    private static void logErrors( InputStream perr )
+    {
+        final BufferedReader errors = new BufferedReader( new InputStreamReader( perr ) );
+        Thread thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    String line;
+                    while ( ( line = errors.readLine() ) != null )
+                    {
+                        logger.warn( "Solver error output: " + line );
+                    }
+                }
+                catch ( IOException e )
+                {
+                    //the process was destroyed
+                }
+            }
+        }, "z3-errors" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
     public void flush()
                     throws IOException
     {
-        outfile.flush();
+        if ( outfile != null )
+            outfile.flush();
         writer.flush();
     }
 
     public void close()
                     throws IOException
     {
+        try
+        {
+            writer.close();
+        }
+        catch ( IOException e )
+        {
+            //the solver may have exited already
+        }
         z3Process.destroy();
-        outfile.close();
+        if ( outfile != null )
+            outfile.close();
     }
 
     public void writeConstraint( String constraint )
                     throws IOException
     {
-        writer.write( constraint + "\n" );
+        write( constraint );
+        write( '\n' );
         //tracer.info(constraint);
-        outfile.write( constraint + "\n" );
     }
 
     public void writeComment( String comment )
@@ -90,7 +156,93 @@ public class Z3Solver
     {
         writer.write( "; " + comment + "\n" );
         //tracer.info("\n; "+comment);
-        outfile.write( "\n; " + comment + "\n" );
+        if ( outfile != null )
+            outfile.write( "\n; " + comment + "\n" );
+    }
+
+    public void openExpression( String operator )
+                    throws IOException
+    {
+        if ( openExpressions > 0 )
+            write( ' ' );
+
+        write( '(' );
+        write( operator );
+        openExpressions++;
+    }
+
+    public void writeTerm( String term )
+                    throws IOException
+    {
+        write( ' ' );
+        write( term );
+    }
+
+    public void closeExpression()
+                    throws IOException
+    {
+        write( ')' );
+        openExpressions--;
+    }
+
+    public void endConstraint()
+                    throws IOException
+    {
+        write( '\n' );
+        openExpressions = 0;
+    }
+
+    public void writeIntVar( String varname, long min, long max )
+                    throws IOException
+    {
+        writeConstraint( "(declare-const " + varname + " Int)\n" + bounds( varname, min, max ) );
+    }
+
+    public void writeBounds( String varname, long min, long max )
+                    throws IOException
+    {
+        writeConstraint( bounds( varname, min, max ) );
+    }
+
+    public void writeOrder( String before, String after, int gap, String label, boolean soft )
+                    throws IOException
+    {
+        StringBuilder constraint = new StringBuilder( soft ? "(assert-soft " : "(assert " );
+        if ( label != null )
+            constraint.append( "(! " );
+        if ( gap == 0 )
+            constraint.append( "(< " ).append( before );
+        else
+            constraint.append( "(< (+ " ).append( before ).append( ' ' ).append( gap ).append( ')' );
+        constraint.append( ' ' ).append( after ).append( ')' );
+        if ( label != null )
+            constraint.append( ":named " ).append( label ).append( ')' );
+        constraint.append( ')' );
+        writeConstraint( constraint.toString() );
+    }
+
+    private static String bounds( String varname, long min, long max )
+    {
+        return "(assert (and (>= " + varname + " " + min + ") (<= " + varname + " " + max + ")))";
+    }
+
+    /**
+     * Writes a piece of a constraint both to the solver and to the model file.
+     */
+    private void write( String str )
+                    throws IOException
+    {
+        writer.write( str );
+        if ( outfile != null )
+            outfile.write( str );
+    }
+
+    private void write( char c )
+                    throws IOException
+    {
+        writer.write( c );
+        if ( outfile != null )
+            outfile.write( c );
     }
 
     public String readOutputLine()
@@ -99,7 +251,8 @@ public class Z3Solver
         try
         {
             ret = reader.readLine();
-            logger.info("Read line from solver output: " + ret);
+            if ( logger.isDebugEnabled() )
+                logger.debug( "Read line from solver output: " + ret );
 
         }
         catch ( IOException e )
@@ -115,22 +268,49 @@ public class Z3Solver
         try
         {
             writeConstraint( checkSat() );
-            writeConstraint( "(get-model)" );
-            writeConstraint( "(get-unsat-core)" );
-            outfile.flush();
-            writer.flush();
+            flush();
 
             isSat = readOutputLine();
-            while ( !isSat.equals( "sat" ) && !isSat.equals( "unsat" ) )
+            while ( isSat != null && !isSat.equals( "sat" ) && !isSat.equals( "unsat" ) )
             {
                 isSat = readOutputLine();
             }
+
+            // the unsat core is only useful to explain why there is no causal order
+            if ( "unsat".equals( isSat ) )
+            {
+                writeConstraint( "(get-unsat-core)" );
+                flush();
+                logger.info( "Unsat core: " + readOutputLine() );
+            }
         }
         catch ( Exception e )
         {
             e.printStackTrace();
         }
-        return isSat.equals( "sat" );
+        return "sat".equals( isSat );
+    }
+
+    /**
+     * Requests the values of all variables with a single (get-value) command, whose reply is parsed as it is read.
+     * As the reply is read in blocks, any solver output that follows it is discarded.
+     */
+    public int[] getValues( List<String> variables )
+                    throws IOException
+    {
+        if ( variables.isEmpty() )
+            return new int[0];
+
+        write( "(get-value (" );
+        for ( String var : variables )
+        {
+            write( var );
+            write( ' ' );
+        }
+        write( "))\n" );
+        flush();
+
+        return new ValueReplyParser( reader ).parse( variables.size() );
     }
 
     public String cDistinct( String exp )
@@ -220,13 +400,13 @@ public class Z3Solver
 
     public String cSummation( Set<String> sum )
     {
-        String res = "(+";
+        StringBuilder res = new StringBuilder( "(+" );
         for ( String s : sum )
         {
-            res += ( " " + s );
+            res.append( ' ' ).append( s );
         }
-        res += ")";
-        return res;
+        res.append( ')' );
+        return res.toString();
     }
 
     public String cMinimize( String constraint )
@@ -254,7 +434,7 @@ public class Z3Solver
 
     public String declareIntVar( String varname, String min, String max )
     {
-        Stats.numVarConstraints++;
+        Stats.numVarConstraints.incrementAndGet();
         String ret = ( "(declare-const " + varname + " Int)\n" );
         ret += ( "(assert (and (>= " + varname + " " + min + ") (<= " + varname + " " + max + ")))" );
         return ret;
@@ -262,25 +442,25 @@ public class Z3Solver
 
     public String postAssert( String constraint )
     {
-        Stats.numHBConstraints++;
+        Stats.numHBConstraints.incrementAndGet();
         return ( "(assert " + constraint + ")" );
     }
 
     public String postNamedAssert( String constraint, String label )
     {
-        Stats.numHBConstraints++;
+        Stats.numHBConstraints.incrementAndGet();
         return ( "(assert (! " + constraint + ":named " + label + "))" );
     }
 
     public String postSoftAssert( String constraint )
     {
-        Stats.numHBConstraints++;
+        Stats.numHBConstraints.incrementAndGet();
         return ( "(assert-soft " + constraint + ")" );
     }
 
     public String postNamedSoftAssert( String constraint, String label )
     {
-        Stats.numHBConstraints++;
+        Stats.numHBConstraints.incrementAndGet();
         return ( "(assert-soft (! " + constraint + ":named " + label + "))" );
     }
 
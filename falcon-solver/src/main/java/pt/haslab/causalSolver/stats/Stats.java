@@ -1,5 +1,7 @@
 package pt.haslab.causalSolver.stats;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Created by nunomachado on 11/05/17.
  */
@@ -8,24 +10,131 @@ public class Stats
 
     public static long numEventsTrace = 0;
 
-    public static long numHBConstraints = 0;
+    /* constraint counters are updated by all the models being built in parallel */
+    public static final AtomicLong numHBConstraints = new AtomicLong();
 
     public static double buildingModeltime = 0;
 
     public static double solvingTime = 0;
 
-    public static int numVarConstraints = 0;
+    public static final AtomicLong numVarConstraints = new AtomicLong();
+
+    /* pairs of critical sections on the same locking object: ordered by a disjunction, left out as the other
+    constraints already order them, ordered by a single constraint as the other constraints rule out one order,
+    and left out as they are in the same chain of critical sections committed to their timestamp order */
+    public static final AtomicLong numLockConstraints = new AtomicLong();
+
+    public static final AtomicLong numLockPairsPruned = new AtomicLong();
+
+    public static final AtomicLong numLockPairsDecided = new AtomicLong();
+
+    public static final AtomicLong numLockPairsCommitted = new AtomicLong();
+
+    /* pairs of waits and notifies on the same condition: encoded as a possible match, ruled out as the other
+    constraints order the notify after the wait, and ruled out by the wait-notify window */
+    public static final AtomicLong numWaitPairs = new AtomicLong();
+
+    public static final AtomicLong numWaitPairsPruned = new AtomicLong();
+
+    public static final AtomicLong numWaitPairsOutOfWindow = new AtomicLong();
+
+    /* number of thread-local events left out of the solver, whose clocks follow from program order */
+    public static final AtomicLong numLocalEvents = new AtomicLong();
+
+    /* number of models solved separately, one per group of independent components */
+    public static int numModels = 1;
+
+    /* number of windows in which the trace was solved, or 0 if it was not split into windows */
+    public static int numWindows = 0;
+
+    /* number of appended segments added to the solved model, and the time taken to add and solve them */
+    public static int numSegments = 0;
+
+    public static double segmentsTime = 0;
+
+    /* number of (thread, count) entries of the vector clocks emitted in the output, and the time to compute them */
+    public static long numClockEntries = 0;
+
+    public static double vectorClocksTime = 0;
+
+    /* number of data races found (one per pair of lines of code), or -1 if they were not checked */
+    public static long numDataRaces = -1;
+
+    public static double dataRacesTime = 0;
+
+    /* number of message races found (pairs of RCV events), or -1 if they were not checked */
+    public static long numMessageRaces = -1;
+
+    public static double messageRacesTime = 0;
 
     public static void printStats()
     {
         System.out.println( "\n======= RESULTS =======" );
         System.out.println( "> Number of events in the trace:\t" + numEventsTrace );
-        System.out.println( "> Number of constraints in the model:\t" + ( numHBConstraints + numVarConstraints ) );
-        System.out.println( "   >> Variable declaration:\t\t" + numVarConstraints );
-        System.out.println( "   >> Happens-before relationships:\t" + numHBConstraints );
-        System.out.println(
-                        "> Time to generate the constraint model:\t" + ( buildingModeltime / (double) 1000 )
-                                        + " seconds" );
-        System.out.println( "> Time to solve the constraints:\t" + ( solvingTime / (double) 1000 ) + " seconds" );
+        System.out.println( "> Number of constraints in the model:\t" + ( numHBConstraints.get() + numVarConstraints.get() ) );
+        System.out.println( "   >> Variable declaration:\t\t" + numVarConstraints.get() );
+        System.out.println( "   >> Happens-before relationships:\t" + numHBConstraints.get() );
+        if ( numLocalEvents.get() > 0 )
+            System.out.println( "> Thread-local events left out of the solver:\t" + numLocalEvents.get() );
+        long lockPairs = numLockConstraints.get() + numLockPairsPruned.get() + numLockPairsDecided.get()
+                        + numLockPairsCommitted.get();
+        if ( lockPairs > 0 )
+        {
+            System.out.println( "> Pairs of critical sections on the same lock:\t" + lockPairs );
+            System.out.println( "   >> Ordered by the solver (disjunctions):\t" + numLockConstraints.get() );
+            System.out.println( "   >> Already ordered by happens-before:\t" + numLockPairsPruned.get() );
+            System.out.println( "   >> Order decided by happens-before:\t" + numLockPairsDecided.get() );
+            System.out.println( "   >> Committed to the timestamp order:\t" + numLockPairsCommitted.get() );
+        }
+        long waitPairs = numWaitPairs.get() + numWaitPairsPruned.get() + numWaitPairsOutOfWindow.get();
+        if ( waitPairs > 0 )
+        {
+            System.out.println( "> Pairs of waits and notifies on the same condition:\t" + waitPairs );
+            System.out.println( "   >> Candidate matches (binary variables):\t" + numWaitPairs.get() );
+            System.out.println( "   >> Ruled out by happens-before:\t" + numWaitPairsPruned.get() );
+            System.out.println( "   >> Ruled out by the wait-notify window:\t" + numWaitPairsOutOfWindow.get() );
+        }
+        if ( numWindows > 0 )
+        {
+            System.out.println( "> Number of windows solved:\t" + numWindows );
+            System.out.println( "> Time to generate and solve all the windows (pipelined):\t"
+                                                + ( buildingModeltime / (double) 1000 ) + " seconds" );
+        }
+        else if ( numModels > 1 )
+        {
+            System.out.println( "> Number of independent models solved:\t" + numModels );
+            System.out.println( "> Time to generate and solve all the models (in parallel):\t"
+                                                + ( buildingModeltime / (double) 1000 ) + " seconds" );
+        }
+        else
+        {
+            System.out.println(
+                            "> Time to generate the constraint model:\t" + ( buildingModeltime / (double) 1000 )
+                                            + " seconds" );
+            System.out.println( "> Time to solve the constraints:\t" + ( solvingTime / (double) 1000 ) + " seconds" );
+            if ( numSegments > 0 )
+            {
+                System.out.println( "> Number of appended segments solved:\t" + numSegments );
+                System.out.println( "> Time to add and solve the segments:\t" + ( segmentsTime / (double) 1000 )
+                                                    + " seconds" );
+            }
+        }
+        if ( numClockEntries > 0 )
+        {
+            System.out.println( "> Vector clock entries stored:\t" + numClockEntries );
+            System.out.println( "> Time to compute the vector clocks:\t" + ( vectorClocksTime / (double) 1000 )
+                                                + " seconds" );
+        }
+        if ( numDataRaces >= 0 )
+        {
+            System.out.println( "> Data races (pairs of lines of code):\t" + numDataRaces );
+            System.out.println( "> Time to find the data races:\t" + ( dataRacesTime / (double) 1000 ) + " seconds" );
+        }
+        if ( numMessageRaces >= 0 )
+        {
+            System.out.println( "> Message races (pairs of RCV events):\t" + numMessageRaces );
+            System.out.println( "> Time to find the message races:\t" + ( messageRacesTime / (double) 1000 )
+                                                + " seconds" );
+        }
     }
 }
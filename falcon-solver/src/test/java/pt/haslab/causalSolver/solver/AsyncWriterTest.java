@@ -0,0 +1,200 @@
+package pt.haslab.causalSolver.solver;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests handing the output of AsyncWriter to a destination that fails or is slow.
+ */
+public class AsyncWriterTest
+{
+    @Test
+    public void testErrorIsReportedByLaterCalls()
+                    throws Exception
+    {
+        IOException failure = new IOException( "broken pipe" );
+        FakeWriter destination = new FakeWriter( failure, null );
+        AsyncWriter writer = new AsyncWriter( destination, 1, "test-writer" );
+
+        // with room for a single chunk, the third flush can only be queued once the thread has taken the previous
+        // ones, i.e. after the first chunk failed
+        writer.write( "(assert (< a b))\n" );
+        try
+        {
+            writer.flush();
+            writer.flush();
+            writer.flush();
+            fail( "The error of the destination was not reported" );
+        }
+        catch ( IOException e )
+        {
+            assertSame( failure, e.getCause() );
+        }
+
+        // the destination is closed even after the error, which close reports again, and closing twice is harmless
+        try
+        {
+            writer.close();
+            fail( "The error of the destination was not reported by close" );
+        }
+        catch ( IOException e )
+        {
+            assertSame( failure, e.getCause() );
+        }
+        assertTrue( destination.closed );
+        writer.close();
+    }
+
+    @Test
+    public void testFlushDoesNotWaitForSlowDestination()
+                    throws Exception
+    {
+        CountDownLatch release = new CountDownLatch( 1 );
+        FakeWriter destination = new FakeWriter( null, release );
+        AsyncWriter writer = new AsyncWriter( destination, 4, "test-writer" );
+
+        writer.write( "(declare-const a Int)\n" );
+        writer.flush();
+        writer.write( "(check-sat)\n" );
+        writer.flush();
+        // nothing has been written yet, as the destination is still blocked in its first write
+        assertEquals( "", destination.written() );
+
+        release.countDown();
+        writer.close();
+        assertEquals( "(declare-const a Int)\n(check-sat)\n", destination.written() );
+        assertTrue( destination.closed );
+    }
+
+    @Test
+    public void testFlushHandsOffDataBeforeReadingTheReply()
+                    throws Exception
+    {
+        // a slow solver that replies to (check-sat) when flushed, as Z3 does once it has read its input
+        final PipedWriter replies = new PipedWriter();
+        PumpedReader reader = new PumpedReader( new PipedReader( replies ), "test-reader" );
+        Writer solver = new Writer()
+        {
+            private final StringBuilder input = new StringBuilder();
+
+            public void write( char[] cbuf, int off, int len )
+                            throws IOException
+            {
+                pause( 20 );
+                input.append( cbuf, off, len );
+            }
+
+            public void flush()
+                            throws IOException
+            {
+                if ( input.indexOf( "(check-sat)" ) >= 0 )
+                {
+                    input.setLength( 0 );
+                    replies.write( "sat\n" );
+                    replies.flush();
+                }
+            }
+
+            public void close()
+                            throws IOException
+            {
+                replies.close();
+            }
+        };
+        AsyncWriter writer = new AsyncWriter( solver, 1, "test-writer" );
+
+        BufferedReader replyReader = new BufferedReader( reader );
+        for ( int i = 0; i < 3; i++ )
+        {
+            writer.write( "(assert (< a" + i + " b" + i + "))\n" );
+            writer.write( "(check-sat)\n" );
+            writer.flush();
+            assertEquals( "sat", replyReader.readLine() );
+        }
+        writer.close();
+        assertEquals( null, replyReader.readLine() );
+        reader.close();
+    }
+
+    private static void pause( long millis )
+                    throws IOException
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    /**
+     * Destination that fails on every write, or that blocks its writes until released.
+     */
+    private static class FakeWriter
+                    extends Writer
+    {
+        private final IOException failure;
+
+        private final CountDownLatch release;
+
+        private final StringBuilder written = new StringBuilder();
+
+        volatile boolean closed = false;
+
+        FakeWriter( IOException failure, CountDownLatch release )
+        {
+            this.failure = failure;
+            this.release = release;
+        }
+
+        public void write( char[] cbuf, int off, int len )
+                        throws IOException
+        {
+            if ( failure != null )
+                throw failure;
+            try
+            {
+                if ( release != null && !release.await( 10, TimeUnit.SECONDS ) )
+                    throw new IOException( "Never released" );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new IOException( e );
+            }
+            synchronized ( written )
+            {
+                written.append( cbuf, off, len );
+            }
+        }
+
+        public void flush()
+        {
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+
+        String written()
+        {
+            synchronized ( written )
+            {
+                return written.toString();
+            }
+        }
+    }
+}
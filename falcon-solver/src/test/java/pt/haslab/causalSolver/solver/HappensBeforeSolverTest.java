@@ -0,0 +1,344 @@
+package pt.haslab.causalSolver.solver;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests solving happens-before models in the JVM, and handing the other models over to the fallback solver.
+ */
+public class HappensBeforeSolverTest
+{
+    @Test
+    public void testLongestPath()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b", "c", "d", "e" );
+        solver.writeConstraint( solver.postNamedAssert( "(< a b c)", "PO0" ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "d" ) ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "d", "c" ) ) );
+        // streamed chain
+        solver.openExpression( "assert" );
+        solver.openExpression( "<" );
+        solver.writeTerm( "b" );
+        solver.writeTerm( "d" );
+        solver.closeExpression();
+        solver.closeExpression();
+        solver.endConstraint();
+        minimize( solver, "a", "b", "c", "d", "e" );
+
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 1, 3, 2, 0 }, "a", "b", "c", "d", "e" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testGapEdges()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b", "c" );
+        // b is at least 4 after a, as if three events were left out between them
+        solver.writeConstraint( solver.postNamedAssert( solver.cLt( solver.cPlus( "a", "3" ), "b" ), "PO0" ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "c" ) ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( solver.cPlus( "c", "1" ), "b" ) ) );
+        minimize( solver, "a", "b", "c" );
+
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 4, 1 }, "a", "b", "c" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testStructuredConstraints()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = new HappensBeforeSolver( fallback );
+        solver.init( "z3" );
+        solver.writeIntVar( "a", 0, 100 );
+        solver.writeIntVar( "b", 0, 100 );
+        solver.writeIntVar( "c", 0, 100 );
+        solver.writeBounds( "a", 2, 100 );
+        solver.writeOrder( "a", "b", 3, "PO0", false );
+        solver.writeOrder( "a", "c", 0, null, false );
+        solver.writeOrder( "c", "b", 1, null, false );
+        solver.writeOrder( "b", "c", 0, "TS0", true );
+        minimize( solver, "a", "b", "c" );
+
+        // the soft constraint closes a cycle and is dropped
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 2, 6, 3 }, "a", "b", "c" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testStructuredConstraintsAreReplayed()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = new HappensBeforeSolver( fallback );
+        solver.init( "z3" );
+        solver.writeIntVar( "a", 0, 100 );
+        solver.writeIntVar( "b", 0, 100 );
+        solver.writeOrder( "a", "b", 3, "PO0", false );
+        solver.writeOrder( "b", "a", 0, null, true );
+        solver.writeBounds( "a", 2, 100 );
+        assertFalse( fallback.initiated );
+
+        // the fallback solver gets the same text as if the constraints had been written to it in the first place
+        solver.writeConstraint( solver.postAssert( solver.cOr( solver.cLt( "a", "b" ), solver.cLt( "b", "a" ) ) ) );
+        assertTrue( fallback.initiated );
+        assertEquals( Arrays.asList( "(declare-const a Int)\n(assert (and (>= a 0) (<= a 100)))",
+                                     "(declare-const b Int)\n(assert (and (>= b 0) (<= b 100)))",
+                                     "(assert (! (< (+ a 3) b):named PO0))",
+                                     "(assert-soft (< b a))",
+                                     "(assert (and (>= a 2) (<= a 100)))",
+                                     "(assert (or (< a b) (< b a)))" ), fallback.commands );
+
+        // later ones go to the fallback solver directly
+        solver.writeOrder( "a", "b", 0, "LT", false );
+        assertEquals( "(assert (! (< a b):named LT))", fallback.commands.get( fallback.commands.size() - 1 ) );
+        solver.close();
+    }
+
+    @Test
+    public void testCycleIsUnsat()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b", "c" );
+        solver.writeConstraint( solver.postAssert( "(< a b c)" ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "c", "a" ) ) );
+
+        assertFalse( solver.solveModel() );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testUpperBoundIsUnsat()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = new HappensBeforeSolver( fallback );
+        solver.init( "z3" );
+        solver.writeConstraint( solver.declareIntVar( "a", 0, 1 ) );
+        solver.writeConstraint( solver.declareIntVar( "b", 0, 1 ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( solver.cPlus( "a", "1" ), "b" ) ) );
+
+        assertFalse( solver.solveModel() );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testSoftConstraints()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b", "c" );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+        solver.writeConstraint( solver.postSoftAssert( solver.cLt( "b", "c" ) ) );
+        // conflicts with the hard constraint and is dropped
+        solver.writeConstraint( solver.postSoftAssert( solver.cLt( "b", "a" ) ) );
+        minimize( solver, "a", "b", "c" );
+
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 1, 2 }, "a", "b", "c" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testDelegation()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b" );
+        solver.writeComment( "PROGRAM ORDER" );
+        solver.openExpression( "assert" );
+        solver.openExpression( "<" );
+        solver.writeTerm( "a" );
+        solver.writeTerm( "b" );
+        solver.closeExpression();
+        solver.closeExpression();
+        solver.endConstraint();
+        assertFalse( fallback.initiated );
+
+        // a disjunction is not a happens-before relation, so everything written so far is replayed to Z3
+        String locking = solver.postAssert( solver.cOr( solver.cLt( "a", "b" ), solver.cLt( "b", "a" ) ) );
+        solver.writeConstraint( locking );
+        assertTrue( fallback.initiated );
+        List<String> expected = new ArrayList<String>();
+        expected.add( solver.declareIntVar( "a", 0, 100 ) );
+        expected.add( solver.declareIntVar( "b", 0, 100 ) );
+        expected.addAll( Arrays.asList( "; PROGRAM ORDER", "(assert", "(<", "a", "b", ")", ")", "END" ) );
+        expected.add( locking );
+        assertEquals( expected, fallback.commands );
+
+        // later commands, the solving and the values go to Z3 directly
+        solver.writeConstraint( solver.postAssert( solver.cLt( "b", "a" ) ) );
+        assertEquals( "(assert (< b a))", fallback.commands.get( fallback.commands.size() - 1 ) );
+        assertTrue( solver.solveModel() );
+        assertEquals( 1, fallback.solved );
+        assertValues( solver, new int[] { 0, 0 }, "a", "b" );
+        solver.close();
+        assertTrue( fallback.closed );
+    }
+
+    @Test
+    public void testDelegationWithoutLowerBound()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = new HappensBeforeSolver( fallback );
+        solver.init( "z3" );
+        solver.writeConstraint( solver.declareIntVar( "a" ) );
+        solver.writeConstraint( solver.declareIntVar( "b", 0, 10 ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+        assertFalse( fallback.initiated );
+
+        assertTrue( solver.solveModel() );
+        assertTrue( fallback.initiated );
+        assertEquals( 3, fallback.commands.size() );
+        assertEquals( 1, fallback.solved );
+        solver.close();
+    }
+
+    @Test
+    public void testPushExtendsClocks()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b" );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+        assertTrue( solver.solveModel() );
+
+        // the new node only follows old ones, so the old clocks are kept
+        solver.writeConstraint( solver.push() );
+        solver.writeConstraint( solver.declareIntVar( "c", 0, 100 ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "b", "c" ) ) );
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 1, 2 }, "a", "b", "c" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testPushWithEdgeToOldNode()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b" );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+        assertTrue( solver.solveModel() );
+
+        // the new edge ends in an old node, which moves, so the clocks cannot be extended and are computed again
+        solver.writeConstraint( solver.push() );
+        solver.writeConstraint( solver.declareIntVar( "c", 0, 100 ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "c", "a" ) ) );
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 1, 2, 0 }, "a", "b", "c" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testPopAfterUnsat()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b" );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+        assertTrue( solver.solveModel() );
+
+        solver.writeConstraint( solver.push() );
+        solver.writeConstraint( solver.declareIntVar( "c", 0, 100 ) );
+        solver.writeConstraint( solver.postAssert( "(< b c a)" ) );
+        assertFalse( solver.solveModel() );
+
+        // the node, edges and bounds of the scope are gone, and the clocks are those of the previous model
+        solver.writeConstraint( solver.pop() );
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 1 }, "a", "b" );
+        try
+        {
+            solver.getValues( Arrays.asList( "c" ) );
+            fail( "c was discarded by pop" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+
+        // the model can be extended again, with the variable of the discarded scope declared anew
+        solver.writeConstraint( solver.push() );
+        solver.writeConstraint( solver.declareIntVar( "c", 0, 100 ) );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "b", "c" ) ) );
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 1, 2 }, "a", "b", "c" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testPopRestoresBounds()
+                    throws Exception
+    {
+        RecordingSolver fallback = new RecordingSolver();
+        HappensBeforeSolver solver = newSolver( fallback, "a", "b" );
+        solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+        assertTrue( solver.solveModel() );
+
+        solver.writeConstraint( solver.push() );
+        solver.writeConstraint( solver.postAssert( solver.cAnd( solver.cGeq( "a", "5" ), solver.cLeq( "a", "100" ) ) ) );
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 5, 6 }, "a", "b" );
+
+        solver.writeConstraint( solver.pop() );
+        assertTrue( solver.solveModel() );
+        assertValues( solver, new int[] { 0, 1 }, "a", "b" );
+        solver.close();
+        assertFalse( fallback.initiated );
+    }
+
+    private static HappensBeforeSolver newSolver( Solver fallback, String... vars )
+                    throws IOException
+    {
+        HappensBeforeSolver solver = new HappensBeforeSolver( fallback );
+        solver.init( "z3" );
+        for ( String var : vars )
+            solver.writeConstraint( solver.declareIntVar( var, 0, 100 ) );
+        return solver;
+    }
+
+    private static void minimize( Solver solver, String... vars )
+                    throws IOException
+    {
+        solver.openExpression( "minimize" );
+        solver.openExpression( "+" );
+        for ( String var : vars )
+            solver.writeTerm( var );
+        solver.closeExpression();
+        solver.closeExpression();
+        solver.endConstraint();
+    }
+
+    private static void assertValues( Solver solver, int[] expected, String... vars )
+                    throws IOException
+    {
+        assertTrue( Arrays.equals( expected, solver.getValues( Arrays.asList( vars ) ) ) );
+    }
+}
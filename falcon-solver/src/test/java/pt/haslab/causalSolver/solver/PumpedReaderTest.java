@@ -0,0 +1,139 @@
+package pt.haslab.causalSolver.solver;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.junit.Test;
+
+/**
+ * Tests reading the output of a process through PumpedReader, when the output fails or comes slowly.
+ */
+public class PumpedReaderTest
+{
+    @Test
+    public void testErrorIsReportedAfterTheOutput()
+                    throws Exception
+    {
+        IOException failure = new IOException( "stream closed" );
+        FakeReader process = new FakeReader( new String[] { "sat\n", "((a 1))\n" }, 0, failure );
+        PumpedReader reader = new PumpedReader( process, "test-reader" );
+
+        // the output read before the error is delivered first
+        assertEquals( "sat\n((a 1))\n", readUntilEnd( reader ) );
+
+        // the error is then reported by every read, and the process output can still be closed
+        for ( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                reader.read( new char[16], 0, 16 );
+                fail( "The error of the process output was not reported" );
+            }
+            catch ( IOException e )
+            {
+                assertSame( failure, e.getCause() );
+            }
+        }
+        reader.close();
+        assertTrue( process.closed );
+    }
+
+    @Test
+    public void testSlowOutput()
+                    throws Exception
+    {
+        String[] lines = new String[20];
+        StringBuilder expected = new StringBuilder();
+        for ( int i = 0; i < lines.length; i++ )
+        {
+            lines[i] = "(v" + i + " " + i + ")\n";
+            expected.append( lines[i] );
+        }
+        FakeReader process = new FakeReader( lines, 5, null );
+        PumpedReader reader = new PumpedReader( process, "test-reader" );
+
+        // reads wait for the output still to come, which arrives whole and in order, and the end is seen again
+        assertEquals( expected.toString(), readUntilEnd( reader ) );
+        assertEquals( -1, reader.read( new char[16], 0, 16 ) );
+        assertEquals( 0, reader.read( new char[16], 0, 0 ) );
+        reader.close();
+        assertTrue( process.closed );
+    }
+
+    /**
+     * Reads a reader until the end of its output or an error, with a small buffer.
+     */
+    private static String readUntilEnd( Reader reader )
+    {
+        StringBuilder read = new StringBuilder();
+        char[] buffer = new char[5];
+        try
+        {
+            int count;
+            while ( ( count = reader.read( buffer, 0, buffer.length ) ) >= 0 )
+                read.append( buffer, 0, count );
+        }
+        catch ( IOException e )
+        {
+            // reported again by the next read
+        }
+        return read.toString();
+    }
+
+    /**
+     * Output of a process, given as a sequence of writes made some time apart, followed by the end of the output
+     * or by an error.
+     */
+    private static class FakeReader
+                    extends Reader
+    {
+        private final String[] writes;
+
+        private final long delay;
+
+        private final IOException failure;
+
+        private int next = 0;
+
+        volatile boolean closed = false;
+
+        FakeReader( String[] writes, long delay, IOException failure )
+        {
+            this.writes = writes;
+            this.delay = delay;
+            this.failure = failure;
+        }
+
+        public int read( char[] cbuf, int off, int len )
+                        throws IOException
+        {
+            if ( next == writes.length )
+            {
+                if ( failure != null )
+                    throw failure;
+                return -1;
+            }
+
+            try
+            {
+                Thread.sleep( delay );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new IOException( e );
+            }
+            String write = writes[next++];
+            write.getChars( 0, write.length(), cbuf, off );
+            return write.length();
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package pt.haslab.causalSolver.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Solver that records the commands it receives instead of starting Z3, e.g. as the fallback of a
+ * HappensBeforeSolver. Every model is satisfiable, with all the variables at 0.
+ */
+public class RecordingSolver
+                extends Z3Solver
+{
+    public final List<String> commands = new ArrayList<String>();
+
+    public boolean initiated = false;
+
+    public boolean closed = false;
+
+    public int solved = 0;
+
+    public RecordingSolver()
+    {
+        super( null );
+    }
+
+    @Override
+    public void init( String solverPath )
+    {
+        initiated = true;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void writeConstraint( String constraint )
+    {
+        commands.add( constraint );
+    }
+
+    @Override
+    public void writeComment( String comment )
+    {
+        commands.add( "; " + comment );
+    }
+
+    @Override
+    public void openExpression( String operator )
+    {
+        commands.add( "(" + operator );
+    }
+
+    @Override
+    public void writeTerm( String term )
+    {
+        commands.add( term );
+    }
+
+    @Override
+    public void closeExpression()
+    {
+        commands.add( ")" );
+    }
+
+    @Override
+    public void endConstraint()
+    {
+        commands.add( "END" );
+    }
+
+    @Override
+    public boolean solveModel()
+    {
+        solved++;
+        return true;
+    }
+
+    @Override
+    public int[] getValues( List<String> variables )
+    {
+        return new int[variables.size()];
+    }
+}
@@ -0,0 +1,90 @@
+package pt.haslab.causalSolver.solver;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Tests parsing the replies of Z3 to (get-value) commands.
+ */
+public class ValueReplyParserTest
+{
+    @Test
+    public void testValues()
+                    throws Exception
+    {
+        ValueReplyParser parser = new ValueReplyParser( new StringReader( "((e0 3)\n (e1 (- 1))\n (|T1@N1 e2| 12))\n" ) );
+        assertTrue( Arrays.equals( new int[] { 3, -1, 12 }, parser.parse( 3 ) ) );
+    }
+
+    @Test
+    public void testConsecutiveReplies()
+                    throws Exception
+    {
+        ValueReplyParser parser = new ValueReplyParser( new StringReader( "((e0 1))\n((e1 2) (e2 0))\n" ) );
+        assertTrue( Arrays.equals( new int[] { 1 }, parser.parse( 1 ) ) );
+        assertTrue( Arrays.equals( new int[] { 2, 0 }, parser.parse( 2 ) ) );
+    }
+
+    @Test
+    public void testLongReply()
+                    throws Exception
+    {
+        // longer than the parser's buffer
+        StringBuilder reply = new StringBuilder( "(" );
+        int[] expected = new int[5000];
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            expected[i] = i * 7 - 100;
+            reply.append( "(e" ).append( i ).append( ' ' );
+            reply.append( expected[i] < 0 ? "(- " + -expected[i] + ")" : String.valueOf( expected[i] ) ).append( ")\n" );
+        }
+        reply.append( ")" );
+        assertTrue( Arrays.equals( expected, new ValueReplyParser( new StringReader( reply.toString() ) )
+                        .parse( expected.length ) ) );
+    }
+
+    @Test
+    public void testErrorReply()
+                    throws Exception
+    {
+        assertRejected( "(error \"line 10 column 5: unknown constant e7\")\n", 1 );
+    }
+
+    @Test
+    public void testWrongNumberOfValues()
+                    throws Exception
+    {
+        assertRejected( "((e0 1) (e1 2))", 1 );
+        assertRejected( "((e0 1))", 2 );
+    }
+
+    @Test
+    public void testMalformedReply()
+                    throws Exception
+    {
+        assertRejected( "((e0 1)", 1 );
+        assertRejected( "((e0 x))", 1 );
+        assertRejected( "((e0 (+ 1)))", 1 );
+        assertRejected( "((e0 4294967296))", 1 );
+        assertRejected( "", 1 );
+    }
+
+    private static void assertRejected( String reply, int count )
+    {
+        try
+        {
+            new ValueReplyParser( new StringReader( reply ) ).parse( count );
+            fail( "Malformed reply was accepted: " + reply );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package pt.haslab.causalSolver.solver;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests the text that Z3Solver writes to the solver and to the copy of the model.
+ */
+public class Z3SolverTest
+{
+    @Test
+    public void testStreamedConstraints()
+                    throws Exception
+    {
+        Assume.assumeTrue( "/bin/sh is not available", new File( "/bin/sh" ).canExecute() );
+
+        File dir = Files.createTempDirectory( "falcon-z3solver" ).toFile();
+        File input = new File( dir, "input.smt2" );
+        File model = new File( dir, "model.txt" );
+        File fakeSolver = fakeSolver( dir, input );
+
+        Z3Solver solver = new Z3Solver( model.getAbsolutePath() );
+        solver.init( fakeSolver.getAbsolutePath() );
+        try
+        {
+            solver.writeComment( "PROGRAM ORDER" );
+            solver.writeConstraint( solver.postAssert( solver.cLt( "a", "b" ) ) );
+            // (assert (! (< a b c) :named PO0))
+            solver.openExpression( "assert" );
+            solver.openExpression( "!" );
+            solver.openExpression( "<" );
+            solver.writeTerm( "a" );
+            solver.writeTerm( "b" );
+            solver.writeTerm( "c" );
+            solver.closeExpression();
+            solver.writeTerm( ":named" );
+            solver.writeTerm( "PO0" );
+            solver.closeExpression();
+            solver.closeExpression();
+            solver.endConstraint();
+            // (minimize (+ a b c))
+            solver.openExpression( "minimize" );
+            solver.openExpression( "+" );
+            solver.writeTerm( "a" );
+            solver.writeTerm( "b" );
+            solver.writeTerm( "c" );
+            solver.closeExpression();
+            solver.closeExpression();
+            solver.endConstraint();
+
+            // the fake solver only replies once it has read every command before (check-sat)
+            assertTrue( solver.solveModel() );
+        }
+        finally
+        {
+            solver.close();
+        }
+
+        String constraints = "(assert (< a b))\n"
+                        + "(assert (! (< a b c) :named PO0))\n"
+                        + "(minimize (+ a b c))\n"
+                        + "(check-sat)\n";
+        assertEquals( "(set-option :produce-unsat-cores true)\n; PROGRAM ORDER\n" + constraints, read( input ) );
+        assertEquals( "(set-option :produce-unsat-cores true)\n\n; PROGRAM ORDER\n" + constraints, read( model ) );
+
+        input.delete();
+        model.delete();
+        fakeSolver.delete();
+        dir.delete();
+    }
+
+    /**
+     * Writes a script that stands for Z3: it copies its input to a file and replies sat to every (check-sat).
+     */
+    private static File fakeSolver( File dir, File input )
+                    throws IOException
+    {
+        File script = new File( dir, "fake-z3.sh" );
+        FileWriter writer = new FileWriter( script );
+        try
+        {
+            writer.write( "#!/bin/sh\n"
+                                          + "while IFS= read -r line; do\n"
+                                          + "  printf '%s\\n' \"$line\" >> '" + input.getAbsolutePath() + "'\n"
+                                          + "  if [ \"$line\" = '(check-sat)' ]; then echo sat; fi\n"
+                                          + "done\n" );
+        }
+        finally
+        {
+            writer.close();
+        }
+        assertTrue( script.setExecutable( true ) );
+        return script;
+    }
+
+    private static String read( File file )
+                    throws IOException
+    {
+        return new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,77 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static pt.haslab.taz.test.TestEvents.event;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.causalSolver.CausalSolver;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests that the causal order written by CausalSolver.outputCausalOrderJSON does not depend on the order in which
+ * the events were stored.
+ */
+public class CausalOrderOutputTest
+{
+    @Test
+    public void testEventsWithTheSameClock()
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        trace.accept( event( "LOG", "T2@N1", 1 ).put( "message", "m" ) );
+        trace.accept( event( "LOG", "T1@N2", 2 ).put( "message", "m" ) );
+        trace.accept( event( "LOG", "T1@N1", 3 ).put( "message", "m" ) );
+        trace.accept( event( "LOG", "T1@N1", 4 ).put( "message", "m" ) );
+        trace.completeTrace();
+
+        // every event but the last one gets the same clock, as happens with concurrent events
+        List<Event> events = new ArrayList<Event>( trace.sortedByTimestamp );
+        for ( Event e : events )
+            e.setScheduleOrder( 0 );
+        events.get( events.size() - 1 ).setScheduleOrder( 1 );
+
+        List<String> output = output( trace, events );
+        Collections.reverse( events );
+        assertEquals( output, output( trace, events ) );
+
+        // ties are broken by node, then by thread
+        assertEquals( 4, output.size() );
+        assertEquals( "T1@N1", new JSONObject( output.get( 0 ) ).getString( "thread" ) );
+        assertEquals( "T2@N1", new JSONObject( output.get( 1 ) ).getString( "thread" ) );
+        assertEquals( "T1@N2", new JSONObject( output.get( 2 ) ).getString( "thread" ) );
+        assertEquals( 4, new JSONObject( output.get( 3 ) ).getLong( "timestamp" ) );
+    }
+
+    /**
+     * Writes the causal order of events stored in the given order, and returns its lines.
+     */
+    private static List<String> output( TraceProcessor trace, List<Event> events )
+                    throws Exception
+    {
+        File outputFile = File.createTempFile( "falcon-output", ".json" );
+        outputFile.deleteOnExit();
+
+        CausalSolver.trace = trace;
+        CausalSolver.allEvents = new LinkedHashMap<String, Event>();
+        for ( Event e : events )
+            CausalSolver.allEvents.put( e.toString(), e );
+        CausalSolver.props = new Properties();
+        CausalSolver.props.setProperty( CausalSolver.Parameters.OUTPUT.toString(), outputFile.getAbsolutePath() );
+        CausalSolver.props.setProperty( CausalSolver.Parameters.OUTPUT_FORMAT.toString(), "ndjson" );
+        CausalSolver.outputCausalOrderJSON();
+
+        List<String> lines = Files.readAllLines( outputFile.toPath(), StandardCharsets.UTF_8 );
+        outputFile.delete();
+        return lines;
+    }
+}
@@ -0,0 +1,98 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import pt.haslab.causalSolver.ConstraintComponents;
+import pt.haslab.taz.TraceProcessor;
+
+/**
+ * Tests splitting the threads of a trace into the components of its constraint graph.
+ */
+public class ConstraintComponentsTest
+{
+    /**
+     * Builds a trace with five components: a message (2 events), a lock (4 events), a wait/notify (2 events),
+     * a fork/join (5 events) and a thread on its own (3 events).
+     */
+    private static TraceProcessor buildTrace()
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        long ts = 1;
+        trace.accept( udp( "SND", "T1@N1", ts++, "msg" ) );
+        trace.accept( udp( "RCV", "T1@N2", ts++, "msg" ) );
+        for ( String thread : new String[] { "T2@N1", "T3@N1" } )
+        {
+            trace.accept( event( "LOCK", thread, ts++ ).put( "variable", "l" ) );
+            trace.accept( event( "UNLOCK", thread, ts++ ).put( "variable", "l" ) );
+        }
+        trace.accept( event( "WAIT", "T4@N1", ts++ ).put( "variable", "c" ) );
+        trace.accept( event( "NOTIFY", "T5@N1", ts++ ).put( "variable", "c" ) );
+        trace.accept( event( "CREATE", "T6@N1", ts++ ).put( "child", "T7@N1" ) );
+        trace.accept( event( "START", "T7@N1", ts++ ) );
+        trace.accept( event( "END", "T7@N1", ts++ ) );
+        trace.accept( event( "JOIN", "T6@N1", ts++ ).put( "child", "T7@N1" ) );
+        trace.accept( event( "END", "T6@N1", ts++ ) );
+        for ( int i = 0; i < 3; i++ )
+            trace.accept( event( "LOG", "T8@N1", ts++ ).put( "message", "m" ) );
+        trace.completeTrace();
+        return trace;
+    }
+
+    @Test
+    public void testComponents()
+                    throws Exception
+    {
+        List<Set<String>> groups = ConstraintComponents.partition( buildTrace(), 1 );
+
+        assertEquals( 5, groups.size() );
+        assertEquals( threads( "T6@N1", "T7@N1" ), groups.get( 0 ) );
+        assertEquals( threads( "T2@N1", "T3@N1" ), groups.get( 1 ) );
+        assertEquals( threads( "T8@N1" ), groups.get( 2 ) );
+        Set<Set<String>> smallest = new HashSet<Set<String>>( groups.subList( 3, 5 ) );
+        assertEquals( new HashSet<Set<String>>( Arrays.asList( threads( "T1@N1", "T1@N2" ),
+                                                                threads( "T4@N1", "T5@N1" ) ) ), smallest );
+    }
+
+    @Test
+    public void testPacking()
+                    throws Exception
+    {
+        // components are packed, largest first, until a group has at least 6 events
+        List<Set<String>> groups = ConstraintComponents.partition( buildTrace(), 6 );
+
+        assertEquals( 2, groups.size() );
+        assertEquals( threads( "T6@N1", "T7@N1", "T2@N1", "T3@N1" ), groups.get( 0 ) );
+        assertEquals( threads( "T8@N1", "T1@N1", "T1@N2", "T4@N1", "T5@N1" ), groups.get( 1 ) );
+    }
+
+    @Test
+    public void testSingleGroup()
+                    throws Exception
+    {
+        TraceProcessor trace = buildTrace();
+        List<Set<String>> groups = ConstraintComponents.partition( trace, 1000 );
+
+        assertEquals( 1, groups.size() );
+        assertEquals( trace.eventsPerThread.keySet(), groups.get( 0 ) );
+    }
+
+    @Test
+    public void testEmptyTrace()
+    {
+        assertTrue( ConstraintComponents.partition( new TraceProcessor(), 1 ).isEmpty() );
+    }
+
+    private static Set<String> threads( String... threads )
+    {
+        return new HashSet<String>( Arrays.asList( threads ) );
+    }
+}
@@ -0,0 +1,144 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import pt.haslab.causalSolver.HappensBeforeIndex;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+
+/**
+ * Tests the happens-before index against the transitive closure of the program order and the edges.
+ */
+public class HappensBeforeIndexTest
+{
+    @Test
+    public void testTransitiveEdges()
+    {
+        List<List<Event>> timelines = timelines( 3, 3 );
+        List<Event> edges = new ArrayList<Event>();
+        edge( edges, timelines, 0, 0, 1, 1 );
+        edge( edges, timelines, 1, 2, 2, 1 );
+        HappensBeforeIndex index = HappensBeforeIndex.build( timelines, edges );
+
+        assertNotNull( index );
+        assertTrue( index.happensBefore( timelines.get( 0 ).get( 0 ), timelines.get( 2 ).get( 1 ) ) );
+        assertTrue( index.happensBefore( timelines.get( 0 ).get( 0 ), timelines.get( 2 ).get( 2 ) ) );
+        assertFalse( index.happensBefore( timelines.get( 0 ).get( 1 ), timelines.get( 2 ).get( 2 ) ) );
+        assertFalse( index.happensBefore( timelines.get( 1 ).get( 0 ), timelines.get( 0 ).get( 2 ) ) );
+        assertFalse( index.happensBefore( timelines.get( 2 ).get( 1 ), timelines.get( 0 ).get( 0 ) ) );
+    }
+
+    @Test
+    public void testCycle()
+    {
+        List<List<Event>> timelines = timelines( 2, 2 );
+        List<Event> edges = new ArrayList<Event>();
+        edge( edges, timelines, 0, 1, 1, 0 );
+        edge( edges, timelines, 1, 1, 0, 0 );
+        assertNull( HappensBeforeIndex.build( timelines, edges ) );
+    }
+
+    @Test
+    public void testRandomEdges()
+    {
+        // enough events with incoming edges that the stored clocks go through several snapshots
+        Random random = new Random( 7 );
+        int numThreads = 20;
+        int numEvents = 200;
+        List<List<Event>> timelines = timelines( numThreads, numEvents );
+        List<Event> edges = new ArrayList<Event>();
+        List<int[]> pairs = new ArrayList<int[]>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            // edges go forward in a global order of (position, thread), so that there are no cycles
+            int t1 = random.nextInt( numThreads );
+            int t2 = random.nextInt( numThreads );
+            int p1 = random.nextInt( numEvents - 1 );
+            int p2 = p1 + 1 + random.nextInt( Math.min( 20, numEvents - 1 - p1 ) );
+            edge( edges, timelines, t1, p1, t2, p2 );
+            pairs.add( new int[] { t1, p1, t2, p2 } );
+        }
+        HappensBeforeIndex index = HappensBeforeIndex.build( timelines, edges );
+        assertNotNull( index );
+
+        boolean[][][] reach = closure( numThreads, numEvents, pairs );
+        for ( int i = 0; i < 20000; i++ )
+        {
+            int t1 = random.nextInt( numThreads );
+            int p1 = random.nextInt( numEvents );
+            int t2 = random.nextInt( numThreads );
+            int p2 = random.nextInt( numEvents );
+            assertEquals( reach[t2][p2][t1 * numEvents + p1],
+                          index.happensBefore( timelines.get( t1 ).get( p1 ), timelines.get( t2 ).get( p2 ) ) );
+        }
+    }
+
+    /**
+     * Computes, for each event, the set of events that happen before it, visiting the events by position.
+     */
+    private static boolean[][][] closure( int numThreads, int numEvents, List<int[]> pairs )
+    {
+        List<List<List<int[]>>> sources = new ArrayList<List<List<int[]>>>();
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            List<List<int[]>> thread = new ArrayList<List<int[]>>();
+            for ( int p = 0; p < numEvents; p++ )
+                thread.add( new ArrayList<int[]>() );
+            sources.add( thread );
+        }
+        for ( int[] pair : pairs )
+        {
+            if ( pair[0] != pair[2] )
+                sources.get( pair[2] ).get( pair[3] ).add( pair );
+        }
+
+        boolean[][][] reach = new boolean[numThreads][numEvents][];
+        for ( int p = 0; p < numEvents; p++ )
+        {
+            for ( int t = 0; t < numThreads; t++ )
+            {
+                boolean[] before = p == 0 ? new boolean[numThreads * numEvents] : reach[t][p - 1].clone();
+                if ( p > 0 )
+                    before[t * numEvents + p - 1] = true;
+                for ( int[] pair : sources.get( t ).get( p ) )
+                {
+                    before[pair[0] * numEvents + pair[1]] = true;
+                    boolean[] other = reach[pair[0]][pair[1]];
+                    for ( int i = 0; i < before.length; i++ )
+                        before[i] |= other[i];
+                }
+                reach[t][p] = before;
+            }
+        }
+        return reach;
+    }
+
+    private static List<List<Event>> timelines( int numThreads, int numEvents )
+    {
+        List<List<Event>> timelines = new ArrayList<List<Event>>();
+        long id = 0;
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            Event[] timeline = new Event[numEvents];
+            for ( int p = 0; p < numEvents; p++ )
+                timeline[p] = new Event( p, EventType.LOG, "T" + t + "@N1", id++, null );
+            timelines.add( Arrays.asList( timeline ) );
+        }
+        return timelines;
+    }
+
+    private static void edge( List<Event> edges, List<List<Event>> timelines, int t1, int p1, int t2, int p2 )
+    {
+        edges.add( timelines.get( t1 ).get( p1 ) );
+        edges.add( timelines.get( t2 ).get( p2 ) );
+    }
+}
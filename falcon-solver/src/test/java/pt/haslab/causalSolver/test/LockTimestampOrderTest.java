@@ -0,0 +1,111 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static pt.haslab.taz.test.TestEvents.sync;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.causalSolver.CausalModel;
+import pt.haslab.causalSolver.solver.RecordingSolver;
+import pt.haslab.causalSolver.stats.Stats;
+import pt.haslab.taz.TraceProcessor;
+
+/**
+ * Tests committing the critical sections of a node to their timestamp order (CausalModel.setLockTimestampOrder).
+ */
+public class LockTimestampOrderTest
+{
+    @Test
+    public void testDisjointSectionsAreCommitted()
+                    throws Exception
+    {
+        List<JSONObject> events = Arrays.asList( sync( "LOCK", "T1@N1", 1, "l" ),
+                                                 sync( "UNLOCK", "T1@N1", 2, "l" ),
+                                                 sync( "LOCK", "T2@N1", 3, "l" ),
+                                                 sync( "UNLOCK", "T2@N1", 4, "l" ),
+                                                 sync( "LOCK", "T3@N1", 5, "l" ),
+                                                 sync( "UNLOCK", "T3@N1", 6, "l" ) );
+
+        // without the option, every two critical sections are left for the solver to order
+        RecordingSolver solver = build( events, false );
+        assertEquals( 0, count( solver.commands, ":named LT)" ) );
+        assertEquals( 3, count( solver.commands, "(or" ) );
+
+        // with it, each one is ordered after the previous one, and no disjunction is left
+        long committed = Stats.numLockPairsCommitted.get();
+        solver = build( events, true );
+        assertEquals( 2, count( solver.commands, ":named LT)" ) );
+        assertEquals( 0, count( solver.commands, "(or" ) );
+        assertEquals( 3, Stats.numLockPairsCommitted.get() - committed );
+    }
+
+    @Test
+    public void testUnorderedSectionsAndOtherNodesStartNewChains()
+                    throws Exception
+    {
+        // the second section starts at the same time as the first one ends, so the timestamps do not tell which one
+        // came first, and the third one is logged by another node
+        long committed = Stats.numLockPairsCommitted.get();
+        RecordingSolver solver = build( Arrays.asList( sync( "LOCK", "T1@N1", 1, "l" ),
+                                                       sync( "UNLOCK", "T1@N1", 3, "l" ),
+                                                       sync( "LOCK", "T2@N1", 3, "l" ),
+                                                       sync( "UNLOCK", "T2@N1", 4, "l" ),
+                                                       sync( "LOCK", "T3@N2", 6, "l" ),
+                                                       sync( "UNLOCK", "T3@N2", 7, "l" ) ), true );
+
+        assertEquals( 0, count( solver.commands, ":named LT)" ) );
+        assertEquals( 3, count( solver.commands, "(or" ) );
+        assertEquals( 0, Stats.numLockPairsCommitted.get() - committed );
+    }
+
+    @Test
+    public void testTimestampsContradictingHappensBefore()
+                    throws Exception
+    {
+        // T1@N1 only unlocks after receiving a message that T2@N1 sends after locking, so the timestamps of N1
+        // cannot be trusted to order the two sections
+        long committed = Stats.numLockPairsCommitted.get();
+        RecordingSolver solver = build( Arrays.asList( sync( "LOCK", "T1@N1", 1, "l" ),
+                                                       udp( "RCV", "T1@N1", 2, "m" ),
+                                                       sync( "UNLOCK", "T1@N1", 3, "l" ),
+                                                       sync( "LOCK", "T2@N1", 4, "l" ),
+                                                       udp( "SND", "T2@N1", 5, "m" ),
+                                                       sync( "UNLOCK", "T2@N1", 6, "l" ) ), true );
+
+        assertEquals( 0, count( solver.commands, ":named LT)" ) );
+        assertEquals( 0, Stats.numLockPairsCommitted.get() - committed );
+    }
+
+    /**
+     * Builds the model of a trace with a solver that records its constraints.
+     */
+    private static RecordingSolver build( List<JSONObject> events, boolean lockTimestampOrder )
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        for ( JSONObject e : events )
+            trace.accept( e );
+        trace.completeTrace();
+
+        RecordingSolver solver = new RecordingSolver();
+        CausalModel model = new CausalModel( trace, null, null, solver, false );
+        model.setLockTimestampOrder( lockTimestampOrder );
+        model.buildConstraintModel();
+        model.close();
+        return solver;
+    }
+
+    private static int count( List<String> commands, String text )
+    {
+        int count = 0;
+        for ( String command : commands )
+        {
+            if ( command.contains( text ) )
+                count++;
+        }
+        return count;
+    }
+}
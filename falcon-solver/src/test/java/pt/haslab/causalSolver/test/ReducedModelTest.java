@@ -0,0 +1,162 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.access;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import org.junit.Assume;
+import org.junit.Test;
+import pt.haslab.causalSolver.CausalModel;
+import pt.haslab.causalSolver.solver.HappensBeforeSolver;
+import pt.haslab.causalSolver.solver.Solver;
+import pt.haslab.causalSolver.solver.Z3Solver;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests that leaving thread-local events out of the solver (CausalModel.setReduceLocalEvents) gives the same
+ * schedule as encoding every event.
+ */
+public class ReducedModelTest
+{
+    /**
+     * Builds a trace of two nodes that exchange two messages, with a thread forked and joined, and local events
+     * in between.
+     */
+    private static TraceProcessor buildTrace()
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        long ts = 1;
+        trace.accept( event( "START", "T1@N1", ts++ ) );
+        trace.accept( event( "LOG", "T1@N1", ts++ ).put( "message", "begin" ) );
+        trace.accept( event( "CREATE", "T1@N1", ts++ ).put( "child", "T2@N1" ) );
+        trace.accept( event( "START", "T2@N1", ts++ ) );
+        trace.accept( access( "W", "T1@N1", ts++, "x" ) );
+        trace.accept( access( "R", "T2@N1", ts++, "y" ) );
+        trace.accept( udp( "SND", "T1@N1", ts++, "m1" ) );
+        trace.accept( event( "START", "T1@N2", ts++ ) );
+        trace.accept( access( "R", "T1@N2", ts++, "z" ) );
+        trace.accept( udp( "RCV", "T1@N2", ts++, "m1" ) );
+        trace.accept( access( "R", "T1@N1", ts++, "x" ) );
+        trace.accept( event( "LOG", "T1@N2", ts++ ).put( "message", "received" ) );
+        trace.accept( access( "W", "T1@N2", ts++, "z" ) );
+        trace.accept( udp( "SND", "T1@N2", ts++, "m2" ) );
+        trace.accept( event( "LOG", "T1@N2", ts++ ).put( "message", "sent" ) );
+        trace.accept( event( "END", "T1@N2", ts++ ) );
+        trace.accept( udp( "RCV", "T2@N1", ts++, "m2" ) );
+        trace.accept( access( "W", "T2@N1", ts++, "y" ) );
+        trace.accept( event( "END", "T2@N1", ts++ ) );
+        trace.accept( event( "LOG", "T1@N1", ts++ ).put( "message", "joining" ) );
+        trace.accept( event( "JOIN", "T1@N1", ts++ ).put( "child", "T2@N1" ) );
+        trace.accept( event( "END", "T1@N1", ts++ ) );
+        trace.completeTrace();
+        return trace;
+    }
+
+    @Test
+    public void testSameScheduleAsFullModel()
+                    throws Exception
+    {
+        // a plain happens-before model, solved without Z3
+        TraceProcessor full = buildTrace();
+        solve( full, false, new HappensBeforeSolver( new Z3Solver( null ) ) );
+        TraceProcessor reduced = buildTrace();
+        solve( reduced, true, new HappensBeforeSolver( new Z3Solver( null ) ) );
+
+        // the optimum is unique, so both models give every event the same clock
+        assertEquals( full.eventsPerThread.keySet(), reduced.eventsPerThread.keySet() );
+        for ( String thread : full.eventsPerThread.keySet() )
+        {
+            assertEquals( clocks( full.eventsPerThread.get( thread ) ), clocks( reduced.eventsPerThread.get( thread ) ) );
+        }
+    }
+
+    @Test
+    public void testSameScheduleOnTestTrace()
+                    throws Exception
+    {
+        Assume.assumeTrue( "z3 is not in the PATH", isZ3Available() );
+
+        TraceProcessor full = TraceWindowsTest.loadTestTrace();
+        List<List<Integer>> fullClocks = solve( full, false, new Z3Solver( null ) );
+        TraceProcessor reduced = TraceWindowsTest.loadTestTrace();
+        List<List<Integer>> reducedClocks = solve( reduced, true, new Z3Solver( null ) );
+
+        // both models minimize the same sum of clocks, although the locks may be ordered differently in each
+        assertEquals( sum( fullClocks ), sum( reducedClocks ) );
+        for ( List<Integer> clocks : reducedClocks )
+        {
+            for ( int i = 1; i < clocks.size(); i++ )
+                assertTrue( clocks.get( i - 1 ) < clocks.get( i ) );
+        }
+    }
+
+    /**
+     * Solves the model of a trace and returns the clocks of each thread's events.
+     */
+    private static List<List<Integer>> solve( TraceProcessor trace, boolean reduceLocalEvents, Solver solver )
+                    throws Exception
+    {
+        // the timelines are copied before the clocks change, as they are sorted by schedule order after timestamp
+        List<List<Event>> timelines = new ArrayList<List<Event>>();
+        for ( SortedSet<Event> timeline : trace.eventsPerThread.values() )
+            timelines.add( new ArrayList<Event>( timeline ) );
+
+        solver.init( "z3" );
+        CausalModel model = new CausalModel( trace, null, null, solver, true );
+        model.setReduceLocalEvents( reduceLocalEvents );
+        try
+        {
+            model.buildConstraintModel();
+            assertTrue( model.solve() );
+        }
+        finally
+        {
+            model.close();
+        }
+
+        List<List<Integer>> clocks = new ArrayList<List<Integer>>();
+        for ( List<Event> timeline : timelines )
+            clocks.add( clocks( timeline ) );
+        return clocks;
+    }
+
+    private static List<Integer> clocks( Iterable<Event> events )
+    {
+        List<Integer> clocks = new ArrayList<Integer>();
+        for ( Event e : events )
+            clocks.add( (int) e.getScheduleOrder() );
+        return clocks;
+    }
+
+    private static long sum( List<List<Integer>> clocks )
+    {
+        long sum = 0;
+        for ( List<Integer> threadClocks : clocks )
+        {
+            for ( int clock : threadClocks )
+                sum += clock;
+        }
+        return sum;
+    }
+
+    private static boolean isZ3Available()
+    {
+        String path = System.getenv( "PATH" );
+        if ( path == null )
+            return false;
+        for ( String dir : path.split( File.pathSeparator ) )
+        {
+            if ( new File( dir, "z3" ).canExecute() )
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,230 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.sync;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.causalSolver.CausalModel;
+import pt.haslab.causalSolver.solver.HappensBeforeSolver;
+import pt.haslab.causalSolver.solver.RecordingSolver;
+import pt.haslab.causalSolver.solver.Solver;
+import pt.haslab.causalSolver.solver.Z3Solver;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests extending a solved model with the events appended to its trace (CausalModel.addSegment), against solving
+ * the whole trace again.
+ */
+public class SegmentsTest
+{
+    @Test
+    public void testSegmentsMatchFullModel()
+                    throws Exception
+    {
+        List<JSONObject> first = Arrays.asList( event( "START", "T1@N1", 1 ),
+                                                udp( "SND", "T1@N1", 2, "m1" ),
+                                                event( "START", "T1@N2", 3 ),
+                                                udp( "RCV", "T1@N2", 4, "m1" ) );
+        List<JSONObject> second = Arrays.asList( event( "LOG", "T1@N1", 5 ).put( "message", "sent" ),
+                                                 udp( "SND", "T1@N2", 6, "m2" ),
+                                                 udp( "RCV", "T1@N1", 7, "m2" ),
+                                                 event( "END", "T1@N1", 8 ) );
+        List<JSONObject> third = Arrays.asList( udp( "SND", "T1@N1", 9, "m3" ),
+                                                event( "START", "T1@N3", 10 ),
+                                                udp( "RCV", "T1@N3", 11, "m3" ) );
+
+        TraceProcessor trace = new TraceProcessor();
+        assertTrue( solveInSegments( trace, Arrays.asList( first, second, third ) ) );
+        assertEquals( solveFull( first, second, third ), clocks( trace ) );
+    }
+
+    @Test
+    public void testSegmentEndingInOldEvents()
+                    throws Exception
+    {
+        // the RCV of m1 is logged before its SND, so the edge of the second segment ends in an event of the first
+        // one, whose clock (and those after it) change: the clocks cannot be extended and are computed again
+        List<JSONObject> first = Arrays.asList( event( "START", "T1@N2", 1 ),
+                                                udp( "RCV", "T1@N2", 2, "m1" ),
+                                                event( "END", "T1@N2", 3 ) );
+        List<JSONObject> second = Arrays.asList( event( "START", "T1@N1", 4 ),
+                                                 event( "LOG", "T1@N1", 5 ).put( "message", "sending" ),
+                                                 udp( "SND", "T1@N1", 6, "m1" ) );
+
+        TraceProcessor trace = new TraceProcessor();
+        assertTrue( solveInSegments( trace, Arrays.asList( first, second ) ) );
+        Map<String, List<Integer>> expected = solveFull( first, second );
+        assertEquals( Arrays.asList( 0, 3, 4 ), expected.get( "T1@N2" ) );
+        assertEquals( expected, clocks( trace ) );
+    }
+
+    @Test
+    public void testUnsatSegmentIsDiscarded()
+                    throws Exception
+    {
+        // each node receives the message of the other one before sending its own
+        List<JSONObject> first = Arrays.asList( event( "START", "T1@N1", 1 ),
+                                                udp( "RCV", "T1@N1", 2, "m2" ),
+                                                event( "START", "T1@N2", 3 ),
+                                                udp( "RCV", "T1@N2", 4, "m1" ) );
+        List<JSONObject> second = Arrays.asList( udp( "SND", "T1@N1", 5, "m1" ),
+                                                 udp( "SND", "T1@N2", 6, "m2" ) );
+
+        TraceProcessor trace = new TraceProcessor();
+        assertFalse( solveInSegments( trace, Arrays.asList( first, second ) ) );
+
+        // the events of the first segment keep the clocks of their model, and those of the discarded one are left
+        Map<String, List<Integer>> expected = solveFull( first );
+        Map<String, List<Integer>> found = clocks( trace );
+        for ( String thread : expected.keySet() )
+            assertEquals( expected.get( thread ), found.get( thread ).subList( 0, 2 ) );
+    }
+
+    @Test
+    public void testReentrantLockPairReportedAgain()
+                    throws Exception
+    {
+        // T1@N1 takes the lock twice, so its critical section only ends with its second UNLOCK, in the next
+        // segment, where the pair is reported again and ordered again with the pair of T2@N1
+        List<JSONObject> first = Arrays.asList( sync( "LOCK", "T2@N1", 1, "l" ),
+                                                sync( "UNLOCK", "T2@N1", 2, "l" ),
+                                                sync( "LOCK", "T1@N1", 3, "l" ),
+                                                sync( "LOCK", "T1@N1", 4, "l" ),
+                                                sync( "UNLOCK", "T1@N1", 5, "l" ) );
+        List<JSONObject> second = Arrays.asList( sync( "UNLOCK", "T1@N1", 6, "l" ),
+                                                 sync( "LOCK", "T3@N1", 7, "l" ),
+                                                 sync( "UNLOCK", "T3@N1", 8, "l" ) );
+
+        TraceProcessor trace = new TraceProcessor();
+        for ( JSONObject e : first )
+            trace.accept( e );
+        RecordingSolver solver = new RecordingSolver();
+        CausalModel model = new CausalModel( trace, null, null, solver, false );
+        model.enableSegments();
+        model.buildConstraintModel();
+        assertTrue( model.solve() );
+        assertEquals( 1, countLockConstraints( solver.commands ) );
+
+        solver.commands.clear();
+        for ( JSONObject e : second )
+            trace.accept( e );
+        model.addSegment();
+        assertTrue( model.solveSegment() );
+        model.close();
+
+        // the pair of T1@N1 is ordered again with that of T2@N1 (not with itself), and the pair of T3@N1 with both
+        assertEquals( 3, countLockConstraints( solver.commands ) );
+        String secondUnlock = trace.eventsPerThread.get( "T1@N1" ).last().toString();
+        int withSecondUnlock = 0;
+        for ( String command : solver.commands )
+        {
+            if ( command.contains( "(or " ) && command.contains( secondUnlock ) )
+                withSecondUnlock++;
+        }
+        assertEquals( 2, withSecondUnlock );
+    }
+
+    /**
+     * Solves the first list of events, pushed into a trace, and then extends the model with each other list.
+     *
+     * @return true if every segment is satisfiable, false if one was discarded.
+     */
+    private static boolean solveInSegments( TraceProcessor trace, List<List<JSONObject>> segments )
+                    throws Exception
+    {
+        Solver solver = new HappensBeforeSolver( new Z3Solver( null ) );
+        solver.init( "z3" );
+        CausalModel model = new CausalModel( trace, null, null, solver, true );
+        try
+        {
+            for ( JSONObject e : segments.get( 0 ) )
+                trace.accept( e );
+            model.enableSegments();
+            model.buildConstraintModel();
+            assertTrue( model.solve() );
+
+            for ( List<JSONObject> segment : segments.subList( 1, segments.size() ) )
+            {
+                for ( JSONObject e : segment )
+                    trace.accept( e );
+                model.addSegment();
+                if ( !model.solveSegment() )
+                {
+                    model.discardSegment();
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            model.applyClocks();
+            model.close();
+        }
+    }
+
+    /**
+     * Solves the trace of all the given events with a single model.
+     *
+     * @return map: thread -> clocks of its events.
+     */
+    @SafeVarargs
+    private static Map<String, List<Integer>> solveFull( List<JSONObject>... segments )
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        for ( List<JSONObject> segment : segments )
+        {
+            for ( JSONObject e : segment )
+                trace.accept( e );
+        }
+        Solver solver = new HappensBeforeSolver( new Z3Solver( null ) );
+        solver.init( "z3" );
+        CausalModel model = new CausalModel( trace, null, null, solver, true );
+        try
+        {
+            model.buildConstraintModel();
+            assertTrue( model.solve() );
+        }
+        finally
+        {
+            model.close();
+        }
+        return clocks( trace );
+    }
+
+    private static Map<String, List<Integer>> clocks( TraceProcessor trace )
+    {
+        Map<String, List<Integer>> clocks = new HashMap<String, List<Integer>>();
+        for ( String thread : trace.eventsPerThread.keySet() )
+        {
+            List<Integer> threadClocks = new ArrayList<Integer>();
+            for ( Event e : trace.eventsPerThread.get( thread ) )
+                threadClocks.add( (int) e.getScheduleOrder() );
+            clocks.put( thread, threadClocks );
+        }
+        return clocks;
+    }
+
+    private static int countLockConstraints( List<String> commands )
+    {
+        int count = 0;
+        for ( String command : commands )
+        {
+            if ( command.contains( "(or " ) )
+                count++;
+        }
+        return count;
+    }
+}
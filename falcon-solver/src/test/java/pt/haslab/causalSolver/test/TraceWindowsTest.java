@@ -0,0 +1,229 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedSet;
+import org.junit.Test;
+import pt.haslab.causalSolver.CausalSolver;
+import pt.haslab.causalSolver.TraceWindows;
+import pt.haslab.causalSolver.stats.Stats;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+
+/**
+ * Tests cutting a trace into windows that can be solved one at a time.
+ */
+public class TraceWindowsTest
+{
+    /**
+     * Loads the test trace shipped with falcon-taz.
+     */
+    static TraceProcessor loadTestTrace()
+                    throws Exception
+    {
+        File file = File.createTempFile( "falcon", ".txt" );
+        file.deleteOnExit();
+        InputStream in = TraceWindowsTest.class.getClassLoader().getResourceAsStream( "testEventTrace.txt" );
+        try
+        {
+            Files.copy( in, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        TraceProcessor trace = new TraceProcessor();
+        trace.loadEventTrace( file.getAbsolutePath() );
+        return trace;
+    }
+
+    @Test
+    public void testEmptyTrace()
+    {
+        assertTrue( TraceWindows.split( new TraceProcessor(), 10, 0 ).isEmpty() );
+        assertTrue( TraceWindows.split( new TraceProcessor(), 0, 0 ).isEmpty() );
+    }
+
+    @Test
+    public void testSolveEmptyTrace()
+                    throws Exception
+    {
+        CausalSolver.trace = new TraceProcessor();
+        assertTrue( CausalSolver.solveWindows( 10, 0 ) );
+    }
+
+    @Test
+    public void testUnsatWindowClosesNextWindow()
+                    throws Exception
+    {
+        // the messages of the first window form a cycle, so solving stops before the second window
+        TraceProcessor trace = new TraceProcessor();
+        trace.accept( udp( "RCV", "T1@N1", 1, "m1" ) );
+        trace.accept( udp( "SND", "T1@N1", 2, "m2" ) );
+        trace.accept( udp( "RCV", "T1@N2", 3, "m2" ) );
+        trace.accept( udp( "SND", "T1@N2", 4, "m1" ) );
+        for ( int i = 0; i < 4; i++ )
+            trace.accept( event( "LOG", "T1@N3", 10 + i ).put( "message", "m" ) );
+        trace.completeTrace();
+
+        CausalSolver.trace = trace;
+        CausalSolver.allEvents = new HashMap<String, Event>();
+        CausalSolver.props = new Properties();
+        CausalSolver.props.setProperty( CausalSolver.Parameters.SOLVER.toString(), "z3" );
+        CausalSolver.props.setProperty( CausalSolver.Parameters.GOAL_TS.toString(), "false" );
+        CausalSolver.props.setProperty( CausalSolver.Parameters.NATIVE_SOLVER.toString(), "true" );
+        CausalSolver.props.setProperty( CausalSolver.Parameters.WRITE_MODEL.toString(), "false" );
+        Stats.numEventsTrace = trace.getNumberOfEvents();
+
+        // the native solver keeps a temporary file until it is closed
+        int openSolvers = countCommandFiles();
+        assertFalse( CausalSolver.solveWindows( 4, 0 ) );
+        assertEquals( openSolvers, countCommandFiles() );
+    }
+
+    @Test
+    public void testWaitsFollowTheirNotifies()
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        trace.accept( event( "WAIT", "T1@N1", 1 ).put( "variable", "c" ) );
+        trace.accept( event( "END", "T1@N1", 2 ) );
+        for ( int i = 0; i < 6; i++ )
+            trace.accept( event( "LOG", "T2@N1", 3 + i ).put( "message", "m" ) );
+        trace.accept( event( "NOTIFY", "T2@N1", 9 ).put( "variable", "c" ) );
+        trace.completeTrace();
+
+        List<TraceProcessor> windows = TraceWindows.split( trace, 3, 0 );
+        TraceProcessor last = windows.get( windows.size() - 1 );
+        assertEquals( 1, last.waitEvents.get( "c" ).size() );
+        assertEquals( 1, last.notifyEvents.get( "c" ).size() );
+        // the END that follows the wait is carried along
+        assertEquals( 2, last.eventsPerThread.get( "T1@N1" ).size() );
+    }
+
+    @Test
+    public void testSingleWindow()
+                    throws Exception
+    {
+        TraceProcessor trace = loadTestTrace();
+        List<TraceProcessor> windows = TraceWindows.split( trace, 0, 0 );
+
+        assertEquals( 1, windows.size() );
+        assertEquals( countEvents( trace ), countEvents( windows.get( 0 ) ) );
+        assertEquals( trace.sndRcvPairs.keySet(), windows.get( 0 ).sndRcvPairs.keySet() );
+    }
+
+    @Test
+    public void testWindowsByEvents()
+                    throws Exception
+    {
+        assertConsistentWindows( 5, 0 );
+    }
+
+    @Test
+    public void testWindowsByTime()
+                    throws Exception
+    {
+        assertConsistentWindows( 0, 4 );
+    }
+
+    /**
+     * Checks that every event of the test trace ends up in exactly one window, that the windows of each thread's
+     * events do not decrease and that the events of each causal pair are in the same window as the pair.
+     */
+    private static void assertConsistentWindows( int maxEvents, long maxMillis )
+                    throws Exception
+    {
+        TraceProcessor trace = loadTestTrace();
+        List<TraceProcessor> windows = TraceWindows.split( trace, maxEvents, maxMillis );
+        assertTrue( windows.size() > 1 );
+
+        IdentityHashMap<Event, Integer> windowOf = new IdentityHashMap<Event, Integer>();
+        for ( int i = 0; i < windows.size(); i++ )
+        {
+            assertFalse( windows.get( i ).eventsPerThread.isEmpty() );
+            for ( SortedSet<Event> timeline : windows.get( i ).eventsPerThread.values() )
+            {
+                for ( Event e : timeline )
+                    assertEquals( null, windowOf.put( e, i ) );
+            }
+        }
+        assertEquals( countEvents( trace ), windowOf.size() );
+
+        for ( SortedSet<Event> timeline : trace.eventsPerThread.values() )
+        {
+            int window = 0;
+            for ( Event e : timeline )
+            {
+                assertTrue( windowOf.get( e ) >= window );
+                window = windowOf.get( e );
+            }
+        }
+
+        for ( int i = 0; i < windows.size(); i++ )
+        {
+            TraceProcessor window = windows.get( i );
+            for ( MessageCausalPair pair : window.sndRcvPairs.values() )
+            {
+                List<Event> events = new ArrayList<Event>( pair.getSndList() );
+                events.addAll( pair.getRcvList() );
+                for ( Event e : events )
+                    assertEquals( i, (int) windowOf.get( e ) );
+            }
+            for ( CausalPair<SocketEvent, SocketEvent> pair : window.connAcptEvents.values() )
+                assertPairInWindow( pair, i, windowOf );
+            for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : window.lockEvents.values() )
+            {
+                for ( CausalPair<SyncEvent, SyncEvent> pair : pairs )
+                    assertPairInWindow( pair, i, windowOf );
+            }
+        }
+    }
+
+    private static void assertPairInWindow( CausalPair<? extends Event, ? extends Event> pair, int window,
+                                            IdentityHashMap<Event, Integer> windowOf )
+    {
+        if ( pair.getFirst() != null )
+            assertEquals( window, (int) windowOf.get( pair.getFirst() ) );
+        if ( pair.getSecond() != null )
+            assertEquals( window, (int) windowOf.get( pair.getSecond() ) );
+    }
+
+    private static int countCommandFiles()
+    {
+        int count = 0;
+        String[] files = new File( System.getProperty( "java.io.tmpdir" ) ).list();
+        for ( String file : files )
+        {
+            if ( file.startsWith( "falcon-commands" ) )
+                count++;
+        }
+        return count;
+    }
+
+    private static int countEvents( TraceProcessor trace )
+    {
+        int count = 0;
+        for ( SortedSet<Event> timeline : trace.eventsPerThread.values() )
+            count += timeline.size();
+        return count;
+    }
+}
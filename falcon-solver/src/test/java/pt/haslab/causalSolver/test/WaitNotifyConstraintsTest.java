@@ -0,0 +1,158 @@
+package pt.haslab.causalSolver.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.sync;
+
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.causalSolver.CausalModel;
+import pt.haslab.causalSolver.solver.HappensBeforeSolver;
+import pt.haslab.causalSolver.solver.RecordingSolver;
+import pt.haslab.causalSolver.stats.Stats;
+import pt.haslab.taz.TraceProcessor;
+
+/**
+ * Tests the notifies that each wait can be matched with in the wait-notify constraints.
+ */
+public class WaitNotifyConstraintsTest
+{
+    @Test
+    public void testWaitWithoutNotifyIsUnconstrained()
+                    throws Exception
+    {
+        RecordingSolver solver = build( Arrays.asList( sync( "WAIT", "T1@N1", 1, "c" ) ), 0 );
+        assertEquals( 0, count( solver.commands, "(or" ) );
+
+        // the model is still a plain happens-before graph, solved without the fallback solver
+        RecordingSolver fallback = new RecordingSolver();
+        TraceProcessor trace = new TraceProcessor();
+        trace.accept( sync( "WAIT", "T1@N1", 1, "c" ) );
+        HappensBeforeSolver hbSolver = new HappensBeforeSolver( fallback );
+        hbSolver.init( "z3" );
+        CausalModel model = new CausalModel( trace, null, null, hbSolver, false );
+        model.buildConstraintModel();
+        assertTrue( model.solve() );
+        model.close();
+        assertFalse( fallback.initiated );
+    }
+
+    @Test
+    public void testNotifiesAfterTheWaitArePruned()
+                    throws Exception
+    {
+        long pruned = Stats.numWaitPairsPruned.get();
+        long pairs = Stats.numWaitPairs.get();
+        RecordingSolver solver = build( Arrays.asList( sync( "WAIT", "T1@N1", 1, "c" ),
+                                                       sync( "NOTIFY", "T1@N1", 2, "c" ),
+                                                       sync( "NOTIFY", "T2@N1", 3, "c" ) ), 0 );
+
+        // the notify that follows the wait in its thread cannot wake it up
+        assertEquals( 1, Stats.numWaitPairsPruned.get() - pruned );
+        assertEquals( 1, Stats.numWaitPairs.get() - pairs );
+        assertEquals( 1, countBinaryVars( solver.commands, "" ) );
+        assertEquals( 1, countBinaryVars( solver.commands, "T2@N1" ) );
+        assertEquals( 1, count( solver.commands, "(or" ) );
+    }
+
+    @Test
+    public void testAllNotifiesPruned()
+                    throws Exception
+    {
+        long pruned = Stats.numWaitPairsPruned.get();
+        RecordingSolver solver = build( Arrays.asList( sync( "WAIT", "T1@N1", 1, "c" ),
+                                                       sync( "NOTIFY", "T1@N1", 2, "c" ) ), 0 );
+
+        assertEquals( 1, Stats.numWaitPairsPruned.get() - pruned );
+        assertEquals( 0, countBinaryVars( solver.commands, "" ) );
+        assertEquals( 0, count( solver.commands, "(or" ) );
+    }
+
+    @Test
+    public void testWaitNotifyWindow()
+                    throws Exception
+    {
+        long outOfWindow = Stats.numWaitPairsOutOfWindow.get();
+        long pairs = Stats.numWaitPairs.get();
+        RecordingSolver solver = build( Arrays.asList( sync( "NOTIFY", "T2@N1", 1, "c" ),
+                                                       sync( "NOTIFY", "T3@N1", 95, "c" ),
+                                                       sync( "WAIT", "T1@N1", 100, "c" ),
+                                                       sync( "NOTIFY", "T4@N2", 200, "c" ) ), 10 );
+
+        // the notify of the same node logged 99 ms before the wait is out of the window, while the timestamps of
+        // other nodes are not comparable
+        assertEquals( 1, Stats.numWaitPairsOutOfWindow.get() - outOfWindow );
+        assertEquals( 2, Stats.numWaitPairs.get() - pairs );
+        assertEquals( 0, countBinaryVars( solver.commands, "T2@N1" ) );
+        assertEquals( 1, countBinaryVars( solver.commands, "T3@N1" ) );
+        assertEquals( 1, countBinaryVars( solver.commands, "T4@N2" ) );
+    }
+
+    @Test
+    public void testWaitNotifyWindowFallback()
+                    throws Exception
+    {
+        long outOfWindow = Stats.numWaitPairsOutOfWindow.get();
+        long pairs = Stats.numWaitPairs.get();
+        RecordingSolver solver = build( Arrays.asList( sync( "NOTIFY", "T2@N1", 1, "c" ),
+                                                       sync( "NOTIFY", "T3@N1", 2, "c" ),
+                                                       sync( "WAIT", "T1@N1", 100, "c" ) ), 10 );
+
+        // no notify is within the window, so the wait can still be matched with any of them
+        assertEquals( 0, Stats.numWaitPairsOutOfWindow.get() - outOfWindow );
+        assertEquals( 2, Stats.numWaitPairs.get() - pairs );
+        assertEquals( 2, countBinaryVars( solver.commands, "" ) );
+        assertEquals( 1, count( solver.commands, "(or" ) );
+    }
+
+    /**
+     * Builds the model of a trace with a solver that records its constraints.
+     */
+    private static RecordingSolver build( List<JSONObject> events, long waitNotifyWindow )
+                    throws Exception
+    {
+        TraceProcessor trace = new TraceProcessor();
+        for ( JSONObject e : events )
+            trace.accept( e );
+        trace.completeTrace();
+
+        RecordingSolver solver = new RecordingSolver();
+        CausalModel model = new CausalModel( trace, null, null, solver, false );
+        model.setWaitNotifyWindow( waitNotifyWindow );
+        model.buildConstraintModel();
+        model.close();
+        return solver;
+    }
+
+    /**
+     * Returns the number of commands that contain a given string.
+     */
+    private static int count( List<String> commands, String text )
+    {
+        int count = 0;
+        for ( String command : commands )
+        {
+            if ( command.contains( text ) )
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of binary variables declared to match a wait with the notifies of a thread (or of any
+     * thread, if empty).
+     */
+    private static int countBinaryVars( List<String> commands, String notifyThread )
+    {
+        int count = 0;
+        for ( String command : commands )
+        {
+            if ( command.startsWith( "(declare-const B_" ) && command.contains( "-N_" + notifyThread ) )
+                count++;
+        }
+        return count;
+    }
+}
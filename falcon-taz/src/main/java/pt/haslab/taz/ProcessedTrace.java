@@ -0,0 +1,231 @@
+package pt.haslab.taz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.causality.ReachabilityIndex;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.RWEvent;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.utils.AppendSortedSet;
+import pt.haslab.taz.utils.SymbolTable;
+
+/**
+ * Read-only snapshot of the data structures built by a TraceProcessor. Maps and the collections they contain are
+ * copied when the snapshot is taken and cannot be modified, so events processed afterwards by the TraceProcessor are
+ * not added to the snapshot. The events and causal pairs themselves are shared with the TraceProcessor.
+ * Instances are obtained with TraceProcessor.getProcessedTrace().
+ */
+public class ProcessedTrace
+{
+    /* Map: message id -> pair of events (snd,rcv) */
+    private final Map<String, MessageCausalPair> sndRcvPairs;
+
+    /* Map: rcv event-> list of events of the message handler */
+    private final Map<SocketEvent, List<Event>> handlerEvents;
+
+    /* Map: socket id -> pair of events (connect,accept) */
+    private final Map<String, CausalPair<SocketEvent, SocketEvent>> connAcptEvents;
+
+    /* Map: socket id -> pair of events (close,shutdown) */
+    private final Map<String, CausalPair<SocketEvent, SocketEvent>> closeShutEvents;
+
+    /* Map: thread -> list of all events in that thread's execution ordered by timestamp */
+    private final Map<String, SortedSet<Event>> eventsPerThread;
+
+    /* Map: thread -> list of thread's fork events */
+    private final Map<String, List<ThreadCreationEvent>> forkEvents;
+
+    /* Map: thread -> list of thread's join events */
+    private final Map<String, List<ThreadCreationEvent>> joinEvents;
+
+    /* Map: mutex variable -> list of pairs of locks/unlocks */
+    private final Map<String, List<CausalPair<SyncEvent, SyncEvent>>> lockEvents;
+
+    /* Map: variable -> list of reads to that variable by all threads */
+    private final Map<String, List<RWEvent>> readEvents;
+
+    /* Map: variable -> list of writes to that variable by all threads */
+    private final Map<String, List<RWEvent>> writeEvents;
+
+    /* Map: condition variable -> list of thread's wait events */
+    private final Map<String, List<SyncEvent>> waitEvents;
+
+    /* Map: condition variable -> list of thread's notify events */
+    private final Map<String, List<SyncEvent>> notifyEvents;
+
+    /* list with socket events ordered by timestamp */
+    private final SortedSet<Event> sortedByTimestamp;
+
+    private final SymbolTable symbolTable;
+
+    private final int numberOfEvents;
+
+    /* index of the happens-before relation, built on the first query */
+    private ReachabilityIndex reachabilityIndex;
+
+    /**
+     * Builds a snapshot of the data structures of a TraceProcessor, whose timelines must already be sorted (see
+     * TraceProcessor.sortTimelines).
+     */
+    ProcessedTrace( TraceProcessor processor )
+    {
+        sndRcvPairs = Collections.unmodifiableMap( new HashMap<String, MessageCausalPair>( processor.sndRcvPairs ) );
+        handlerEvents = copyOfMapOfLists( processor.handlerEvents );
+        connAcptEvents = Collections.unmodifiableMap(
+                        new HashMap<String, CausalPair<SocketEvent, SocketEvent>>( processor.connAcptEvents ) );
+        closeShutEvents = Collections.unmodifiableMap(
+                        new HashMap<String, CausalPair<SocketEvent, SocketEvent>>( processor.closeShutEvents ) );
+        forkEvents = copyOfMapOfLists( processor.forkEvents );
+        joinEvents = copyOfMapOfLists( processor.joinEvents );
+        lockEvents = copyOfMapOfLists( processor.lockEvents );
+        readEvents = copyOfMapOfLists( processor.readEvents );
+        writeEvents = copyOfMapOfLists( processor.writeEvents );
+        waitEvents = copyOfMapOfLists( processor.waitEvents );
+        notifyEvents = copyOfMapOfLists( processor.notifyEvents );
+        sortedByTimestamp = Collections.unmodifiableSortedSet( copyOf( processor.sortedByTimestamp ) );
+        symbolTable = processor.symbolTable;
+        numberOfEvents = processor.getNumberOfEvents();
+
+        Map<String, SortedSet<Event>> timelines = new HashMap<String, SortedSet<Event>>();
+        for ( Map.Entry<String, SortedSet<Event>> entry : processor.eventsPerThread.entrySet() )
+        {
+            timelines.put( entry.getKey(), Collections.unmodifiableSortedSet( copyOf( entry.getValue() ) ) );
+        }
+        eventsPerThread = Collections.unmodifiableMap( timelines );
+    }
+
+    private static <K, V> Map<K, List<V>> copyOfMapOfLists( Map<K, List<V>> map )
+    {
+        Map<K, List<V>> res = new HashMap<K, List<V>>();
+        for ( Map.Entry<K, List<V>> entry : map.entrySet() )
+        {
+            res.put( entry.getKey(), Collections.unmodifiableList( new ArrayList<V>( entry.getValue() ) ) );
+        }
+        return Collections.unmodifiableMap( res );
+    }
+
+    /**
+     * Copies a sorted timeline into an array-backed set, which takes a single append per event as the events are
+     * already in order.
+     */
+    private static SortedSet<Event> copyOf( SortedSet<Event> timeline )
+    {
+        AppendSortedSet<Event> copy = new AppendSortedSet<Event>( timeline.comparator(), timeline.size() );
+        copy.addAll( timeline );
+        return copy;
+    }
+
+    public Map<String, MessageCausalPair> getSndRcvPairs()
+    {
+        return sndRcvPairs;
+    }
+
+    public Map<SocketEvent, List<Event>> getHandlerEvents()
+    {
+        return handlerEvents;
+    }
+
+    public Map<String, CausalPair<SocketEvent, SocketEvent>> getConnAcptEvents()
+    {
+        return connAcptEvents;
+    }
+
+    public Map<String, CausalPair<SocketEvent, SocketEvent>> getCloseShutEvents()
+    {
+        return closeShutEvents;
+    }
+
+    public Map<String, SortedSet<Event>> getEventsPerThread()
+    {
+        return eventsPerThread;
+    }
+
+    public Map<String, List<ThreadCreationEvent>> getForkEvents()
+    {
+        return forkEvents;
+    }
+
+    public Map<String, List<ThreadCreationEvent>> getJoinEvents()
+    {
+        return joinEvents;
+    }
+
+    public Map<String, List<CausalPair<SyncEvent, SyncEvent>>> getLockEvents()
+    {
+        return lockEvents;
+    }
+
+    public Map<String, List<RWEvent>> getReadEvents()
+    {
+        return readEvents;
+    }
+
+    public Map<String, List<RWEvent>> getWriteEvents()
+    {
+        return writeEvents;
+    }
+
+    public Map<String, List<SyncEvent>> getWaitEvents()
+    {
+        return waitEvents;
+    }
+
+    public Map<String, List<SyncEvent>> getNotifyEvents()
+    {
+        return notifyEvents;
+    }
+
+    public SortedSet<Event> getSortedByTimestamp()
+    {
+        return sortedByTimestamp;
+    }
+
+    public SymbolTable getSymbolTable()
+    {
+        return symbolTable;
+    }
+
+    /**
+     * Returns the total number of events in the trace.
+     *
+     * @return the total number of events in the trace.
+     */
+    public int getNumberOfEvents()
+    {
+        return numberOfEvents;
+    }
+
+    /**
+     * Returns the index answering happens-before queries between the events of the trace, which is built on the
+     * first call.
+     *
+     * @return the reachability index of the trace.
+     */
+    public synchronized ReachabilityIndex getReachabilityIndex()
+    {
+        if ( reachabilityIndex == null )
+            reachabilityIndex = ReachabilityIndex.build( this );
+        return reachabilityIndex;
+    }
+
+    /**
+     * Indicates whether an event happens before another one, according to the program order of each thread and
+     * the causal pairs of the trace (see ReachabilityIndex).
+     *
+     * @param e1 the first event.
+     * @param e2 the second event.
+     * @return true if e1 happens before e2.
+     */
+    public boolean happensBefore( Event e1, Event e2 )
+    {
+        return getReachabilityIndex().happensBefore( e1, e2 );
+    }
+}
@@ -1,28 +1,42 @@
 package pt.haslab.taz;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import org.json.JSONArray;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.CausalPairListener;
 import pt.haslab.taz.causality.MessageCausalPair;
 import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventIterator;
 import pt.haslab.taz.events.EventType;
 import pt.haslab.taz.events.HandlerEvent;
 import pt.haslab.taz.events.LogEvent;
@@ -31,20 +45,32 @@ import pt.haslab.taz.events.SocketEvent;
 import pt.haslab.taz.events.SyncEvent;
 import pt.haslab.taz.events.ThreadCreationEvent;
 import pt.haslab.taz.events.TimestampComparator;
+import pt.haslab.taz.io.BinaryEventReader;
+import pt.haslab.taz.io.JSONEventReader;
+import pt.haslab.taz.utils.AppendSortedSet;
+import pt.haslab.taz.utils.LongIntHashMap;
+import pt.haslab.taz.utils.SymbolTable;
 import pt.haslab.taz.utils.Utils;
 
 /**
  * The class is responsible for parsing an event trace and organize the events into different data structures
  * according to their type.
+ * Each TraceProcessor holds the state of a single trace, so that several traces can be processed (even in parallel)
+ * by creating one TraceProcessor per trace, either with the default constructor or with a Builder. The results can
+ * be read either from the public fields or, once the trace is loaded, from the read-only snapshot returned by
+ * getProcessedTrace().
  * Created by nunomachado on 05/03/18.
  */
-public enum TraceProcessor
+public class TraceProcessor
 {
-    /* TraceProcessor is a singleton class implemented using the single-element enum type approach */
-    INSTANCE;
+    /* shared instance kept for compatibility with code written when TraceProcessor was a singleton */
+    public static final TraceProcessor INSTANCE = new TraceProcessor();
 
     private static Logger logger = LoggerFactory.getLogger( TraceProcessor.class );
 
+    /* placeholder for events whose id is only assigned after merging multiple trace files */
+    private static final int UNDEFINED_ID = -1;
+
     /* counts the number of events in the trace */
     private int eventNumber = 0;
 
@@ -52,9 +78,13 @@ public enum TraceProcessor
     public Map<String, MessageCausalPair> sndRcvPairs;
 
     /* Counter representing the message id for traces from TCP connections.
-       The message id is increased whenever a pair (snd,rcv) is complete */
+       The message id is increased whenever a new pair (snd,rcv) is started */
     private long tcpMessageId = 0;
 
+    /* id of the TCP message whose SND/RCV bytes are not fully matched yet on each directed socket channel
+       (indexed by channel number, see getChannel), or null */
+    private List<String> openTcpMessages;
+
     /* Map: rcv event-> list of events of the message handler
      * (list starts with HANDLERBEGIN and ends with HANDLEREND) */
     public Map<SocketEvent, List<Event>> handlerEvents;
@@ -95,12 +125,57 @@ public enum TraceProcessor
     /* list with socket events ordered by timestamp */
     public SortedSet<Event> sortedByTimestamp;
 
+    /* dictionary with the identifiers (threads, sockets, IPs, variables, lines of code) of the events in the trace */
+    public SymbolTable symbolTable;
+
+    /* indicates whether the event timelines are built by appending events and sorting them once, at the first read */
+    private boolean appendSortedTimelines;
+
+    /* maximum number of threads used to decode the files of a multi-file trace */
+    private int maxDecodeWorkers;
+
+    /* indicates whether loadEventTrace reuses (and creates) snapshots of the traces it loads */
+    private boolean useSnapshots;
+
+    /* listeners notified whenever a causal pair is complete */
+    private List<CausalPairListener> pairListeners;
+
     //local variables (only used during parsing, but not necessary afterwards)
-    /* Map: socket channel -> pair of event lists ([snd],[rcv]) */
-    private Map<String, CausalPair<Deque<SocketEvent>, Deque<SocketEvent>>> pendingEventsSndRcv;
+    /* pair of event lists ([snd],[rcv]) of each directed socket channel, indexed by channel number */
+    private List<CausalPair<Deque<SocketEvent>, Deque<SocketEvent>>> pendingEventsSndRcv;
+
+    /* Map: (symbol id of an IP, port) -> endpoint number, so that channels are found without building their names */
+    private LongIntHashMap endpoints;
+
+    /* Map: (src endpoint, dst endpoint) -> channel number */
+    private LongIntHashMap channels;
+
+    /* symbol id of the name of each directed socket channel (see SocketEvent.getDirectedSocket), by channel number */
+    private List<Integer> channelNames;
+
+    public TraceProcessor()
+    {
+        this( new SymbolTable() );
+    }
+
+    private TraceProcessor( SymbolTable symbolTable )
+    {
+        appendSortedTimelines = false;
+        maxDecodeWorkers = Runtime.getRuntime().availableProcessors();
+        useSnapshots = false;
+        this.symbolTable = symbolTable;
+        pairListeners = new ArrayList<CausalPairListener>();
+        clear();
+    }
 
-    TraceProcessor()
+    /**
+     * Discards the events and data structures built so far, keeping the settings, the symbol table and the
+     * listeners of the processor.
+     */
+    private void clear()
     {
+        eventNumber = 0;
+        tcpMessageId = 0;
         sndRcvPairs = new HashMap<String, MessageCausalPair>();
         lockEvents = new HashMap<String, List<CausalPair<SyncEvent, SyncEvent>>>();
         eventsPerThread = new HashMap<String, SortedSet<Event>>();
@@ -112,92 +187,266 @@ public enum TraceProcessor
         notifyEvents = new HashMap<String, List<SyncEvent>>();
         connAcptEvents = new HashMap<String, CausalPair<SocketEvent, SocketEvent>>();
         closeShutEvents = new HashMap<String, CausalPair<SocketEvent, SocketEvent>>();
-        sortedByTimestamp = new TreeSet<Event>( new TimestampComparator() );
-        pendingEventsSndRcv = new HashMap<String, CausalPair<Deque<SocketEvent>, Deque<SocketEvent>>>();
+        sortedByTimestamp = newTimeline();
+        pendingEventsSndRcv = new ArrayList<CausalPair<Deque<SocketEvent>, Deque<SocketEvent>>>();
+        openTcpMessages = new ArrayList<String>();
+        endpoints = new LongIntHashMap();
+        channels = new LongIntHashMap();
+        channelNames = new ArrayList<Integer>();
         handlerEvents = new HashMap<SocketEvent, List<Event>>();
         hasHandlers = new HashSet<String>();
     }
 
     /**
      * This method parses the events of an execution trace passed as input and organizes them into
-     * different data structures according to their type.
+     * different data structures according to their type. The trace can either be a JSON array of events or
+     * a file with one JSON event per line, and is read one event at a time.
      *
      * @param pathToFile an absolute path giving the location of the event trace.
      * @return void
      * @throws JSONException
      * @throws IOException
      */
-    public void loadEventTrace( String pathToFile )
+    public synchronized void loadEventTrace( String pathToFile )
             throws JSONException, IOException
     {
+        if ( useSnapshots )
+        {
+            loadEventTraceWithSnapshot( pathToFile );
+            return;
+        }
+
+        File path = new File( pathToFile );
+        if ( path.isDirectory() )
+        {
+            List<String> pathsToFiles = new ArrayList<String>();
+            File[] files = path.listFiles();
+            if ( files != null )
+            {
+                for ( File file : files )
+                {
+                    if ( file.isFile() && !file.isHidden() )
+                        pathsToFiles.add( file.getAbsolutePath() );
+                }
+            }
+            Collections.sort( pathsToFiles );
+            loadEventTrace( pathsToFiles );
+            return;
+        }
 
         logger.info( "Loading events from " + pathToFile );
 
         try
         {
-            // Parse the event trace as JSON Array.
-            JSONTokener tokener = new JSONTokener( new FileReader( pathToFile ) );
-            JSONArray jsonevents = new JSONArray( tokener );
+            if ( BinaryEventReader.isBinaryTrace( pathToFile ) )
+            {
+                loadBinaryEvents( pathToFile );
+            }
+            else
+            {
+                loadJSONEvents( pathToFile );
+            }
+        }
+        finally
+        {
+            if ( !hasHandlers.isEmpty() )
+            {
+                parseMessageHandlers();
+            }
+        }
+
+        if ( logger.isDebugEnabled() )
+        {
+            printDataStructures();
+        }
+        logger.info( "Trace successfully loaded!" );
+
+    }
+
+    /**
+     * Parses the events of an execution trace that continues the trace already loaded (e.g. the events written
+     * by the tracer since it was loaded) and adds them to the data structures. Causal pairs left open by the
+     * previous events are matched with the new ones, and the registered CausalPairListeners are notified of the
+     * pairs completed. Snapshots are never used, as they hold a whole trace.
+     *
+     * @param pathToFile an absolute path giving the location of the new events.
+     * @return void
+     * @throws JSONException
+     * @throws IOException
+     */
+    public synchronized void appendEventTrace( String pathToFile )
+            throws JSONException, IOException
+    {
+        boolean snapshots = useSnapshots;
+        useSnapshots = false;
+        try
+        {
+            loadEventTrace( pathToFile );
+        }
+        finally
+        {
+            useSnapshots = snapshots;
+        }
+    }
+
+    /**
+     * This method parses the events of multiple execution traces (e.g. one per node) and organizes them into
+     * different data structures according to their type. Each file is decoded by its own thread, which streams its
+     * events in batches through a bounded queue, and the streams of all files are merged by timestamp (k-way merge)
+     * while being inserted in the data structures, so that only a few batches of each file are held in memory at a
+     * time. Events within a file keep their order in the file. Events without an id in the trace are numbered
+     * according to the merged order, and so are events whose id was already given to an earlier event, so that
+     * event ids stay unique.
+     *
+     * @param pathsToFiles absolute paths giving the location of the event traces.
+     * @return void
+     * @throws JSONException
+     * @throws IOException
+     */
+    public synchronized void loadEventTrace( List<String> pathsToFiles )
+            throws JSONException, IOException
+    {
+        if ( pathsToFiles.size() == 1 )
+        {
+            loadEventTrace( pathsToFiles.get( 0 ) );
+            return;
+        }
+
+        logger.info( "Loading events from " + pathsToFiles.size() + " files" );
+
+        // The merge needs the next event of every file, so each file has a thread of its own, but at most
+        // maxDecodeWorkers of them are decoding at any time.
+        Semaphore decodePermits = new Semaphore( maxDecodeWorkers );
+        ExecutorService decoders = Executors.newFixedThreadPool( Math.max( 1, pathsToFiles.size() ) );
+        try
+        {
+            List<DecodedFile> files = new ArrayList<DecodedFile>();
+            for ( String pathToFile : pathsToFiles )
+            {
+                DecodedFile file = new DecodedFile( pathToFile, symbolTable, decodePermits );
+                decoders.execute( file );
+                files.add( file );
+            }
 
-            for ( int i = 0; i < jsonevents.length(); i++ )
+            // Merge the streams of all files by timestamp.
+            EventIdSet usedIds = new EventIdSet();
+            int renumbered = 0;
+            EventIterator mergedEvents = new EventIterator( files, new TimestampOrder() );
+            while ( mergedEvents.hasNext() )
+            {
+                Event e = mergedEvents.next();
+                boolean undefinedId = e.getEventId() == UNDEFINED_ID;
+                if ( undefinedId || !usedIds.add( e.getEventId() ) )
+                {
+                    // Events without an id, or whose id was already used, get a fresh one.
+                    while ( !usedIds.add( eventNumber ) )
+                        eventNumber++;
+                    e.setEventId( eventNumber );
+                    e.setScheduleOrder( eventNumber );
+                    eventNumber++;
+                    if ( !undefinedId )
+                        renumbered++;
+                }
+                processEvent( e );
+            }
+            if ( renumbered > 0 )
+                logger.warn( "Renumbered " + renumbered + " events whose ids were already used by earlier events" );
+        }
+        catch ( DecodeFailure e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof JSONException )
+                throw (JSONException) cause;
+            if ( cause instanceof IOException )
+                throw (IOException) cause;
+            throw new IOException( cause );
+        }
+        finally
+        {
+            decoders.shutdownNow();
+            if ( !hasHandlers.isEmpty() )
             {
-                JSONObject object = jsonevents.getJSONObject( i );
-                parseJSONEvent( object );
+                parseMessageHandlers();
             }
         }
-        catch ( JSONException e )
+
+        if ( logger.isDebugEnabled() )
         {
-            String msg = e.getMessage();
+            printDataStructures();
+        }
+        logger.info( "Trace successfully loaded!" );
+    }
 
-            if ( msg.startsWith( "A JSONArray text must start" ) )
+    /**
+     * Parses an event trace in JSON format. Events are streamed one at a time, instead of building the whole
+     * JSON trace in memory.
+     *
+     * @param pathToFile an absolute path giving the location of the event trace.
+     * @return void
+     * @throws JSONException
+     * @throws IOException
+     */
+    private void loadJSONEvents( String pathToFile )
+            throws JSONException, IOException
+    {
+        JSONEventReader reader = new JSONEventReader( new FileReader( pathToFile ) );
+        try
+        {
+            boolean lineDelimited = reader.isLineDelimited();
+            JSONObject object = reader.next();
+            while ( object != null )
             {
-                // Parse events as JSON Objects.
-                logger.error( "Load as JSONArray failed. Try loading as file of JSONObjects" );
-                BufferedReader br = new BufferedReader( new FileReader( pathToFile ) );
-                String line = br.readLine();
-                while ( line != null )
+                if ( lineDelimited )
                 {
+                    // Malformed events of line-delimited traces are skipped.
                     try
                     {
-                        JSONObject object = new JSONObject( line );
                         parseJSONEvent( object );
                     }
                     catch ( JSONException objError )
                     {
-                        if ( objError.getMessage().contains( "event type" ) )
-                        {
-                            logger.error( objError.getMessage() );
-                        }
-                        else
-                        {
-                            logger.error( "Invalid JSON: " + line );
-                        }
-                    }
-                    finally
-                    {
-                        line = br.readLine();
+                        logger.error( objError.getMessage() );
                     }
                 }
-            }
-            else
-            {
-                throw e;
+                else
+                {
+                    parseJSONEvent( object );
+                }
+                object = reader.next();
             }
         }
         finally
         {
-            if ( !hasHandlers.isEmpty() )
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses an event trace in the binary format written by falcon-tracer. Records are decoded
+     * directly into Event objects, skipping the JSON representation altogether.
+     *
+     * @param pathToFile an absolute path giving the location of the event trace.
+     * @return void
+     * @throws IOException
+     */
+    private void loadBinaryEvents( String pathToFile )
+            throws IOException
+    {
+        BinaryEventReader reader = new BinaryEventReader( new FileInputStream( pathToFile ), symbolTable );
+        try
+        {
+            Event e = reader.next( eventNumber );
+            while ( e != null )
             {
-                parseMessageHandlers();
+                eventNumber++;
+                processEvent( e );
+                e = reader.next( eventNumber );
             }
         }
-
-        if ( logger.isDebugEnabled() )
+        finally
         {
-            printDataStructures();
+            reader.close();
         }
-        logger.info( "Trace successfully loaded!" );
-
     }
 
     /**
@@ -211,6 +460,26 @@ public enum TraceProcessor
      */
     private void parseJSONEvent( JSONObject event )
             throws JSONException
+    {
+        // Use the event id in the JSON object, if present, or the global event counter, otherwise.
+        Event e = decodeJSONEvent( event, eventNumber, symbolTable );
+        if ( !event.has( "id" ) )
+            eventNumber++;
+
+        processEvent( e );
+    }
+
+    /**
+     * Builds an object of type Event (or subclass of Event) from a JSON object read from the event trace.
+     *
+     * @param event a JSON object representing an execution event to be parsed.
+     * @param defaultId the id to be given to the event if the JSON object has no "id" field.
+     * @param symbols the symbol table used to intern the identifiers of the event (thread, socket, variable, etc).
+     * @return the event built from the JSON object.
+     * @throws JSONException
+     */
+    private static Event decodeJSONEvent( JSONObject event, long defaultId, SymbolTable symbols )
+            throws JSONException
     {
         /* --- Parse required fields --- */
 
@@ -229,17 +498,15 @@ public enum TraceProcessor
         if ( type == null )
             throw new JSONException( "Unknown event type: " + event.getString( "type" ) );
 
-        String thread = event.getString( "thread" );
+        String thread = symbols.intern( event.getString( "thread" ) );
         String loc = event.optString( "loc" );
-        loc = ( loc == null ) ? "" : loc;
+        loc = ( loc == null ) ? "" : symbols.intern( loc );
 
         // Consider timestamp to be a long for the moment.
-        long time = event.getLong( "timestamp" );
-        String timestamp = String.valueOf( time );
+        long timestamp = event.getLong( "timestamp" );
 
         /* --- Parse optional fields --- */
-        // Use the event id in the JSON object, if present, or the global event counter, otherwise.
-        long eventId = event.has( "id" ) ? event.getLong( "id" ) : eventNumber++;
+        long eventId = event.has( "id" ) ? event.getLong( "id" ) : defaultId;
         Event e = new Event( timestamp, type, thread, eventId, loc );
 
         String dependency = event.optString( "dependency" );
@@ -249,20 +516,12 @@ public enum TraceProcessor
         if ( event.has( "data" ) )
             e.setData( event.optJSONObject( "data" ) );
 
-        // Create a new thread event timeline.
-        if ( !eventsPerThread.containsKey( thread ) )
-        {
-            eventsPerThread.put( thread, new TreeSet<Event>( new TimestampComparator() ) );
-        }
-
-        // Populate the data structures according to the event type.
+        // Build the Event subclass according to the event type.
         switch ( type )
         {
             case LOG:
                 String msg = event.getString( "message" );
-                LogEvent logEvent = new LogEvent( e, msg );
-                eventsPerThread.get( thread ).add( logEvent );
-                sortedByTimestamp.add( logEvent );
+                e = new LogEvent( e, msg );
                 break;
 
             case CONNECT:
@@ -274,20 +533,105 @@ public enum TraceProcessor
                 SocketEvent socketEvent = new SocketEvent( e );
 
                 // Build SocketEvent by setting the required fields.
-                String socketChannelId = event.getString( "socket" );
-                socketEvent.setSocket( socketChannelId );
+                socketEvent.setSocket( symbols.intern( event.getString( "socket" ) ) );
                 socketEvent.setSocketType( event.getString( "socket_type" ) );
-                socketEvent.setSrc( event.getString( "src" ) );
+                socketEvent.setSrc( symbols.intern( event.getString( "src" ) ) );
                 socketEvent.setSrcPort( event.getInt( "src_port" ) );
-                socketEvent.setDst( event.getString( "dst" ) );
+                socketEvent.setDst( symbols.intern( event.getString( "dst" ) ) );
                 socketEvent.setDstPort( event.getInt( "dst_port" ) );
 
-                // Handle SND and RCV events.
                 if ( type == EventType.SND || type == EventType.RCV )
                 {
                     socketEvent.setSize( event.getInt( "size" ) );
                     socketEvent.setMessageId( event.optString( "message", null ) );
+                }
+                e = socketEvent;
+                break;
+
+            case START:
+            case END:
+                break;
+
+            case CREATE:
+            case JOIN:
+                ThreadCreationEvent creationEvent = new ThreadCreationEvent( e );
+
+                // Build ThreadCreationEvent by setting the required fields.
+                creationEvent.setChildThread( symbols.intern( event.getString( "child" ) ) );
+                e = creationEvent;
+                break;
+
+            case WRITE:
+            case READ:
+                RWEvent rwEvent = new RWEvent( e );
+
+                // Build RWEvent by setting the required fields.
+                rwEvent.setVariable( symbols.intern( event.getString( "variable" ) ) );
+                e = rwEvent;
+                break;
+
+            case HNDLBEG:
+            case HNDLEND:
+                e = new HandlerEvent( e );
+                break;
+
+            case LOCK:
+            case UNLOCK:
+            case NOTIFY:
+            case NOTIFYALL:
+            case WAIT:
+                SyncEvent syncEvent = new SyncEvent( e );
+
+                // Build SyncEvent by setting the required fields.
+                syncEvent.setVariable( symbols.intern( event.getString( "variable" ) ) );
+                e = syncEvent;
+                break;
+
+            default:
+                throw new JSONException( "Unknown event type: " + type );
+        }
+
+        return e;
+    }
+
+    /**
+     * This method inserts an Event (or subclass of Event) into the respective data structures according to its
+     * type. Events must be fully built, i.e. have all the fields required by their type already set.
+     *
+     * @param e the event to be inserted.
+     * @return void
+     */
+    private void processEvent( Event e )
+    {
+        String thread = e.getThread();
+        EventType type = e.getType();
+
+        // Create a new thread event timeline.
+        if ( !eventsPerThread.containsKey( thread ) )
+        {
+            eventsPerThread.put( thread, newTimeline() );
+        }
+
+        // Populate the data structures according to the event type.
+        switch ( type )
+        {
+            case LOG:
+                eventsPerThread.get( thread ).add( e );
+                sortedByTimestamp.add( e );
+                break;
+
+            case CONNECT:
+            case ACCEPT:
+            case CLOSE:
+            case SHUTDOWN:
+            case RCV:
+            case SND:
+                SocketEvent socketEvent = (SocketEvent) e;
+                String socketChannelId = socketEvent.getSocket();
 
+                // Handle SND and RCV events.
+                if ( type == EventType.SND || type == EventType.RCV )
+                {
                     // Handle UDP cases by matching the message id.
                     if ( socketEvent.getSocketType() == SocketEvent.SocketType.UDP )
                     {
@@ -295,6 +639,8 @@ public enum TraceProcessor
                         sndRcvPairs.putIfAbsent(socketEvent.getMessageId(), new MessageCausalPair());
                         MessageCausalPair msgCausalPair = sndRcvPairs.get( socketEvent.getMessageId() );
 
+                        boolean wasComplete = !msgCausalPair.getSndList().isEmpty()
+                                && !msgCausalPair.getRcvList().isEmpty();
                         if ( type == EventType.SND )
                         {
                             msgCausalPair.addSnd( socketEvent );
@@ -304,6 +650,13 @@ public enum TraceProcessor
                             msgCausalPair.addRcv( socketEvent );
                         }
 
+                        if ( !wasComplete && !msgCausalPair.getSndList().isEmpty()
+                                && !msgCausalPair.getRcvList().isEmpty() )
+                        {
+                            for ( CausalPairListener listener : pairListeners )
+                                listener.onMessagePair( socketEvent.getMessageId(), msgCausalPair );
+                        }
+
                     }
 
                     // Handle TCP cases by matching the amount of bytes sent with those received.
@@ -330,6 +683,7 @@ public enum TraceProcessor
                     }
 
                     CausalPair<SocketEvent, SocketEvent> connAccPair = connAcptEvents.get( socketChannelId );
+                    boolean wasComplete = connAccPair.getFirst() != null && connAccPair.getSecond() != null;
 
                     // The CONNECT is the first element of the causal pair.
                     if ( type == EventType.CONNECT )
@@ -341,6 +695,12 @@ public enum TraceProcessor
                     {
                         connAccPair.setSecond( socketEvent );
                     }
+
+                    if ( !wasComplete && connAccPair.getFirst() != null && connAccPair.getSecond() != null )
+                    {
+                        for ( CausalPairListener listener : pairListeners )
+                            listener.onConnectAccept( socketChannelId, connAccPair );
+                    }
                 }
 
                 // Handle CLOSE and SHUTDOWN.
@@ -388,11 +748,7 @@ public enum TraceProcessor
 
             case CREATE:
             case JOIN:
-                ThreadCreationEvent creationEvent = new ThreadCreationEvent( e );
-
-                // Build ThreadCreationEvent by setting the required fields.
-                String child = event.getString( "child" );
-                creationEvent.setChildThread( child );
+                ThreadCreationEvent creationEvent = (ThreadCreationEvent) e;
 
                 if ( type == EventType.CREATE )
                 {
@@ -415,11 +771,8 @@ public enum TraceProcessor
 
             case WRITE:
             case READ:
-                RWEvent rwEvent = new RWEvent( e );
-
-                // Build RWEvent by setting the required fields.
-                String variable = event.getString( "variable" );
-                rwEvent.setVariable( variable );
+                RWEvent rwEvent = (RWEvent) e;
+                String variable = rwEvent.getVariable();
 
                 if ( type == EventType.READ )
                 {
@@ -443,19 +796,15 @@ public enum TraceProcessor
 
             case HNDLBEG:
             case HNDLEND:
-                HandlerEvent handlerEvent = new HandlerEvent( e );
-                eventsPerThread.get( thread ).add( handlerEvent );
+                eventsPerThread.get( thread ).add( e );
                 if ( type == EventType.HNDLBEG )
                     hasHandlers.add( thread );
                 break;
 
             case LOCK:
             case UNLOCK:
-                SyncEvent lockEvent = new SyncEvent( e );
-
-                // Build SyncEvent by setting the required fields.
-                String lockVariable = event.getString( "variable" );
-                lockEvent.setVariable( lockVariable );
+                SyncEvent lockEvent = (SyncEvent) e;
+                String lockVariable = lockEvent.getVariable();
 
                 // Get the last locking pair on lockVariable, if any.
                 List<CausalPair<SyncEvent, SyncEvent>> pairList = lockEvents.get( lockVariable );
@@ -479,23 +828,25 @@ public enum TraceProcessor
                 {
                     if ( lockPair == null )
                     {
-                        Utils.insertInMapToLists( lockEvents, lockVariable,
-                                new CausalPair<SyncEvent, SyncEvent>( null, lockEvent ) );
+                        lockPair = new CausalPair<SyncEvent, SyncEvent>( null, lockEvent );
+                        Utils.insertInMapToLists( lockEvents, lockVariable, lockPair );
                     }
                     else
                     {
                         lockPair.setSecond( lockEvent );
                     }
                     eventsPerThread.get( thread ).add( lockEvent );
+
+                    for ( CausalPairListener listener : pairListeners )
+                        listener.onLockPair( lockVariable, lockPair );
                 }
                 break;
 
             case NOTIFY:
             case NOTIFYALL:
             case WAIT:
-                SyncEvent syncEvent = new SyncEvent( e );
-                String syncVariable = event.getString( "variable" );
-                syncEvent.setVariable( syncVariable );
+                SyncEvent syncEvent = (SyncEvent) e;
+                String syncVariable = syncEvent.getVariable();
 
                 if ( type == EventType.WAIT )
                 {
@@ -517,7 +868,7 @@ public enum TraceProcessor
                 break;
 
             default:
-                throw new JSONException( "Unknown event type: " + type );
+                throw new IllegalArgumentException( "Unknown event type: " + type );
         }
     }
 
@@ -582,11 +933,483 @@ public enum TraceProcessor
     }
 
     /**
-     * Returns the total number of events in the trace.
+     * Pushes a single event, encoded as a JSON object, into the data structures. This allows processing traces
+     * incrementally (e.g. while they are being produced by the tracer) instead of loading a finished trace file.
+     * Causal pairs are matched as events arrive, and the registered CausalPairListeners are notified as soon as
+     * a pair is complete. Events must be pushed in timestamp order per socket channel and per lock for them to
+     * be paired as they would be when loading the whole trace.
      *
-     * @return the total number of events in the trace.
+     * @param event a JSON object representing an execution event.
+     * @return void
+     * @throws JSONException if the event is malformed.
      */
-    public int getNumberOfEvents()
+    public synchronized void accept( JSONObject event )
+            throws JSONException
+    {
+        parseJSONEvent( event );
+    }
+
+    /**
+     * Pushes a single event into the data structures (see accept(JSONObject)).
+     *
+     * @param event an event, built with all the fields required by its type.
+     * @return void
+     */
+    public synchronized void accept( Event event )
+    {
+        eventNumber++;
+        processEvent( event );
+    }
+
+    /**
+     * Completes the processing of events pushed with accept, by computing the message handlers of the
+     * trace. Loading a trace file with loadEventTrace does this automatically.
+     *
+     * @return void
+     */
+    public synchronized void completeTrace()
+    {
+        if ( !hasHandlers.isEmpty() )
+        {
+            parseMessageHandlers();
+        }
+    }
+
+    /**
+     * Registers a listener to be notified whenever a causal pair is complete.
+     *
+     * @param listener the listener.
+     * @return void
+     */
+    public synchronized void addCausalPairListener( CausalPairListener listener )
+    {
+        pairListeners.add( listener );
+    }
+
+    /**
+     * Unregisters a listener added with addCausalPairListener.
+     *
+     * @param listener the listener.
+     * @return void
+     */
+    public synchronized void removeCausalPairListener( CausalPairListener listener )
+    {
+        pairListeners.remove( listener );
+    }
+
+    /**
+     * Releases a message causal pair, so that it is no longer kept in sndRcvPairs. Typically called by a
+     * CausalPairListener once it has consumed the pair, to bound the memory used when processing endless streams.
+     *
+     * @param messageId the id of the message.
+     * @return the released pair, or null if there was no pair with the given id.
+     */
+    public synchronized MessageCausalPair releaseMessagePair( String messageId )
+    {
+        return sndRcvPairs.remove( messageId );
+    }
+
+    /**
+     * Releases every causal pair that is already complete, along with the queues of pending SND/RCV events that
+     * were fully drained and the events that no longer take part in any pending pair. Pairs still waiting for events
+     * are kept, so that matching proceeds as usual with the events pushed afterwards. Complete pairs are those
+     * reported to the CausalPairListeners, except that the last locking pair of each variable is always kept, as it
+     * is needed to handle reentrant locks, plus the CLOSE/SHUTDOWN pairs with both events. A CLOSE may never be
+     * followed by a SHUTDOWN (nor the other way around), so the single event of an incomplete CLOSE/SHUTDOWN pair
+     * does not hold back its thread: when that event is released, the pair is released with it.
+     *
+     * The events released are, for each thread, those that precede the first event still held by a pending pair
+     * (or pending SND/RCV queue). They are removed from the timeline of the thread and from every other data
+     * structure, so that, on an endless stream, the memory used is bounded by the events of the pairs still open.
+     * Threads with message handlers keep all their events, as handlers are only computed by completeTrace.
+     *
+     * @return the number of causal pairs released.
+     */
+    public synchronized int releaseCompletedPairs()
+    {
+        int released = 0;
+
+        /* events referenced by the pairs and queues that are kept, which must stay in the data structures */
+        Set<Event> held = Collections.newSetFromMap( new IdentityHashMap<Event, Boolean>() );
+
+        Iterator<MessageCausalPair> msgIt = sndRcvPairs.values().iterator();
+        while ( msgIt.hasNext() )
+        {
+            MessageCausalPair pair = msgIt.next();
+            if ( isCompleteMessagePair( pair ) )
+            {
+                msgIt.remove();
+                released++;
+            }
+            else
+            {
+                held.addAll( pair.getSndList() );
+                held.addAll( pair.getRcvList() );
+            }
+        }
+
+        released += releaseCompletePairs( connAcptEvents, held );
+        // a CLOSE may never be followed by a SHUTDOWN, so its events are not held (see below)
+        released += releaseCompletePairs( closeShutEvents, null );
+
+        for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : lockEvents.values() )
+        {
+            if ( pairs.isEmpty() )
+                continue;
+
+            List<CausalPair<SyncEvent, SyncEvent>> kept = new ArrayList<CausalPair<SyncEvent, SyncEvent>>();
+            Iterator<CausalPair<SyncEvent, SyncEvent>> lockIt = pairs.iterator();
+            CausalPair<SyncEvent, SyncEvent> pair = lockIt.next();
+            while ( lockIt.hasNext() )
+            {
+                if ( pair.getSecond() == null )
+                    kept.add( pair );
+                pair = lockIt.next();
+            }
+            kept.add( pair );
+
+            released += pairs.size() - kept.size();
+            pairs.clear();
+            pairs.addAll( kept );
+            for ( CausalPair<SyncEvent, SyncEvent> keptPair : kept )
+            {
+                held.add( keptPair.getFirst() );
+                held.add( keptPair.getSecond() );
+            }
+        }
+
+        for ( int channel = 0; channel < pendingEventsSndRcv.size(); channel++ )
+        {
+            CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> pending = pendingEventsSndRcv.get( channel );
+            if ( pending == null )
+                continue;
+            if ( pending.getFirst().isEmpty() && pending.getSecond().isEmpty() && openTcpMessages.get( channel ) == null )
+            {
+                pendingEventsSndRcv.set( channel, null );
+            }
+            else
+            {
+                held.addAll( pending.getFirst() );
+                held.addAll( pending.getSecond() );
+            }
+        }
+
+        Set<Event> releasedEvents = releaseCompletedEvents( held );
+
+        // incomplete CLOSE/SHUTDOWN pairs must not keep referencing the events just released
+        Iterator<CausalPair<SocketEvent, SocketEvent>> closeIt = closeShutEvents.values().iterator();
+        while ( closeIt.hasNext() )
+        {
+            CausalPair<SocketEvent, SocketEvent> pair = closeIt.next();
+            if ( releasedEvents.contains( pair.getFirst() ) || releasedEvents.contains( pair.getSecond() ) )
+            {
+                closeIt.remove();
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Releases the pairs of a map whose two events are set, and adds the events of the other pairs to held (if not
+     * null).
+     *
+     * @return the number of pairs released.
+     */
+    private static int releaseCompletePairs( Map<String, CausalPair<SocketEvent, SocketEvent>> pairs,
+                                             Set<Event> held )
+    {
+        int released = 0;
+        Iterator<CausalPair<SocketEvent, SocketEvent>> it = pairs.values().iterator();
+        while ( it.hasNext() )
+        {
+            CausalPair<SocketEvent, SocketEvent> pair = it.next();
+            if ( pair.getFirst() != null && pair.getSecond() != null )
+            {
+                it.remove();
+                released++;
+            }
+            else if ( held != null )
+            {
+                held.add( pair.getFirst() );
+                held.add( pair.getSecond() );
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Removes from every data structure the events of each thread that precede its first held event (or all its
+     * events, if none is held), except for the threads with message handlers.
+     *
+     * @param held the events that must be kept.
+     * @return the events removed.
+     */
+    private Set<Event> releaseCompletedEvents( Set<Event> held )
+    {
+        final Set<Event> releasedEvents = Collections.newSetFromMap( new IdentityHashMap<Event, Boolean>() );
+        Iterator<Map.Entry<String, SortedSet<Event>>> threadIt = eventsPerThread.entrySet().iterator();
+        while ( threadIt.hasNext() )
+        {
+            Map.Entry<String, SortedSet<Event>> entry = threadIt.next();
+            if ( hasHandlers.contains( entry.getKey() ) )
+                continue;
+
+            SortedSet<Event> timeline = entry.getValue();
+            int prefix = 0;
+            for ( Event e : timeline )
+            {
+                if ( held.contains( e ) )
+                    break;
+                releasedEvents.add( e );
+                prefix++;
+            }
+
+            if ( prefix == timeline.size() )
+                threadIt.remove();
+            else if ( prefix > 0 )
+                removeReleased( timeline, releasedEvents );
+        }
+
+        if ( releasedEvents.isEmpty() )
+            return releasedEvents;
+
+        removeReleased( sortedByTimestamp, releasedEvents );
+        removeReleasedFromLists( forkEvents, releasedEvents );
+        removeReleasedFromLists( joinEvents, releasedEvents );
+        removeReleasedFromLists( readEvents, releasedEvents );
+        removeReleasedFromLists( writeEvents, releasedEvents );
+        removeReleasedFromLists( waitEvents, releasedEvents );
+        removeReleasedFromLists( notifyEvents, releasedEvents );
+        return releasedEvents;
+    }
+
+    private static void removeReleased( Collection<? extends Event> events, final Set<Event> releasedEvents )
+    {
+        events.removeIf( new Predicate<Event>()
+        {
+            public boolean test( Event e )
+            {
+                return releasedEvents.contains( e );
+            }
+        } );
+    }
+
+    private static <E extends Event> void removeReleasedFromLists( Map<String, List<E>> map,
+                                                                   Set<Event> releasedEvents )
+    {
+        Iterator<List<E>> it = map.values().iterator();
+        while ( it.hasNext() )
+        {
+            List<E> events = it.next();
+            removeReleased( events, releasedEvents );
+            if ( events.isEmpty() )
+                it.remove();
+        }
+    }
+
+    /**
+     * Indicates whether a message causal pair is complete, i.e. whether it has both SND and RCV events and,
+     * for TCP messages, the same amount of bytes sent and received.
+     */
+    private static boolean isCompleteMessagePair( MessageCausalPair pair )
+    {
+        if ( pair.getSndList().isEmpty() || pair.getRcvList().isEmpty() )
+            return false;
+
+        return pair.getSnd( 0 ).getSocketType() != SocketEvent.SocketType.TCP || pair.isFinished();
+    }
+
+    /**
+     * Loads a trace from its snapshot, if there is an up-to-date one, or otherwise parses the trace and writes its
+     * snapshot for later loads. The snapshot is kept next to the trace, with extension TraceSnapshot.FILE_EXTENSION.
+     */
+    private void loadEventTraceWithSnapshot( String pathToFile )
+            throws JSONException, IOException
+    {
+        String pathToSnapshot = pathToFile + TraceSnapshot.FILE_EXTENSION;
+        byte[] sourceHash = TraceSnapshot.hashSource( pathToFile );
+
+        // a snapshot holds the whole state of a processor, so it is only loaded into an empty one
+        File snapshot = new File( pathToSnapshot );
+        if ( snapshot.isFile() && eventsPerThread.isEmpty() && sortedByTimestamp.isEmpty() )
+        {
+            try
+            {
+                if ( TraceSnapshot.load( this, sourceHash, pathToSnapshot ) )
+                {
+                    logger.info( "Trace loaded from snapshot " + pathToSnapshot );
+                    return;
+                }
+            }
+            catch ( IOException e )
+            {
+                // A snapshot is only a cache of the trace, so a broken one is discarded and the trace parsed again.
+                logger.warn( "Could not load trace snapshot " + pathToSnapshot + ", parsing the trace instead: "
+                                             + e.getMessage() );
+                clear();
+                if ( !snapshot.delete() )
+                    logger.warn( "Could not delete trace snapshot " + pathToSnapshot );
+            }
+        }
+
+        useSnapshots = false;
+        try
+        {
+            loadEventTrace( pathToFile );
+        }
+        finally
+        {
+            useSnapshots = true;
+        }
+
+        try
+        {
+            TraceSnapshot.write( this, sourceHash, pathToSnapshot );
+            logger.info( "Trace snapshot saved to " + pathToSnapshot );
+        }
+        catch ( IOException e )
+        {
+            // The snapshot is only an optimization, so failing to write it does not fail the load.
+            logger.error( "Could not write trace snapshot " + pathToSnapshot + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Writes a compact binary snapshot of the data structures built from a trace, which can be loaded afterwards
+     * with loadSnapshot much faster than parsing the trace again. The snapshot covers all the events and data
+     * structures of the trace, but not the SND/RCV events still waiting to be matched.
+     *
+     * @param pathToSnapshot the path of the snapshot file to be written.
+     * @param pathToSource the path of the trace (file or directory) that was loaded, whose hash is stored in
+     *                     the snapshot.
+     * @return void
+     * @throws IOException
+     */
+    public synchronized void writeSnapshot( String pathToSnapshot, String pathToSource )
+            throws IOException
+    {
+        TraceSnapshot.write( this, TraceSnapshot.hashSource( pathToSource ), pathToSnapshot );
+    }
+
+    /**
+     * Loads the data structures of a trace from a snapshot written by writeSnapshot. The snapshot is memory-mapped
+     * and only loaded if it was built from a trace with the same contents as the given one.
+     *
+     * @param pathToSnapshot the path of the snapshot file.
+     * @param pathToSource the path of the trace (file or directory) that the snapshot should represent.
+     * @return true if the snapshot was loaded, or false if it is not a snapshot of the given trace.
+     * @throws IOException if the snapshot cannot be read or is corrupted, in which case the processor is left empty.
+     * @throws IllegalStateException if events were already loaded.
+     */
+    public synchronized boolean loadSnapshot( String pathToSnapshot, String pathToSource )
+            throws IOException
+    {
+        if ( !eventsPerThread.isEmpty() || !sortedByTimestamp.isEmpty() )
+            throw new IllegalStateException( "Snapshots can only be loaded into an empty TraceProcessor" );
+
+        try
+        {
+            return TraceSnapshot.load( this, TraceSnapshot.hashSource( pathToSource ), pathToSnapshot );
+        }
+        catch ( IOException e )
+        {
+            clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Restores the counters of the processor after loading a snapshot.
+     */
+    void restoreCounters( int eventNumber, long tcpMessageId, Set<String> threadsWithHandlers )
+    {
+        this.eventNumber = eventNumber;
+        this.tcpMessageId = tcpMessageId;
+        this.hasHandlers.addAll( threadsWithHandlers );
+    }
+
+    long getTcpMessageId()
+    {
+        return tcpMessageId;
+    }
+
+    /**
+     * Returns a read-only snapshot of the data structures built from the trace so far. Events processed afterwards
+     * (e.g. with accept) are not added to the snapshot.
+     *
+     * @return a read-only snapshot of the processed trace.
+     */
+    public synchronized ProcessedTrace getProcessedTrace()
+    {
+        sortTimelines();
+        return new ProcessedTrace( this );
+    }
+
+    /**
+     * Sorts the timelines filled in append-then-sort mode (see Builder.appendSortedTimelines), which are otherwise
+     * sorted by their first read.
+     */
+    public synchronized void sortTimelines()
+    {
+        for ( SortedSet<Event> timeline : eventsPerThread.values() )
+        {
+            if ( timeline instanceof AppendSortedSet )
+                ( (AppendSortedSet<Event>) timeline ).sort();
+        }
+        if ( sortedByTimestamp instanceof AppendSortedSet )
+            ( (AppendSortedSet<Event>) sortedByTimestamp ).sort();
+    }
+
+    /**
+     * Returns a new Builder to configure and create a TraceProcessor.
+     *
+     * @return a new Builder with the default settings.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Chooses how the timelines eventsPerThread and sortedByTimestamp are built while loading the trace. By default,
+     * events are inserted in TreeSets ordered by timestamp. When appendSorted is true, events are instead appended to
+     * arrays that are sorted only once, when first read after loading (see AppendSortedSet), which is considerably
+     * faster for large traces as tracers already output events almost in timestamp order.
+     * The mode must be chosen before loading any event.
+     *
+     * @param appendSorted true to build timelines by appending events and sorting them at the end.
+     * @return void
+     * @throws IllegalStateException if events were already loaded.
+     */
+    public synchronized void setAppendSortedTimelines( boolean appendSorted )
+    {
+        if ( !eventsPerThread.isEmpty() || !sortedByTimestamp.isEmpty() )
+            throw new IllegalStateException( "The timeline mode must be set before loading the event trace" );
+
+        appendSortedTimelines = appendSorted;
+        sortedByTimestamp = newTimeline();
+    }
+
+    /**
+     * Creates an empty timeline of events ordered by timestamp, according to the timeline mode in use.
+     *
+     * @return an empty set of events ordered by timestamp.
+     */
+    SortedSet<Event> newTimeline()
+    {
+        if ( appendSortedTimelines )
+            return new AppendSortedSet<Event>( new TimestampComparator() );
+
+        return new TreeSet<Event>( new TimestampComparator() );
+    }
+
+    /**
+     * Returns the total number of events in the trace.
+     *
+     * @return the total number of events in the trace.
+     */
+    public int getNumberOfEvents()
     {
         return eventNumber;
     }
@@ -596,19 +1419,20 @@ public enum TraceProcessor
      * (respectively RCV events) waiting to be matched with RCV events (respectively SND events) on the same channel.
      * If no such queue exists, the method creates and returns a new empty one.
      *
-     * @param socketChannelId the identifier of a socket channel between two processes that exchange messages.
+     * @param socketChannelId the number of a socket channel between two processes that exchange messages
+     * (see getChannel).
      * @return the pair of queues with pending SND or RCV events.
      */
-    private CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> getOrCreatePartialEventsPairs( String socketChannelId )
+    private CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> getOrCreatePartialEventsPairs( int socketChannelId )
     {
-        if ( !pendingEventsSndRcv.containsKey( socketChannelId ) )
+        if ( pendingEventsSndRcv.get( socketChannelId ) == null )
         {
             Deque<SocketEvent> sndEvents = new ArrayDeque<SocketEvent>();
             Deque<SocketEvent> rcvEvents = new ArrayDeque<SocketEvent>();
             CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> pendingEventsPair =
                     new CausalPair<Deque<SocketEvent>, Deque<SocketEvent>>( sndEvents, rcvEvents );
 
-            pendingEventsSndRcv.put( socketChannelId, pendingEventsPair );
+            pendingEventsSndRcv.set( socketChannelId, pendingEventsPair );
 
             return pendingEventsPair;
         }
@@ -616,6 +1440,41 @@ public enum TraceProcessor
         return pendingEventsSndRcv.get( socketChannelId );
     }
 
+    /**
+     * Returns the number of the directed socket channel of a SND or RCV event, numbered from 0 in the order the
+     * channels are first seen. The channel is looked up by the symbol ids of its IPs and its ports, without building
+     * its name (see SocketEvent.getDirectedSocket), which is only added to the symbol table for a new channel.
+     *
+     * @param e a SND or RCV event.
+     * @return the number of the channel.
+     */
+    private int getChannel( SocketEvent e )
+    {
+        long key = ( (long) getEndpoint( e.getSrc(), e.getSrcPort() ) << 32 ) | getEndpoint( e.getDst(), e.getDstPort() );
+        int channel = channels.get( key );
+        if ( channel == LongIntHashMap.MISSING )
+        {
+            channel = channelNames.size();
+            channels.put( key, channel );
+            channelNames.add( symbolTable.getOrAddId( e.getDirectedSocket() ) );
+            pendingEventsSndRcv.add( null );
+            openTcpMessages.add( null );
+        }
+        return channel;
+    }
+
+    private int getEndpoint( String ip, int port )
+    {
+        long key = ( (long) symbolTable.getOrAddId( String.valueOf( ip ) ) << 32 ) | ( port & 0xFFFFFFFFL );
+        int endpoint = endpoints.get( key );
+        if ( endpoint == LongIntHashMap.MISSING )
+        {
+            endpoint = endpoints.size();
+            endpoints.put( key, endpoint );
+        }
+        return endpoint;
+    }
+
     /**
      * For an incoming SND event, the method attempts to pair it with existing RCV events in the pending queue. Since the
      * size (in bytes) of the SND and the existing RCV events may not be even, the method iteratively pops pending RCV
@@ -627,14 +1486,16 @@ public enum TraceProcessor
      */
     private void handleSndSocketEvent( SocketEvent snd )
     {
-        CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> pendingSndRcvEvents = getOrCreatePartialEventsPairs( snd.getDirectedSocket() );
+        int channel = getChannel( snd );
+        CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> pendingSndRcvEvents = getOrCreatePartialEventsPairs( channel );
         Deque<SocketEvent> pendingSndEvents = pendingSndRcvEvents.getFirst();
         Deque<SocketEvent> pendingRcvEvents = pendingSndRcvEvents.getSecond();
 
         /*
          * Enqueue SND if there's no RCV event to match with at the moment.
          */
-        if( pendingRcvEvents.isEmpty() && !sndRcvPairs.containsKey( String.valueOf(tcpMessageId) ) )
+        String msgId = openTcpMessages.get( channel );
+        if( pendingRcvEvents.isEmpty() && msgId == null )
         {
             pendingSndEvents.add( snd );
 
@@ -642,16 +1503,23 @@ public enum TraceProcessor
         }
 
         // Add SND event to the (newly created) causal pair and attempt to rebalance its SND/RCV bytes
-        String msgId = computeMessageId( snd );
+        if( msgId == null )
+        {
+            msgId = String.valueOf( tcpMessageId++ );
+            openTcpMessages.set( channel, msgId );
+        }
         sndRcvPairs.putIfAbsent(msgId, new MessageCausalPair());
         MessageCausalPair causalPair = sndRcvPairs.get( msgId );
+        snd.setMessageId( msgId );
         causalPair.addSnd(snd);
 
         rebalanceSndRcvCausalPair(causalPair, pendingSndEvents, pendingRcvEvents);
 
         if(causalPair.isFinished())
         {
-            tcpMessageId++;
+            openTcpMessages.set( channel, null );
+            for ( CausalPairListener listener : pairListeners )
+                listener.onMessagePair( msgId, causalPair );
         }
     }
 
@@ -666,14 +1534,16 @@ public enum TraceProcessor
      */
     private void handleRcvSocketEvent( SocketEvent rcv )
     {
-        CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> eventPairs = getOrCreatePartialEventsPairs( rcv.getDirectedSocket() );
+        int channel = getChannel( rcv );
+        CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> eventPairs = getOrCreatePartialEventsPairs( channel );
         Deque<SocketEvent> pendingSndEvents = eventPairs.getFirst();
         Deque<SocketEvent> pendingRcvEvents = eventPairs.getSecond();
 
         /*
          * Enqueue RCV if there's no SND event to match with at the moment.
          */
-        if( pendingSndEvents.isEmpty() && !sndRcvPairs.containsKey( String.valueOf(tcpMessageId) ) )
+        String msgId = openTcpMessages.get( channel );
+        if( pendingSndEvents.isEmpty() && msgId == null )
         {
             pendingRcvEvents.add( rcv );
 
@@ -681,16 +1551,23 @@ public enum TraceProcessor
         }
 
         // Add RCV event to the (newly created) causal pair and attempt to rebalance its SND/RCV bytes
-        String msgId = computeMessageId( rcv );
+        if( msgId == null )
+        {
+            msgId = String.valueOf( tcpMessageId++ );
+            openTcpMessages.set( channel, msgId );
+        }
         sndRcvPairs.putIfAbsent(msgId, new MessageCausalPair());
         MessageCausalPair causalPair = sndRcvPairs.get( msgId );
+        rcv.setMessageId( msgId );
         causalPair.addRcv(rcv);
 
         rebalanceSndRcvCausalPair(causalPair, pendingSndEvents, pendingRcvEvents);
 
         if(causalPair.isFinished())
         {
-            tcpMessageId++;
+            openTcpMessages.set( channel, null );
+            for ( CausalPairListener listener : pairListeners )
+                listener.onMessagePair( msgId, causalPair );
         }
     }
 
@@ -706,6 +1583,10 @@ public enum TraceProcessor
                                           Deque<SocketEvent> pendingSndEvents,
                                           Deque<SocketEvent> pendingRcvEvents)
     {
+        // The pair already has at least one event, which carries the message id.
+        SocketEvent first = sndRcvPair.getSndList().isEmpty() ? sndRcvPair.getRcv( 0 ) : sndRcvPair.getSnd( 0 );
+        String msgId = first.getMessageId();
+
         /*
             We can add events to a SND-RCV causal pair when:
             - there are pending SND events and the pair has more bytes received than sent
@@ -717,13 +1598,13 @@ public enum TraceProcessor
             if(!pendingSndEvents.isEmpty() && sndRcvPair.hasRcvBytesToMatch())
             {
                 SocketEvent pendingSnd = pendingSndEvents.pop();
-                computeMessageId(pendingSnd);
+                pendingSnd.setMessageId( msgId );
                 sndRcvPair.addSnd(pendingSnd);
             }
             if(!pendingRcvEvents.isEmpty() && sndRcvPair.hasSndBytesToMatch())
             {
                 SocketEvent pendingRcv = pendingRcvEvents.pop();
-                computeMessageId(pendingRcv);
+                pendingRcv.setMessageId( msgId );
                 sndRcvPair.addRcv(pendingRcv);
             }
         }
@@ -736,9 +1617,9 @@ public enum TraceProcessor
     public String computeMessageId( SocketEvent... socketEvents )
     {
         String msgId = String.valueOf( tcpMessageId );
-        for(int i = 0; i < socketEvents.length; i++)
+        for ( int i = 0; i < socketEvents.length; i++ )
         {
-            socketEvents[i].setMessageId(msgId);
+            socketEvents[i].setMessageId( msgId );
         }
 
         return msgId;
@@ -749,7 +1630,7 @@ public enum TraceProcessor
      *
      * @return void
      */
-    public void aggregateAllPartitionedMessages()
+    public synchronized void aggregateAllPartitionedMessages()
     {
         for ( MessageCausalPair pair : sndRcvPairs.values() )
         {
@@ -788,17 +1669,18 @@ public enum TraceProcessor
 
         debugMsg = new StringBuilder();
         debugMsg.append( "PENDING SEND/RECEIVE EVENTS\n" );
-        for ( Map.Entry<String, CausalPair<Deque<SocketEvent>, Deque<SocketEvent>>> entry : pendingEventsSndRcv.entrySet() )
+        for ( int channel = 0; channel < pendingEventsSndRcv.size(); channel++ )
         {
-            if( entry.getValue().getFirst().isEmpty() &&  entry.getValue().getSecond().isEmpty() )
+            CausalPair<Deque<SocketEvent>, Deque<SocketEvent>> pending = pendingEventsSndRcv.get( channel );
+            if( pending == null || ( pending.getFirst().isEmpty() &&  pending.getSecond().isEmpty() ) )
                 continue;
 
-            debugMsg.append( "-- Socket " + entry.getKey() + "\n" );
+            debugMsg.append( "-- Socket " + symbolTable.getSymbol( channelNames.get( channel ) ) + "\n" );
 
-            for ( SocketEvent event : entry.getValue().getFirst() )
+            for ( SocketEvent event : pending.getFirst() )
                 debugMsg.append( event.toString() + "(" + event.getSize() + ")\n" );
 
-            for ( SocketEvent event : entry.getValue().getSecond() )
+            for ( SocketEvent event : pending.getSecond() )
                 debugMsg.append( event.toString() + "(" + event.getSize() + ")\n" );
         }
         logger.debug( debugMsg.toString() );
@@ -915,4 +1797,352 @@ public enum TraceProcessor
             logger.debug( debugMsg.toString() );
         }
     }
+
+    /**
+     * Builder of TraceProcessors, which allows choosing how traces are loaded before creating the processor.
+     */
+    public static class Builder
+    {
+        private boolean appendSortedTimelines = false;
+
+        private int maxDecodeWorkers = Runtime.getRuntime().availableProcessors();
+
+        private SymbolTable symbolTable = null;
+
+        private boolean useSnapshots = false;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Builds timelines by appending events and sorting them once at the end (see setAppendSortedTimelines).
+         */
+        public Builder appendSortedTimelines( boolean appendSorted )
+        {
+            this.appendSortedTimelines = appendSorted;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of threads used to decode the files of a multi-file trace.
+         */
+        public Builder maxDecodeWorkers( int workers )
+        {
+            if ( workers < 1 )
+                throw new IllegalArgumentException( "The number of decode workers must be positive: " + workers );
+
+            this.maxDecodeWorkers = workers;
+            return this;
+        }
+
+        /**
+         * Sets the symbol table used to intern identifiers, e.g. to share identifier ids among several traces.
+         * By default, each TraceProcessor has its own symbol table.
+         */
+        public Builder symbolTable( SymbolTable symbols )
+        {
+            this.symbolTable = symbols;
+            return this;
+        }
+
+        /**
+         * Makes loadEventTrace(String) load traces from their snapshots whenever these are up-to-date, and
+         * write the snapshots of the traces it has to parse (see writeSnapshot).
+         */
+        public Builder useSnapshots( boolean useSnapshots )
+        {
+            this.useSnapshots = useSnapshots;
+            return this;
+        }
+
+        public TraceProcessor build()
+        {
+            TraceProcessor processor = new TraceProcessor( symbolTable == null ? new SymbolTable() : symbolTable );
+            processor.setAppendSortedTimelines( appendSortedTimelines );
+            processor.maxDecodeWorkers = maxDecodeWorkers;
+            processor.useSnapshots = useSnapshots;
+            return processor;
+        }
+    }
+
+    /**
+     * Orders events by timestamp only, so that sorting keeps the relative order of events with equal timestamps.
+     */
+    private static class TimestampOrder
+            implements Comparator<Event>
+    {
+        public int compare( Event o1, Event o2 )
+        {
+            return TimestampComparator.compareTimestamps( o1, o2 );
+        }
+    }
+
+    /**
+     * Decodes the events of a trace file in a thread of its own and streams them, in batches, through a bounded
+     * queue to the iterator that merges them with those of the other files (see loadEventTrace(List)).
+     */
+    private static class DecodedFile
+            implements Runnable, Iterable<Event>
+    {
+        /* number of events handed over to the merge at a time */
+        private static final int BATCH_SIZE = 1024;
+
+        /* number of batches that can be decoded ahead of the merge */
+        private static final int MAX_PENDING_BATCHES = 4;
+
+        /* batch that marks the end of the file, or the error that stopped decoding it */
+        private static final List<Event> END = new ArrayList<Event>( 0 );
+
+        private final String pathToFile;
+
+        private final SymbolTable symbols;
+
+        /* permits shared by the decoders of all files, held while decoding */
+        private final Semaphore decodePermits;
+
+        private final BlockingQueue<List<Event>> batches;
+
+        /* error that stopped decoding the file, set before END is queued */
+        private volatile Throwable failure;
+
+        DecodedFile( String pathToFile, SymbolTable symbols, Semaphore decodePermits )
+        {
+            this.pathToFile = pathToFile;
+            this.symbols = symbols;
+            this.decodePermits = decodePermits;
+            this.batches = new ArrayBlockingQueue<List<Event>>( MAX_PENDING_BATCHES );
+        }
+
+        public void run()
+        {
+            try
+            {
+                decode();
+            }
+            catch ( InterruptedException e )
+            {
+                // the load was aborted, so nobody waits for the rest of the file
+                return;
+            }
+            catch ( Throwable e )
+            {
+                failure = e;
+            }
+
+            try
+            {
+                batches.put( END );
+            }
+            catch ( InterruptedException e )
+            {
+                // the load was aborted
+            }
+        }
+
+        /**
+         * Decodes all the events of the file. This method does not modify the state of the TraceProcessor, so it
+         * can be executed concurrently for different files.
+         */
+        private void decode()
+                throws JSONException, IOException, InterruptedException
+        {
+            logger.info( "Decoding events from " + pathToFile );
+            List<Event> batch = new ArrayList<Event>( BATCH_SIZE );
+
+            decodePermits.acquire();
+            try
+            {
+                if ( BinaryEventReader.isBinaryTrace( pathToFile ) )
+                {
+                    BinaryEventReader reader = new BinaryEventReader( new FileInputStream( pathToFile ), symbols );
+                    try
+                    {
+                        Event e = reader.next( UNDEFINED_ID );
+                        while ( e != null )
+                        {
+                            batch = add( batch, e );
+                            e = reader.next( UNDEFINED_ID );
+                        }
+                    }
+                    finally
+                    {
+                        reader.close();
+                    }
+                }
+                else
+                {
+                    JSONEventReader reader = new JSONEventReader( new FileReader( pathToFile ) );
+                    try
+                    {
+                        boolean lineDelimited = reader.isLineDelimited();
+                        JSONObject object = reader.next();
+                        while ( object != null )
+                        {
+                            try
+                            {
+                                batch = add( batch, decodeJSONEvent( object, UNDEFINED_ID, symbols ) );
+                            }
+                            catch ( JSONException objError )
+                            {
+                                if ( !lineDelimited )
+                                    throw objError;
+
+                                // Malformed events of line-delimited traces are skipped.
+                                logger.error( objError.getMessage() );
+                            }
+                            object = reader.next();
+                        }
+                    }
+                    finally
+                    {
+                        reader.close();
+                    }
+                }
+
+                if ( !batch.isEmpty() )
+                    handOver( batch );
+            }
+            finally
+            {
+                decodePermits.release();
+            }
+        }
+
+        /**
+         * Adds an event to a batch, handing the batch over to the merge once it is full.
+         *
+         * @return the batch to which the next events are added.
+         */
+        private List<Event> add( List<Event> batch, Event e )
+                throws InterruptedException
+        {
+            batch.add( e );
+            if ( batch.size() < BATCH_SIZE )
+                return batch;
+
+            handOver( batch );
+            return new ArrayList<Event>( BATCH_SIZE );
+        }
+
+        /**
+         * Queues a batch for the merge. The decode permit is given up meanwhile, so that the decoders of other files
+         * can run while this one waits for the merge to catch up.
+         */
+        private void handOver( List<Event> batch )
+                throws InterruptedException
+        {
+            if ( Thread.interrupted() )
+                throw new InterruptedException();
+
+            decodePermits.release();
+            try
+            {
+                batches.put( batch );
+            }
+            finally
+            {
+                decodePermits.acquireUninterruptibly();
+            }
+        }
+
+        /**
+         * Returns the events of the file, in the order in which they were decoded. The iterator blocks until the
+         * next batch is decoded, and throws a DecodeFailure if decoding the file failed.
+         */
+        public Iterator<Event> iterator()
+        {
+            return new Iterator<Event>()
+            {
+                private List<Event> batch = null;
+
+                private int next = 0;
+
+                public boolean hasNext()
+                {
+                    while ( batch != END && ( batch == null || next == batch.size() ) )
+                    {
+                        batch = takeBatch();
+                        next = 0;
+                    }
+                    return next < batch.size();
+                }
+
+                public Event next()
+                {
+                    if ( !hasNext() )
+                        throw new NoSuchElementException( "There are no more events in " + pathToFile );
+
+                    return batch.get( next++ );
+                }
+            };
+        }
+
+        private List<Event> takeBatch()
+        {
+            List<Event> batch;
+            try
+            {
+                batch = batches.take();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new DecodeFailure( new IOException( "Interrupted while loading events", e ) );
+            }
+
+            if ( batch == END && failure != null )
+                throw new DecodeFailure( failure );
+            return batch;
+        }
+    }
+
+    /**
+     * Unchecked wrapper of the error that stopped decoding a trace file, thrown by the iterator of its events.
+     */
+    private static class DecodeFailure
+            extends RuntimeException
+    {
+        DecodeFailure( Throwable cause )
+        {
+            super( cause );
+        }
+    }
+
+    /**
+     * Set of event ids, which keeps the non-negative ids below MAX_BITSET_ID (the usual case of ids numbered from
+     * 0) in a bitset, and the others in a primitive hash map, so that adding an id neither boxes it nor allocates an
+     * entry for it.
+     */
+    private static class EventIdSet
+    {
+        private static final long MAX_BITSET_ID = 1L << 27;
+
+        private final BitSet smallIds = new BitSet();
+
+        private final LongIntHashMap otherIds = new LongIntHashMap();
+
+        /**
+         * Adds an id to the set.
+         *
+         * @return true if the id was not in the set yet.
+         */
+        boolean add( long id )
+        {
+            if ( id >= 0 && id < MAX_BITSET_ID )
+            {
+                if ( smallIds.get( (int) id ) )
+                    return false;
+
+                smallIds.set( (int) id );
+                return true;
+            }
+
+            if ( otherIds.get( id ) != LongIntHashMap.MISSING )
+                return false;
+
+            otherIds.put( id, 0 );
+            return true;
+        }
+    }
 }
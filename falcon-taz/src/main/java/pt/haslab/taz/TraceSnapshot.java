@@ -0,0 +1,815 @@
+package pt.haslab.taz;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import org.json.JSONException;
+import org.json.JSONObject;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.HandlerEvent;
+import pt.haslab.taz.events.LogEvent;
+import pt.haslab.taz.events.RWEvent;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.utils.MappedFileInput;
+
+/**
+ * Reads and writes snapshots of the data structures built by a TraceProcessor, so that a trace only has to be
+ * parsed once and can afterwards be reloaded at (nearly) the speed of reading the snapshot from disk.
+ * A snapshot has the following layout, with all values in big-endian order:
+ * <pre>
+ *  header    : magic:u32 | version:u32 | source_hash_len:u32 | source_hash | event_number:u32 | tcp_message_id:u64
+ *  strings   : count:u32 | (len:u32 | utf8[len])*
+ *  data      : count:u32 | (len:u32 | utf8[len])*
+ *  events    : count:u32 | event*
+ *  structures: eventsPerThread | sortedByTimestamp | sndRcvPairs | handlerEvents | connAcptEvents
+ *              | closeShutEvents | forkEvents | joinEvents | lockEvents | readEvents | writeEvents
+ *              | waitEvents | notifyEvents
+ * </pre>
+ * Identifiers (threads, sockets, variables, etc.) are stored once in the string table and referred to by their
+ * index, and the data structures refer to events by their index in the event table (-1 stands for null).
+ * The (JSON) data fields of the events, which mostly repeat, are likewise stored once in the data table, so that
+ * each distinct value only has to be parsed once when the snapshot is loaded.
+ * Snapshots are bound to the trace they were built from by the SHA-256 hash of its contents, and are rejected
+ * when loaded against a different trace.
+ */
+class TraceSnapshot
+{
+    /* extension added to the path of a trace to obtain the path of its snapshot */
+    static final String FILE_EXTENSION = ".tazsnap";
+
+    private static final int MAGIC = 0x54415A53; // "TAZS"
+
+    private static final int VERSION = 1;
+
+    private static final int NULL_REF = -1;
+
+    private TraceSnapshot()
+    {
+    }
+
+    /**
+     * Computes the SHA-256 hash of a trace. For directories, the hash covers the names and contents of the files
+     * that are loaded by TraceProcessor.loadEventTrace.
+     *
+     * @param pathToSource the path of the trace file (or directory).
+     * @return the hash of the trace.
+     * @throws IOException
+     */
+    static byte[] hashSource( String pathToSource )
+                    throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( e.getMessage() );
+        }
+
+        File source = new File( pathToSource );
+        List<File> files = new ArrayList<File>();
+        if ( source.isDirectory() )
+        {
+            File[] children = source.listFiles();
+            if ( children != null )
+            {
+                for ( File file : children )
+                {
+                    if ( file.isFile() && !file.isHidden() )
+                        files.add( file );
+                }
+            }
+            Collections.sort( files );
+        }
+        else
+        {
+            files.add( source );
+        }
+
+        byte[] buffer = new byte[1 << 16];
+        for ( File file : files )
+        {
+            digest.update( file.getName().getBytes( StandardCharsets.UTF_8 ) );
+            InputStream in = new FileInputStream( file );
+            try
+            {
+                int read = in.read( buffer );
+                while ( read != -1 )
+                {
+                    digest.update( buffer, 0, read );
+                    read = in.read( buffer );
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Writes a snapshot of the data structures of a TraceProcessor. The snapshot is first written to a temporary
+     * file that then replaces the snapshot file, so that an interrupted write never leaves a truncated snapshot.
+     *
+     * @param processor the processor with the trace already loaded.
+     * @param sourceHash the hash of the trace from which the data structures were built.
+     * @param pathToSnapshot the path of the snapshot file to be written.
+     * @return void
+     * @throws IOException
+     */
+    static void write( TraceProcessor processor, byte[] sourceHash, String pathToSnapshot )
+                    throws IOException
+    {
+        SnapshotWriter writer = new SnapshotWriter( processor );
+        File tmpFile = new File( pathToSnapshot + ".tmp" );
+        DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream( new FileOutputStream( tmpFile ), 1 << 16 ) );
+        boolean written = false;
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( sourceHash.length );
+            out.write( sourceHash );
+            out.writeInt( processor.getNumberOfEvents() );
+            out.writeLong( processor.getTcpMessageId() );
+            writer.write( out );
+            out.close();
+            Files.move( tmpFile.toPath(), Paths.get( pathToSnapshot ), StandardCopyOption.REPLACE_EXISTING );
+            written = true;
+        }
+        finally
+        {
+            out.close();
+            if ( !written )
+                tmpFile.delete();
+        }
+    }
+
+    /**
+     * Loads a snapshot into an empty TraceProcessor, by memory-mapping the snapshot file (in several regions, if
+     * it is larger than 2 GB).
+     *
+     * @param processor the processor into which the snapshot is loaded.
+     * @param sourceHash the hash of the trace that the snapshot is expected to represent.
+     * @param pathToSnapshot the path of the snapshot file.
+     * @return true if the snapshot was loaded, or false if the file is not a valid snapshot of the given trace
+     * (in which case the processor is left unchanged).
+     * @throws IOException if the snapshot cannot be read or is corrupted (in which case the processor may be left
+     * partially loaded).
+     */
+    static boolean load( TraceProcessor processor, byte[] sourceHash, String pathToSnapshot )
+                    throws IOException
+    {
+        FileInputStream file = new FileInputStream( pathToSnapshot );
+        try
+        {
+            MappedFileInput in = new MappedFileInput( file.getChannel() );
+
+            if ( in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != VERSION )
+                return false;
+
+            int hashLength = in.getInt();
+            if ( hashLength < 0 || hashLength > in.remaining() )
+                return false;
+            byte[] hash = new byte[hashLength];
+            in.get( hash );
+            if ( !Arrays.equals( hash, sourceHash ) )
+                return false;
+
+            new SnapshotReader( processor, in ).read();
+            return true;
+        }
+        catch ( BufferUnderflowException e )
+        {
+            throw new IOException( "Truncated snapshot: " + pathToSnapshot );
+        }
+        catch ( JSONException e )
+        {
+            throw new IOException( "Corrupted snapshot: " + e.getMessage() );
+        }
+        catch ( RuntimeException e )
+        {
+            // e.g. an event of an unexpected type where a socket or sync event is stored
+            throw new IOException( "Corrupted snapshot: " + e );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Encodes the data structures of a TraceProcessor, after assigning indexes to its strings and events.
+     */
+    private static class SnapshotWriter
+    {
+        private final TraceProcessor processor;
+
+        /* Map: string -> index in the string table */
+        private final Map<String, Integer> strings;
+
+        private final List<String> stringTable;
+
+        /* Map: serialized event data -> index in the data table */
+        private final Map<String, Integer> data;
+
+        private final List<String> dataTable;
+
+        /* Map: event -> index in the event table */
+        private final Map<Event, Integer> events;
+
+        private final List<Event> eventTable;
+
+        SnapshotWriter( TraceProcessor processor )
+        {
+            this.processor = processor;
+            this.strings = new HashMap<String, Integer>();
+            this.stringTable = new ArrayList<String>();
+            this.data = new HashMap<String, Integer>();
+            this.dataTable = new ArrayList<String>();
+            this.events = new IdentityHashMap<Event, Integer>();
+            this.eventTable = new ArrayList<Event>();
+        }
+
+        void write( DataOutputStream out )
+                        throws IOException
+        {
+            indexEvents();
+
+            out.writeInt( stringTable.size() );
+            for ( String s : stringTable )
+                writeString( out, s );
+
+            out.writeInt( dataTable.size() );
+            for ( String d : dataTable )
+                writeString( out, d );
+
+            out.writeInt( eventTable.size() );
+            for ( Event e : eventTable )
+                writeEvent( out, e );
+
+            out.writeInt( processor.eventsPerThread.size() );
+            for ( Map.Entry<String, SortedSet<Event>> entry : processor.eventsPerThread.entrySet() )
+            {
+                out.writeInt( stringRef( entry.getKey() ) );
+                writeEventList( out, entry.getValue() );
+            }
+            writeEventList( out, processor.sortedByTimestamp );
+
+            out.writeInt( processor.sndRcvPairs.size() );
+            for ( Map.Entry<String, MessageCausalPair> entry : processor.sndRcvPairs.entrySet() )
+            {
+                out.writeInt( stringRef( entry.getKey() ) );
+                writeEventList( out, entry.getValue().getSndList() );
+                writeEventList( out, entry.getValue().getRcvList() );
+            }
+
+            out.writeInt( processor.handlerEvents.size() );
+            for ( Map.Entry<SocketEvent, List<Event>> entry : processor.handlerEvents.entrySet() )
+            {
+                out.writeInt( eventRef( entry.getKey() ) );
+                writeEventList( out, entry.getValue() );
+            }
+
+            writePairMap( out, processor.connAcptEvents );
+            writePairMap( out, processor.closeShutEvents );
+            writeListMap( out, processor.forkEvents );
+            writeListMap( out, processor.joinEvents );
+
+            out.writeInt( processor.lockEvents.size() );
+            for ( Map.Entry<String, List<CausalPair<SyncEvent, SyncEvent>>> entry : processor.lockEvents.entrySet() )
+            {
+                out.writeInt( stringRef( entry.getKey() ) );
+                out.writeInt( entry.getValue().size() );
+                for ( CausalPair<SyncEvent, SyncEvent> pair : entry.getValue() )
+                {
+                    out.writeInt( eventRef( pair.getFirst() ) );
+                    out.writeInt( eventRef( pair.getSecond() ) );
+                }
+            }
+
+            writeListMap( out, processor.readEvents );
+            writeListMap( out, processor.writeEvents );
+            writeListMap( out, processor.waitEvents );
+            writeListMap( out, processor.notifyEvents );
+        }
+
+        /**
+         * Assigns an index to every event of the data structures, and to every string of those events.
+         */
+        private void indexEvents()
+        {
+            for ( SortedSet<Event> timeline : processor.eventsPerThread.values() )
+                addEvents( timeline );
+            addEvents( processor.sortedByTimestamp );
+            for ( MessageCausalPair pair : processor.sndRcvPairs.values() )
+            {
+                addEvents( pair.getSndList() );
+                addEvents( pair.getRcvList() );
+            }
+            for ( Map.Entry<SocketEvent, List<Event>> entry : processor.handlerEvents.entrySet() )
+            {
+                addEvent( entry.getKey() );
+                addEvents( entry.getValue() );
+            }
+            for ( CausalPair<SocketEvent, SocketEvent> pair : processor.connAcptEvents.values() )
+            {
+                addEvent( pair.getFirst() );
+                addEvent( pair.getSecond() );
+            }
+            for ( CausalPair<SocketEvent, SocketEvent> pair : processor.closeShutEvents.values() )
+            {
+                addEvent( pair.getFirst() );
+                addEvent( pair.getSecond() );
+            }
+            for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : processor.lockEvents.values() )
+            {
+                for ( CausalPair<SyncEvent, SyncEvent> pair : pairs )
+                {
+                    addEvent( pair.getFirst() );
+                    addEvent( pair.getSecond() );
+                }
+            }
+            addListMap( processor.forkEvents );
+            addListMap( processor.joinEvents );
+            addListMap( processor.readEvents );
+            addListMap( processor.writeEvents );
+            addListMap( processor.waitEvents );
+            addListMap( processor.notifyEvents );
+
+            // The keys of the data structures are also kept in the string table.
+            addKeys( processor.eventsPerThread );
+            addKeys( processor.sndRcvPairs );
+            addKeys( processor.connAcptEvents );
+            addKeys( processor.closeShutEvents );
+            addKeys( processor.lockEvents );
+        }
+
+        private void addListMap( Map<String, ? extends List<? extends Event>> map )
+        {
+            for ( List<? extends Event> list : map.values() )
+                addEvents( list );
+            addKeys( map );
+        }
+
+        private void addKeys( Map<String, ?> map )
+        {
+            for ( String key : map.keySet() )
+                addString( key );
+        }
+
+        private void addEvents( Collection<? extends Event> list )
+        {
+            for ( Event e : list )
+                addEvent( e );
+        }
+
+        private void addEvent( Event e )
+        {
+            if ( e == null || events.containsKey( e ) )
+                return;
+
+            events.put( e, eventTable.size() );
+            eventTable.add( e );
+
+            addString( e.getThread() );
+            addString( e.getLineOfCode() );
+            addString( e.getDependency() );
+            if ( e.getData() != null )
+            {
+                String d = e.getData().toString();
+                if ( !data.containsKey( d ) )
+                {
+                    data.put( d, dataTable.size() );
+                    dataTable.add( d );
+                }
+            }
+            if ( e instanceof SocketEvent )
+            {
+                SocketEvent socketEvent = (SocketEvent) e;
+                addString( socketEvent.getSocket() );
+                addString( socketEvent.getSrc() );
+                addString( socketEvent.getDst() );
+                addString( socketEvent.getMessageId() );
+            }
+            else if ( e instanceof ThreadCreationEvent )
+            {
+                addString( ( (ThreadCreationEvent) e ).getChildThread() );
+            }
+            else if ( e instanceof RWEvent )
+            {
+                addString( ( (RWEvent) e ).getVariable() );
+            }
+            else if ( e instanceof SyncEvent )
+            {
+                addString( ( (SyncEvent) e ).getVariable() );
+            }
+        }
+
+        private void addString( String s )
+        {
+            if ( s != null && !strings.containsKey( s ) )
+            {
+                strings.put( s, stringTable.size() );
+                stringTable.add( s );
+            }
+        }
+
+        private int stringRef( String s )
+        {
+            return ( s == null ) ? NULL_REF : strings.get( s );
+        }
+
+        private int eventRef( Event e )
+        {
+            return ( e == null ) ? NULL_REF : events.get( e );
+        }
+
+        private void writeEvent( DataOutputStream out, Event e )
+                        throws IOException
+        {
+            out.writeByte( e.getType().getCode() );
+            out.writeLong( e.getEventId() );
+            out.writeLong( e.getTimestampValue() );
+            out.writeLong( e.getScheduleOrder() );
+            out.writeInt( stringRef( e.getThread() ) );
+            out.writeInt( stringRef( e.getLineOfCode() ) );
+            out.writeInt( stringRef( e.getDependency() ) );
+            out.writeInt( e.getData() == null ? NULL_REF : data.get( e.getData().toString() ) );
+
+            if ( e instanceof SocketEvent )
+            {
+                SocketEvent socketEvent = (SocketEvent) e;
+                out.writeInt( stringRef( socketEvent.getSocket() ) );
+                out.writeInt( stringRef( socketEvent.getSrc() ) );
+                out.writeInt( socketEvent.getSrcPort() );
+                out.writeInt( stringRef( socketEvent.getDst() ) );
+                out.writeInt( socketEvent.getDstPort() );
+                out.writeByte( socketEvent.getSocketType() == null ? NULL_REF : socketEvent.getSocketType().ordinal() );
+                out.writeInt( socketEvent.getSize() );
+                out.writeInt( stringRef( socketEvent.getMessageId() ) );
+            }
+            else if ( e instanceof ThreadCreationEvent )
+            {
+                out.writeInt( stringRef( ( (ThreadCreationEvent) e ).getChildThread() ) );
+            }
+            else if ( e instanceof RWEvent )
+            {
+                out.writeInt( stringRef( ( (RWEvent) e ).getVariable() ) );
+            }
+            else if ( e instanceof SyncEvent )
+            {
+                out.writeInt( stringRef( ( (SyncEvent) e ).getVariable() ) );
+            }
+            else if ( e instanceof LogEvent )
+            {
+                writeString( out, ( (LogEvent) e ).getMessage() );
+            }
+        }
+
+        private void writeEventList( DataOutputStream out, Collection<? extends Event> list )
+                        throws IOException
+        {
+            out.writeInt( list.size() );
+            for ( Event e : list )
+                out.writeInt( eventRef( e ) );
+        }
+
+        private void writePairMap( DataOutputStream out, Map<String, CausalPair<SocketEvent, SocketEvent>> map )
+                        throws IOException
+        {
+            out.writeInt( map.size() );
+            for ( Map.Entry<String, CausalPair<SocketEvent, SocketEvent>> entry : map.entrySet() )
+            {
+                out.writeInt( stringRef( entry.getKey() ) );
+                out.writeInt( eventRef( entry.getValue().getFirst() ) );
+                out.writeInt( eventRef( entry.getValue().getSecond() ) );
+            }
+        }
+
+        private void writeListMap( DataOutputStream out, Map<String, ? extends List<? extends Event>> map )
+                        throws IOException
+        {
+            out.writeInt( map.size() );
+            for ( Map.Entry<String, ? extends List<? extends Event>> entry : map.entrySet() )
+            {
+                out.writeInt( stringRef( entry.getKey() ) );
+                writeEventList( out, entry.getValue() );
+            }
+        }
+
+        private static void writeString( DataOutputStream out, String s )
+                        throws IOException
+        {
+            if ( s == null )
+            {
+                out.writeInt( NULL_REF );
+                return;
+            }
+
+            byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    /**
+     * Decodes a snapshot into the data structures of a TraceProcessor.
+     */
+    private static class SnapshotReader
+    {
+        private final TraceProcessor processor;
+
+        private final MappedFileInput in;
+
+        private String[] strings;
+
+        /* data values of the data table, parsed once and copied into each event */
+        private JSONObject[] data;
+
+        private Event[] events;
+
+        SnapshotReader( TraceProcessor processor, MappedFileInput in )
+        {
+            this.processor = processor;
+            this.in = in;
+        }
+
+        @SuppressWarnings( "unchecked" )
+        void read()
+                        throws JSONException, IOException
+        {
+            int eventNumber = in.getInt();
+            long tcpMessageId = in.getLong();
+
+            strings = new String[readCount()];
+            for ( int i = 0; i < strings.length; i++ )
+                strings[i] = processor.symbolTable.intern( readString() );
+
+            data = new JSONObject[readCount()];
+            for ( int i = 0; i < data.length; i++ )
+                data[i] = new JSONObject( readString() );
+
+            Set<String> threadsWithHandlers = new HashSet<String>();
+            events = new Event[readCount()];
+            for ( int i = 0; i < events.length; i++ )
+            {
+                events[i] = readEvent();
+                if ( events[i].getType() == EventType.HNDLBEG )
+                    threadsWithHandlers.add( events[i].getThread() );
+            }
+
+            int numThreads = readCount();
+            for ( int i = 0; i < numThreads; i++ )
+            {
+                String thread = string( in.getInt() );
+                SortedSet<Event> timeline = processor.newTimeline();
+                readEventList( timeline );
+                processor.eventsPerThread.put( thread, timeline );
+            }
+            readEventList( processor.sortedByTimestamp );
+
+            int numPairs = readCount();
+            for ( int i = 0; i < numPairs; i++ )
+            {
+                String msgId = string( in.getInt() );
+                MessageCausalPair pair = new MessageCausalPair();
+                for ( Event snd : readEventList( new ArrayList<Event>() ) )
+                    pair.addSnd( (SocketEvent) snd );
+                for ( Event rcv : readEventList( new ArrayList<Event>() ) )
+                    pair.addRcv( (SocketEvent) rcv );
+                processor.sndRcvPairs.put( msgId, pair );
+            }
+
+            int numHandlers = readCount();
+            for ( int i = 0; i < numHandlers; i++ )
+            {
+                SocketEvent rcv = (SocketEvent) event( in.getInt() );
+                processor.handlerEvents.put( rcv, readEventList( new ArrayList<Event>() ) );
+            }
+
+            readPairMap( processor.connAcptEvents );
+            readPairMap( processor.closeShutEvents );
+            readListMap( (Map) processor.forkEvents );
+            readListMap( (Map) processor.joinEvents );
+
+            int numLocks = readCount();
+            for ( int i = 0; i < numLocks; i++ )
+            {
+                String variable = string( in.getInt() );
+                int size = readCount();
+                List<CausalPair<SyncEvent, SyncEvent>> pairs = new ArrayList<CausalPair<SyncEvent, SyncEvent>>( size );
+                for ( int j = 0; j < size; j++ )
+                {
+                    SyncEvent lock = (SyncEvent) event( in.getInt() );
+                    SyncEvent unlock = (SyncEvent) event( in.getInt() );
+                    pairs.add( new CausalPair<SyncEvent, SyncEvent>( lock, unlock ) );
+                }
+                processor.lockEvents.put( variable, pairs );
+            }
+
+            readListMap( (Map) processor.readEvents );
+            readListMap( (Map) processor.writeEvents );
+            readListMap( (Map) processor.waitEvents );
+            readListMap( (Map) processor.notifyEvents );
+
+            processor.restoreCounters( eventNumber, tcpMessageId, threadsWithHandlers );
+        }
+
+        private Event readEvent()
+                        throws JSONException, IOException
+        {
+            int typeCode = in.get();
+            EventType type = EventType.getEventType( typeCode );
+            if ( type == null )
+                throw new IOException( "Unknown event type in snapshot: " + typeCode );
+
+            long eventId = in.getLong();
+            long timestamp = in.getLong();
+            long scheduleOrder = in.getLong();
+            String thread = string( in.getInt() );
+            String loc = string( in.getInt() );
+            Event e = new Event( timestamp, type, thread, eventId, loc );
+            e.setScheduleOrder( (int) scheduleOrder );
+            e.setDependency( string( in.getInt() ) );
+            int dataRef = in.getInt();
+            if ( dataRef != NULL_REF )
+            {
+                if ( dataRef < 0 || dataRef >= data.length )
+                    throw new IOException( "Invalid data reference in snapshot: " + dataRef );
+
+                // events do not share their data objects, as these are mutable
+                JSONObject value = data[dataRef];
+                e.setData( value.length() == 0 ? new JSONObject() : new JSONObject( value, JSONObject.getNames( value ) ) );
+            }
+
+            switch ( type )
+            {
+                case CONNECT:
+                case ACCEPT:
+                case CLOSE:
+                case SHUTDOWN:
+                case SND:
+                case RCV:
+                    SocketEvent socketEvent = new SocketEvent( e );
+                    socketEvent.setSocket( string( in.getInt() ) );
+                    socketEvent.setSrc( string( in.getInt() ) );
+                    socketEvent.setSrcPort( in.getInt() );
+                    socketEvent.setDst( string( in.getInt() ) );
+                    socketEvent.setDstPort( in.getInt() );
+                    int socketType = in.get();
+                    socketEvent.setSocketType( socketType == NULL_REF ? null : SocketEvent.SocketType.values()[socketType] );
+                    socketEvent.setSize( in.getInt() );
+                    socketEvent.setMessageId( string( in.getInt() ) );
+                    return socketEvent;
+
+                case CREATE:
+                case JOIN:
+                    ThreadCreationEvent creationEvent = new ThreadCreationEvent( e );
+                    creationEvent.setChildThread( string( in.getInt() ) );
+                    return creationEvent;
+
+                case READ:
+                case WRITE:
+                    RWEvent rwEvent = new RWEvent( e );
+                    rwEvent.setVariable( string( in.getInt() ) );
+                    return rwEvent;
+
+                case LOCK:
+                case UNLOCK:
+                case WAIT:
+                case NOTIFY:
+                case NOTIFYALL:
+                    SyncEvent syncEvent = new SyncEvent( e );
+                    syncEvent.setVariable( string( in.getInt() ) );
+                    return syncEvent;
+
+                case LOG:
+                    return new LogEvent( e, readString() );
+
+                case HNDLBEG:
+                case HNDLEND:
+                    return new HandlerEvent( e );
+
+                default:
+                    return e;
+            }
+        }
+
+        private <C extends Collection<Event>> C readEventList( C list )
+                        throws IOException
+        {
+            int size = readCount();
+            for ( int i = 0; i < size; i++ )
+                list.add( event( in.getInt() ) );
+            return list;
+        }
+
+        private void readPairMap( Map<String, CausalPair<SocketEvent, SocketEvent>> map )
+                        throws IOException
+        {
+            int size = readCount();
+            for ( int i = 0; i < size; i++ )
+            {
+                String key = string( in.getInt() );
+                SocketEvent first = (SocketEvent) event( in.getInt() );
+                SocketEvent second = (SocketEvent) event( in.getInt() );
+                map.put( key, new CausalPair<SocketEvent, SocketEvent>( first, second ) );
+            }
+        }
+
+        private void readListMap( Map<String, List<Event>> map )
+                        throws IOException
+        {
+            int size = readCount();
+            for ( int i = 0; i < size; i++ )
+            {
+                String key = string( in.getInt() );
+                map.put( key, readEventList( new LinkedList<Event>() ) );
+            }
+        }
+
+        private String string( int ref )
+                        throws IOException
+        {
+            if ( ref == NULL_REF )
+                return null;
+            if ( ref < 0 || ref >= strings.length )
+                throw new IOException( "Invalid string reference in snapshot: " + ref );
+
+            return strings[ref];
+        }
+
+        private Event event( int ref )
+                        throws IOException
+        {
+            if ( ref == NULL_REF )
+                return null;
+            if ( ref < 0 || ref >= events.length )
+                throw new IOException( "Invalid event reference in snapshot: " + ref );
+
+            return events[ref];
+        }
+
+        /**
+         * Reads the number of elements of an array, list or map, which cannot be negative nor exceed the bytes left
+         * (each element takes at least one), so that a corrupted count fails before anything is allocated for it.
+         */
+        private int readCount()
+                        throws IOException
+        {
+            int count = in.getInt();
+            if ( count < 0 || count > in.remaining() )
+                throw new IOException( "Invalid length in snapshot: " + count );
+
+            return count;
+        }
+
+        private String readString()
+                        throws IOException
+        {
+            int length = in.getInt();
+            if ( length == NULL_REF )
+                return null;
+            if ( length < 0 || length > in.remaining() )
+                throw new IOException( "Invalid string length in snapshot: " + length );
+
+            byte[] bytes = new byte[length];
+            in.get( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pt.haslab.taz.analysis;
+
+import pt.haslab.taz.events.RWEvent;
+
+/**
+ * Data race between two lines of code: conflicting accesses (see RWEvent.conflictsWith) that are not ordered by
+ * happens-before. The race keeps the first pair of accesses found and counts how many pairs of accesses by the
+ * same lines of code race.
+ */
+public class DataRace
+{
+    /* first pair of racing accesses found, in the order they were logged */
+    private final RWEvent first;
+
+    private final RWEvent second;
+
+    private int occurrences;
+
+    public DataRace( RWEvent first, RWEvent second )
+    {
+        this.first = first;
+        this.second = second;
+        this.occurrences = 1;
+    }
+
+    public String getVariable()
+    {
+        return first.getVariable();
+    }
+
+    public RWEvent getFirst()
+    {
+        return first;
+    }
+
+    public RWEvent getSecond()
+    {
+        return second;
+    }
+
+    public String getFirstLineOfCode()
+    {
+        return first.getLineOfCode();
+    }
+
+    public String getSecondLineOfCode()
+    {
+        return second.getLineOfCode();
+    }
+
+    /**
+     * Returns the number of racing pairs of accesses found between the two lines of code.
+     *
+     * @return the number of racing pairs.
+     */
+    public int getOccurrences()
+    {
+        return occurrences;
+    }
+
+    void addOccurrence()
+    {
+        occurrences++;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getVariable() + ": " + first.getType() + "@" + getFirstLineOfCode() + " <-> " + second.getType() + "@"
+                        + getSecondLineOfCode() + " (" + occurrences + "x)";
+    }
+}
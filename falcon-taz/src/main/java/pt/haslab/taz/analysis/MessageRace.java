@@ -0,0 +1,47 @@
+package pt.haslab.taz.analysis;
+
+import pt.haslab.taz.events.SocketEvent;
+
+/**
+ * Message race between two RCV events on the same endpoint (see SocketEvent.conflictsWith) that are not ordered by
+ * happens-before, i.e. whose messages could be received in the other order in another run.
+ */
+public class MessageRace
+{
+    /* racing RCV events, in the order they were logged */
+    private final SocketEvent first;
+
+    private final SocketEvent second;
+
+    public MessageRace( SocketEvent first, SocketEvent second )
+    {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Returns the endpoint where both messages were received, as dst:dst_port.
+     *
+     * @return the endpoint of the race.
+     */
+    public String getEndpoint()
+    {
+        return first.getDst() + ":" + first.getDstPort();
+    }
+
+    public SocketEvent getFirst()
+    {
+        return first;
+    }
+
+    public SocketEvent getSecond()
+    {
+        return second;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getEndpoint() + ": " + first + " <-> " + second;
+    }
+}
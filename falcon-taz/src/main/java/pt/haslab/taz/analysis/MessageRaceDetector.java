@@ -0,0 +1,146 @@
+package pt.haslab.taz.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.causality.ReachabilityIndex;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.TimestampComparator;
+
+/**
+ * Finds the message races of a trace: pairs of RCV events on the same endpoint (dst, dst_port) that are not ordered by
+ * happens-before. The RCV events are indexed by endpoint and the RCV events of each endpoint are visited in timestamp
+ * order, keeping the RCV events visited so far per thread. As the RCV events of a thread are in program order, those
+ * that happen before the RCV being visited are a prefix of them, and those after it a suffix, so the RCV events of
+ * each other thread that race with it are found with two binary searches, answered by the ReachabilityIndex of the
+ * trace. RCV events of other endpoints are never compared, and every pair of concurrent RCV events of an endpoint is
+ * reported once.
+ *
+ * Timestamps of the same node are assumed to agree with happens-before. RCV events that happen in the reverse order
+ * of their timestamps are not reported as races.
+ */
+public class MessageRaceDetector
+{
+    private MessageRaceDetector()
+    {
+    }
+
+    /**
+     * Finds the message races of a trace.
+     *
+     * @param trace the processed trace.
+     * @return a map from each endpoint (dst:dst_port) with races to the races found, in timestamp order of the later
+     * RCV of each race.
+     */
+    public static Map<String, List<MessageRace>> detect( ProcessedTrace trace )
+    {
+        return detect( trace, trace.getReachabilityIndex() );
+    }
+
+    /**
+     * Finds the message races of a trace, using a given reachability index.
+     *
+     * @param trace the processed trace.
+     * @param index the reachability index of the trace.
+     * @return a map from each endpoint (dst:dst_port) with races to the races found, in timestamp order of the later
+     * RCV of each race.
+     */
+    public static Map<String, List<MessageRace>> detect( ProcessedTrace trace, ReachabilityIndex index )
+    {
+        //index the RCV events by endpoint
+        Map<String, List<SocketEvent>> rcvsPerEndpoint = new HashMap<String, List<SocketEvent>>();
+        for ( SortedSet<Event> timeline : trace.getEventsPerThread().values() )
+        {
+            for ( Event e : timeline )
+            {
+                if ( e.getType() != EventType.RCV )
+                    continue;
+                SocketEvent rcv = (SocketEvent) e;
+                String endpoint = rcv.getDst() + ":" + rcv.getDstPort();
+                List<SocketEvent> rcvs = rcvsPerEndpoint.get( endpoint );
+                if ( rcvs == null )
+                {
+                    rcvs = new ArrayList<SocketEvent>();
+                    rcvsPerEndpoint.put( endpoint, rcvs );
+                }
+                rcvs.add( rcv );
+            }
+        }
+
+        Map<String, List<MessageRace>> result = new TreeMap<String, List<MessageRace>>();
+        TimestampComparator comparator = new TimestampComparator();
+        for ( Map.Entry<String, List<SocketEvent>> entry : rcvsPerEndpoint.entrySet() )
+        {
+            List<SocketEvent> rcvs = entry.getValue();
+            Collections.sort( rcvs, comparator );
+            List<MessageRace> races = visitEndpoint( rcvs, index );
+            if ( !races.isEmpty() )
+                result.put( entry.getKey(), races );
+        }
+        return result;
+    }
+
+    private static List<MessageRace> visitEndpoint( List<SocketEvent> rcvs, ReachabilityIndex index )
+    {
+        List<MessageRace> races = new ArrayList<MessageRace>();
+
+        /* Map: thread -> RCV events of the thread visited so far, in program order */
+        Map<String, List<SocketEvent>> rcvsPerThread = new LinkedHashMap<String, List<SocketEvent>>();
+        for ( SocketEvent rcv : rcvs )
+        {
+            for ( Map.Entry<String, List<SocketEvent>> entry : rcvsPerThread.entrySet() )
+            {
+                if ( entry.getKey().equals( rcv.getThread() ) )
+                    continue;
+                //the RCV events of a thread that happen before rcv are a prefix of its RCV events, and those that
+                //rcv happens before are a suffix, so the ones racing with rcv lie between both
+                List<SocketEvent> previous = entry.getValue();
+                int from = countPrefix( previous, 0, rcv, index, true );
+                int to = countPrefix( previous, from, rcv, index, false );
+                for ( SocketEvent e : previous.subList( from, to ) )
+                {
+                    if ( e.conflictsWith( rcv ) )
+                        races.add( new MessageRace( e, rcv ) );
+                }
+            }
+            List<SocketEvent> own = rcvsPerThread.get( rcv.getThread() );
+            if ( own == null )
+            {
+                own = new ArrayList<SocketEvent>();
+                rcvsPerThread.put( rcv.getThread(), own );
+            }
+            own.add( rcv );
+        }
+        return races;
+    }
+
+    /**
+     * Returns the end of the prefix of events from a given position that happen before rcv (before = true) or that
+     * rcv does not happen before (before = false), by binary search as both prefixes are closed under program order.
+     */
+    private static int countPrefix( List<SocketEvent> events, int from, SocketEvent rcv, ReachabilityIndex index,
+                                    boolean before )
+    {
+        int low = from;
+        int high = events.size();
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            boolean inPrefix = before ? index.happensBefore( events.get( mid ), rcv )
+                            : !index.happensBefore( rcv, events.get( mid ) );
+            if ( inPrefix )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
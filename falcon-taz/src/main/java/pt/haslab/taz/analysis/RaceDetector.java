@@ -0,0 +1,201 @@
+package pt.haslab.taz.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.causality.ReachabilityIndex;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.RWEvent;
+import pt.haslab.taz.events.TimestampComparator;
+
+/**
+ * Finds the data races of a trace, in the style of FastTrack: the accesses to each variable of each node are
+ * visited in timestamp order, keeping only the last write and either the last read (while the reads are ordered)
+ * or the last read of each thread (once concurrent reads are found). Each access is only checked against that
+ * state, instead of against all the previous accesses, so the analysis takes O(n log n) time for n accesses, with
+ * the happens-before checks answered by the ReachabilityIndex of the trace.
+ *
+ * As in FastTrack, every variable with races gets at least one reported, but a race may hide later ones on the
+ * same variable (e.g. with a write that is forgotten after a racing write).
+ * Timestamps of the same node are assumed to agree with happens-before. Accesses that happen in the reverse order
+ * of their timestamps are not reported as races.
+ */
+public class RaceDetector
+{
+    private final ReachabilityIndex index;
+
+    /* Map: variable + lines of code -> race between those lines */
+    private final Map<String, DataRace> races;
+
+    /* last write to the variable being visited */
+    private RWEvent lastWrite;
+
+    /* last read, while all the reads since the last write are ordered */
+    private RWEvent lastRead;
+
+    /* Map: thread -> last read by the thread, once there are concurrent reads since the last write */
+    private Map<String, RWEvent> sharedReads;
+
+    private RaceDetector( ReachabilityIndex index )
+    {
+        this.index = index;
+        this.races = new LinkedHashMap<String, DataRace>();
+    }
+
+    /**
+     * Finds the data races of a trace.
+     *
+     * @param trace the processed trace.
+     * @return a map from each variable with races to the races found, one per pair of lines of code.
+     */
+    public static Map<String, List<DataRace>> detect( ProcessedTrace trace )
+    {
+        return detect( trace, trace.getReachabilityIndex() );
+    }
+
+    /**
+     * Finds the data races of a trace, using a given reachability index.
+     *
+     * @param trace the processed trace.
+     * @param index the reachability index of the trace.
+     * @return a map from each variable with races to the races found, one per pair of lines of code.
+     */
+    public static Map<String, List<DataRace>> detect( ProcessedTrace trace, ReachabilityIndex index )
+    {
+        RaceDetector detector = new RaceDetector( index );
+        Map<String, List<RWEvent>> reads = trace.getReadEvents();
+        Map<String, List<RWEvent>> writes = trace.getWriteEvents();
+        for ( Map.Entry<String, List<RWEvent>> entry : writes.entrySet() )
+        {
+            //variables that are only read cannot race
+            List<RWEvent> variableReads = reads.get( entry.getKey() );
+            detector.visitVariable( entry.getValue(),
+                                    variableReads == null ? Collections.<RWEvent>emptyList() : variableReads );
+        }
+
+        Map<String, List<DataRace>> result = new TreeMap<String, List<DataRace>>();
+        for ( DataRace race : detector.races.values() )
+        {
+            List<DataRace> variableRaces = result.get( race.getVariable() );
+            if ( variableRaces == null )
+            {
+                variableRaces = new ArrayList<DataRace>();
+                result.put( race.getVariable(), variableRaces );
+            }
+            variableRaces.add( race );
+        }
+        return result;
+    }
+
+    /**
+     * Visits the accesses to a variable, separately for each node, as the same name refers to different variables
+     * in different nodes.
+     */
+    private void visitVariable( List<RWEvent> writes, List<RWEvent> reads )
+    {
+        Map<String, List<RWEvent>> accessesPerNode = new HashMap<String, List<RWEvent>>();
+        groupByNode( writes, accessesPerNode );
+        groupByNode( reads, accessesPerNode );
+
+        TimestampComparator comparator = new TimestampComparator();
+        for ( List<RWEvent> accesses : accessesPerNode.values() )
+        {
+            Collections.sort( accesses, comparator );
+            lastWrite = null;
+            lastRead = null;
+            sharedReads = null;
+            for ( RWEvent e : accesses )
+            {
+                if ( e.getType() == EventType.WRITE )
+                    visitWrite( e );
+                else
+                    visitRead( e );
+            }
+        }
+    }
+
+    private static void groupByNode( List<RWEvent> events, Map<String, List<RWEvent>> accessesPerNode )
+    {
+        for ( RWEvent e : events )
+        {
+            List<RWEvent> accesses = accessesPerNode.get( e.getNodeId() );
+            if ( accesses == null )
+            {
+                accesses = new ArrayList<RWEvent>();
+                accessesPerNode.put( e.getNodeId(), accesses );
+            }
+            accesses.add( e );
+        }
+    }
+
+    private void visitRead( RWEvent read )
+    {
+        if ( lastWrite != null )
+            check( lastWrite, read );
+
+        if ( sharedReads != null )
+        {
+            sharedReads.put( read.getThread(), read );
+        }
+        else if ( lastRead == null || lastRead.getThread().equals( read.getThread() )
+                        || index.happensBefore( lastRead, read ) )
+        {
+            lastRead = read;
+        }
+        else
+        {
+            sharedReads = new HashMap<String, RWEvent>();
+            sharedReads.put( lastRead.getThread(), lastRead );
+            sharedReads.put( read.getThread(), read );
+            lastRead = null;
+        }
+    }
+
+    private void visitWrite( RWEvent write )
+    {
+        if ( lastWrite != null )
+            check( lastWrite, write );
+
+        if ( sharedReads != null )
+        {
+            for ( RWEvent read : sharedReads.values() )
+            {
+                check( read, write );
+            }
+        }
+        else if ( lastRead != null )
+        {
+            check( lastRead, write );
+        }
+        lastWrite = write;
+        lastRead = null;
+        sharedReads = null;
+    }
+
+    /**
+     * Records a race between an access and a previous one, if they conflict and are concurrent.
+     */
+    private void check( RWEvent previous, RWEvent access )
+    {
+        if ( previous.getThread().equals( access.getThread() ) || !previous.conflictsWith( access ) )
+            return;
+        if ( index.happensBefore( previous, access ) || index.happensBefore( access, previous ) )
+            return;
+
+        //the same race is found once for each order of the lines of code
+        String loc1 = String.valueOf( previous.getLineOfCode() );
+        String loc2 = String.valueOf( access.getLineOfCode() );
+        String key = previous.getVariable() + '\u0000' + ( loc1.compareTo( loc2 ) <= 0 ? loc1 + '\u0000' + loc2 :
+                        loc2 + '\u0000' + loc1 );
+        DataRace race = races.get( key );
+        if ( race == null )
+            races.put( key, new DataRace( previous, access ) );
+        else
+            race.addOccurrence();
+    }
+}
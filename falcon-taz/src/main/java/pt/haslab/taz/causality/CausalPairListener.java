@@ -0,0 +1,50 @@
+package pt.haslab.taz.causality;
+
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+
+/**
+ * Receives the causal pairs matched by a TraceProcessor as soon as they are complete, which allows consuming
+ * the trace while it is still being processed (e.g. when events are pushed with TraceProcessor.accept).
+ * Callbacks are invoked by the thread that pushed the event completing the pair. All methods do nothing by default,
+ * so implementations only need to override the callbacks for the pairs they are interested in.
+ */
+public interface CausalPairListener
+{
+    /**
+     * Called when all the bytes of a message have been matched, i.e. when a TCP pair has as many bytes sent as
+     * received, or when a UDP message has both its SND and its RCV.
+     *
+     * @param messageId the id of the message (key of the pair in TraceProcessor.sndRcvPairs).
+     * @param pair the complete message causal pair.
+     * @return void
+     */
+    default void onMessagePair( String messageId, MessageCausalPair pair )
+    {
+    }
+
+    /**
+     * Called when a socket channel has both its CONNECT and its ACCEPT.
+     *
+     * @param socket the socket channel (key of the pair in TraceProcessor.connAcptEvents).
+     * @param pair the (connect,accept) causal pair.
+     * @return void
+     */
+    default void onConnectAccept( String socket, CausalPair<SocketEvent, SocketEvent> pair )
+    {
+    }
+
+    /**
+     * Called when an UNLOCK closes a locking pair. The LOCK of the pair is null if the trace has no
+     * LOCK for that UNLOCK (e.g. if the lock was acquired before tracing started). As for reentrant locks the pair
+     * is closed by the outermost UNLOCK, which cannot be told apart from the inner ones while the trace is being
+     * processed, the same pair is reported again (with the new UNLOCK) for each nested UNLOCK.
+     *
+     * @param variable the mutex variable (key of the pair list in TraceProcessor.lockEvents).
+     * @param pair the (lock,unlock) causal pair.
+     * @return void
+     */
+    default void onLockPair( String variable, CausalPair<SyncEvent, SyncEvent> pair )
+    {
+    }
+}
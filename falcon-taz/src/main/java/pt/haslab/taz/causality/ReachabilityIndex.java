@@ -0,0 +1,260 @@
+package pt.haslab.taz.causality;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.TimestampComparator;
+
+/**
+ * Index answering whether an event happens before another one, under the happens-before relation of VectorClocks,
+ * in O(log n) time without walking the causal graph.
+ *
+ * Threads are grouped into chains of threads that run one after the other (the last event of a thread happens
+ * before the first event of the next thread in its chain, e.g. threads forked after joining the previous ones), so
+ * that the events of a chain are totally ordered and are numbered by their position in the chain. For each event
+ * with incoming edges from other threads, the index keeps its frontier: the last position of each other chain
+ * known to happen before it, as a sparse row sorted by chain. A query a -> b compares positions if both events are
+ * in the same chain, and otherwise looks up the chain of a in the frontier of the last such event up to b in its
+ * thread.
+ */
+public class ReachabilityIndex
+{
+    /* Map: event -> {chain, position in the chain, thread id, index of the last frontier up to the event or -1} */
+    private final IdentityHashMap<Event, int[]> events;
+
+    /* for each thread, the frontiers of its events with incoming edges, as flat (chain, position) pairs */
+    private final int[][][] frontiers;
+
+    private final int numChains;
+
+    private ReachabilityIndex( IdentityHashMap<Event, int[]> events, int[][][] frontiers, int numChains )
+    {
+        this.events = events;
+        this.frontiers = frontiers;
+        this.numChains = numChains;
+    }
+
+    /**
+     * Builds the index of a trace.
+     *
+     * @param trace the processed trace.
+     * @return the reachability index of the events of the trace.
+     */
+    public static ReachabilityIndex build( ProcessedTrace trace )
+    {
+        return build( trace, VectorClocks.compute( trace ) );
+    }
+
+    /**
+     * Builds the index of a trace from its vector clocks.
+     *
+     * @param trace the processed trace.
+     * @param clocks the vector clocks of the events of the trace.
+     * @return the reachability index of the events of the trace.
+     */
+    public static ReachabilityIndex build( ProcessedTrace trace, VectorClocks clocks )
+    {
+        Map<String, SortedSet<Event>> eventsPerThread = trace.getEventsPerThread();
+        final int numThreads = clocks.getNumThreads();
+        final Event[] firstEvents = new Event[numThreads];
+        int[] lengths = new int[numThreads];
+        Integer[] order = new Integer[numThreads];
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            SortedSet<Event> timeline = eventsPerThread.get( clocks.getThread( t ) );
+            firstEvents[t] = timeline.first();
+            lengths[t] = timeline.size();
+            order[t] = t;
+        }
+
+        //threads are chained in the order they start, each after a chain whose last thread it follows completely
+        final TimestampComparator comparator = new TimestampComparator();
+        Arrays.sort( order, new Comparator<Integer>()
+        {
+            public int compare( Integer t1, Integer t2 )
+            {
+                return comparator.compare( firstEvents[t1], firstEvents[t2] );
+            }
+        } );
+        int[] chains = new int[numThreads];
+        int[] offsets = new int[numThreads];
+        Arrays.fill( chains, -1 );
+        boolean[] isTail = new boolean[numThreads];
+        int[] chainLengths = new int[numThreads];
+        int numChains = 0;
+        int[] counts = new int[numThreads];
+        int[] touched = new int[numThreads];
+        for ( int t : order )
+        {
+            int previous = -1;
+            int[] syncs = clocks.getSyncPositions( t );
+            if ( syncs.length > 0 && syncs[0] == 0 )
+            {
+                int numTouched = clocks.replay( t, 0, counts, touched );
+                for ( int i = 0; i < numTouched; i++ )
+                {
+                    int u = touched[i];
+                    if ( previous < 0 && isTail[u] && counts[u] == lengths[u] )
+                        previous = u;
+                    counts[u] = 0;
+                }
+            }
+
+            if ( previous < 0 )
+            {
+                chains[t] = numChains++;
+                offsets[t] = 0;
+            }
+            else
+            {
+                chains[t] = chains[previous];
+                offsets[t] = chainLengths[chains[t]];
+                isTail[previous] = false;
+            }
+            chainLengths[chains[t]] += lengths[t];
+            isTail[t] = true;
+        }
+
+        //frontier of each stored clock, from the last position known of each thread
+        int[][][] frontiers = new int[numThreads][][];
+        int[] frontier = new int[numChains];
+        Arrays.fill( frontier, -1 );
+        int[] touchedChains = new int[numChains];
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            int[] syncs = clocks.getSyncPositions( t );
+            frontiers[t] = new int[syncs.length][];
+            for ( int k = 0; k < syncs.length; k++ )
+            {
+                int numTouched = clocks.replay( t, k, counts, touched );
+                int numTouchedChains = 0;
+                for ( int i = 0; i < numTouched; i++ )
+                {
+                    int u = touched[i];
+                    int c = chains[u];
+                    int position = offsets[u] + counts[u] - 1;
+                    counts[u] = 0;
+                    if ( c == chains[t] )
+                        continue;
+                    if ( frontier[c] < 0 )
+                        touchedChains[numTouchedChains++] = c;
+                    frontier[c] = Math.max( frontier[c], position );
+                }
+
+                Arrays.sort( touchedChains, 0, numTouchedChains );
+                int[] row = new int[2 * numTouchedChains];
+                for ( int i = 0; i < numTouchedChains; i++ )
+                {
+                    row[2 * i] = touchedChains[i];
+                    row[2 * i + 1] = frontier[touchedChains[i]];
+                    frontier[touchedChains[i]] = -1;
+                }
+                frontiers[t][k] = row;
+            }
+        }
+
+        IdentityHashMap<Event, int[]> events = new IdentityHashMap<Event, int[]>( trace.getNumberOfEvents() );
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            int[] syncs = clocks.getSyncPositions( t );
+            int k = -1;
+            int position = 0;
+            for ( Event e : eventsPerThread.get( clocks.getThread( t ) ) )
+            {
+                while ( k + 1 < syncs.length && syncs[k + 1] <= position )
+                    k++;
+                events.put( e, new int[] { chains[t], offsets[t] + position, t, k } );
+                position++;
+            }
+        }
+        return new ReachabilityIndex( events, frontiers, numChains );
+    }
+
+    /**
+     * Indicates whether an event happens before another one.
+     *
+     * @param e1 the first event.
+     * @param e2 the second event.
+     * @return true if e1 happens before e2, false otherwise or if either event is not in the trace.
+     */
+    public boolean happensBefore( Event e1, Event e2 )
+    {
+        int[] p1 = events.get( e1 );
+        int[] p2 = events.get( e2 );
+        if ( p1 == null || p2 == null )
+            return false;
+        return happensBefore( p1, p2 );
+    }
+
+    /**
+     * Indicates whether two distinct events of the trace are concurrent, i.e. neither happens before the other.
+     *
+     * @param e1 an event.
+     * @param e2 another event.
+     * @return true if the events are concurrent, false otherwise or if either event is not in the trace.
+     */
+    public boolean concurrent( Event e1, Event e2 )
+    {
+        int[] p1 = events.get( e1 );
+        int[] p2 = events.get( e2 );
+        if ( p1 == null || p2 == null || p1 == p2 )
+            return false;
+        return !happensBefore( p1, p2 ) && !happensBefore( p2, p1 );
+    }
+
+    private boolean happensBefore( int[] p1, int[] p2 )
+    {
+        if ( p1[0] == p2[0] )
+            return p1[1] < p2[1];
+        if ( p2[3] < 0 )
+            return false;
+
+        int[] row = frontiers[p2[2]][p2[3]];
+        int low = 0;
+        int high = row.length / 2 - 1;
+        while ( low <= high )
+        {
+            int mid = ( low + high ) >>> 1;
+            int chain = row[2 * mid];
+            if ( chain < p1[0] )
+                low = mid + 1;
+            else if ( chain > p1[0] )
+                high = mid - 1;
+            else
+                return row[2 * mid + 1] >= p1[1];
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of chains the threads were grouped into, which bounds the size of the frontiers.
+     *
+     * @return the number of chains.
+     */
+    public int getNumChains()
+    {
+        return numChains;
+    }
+
+    /**
+     * Returns the total number of (chain, position) entries of the frontiers kept by the index.
+     *
+     * @return the number of frontier entries.
+     */
+    public long getNumFrontierEntries()
+    {
+        long total = 0;
+        for ( int[][] rows : frontiers )
+        {
+            for ( int[] row : rows )
+            {
+                total += row.length / 2;
+            }
+        }
+        return total;
+    }
+}
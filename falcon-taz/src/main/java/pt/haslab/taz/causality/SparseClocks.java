@@ -0,0 +1,463 @@
+package pt.haslab.taz.causality;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Vector clocks of the events of a set of threads under the happens-before relation given by the program order of
+ * each thread plus an explicit list of edges between threads. Threads are identified by their index in the list of
+ * timelines, and the clock of an event maps each thread to the number of its events that happen before the event,
+ * or are the event itself.
+ *
+ * Clocks are only stored for the events with incoming edges from other threads, as the events in between only
+ * advance their own thread's entry. Each stored clock is a sparse delta with the entries that changed since the
+ * previous stored clock of the same thread, and every SNAPSHOT_INTERVAL-th one has all the (non-zero) entries, so
+ * that memory grows with the number of synchronizations and the threads they involve rather than with
+ * threads x events, while looking up a clock replays at most SNAPSHOT_INTERVAL deltas.
+ */
+public class SparseClocks
+{
+    /* number of stored clocks of a thread from one full snapshot to the next */
+    private static final int SNAPSHOT_INTERVAL = 16;
+
+    private static final int[] NO_ENTRIES = new int[0];
+
+    /* Map: event -> {thread index, position of the event in its thread} */
+    private final IdentityHashMap<Event, int[]> positions;
+
+    /* for each thread, the positions of the events whose clocks are stored, in order */
+    private final int[][] syncPositions;
+
+    /* for each thread, the stored clocks as flat (thread index, count) pairs: snapshots or deltas to the previous one */
+    private final int[][][] syncEntries;
+
+    /* number of edges left out to break cycles with the program order */
+    private int numIgnoredEdges;
+
+    private SparseClocks( int numThreads )
+    {
+        this.positions = new IdentityHashMap<Event, int[]>();
+        this.syncPositions = new int[numThreads][];
+        this.syncEntries = new int[numThreads][][];
+        this.numIgnoredEdges = 0;
+    }
+
+    /**
+     * Computes the clocks of the events of a set of threads.
+     *
+     * @param timelines the events of each thread, in program order.
+     * @param edges the edges between events of different threads, as a flat list of (from, to) pairs. Edges with
+     *              null events, events not in the timelines or both events in the same thread are ignored.
+     * @param breakCycles whether to leave out the edges that form cycles with the program order (see
+     *                    getNumIgnoredEdges), instead of giving up.
+     * @return the clocks, or null if the edges form a cycle with the program order and breakCycles is false.
+     */
+    public static SparseClocks build( List<? extends Collection<Event>> timelines, List<Event> edges,
+                                      boolean breakCycles )
+    {
+        int numThreads = timelines.size();
+        SparseClocks clocks = new SparseClocks( numThreads );
+        List<Event[]> events = new ArrayList<Event[]>( numThreads );
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            Event[] timeline = timelines.get( t ).toArray( new Event[0] );
+            for ( int i = 0; i < timeline.length; i++ )
+            {
+                clocks.positions.put( timeline[i], new int[] { t, i } );
+            }
+            events.add( timeline );
+        }
+
+        //incoming edges of each event, from other threads
+        IdentityHashMap<Event, List<int[]>> incoming = new IdentityHashMap<Event, List<int[]>>();
+        for ( int i = 0; i + 1 < edges.size(); i += 2 )
+        {
+            Event to = edges.get( i + 1 );
+            int[] source = edges.get( i ) == null ? null : clocks.positions.get( edges.get( i ) );
+            int[] target = to == null ? null : clocks.positions.get( to );
+            if ( source == null || target == null || source[0] == target[0] )
+                continue;
+            List<int[]> sources = incoming.get( to );
+            if ( sources == null )
+            {
+                sources = new ArrayList<int[]>( 1 );
+                incoming.put( to, sources );
+            }
+            sources.add( source );
+        }
+
+        return clocks.propagate( events, incoming, breakCycles ) ? clocks : null;
+    }
+
+    /**
+     * Visits the events in a topological order of the program order and the edges, advancing each thread until an
+     * event with sources not visited yet, and stores the clocks of the events with incoming edges. If no thread can
+     * advance, an edge of a cycle is left out (see breakCycle), or the propagation gives up.
+     *
+     * @return false if the propagation gave up on a cycle.
+     */
+    private boolean propagate( List<Event[]> timelines, IdentityHashMap<Event, List<int[]>> incoming,
+                               boolean breakCycles )
+    {
+        int numThreads = timelines.size();
+        int[] numSync = new int[numThreads];
+        for ( Event e : incoming.keySet() )
+        {
+            numSync[positions.get( e )[0]]++;
+        }
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            //positions not visited yet are after all the others, so that lastSync skips them
+            syncPositions[t] = new int[numSync[t]];
+            Arrays.fill( syncPositions[t], Integer.MAX_VALUE );
+            syncEntries[t] = new int[numSync[t]][];
+        }
+
+        int[] next = new int[numThreads];
+        int[] visitedSync = new int[numThreads];
+        ClockBuilder builder = new ClockBuilder( numThreads );
+
+        int done = 0;
+        while ( done < numThreads )
+        {
+            boolean progress = false;
+            int blocked = -1;
+            done = 0;
+            for ( int t = 0; t < numThreads; t++ )
+            {
+                Event[] timeline = timelines.get( t );
+                while ( next[t] < timeline.length )
+                {
+                    List<int[]> sources = incoming.get( timeline[next[t]] );
+                    if ( sources != null )
+                    {
+                        if ( !visited( sources, next ) )
+                        {
+                            if ( blocked < 0 )
+                                blocked = t;
+                            break;
+                        }
+                        int index = visitedSync[t]++;
+                        //the clock of the event starts from the previous stored clock of its thread
+                        if ( index > 0 )
+                            builder.load( syncEntries[t], index - 1, false );
+                        builder.startMerges();
+                        for ( int[] source : sources )
+                        {
+                            int k = lastSync( source[0], source[1] );
+                            if ( k >= 0 )
+                                builder.load( syncEntries[source[0]], k, true );
+                            builder.raise( source[0], source[1] + 1, true );
+                        }
+                        syncPositions[t][index] = next[t];
+                        syncEntries[t][index] = builder.store( t, index % SNAPSHOT_INTERVAL == 0 );
+                    }
+                    next[t]++;
+                    progress = true;
+                }
+                if ( next[t] == timeline.length )
+                    done++;
+            }
+
+            if ( !progress && done < numThreads )
+            {
+                if ( !breakCycles )
+                    return false;
+                breakCycle( timelines, incoming, next, blocked );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Leaves out an edge of a cycle when no thread can advance. Each blocked thread waits for a source of its next
+     * event in a thread that is blocked too, so following these waits from a blocked thread leads to a cycle, and the
+     * edge that closes it is left out. The edges of threads that only wait for the cycle are kept.
+     */
+    private void breakCycle( List<Event[]> timelines, IdentityHashMap<Event, List<int[]>> incoming, int[] next,
+                             int blocked )
+    {
+        //threads on the path of waits followed so far
+        boolean[] onPath = new boolean[timelines.size()];
+        int t = blocked;
+        while ( true )
+        {
+            onPath[t] = true;
+            List<int[]> sources = incoming.get( timelines.get( t )[next[t]] );
+            for ( int i = 0; i < sources.size(); i++ )
+            {
+                int[] source = sources.get( i );
+                if ( next[source[0]] > source[1] )
+                    continue;
+                if ( onPath[source[0]] )
+                {
+                    sources.remove( i );
+                    numIgnoredEdges++;
+                    return;
+                }
+            }
+            //no wait closes the cycle yet, so follow the first one
+            for ( int[] source : sources )
+            {
+                if ( next[source[0]] <= source[1] )
+                {
+                    t = source[0];
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean visited( List<int[]> sources, int[] next )
+    {
+        for ( int[] source : sources )
+        {
+            if ( next[source[0]] <= source[1] )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Clock of the event being visited, kept in an array with an entry per thread that is reused for all the
+     * events, so that each clock only costs the entries it touches.
+     */
+    private static class ClockBuilder
+    {
+        private final int[] clock;
+
+        /* entries that are not zero */
+        private final int[] touched;
+
+        private int numTouched;
+
+        /* entries raised by the merges of the event, marked with the number of the event */
+        private final int[] changedAt;
+
+        private final int[] changed;
+
+        private int numChanged;
+
+        private int stamp;
+
+        ClockBuilder( int numThreads )
+        {
+            this.clock = new int[numThreads];
+            this.touched = new int[numThreads];
+            this.changedAt = new int[numThreads];
+            this.changed = new int[numThreads];
+            this.numTouched = 0;
+            this.numChanged = 0;
+            this.stamp = 0;
+        }
+
+        /**
+         * Merges a stored clock, replaying it from the previous snapshot.
+         */
+        void load( int[][] stored, int index, boolean record )
+        {
+            for ( int s = index - index % SNAPSHOT_INTERVAL; s <= index; s++ )
+            {
+                int[] entries = stored[s];
+                for ( int i = 0; i < entries.length; i += 2 )
+                {
+                    raise( entries[i], entries[i + 1], record );
+                }
+            }
+        }
+
+        void startMerges()
+        {
+            stamp++;
+            numChanged = 0;
+        }
+
+        void raise( int thread, int count, boolean record )
+        {
+            int old = clock[thread];
+            if ( old >= count )
+                return;
+            if ( old == 0 )
+                touched[numTouched++] = thread;
+            clock[thread] = count;
+            if ( record && changedAt[thread] != stamp )
+            {
+                changedAt[thread] = stamp;
+                changed[numChanged++] = thread;
+            }
+        }
+
+        /**
+         * Returns the entries of the clock (or the ones changed by the merges) as flat (thread index, count) pairs,
+         * leaving out the entry of the event's own thread as it follows from its position, and clears the clock.
+         */
+        int[] store( int thread, boolean snapshot )
+        {
+            int[] ids = snapshot ? touched : changed;
+            int count = snapshot ? numTouched : numChanged;
+            int size = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( ids[i] != thread )
+                    size++;
+            }
+            int[] entries = size == 0 ? NO_ENTRIES : new int[2 * size];
+            int j = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( ids[i] != thread )
+                {
+                    entries[j++] = ids[i];
+                    entries[j++] = clock[ids[i]];
+                }
+            }
+
+            for ( int i = 0; i < numTouched; i++ )
+            {
+                clock[touched[i]] = 0;
+            }
+            numTouched = 0;
+            return entries;
+        }
+    }
+
+    /**
+     * Returns the index of the last stored clock up to a given position of a thread, or -1 if there is none.
+     *
+     * @param thread the thread index.
+     * @param position the position in the thread.
+     * @return the index of the stored clock, or -1.
+     */
+    public int lastSync( int thread, int position )
+    {
+        int[] syncs = syncPositions[thread];
+        int low = 0;
+        int high = syncs.length - 1;
+        while ( low <= high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if ( syncs[mid] <= position )
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+
+    /**
+     * Fills in the entries of a stored clock of a thread, except the thread's own entry.
+     *
+     * @param thread the thread index.
+     * @param index the index of the stored clock.
+     * @param counts the clock to fill in, with all entries at zero.
+     * @param touched if not null, receives the indexes of the threads whose entries were filled in.
+     * @return the number of entries filled in.
+     */
+    public int replay( int thread, int index, int[] counts, int[] touched )
+    {
+        int numTouched = 0;
+        for ( int s = index - index % SNAPSHOT_INTERVAL; s <= index; s++ )
+        {
+            int[] entries = syncEntries[thread][s];
+            for ( int i = 0; i < entries.length; i += 2 )
+            {
+                if ( counts[entries[i]] == 0 && touched != null )
+                    touched[numTouched++] = entries[i];
+                counts[entries[i]] = entries[i + 1];
+            }
+        }
+        return numTouched;
+    }
+
+    /**
+     * Returns the entry of another thread in a stored clock of a thread, replaying it from the previous snapshot.
+     */
+    private int countAt( int thread, int index, int other )
+    {
+        int count = 0;
+        for ( int s = index - index % SNAPSHOT_INTERVAL; s <= index; s++ )
+        {
+            int[] entries = syncEntries[thread][s];
+            for ( int i = 0; i < entries.length; i += 2 )
+            {
+                if ( entries[i] == other )
+                    count = Math.max( count, entries[i + 1] );
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Indicates whether an event happens before another one. Events that are not in the timelines are not ordered
+     * with any other.
+     *
+     * @param e1 the first event.
+     * @param e2 the second event.
+     * @return true if e1 happens before e2.
+     */
+    public boolean happensBefore( Event e1, Event e2 )
+    {
+        int[] p1 = positions.get( e1 );
+        int[] p2 = positions.get( e2 );
+        if ( p1 == null || p2 == null )
+            return false;
+        if ( p1[0] == p2[0] )
+            return p1[1] < p2[1];
+
+        int k = lastSync( p2[0], p2[1] );
+        return k >= 0 && countAt( p2[0], k, p1[0] ) > p1[1];
+    }
+
+    public int getNumThreads()
+    {
+        return syncPositions.length;
+    }
+
+    /**
+     * Returns {thread index, position in the thread} of an event, or null if it is not in the timelines.
+     */
+    public int[] getPosition( Event e )
+    {
+        return positions.get( e );
+    }
+
+    /**
+     * Returns the positions of the events of a thread whose clocks are stored, in order.
+     */
+    public int[] getSyncPositions( int thread )
+    {
+        return syncPositions[thread];
+    }
+
+    /**
+     * Returns the number of edges left out because they formed a cycle with the program order.
+     *
+     * @return the number of edges left out.
+     */
+    public int getNumIgnoredEdges()
+    {
+        return numIgnoredEdges;
+    }
+
+    /**
+     * Returns the total number of entries of the stored clocks, which gives the memory they take.
+     *
+     * @return the number of (thread, count) entries stored.
+     */
+    public long getNumStoredEntries()
+    {
+        long total = 0;
+        for ( int[][] entries : syncEntries )
+        {
+            for ( int[] clock : entries )
+            {
+                total += clock.length / 2;
+            }
+        }
+        return total;
+    }
+}
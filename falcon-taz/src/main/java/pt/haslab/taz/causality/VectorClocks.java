@@ -0,0 +1,269 @@
+package pt.haslab.taz.causality;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.events.TimestampComparator;
+
+/**
+ * Vector clocks of the events of a trace under the happens-before relation given by the program order of each
+ * thread plus the causal pairs between threads: SND/RCV of each message (matched by their bytes), CONNECT/ACCEPT,
+ * CLOSE/SHUTDOWN, fork/START, END/join and, for each lock, the UNLOCK of a critical section and the LOCK of the
+ * next one in the order they were logged. Wait/notify pairs are not included, as the trace does not tell which
+ * notify woke each wait.
+ * The clock of an event maps each thread to the number of its events that happen before the event, or are the
+ * event itself.
+ *
+ * The clocks are stored as SparseClocks, so that their memory grows with the number of synchronizations and the
+ * threads they involve rather than with threads x events.
+ */
+public class VectorClocks
+{
+    private static Logger logger = LoggerFactory.getLogger( VectorClocks.class );
+
+    /* thread names, sorted, indexed by thread id */
+    private final String[] threads;
+
+    private final SparseClocks clocks;
+
+    private VectorClocks( String[] threads, SparseClocks clocks )
+    {
+        this.threads = threads;
+        this.clocks = clocks;
+    }
+
+    /**
+     * Computes the vector clocks of all the events of a trace.
+     *
+     * @param trace the processed trace.
+     * @return the vector clocks of the events of the trace.
+     */
+    public static VectorClocks compute( ProcessedTrace trace )
+    {
+        Map<String, SortedSet<Event>> eventsPerThread = trace.getEventsPerThread();
+        String[] threads = eventsPerThread.keySet().toArray( new String[0] );
+        Arrays.sort( threads );
+        List<SortedSet<Event>> timelines = new ArrayList<SortedSet<Event>>( threads.length );
+        for ( String thread : threads )
+        {
+            timelines.add( eventsPerThread.get( thread ) );
+        }
+
+        List<Event> edges = new ArrayList<Event>();
+        collectEdges( trace, edges );
+        SparseClocks clocks = SparseClocks.build( timelines, edges, true );
+        if ( clocks.getNumIgnoredEdges() > 0 )
+            logger.warn( "Ignored " + clocks.getNumIgnoredEdges()
+                                         + " causal edges that contradict the program order" );
+        return new VectorClocks( threads, clocks );
+    }
+
+    /**
+     * Gathers the edges between events of different threads, as a flat list of (from, to) pairs.
+     */
+    private static void collectEdges( ProcessedTrace trace, List<Event> edges )
+    {
+        for ( MessageCausalPair pair : trace.getSndRcvPairs().values() )
+        {
+            addMessageEdges( pair, edges );
+        }
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.getConnAcptEvents().values() )
+        {
+            addEdge( pair.getFirst(), pair.getSecond(), edges );
+        }
+        for ( CausalPair<SocketEvent, SocketEvent> pair : trace.getCloseShutEvents().values() )
+        {
+            addEdge( pair.getFirst(), pair.getSecond(), edges );
+        }
+
+        Map<String, SortedSet<Event>> eventsPerThread = trace.getEventsPerThread();
+        for ( List<ThreadCreationEvent> forks : trace.getForkEvents().values() )
+        {
+            for ( ThreadCreationEvent fork : forks )
+            {
+                SortedSet<Event> child = eventsPerThread.get( fork.getChildThread() );
+                if ( child != null && !child.isEmpty() )
+                    addEdge( fork, child.first(), edges );
+            }
+        }
+        for ( List<ThreadCreationEvent> joins : trace.getJoinEvents().values() )
+        {
+            for ( ThreadCreationEvent join : joins )
+            {
+                SortedSet<Event> child = eventsPerThread.get( join.getChildThread() );
+                if ( child != null && !child.isEmpty() )
+                    addEdge( child.last(), join, edges );
+            }
+        }
+
+        for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : trace.getLockEvents().values() )
+        {
+            addLockEdges( pairs, edges );
+        }
+    }
+
+    /**
+     * Adds the edges from each RCV of a message to the SND holding the last byte it received, so that a message
+     * split differently by the sender and the receiver is matched as the solver does.
+     */
+    private static void addMessageEdges( MessageCausalPair pair, List<Event> edges )
+    {
+        List<SocketEvent> snds = pair.getSndList();
+        List<SocketEvent> rcvs = pair.getRcvList();
+        if ( snds == null || rcvs == null || snds.isEmpty() || rcvs.isEmpty() )
+            return;
+
+        int sndBytes = 0;
+        for ( SocketEvent snd : snds )
+        {
+            sndBytes += snd.getSize();
+        }
+
+        int snd = 0;
+        int sndEnd = snds.get( 0 ).getSize();
+        int rcvEnd = 0;
+        for ( SocketEvent rcv : rcvs )
+        {
+            rcvEnd += rcv.getSize();
+            int lastByte = Math.max( 0, Math.min( rcvEnd, sndBytes ) - 1 );
+            while ( snd + 1 < snds.size() && sndEnd <= lastByte )
+            {
+                snd++;
+                sndEnd += snds.get( snd ).getSize();
+            }
+            addEdge( snds.get( snd ), rcv, edges );
+        }
+    }
+
+    /**
+     * Adds the edges from the last UNLOCK logged before each LOCK of a locking object to that LOCK.
+     */
+    private static void addLockEdges( List<CausalPair<SyncEvent, SyncEvent>> pairs, List<Event> edges )
+    {
+        final TimestampComparator comparator = new TimestampComparator();
+        List<CausalPair<SyncEvent, SyncEvent>> sorted = new ArrayList<CausalPair<SyncEvent, SyncEvent>>( pairs );
+        Collections.sort( sorted, new Comparator<CausalPair<SyncEvent, SyncEvent>>()
+        {
+            public int compare( CausalPair<SyncEvent, SyncEvent> p1, CausalPair<SyncEvent, SyncEvent> p2 )
+            {
+                return comparator.compare( p1.getFirst() != null ? p1.getFirst() : p1.getSecond(),
+                                           p2.getFirst() != null ? p2.getFirst() : p2.getSecond() );
+            }
+        } );
+
+        //nested critical sections of the same thread may end out of order, so keep the latest unlock
+        SyncEvent lastUnlock = null;
+        for ( CausalPair<SyncEvent, SyncEvent> pair : sorted )
+        {
+            SyncEvent lock = pair.getFirst();
+            SyncEvent unlock = pair.getSecond();
+            if ( lock != null && lastUnlock != null )
+                addEdge( lastUnlock, lock, edges );
+            if ( unlock != null && ( lastUnlock == null || comparator.compare( unlock, lastUnlock ) > 0 ) )
+                lastUnlock = unlock;
+        }
+    }
+
+    private static void addEdge( Event from, Event to, List<Event> edges )
+    {
+        edges.add( from );
+        edges.add( to );
+    }
+
+    /**
+     * Fills in the entries of a stored clock of a thread, except the thread's own entry (see SparseClocks.replay).
+     */
+    int replay( int thread, int index, int[] counts, int[] touched )
+    {
+        return clocks.replay( thread, index, counts, touched );
+    }
+
+    int getNumThreads()
+    {
+        return threads.length;
+    }
+
+    String getThread( int thread )
+    {
+        return threads[thread];
+    }
+
+    /**
+     * Returns {thread id, position in the thread} of an event, or null if it is not in the trace.
+     */
+    int[] getPosition( Event e )
+    {
+        return clocks.getPosition( e );
+    }
+
+    /**
+     * Returns the positions of the events of a thread whose clocks are stored, in order.
+     */
+    int[] getSyncPositions( int thread )
+    {
+        return clocks.getSyncPositions( thread );
+    }
+
+    /**
+     * Returns the vector clock of an event, with the threads that have events happening before it (or the event
+     * itself) sorted by name.
+     *
+     * @param e the event.
+     * @return a map from thread to the number of its events that happen before e, including e, or null if the event
+     * is not in the trace.
+     */
+    public Map<String, Integer> getClock( Event e )
+    {
+        int[] position = clocks.getPosition( e );
+        if ( position == null )
+            return null;
+
+        int thread = position[0];
+        int[] counts = new int[threads.length];
+        int k = clocks.lastSync( thread, position[1] );
+        if ( k >= 0 )
+            clocks.replay( thread, k, counts, null );
+        counts[thread] = position[1] + 1;
+
+        Map<String, Integer> clock = new TreeMap<String, Integer>();
+        for ( int u = 0; u < counts.length; u++ )
+        {
+            if ( counts[u] > 0 )
+                clock.put( threads[u], counts[u] );
+        }
+        return clock;
+    }
+
+    /**
+     * Returns the number of causal edges left out because they formed a cycle with the program order, which
+     * happens when the timestamps of some thread contradict the causal pairs.
+     *
+     * @return the number of edges left out.
+     */
+    public int getNumIgnoredEdges()
+    {
+        return clocks.getNumIgnoredEdges();
+    }
+
+    /**
+     * Returns the total number of entries of the stored clocks, which gives the memory they take.
+     *
+     * @return the number of (thread, count) entries stored.
+     */
+    public long getNumStoredEntries()
+    {
+        return clocks.getNumStoredEntries();
+    }
+}
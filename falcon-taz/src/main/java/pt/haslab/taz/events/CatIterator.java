@@ -22,6 +22,9 @@ public class CatIterator<T extends Comparable>
     //keeps track of the last Iterator next'd for the remove method
     private Iterator<T> lastIt;
 
+    //order of the elements being merged (null means their natural order)
+    private final Comparator<? super T> elementOrder;
+
     private final Comparator<CausalPair<Iterator<T>, T>> heapOrder =
                     new Comparator<CausalPair<Iterator<T>, T>>()
                     {
@@ -29,12 +32,25 @@ public class CatIterator<T extends Comparable>
                         public int compare( CausalPair<Iterator<T>, T> o1,
                                             CausalPair<Iterator<T>, T> o2 )
                         {
+                            if ( elementOrder != null )
+                                return elementOrder.compare( o1.getSecond(), o2.getSecond() );
+
                             return o1.getSecond().compareTo( o2.getSecond()) ;
                         }
                     };
 
     public CatIterator(Collection<? extends Iterable<T>> eventIterables)
     {
+        this(eventIterables, null);
+    }
+
+    /**
+     * Merges the given iterables, each of which must already be sorted according to elementOrder.
+     */
+    public CatIterator(Collection<? extends Iterable<T>> eventIterables, Comparator<? super T> elementOrder)
+    {
+        this.elementOrder = elementOrder;
+
         //Holds the first value of a list and an iterator of the rest of the list
         eventHeap = new PriorityQueue<CausalPair<Iterator<T>, T>>(eventIterables.size(), heapOrder);
 
@@ -1,5 +1,7 @@
 package pt.haslab.taz.events;
 
+import java.io.IOException;
+import java.io.Writer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -13,7 +15,7 @@ public class Event
 {
     //--- REQUIRED PARAMETERS ---
     /* event timestamp as given by the trace */
-    private String timestamp;
+    private long timestamp;
 
     /* type of event (possible types are in EventType class) */
     private EventType type;
@@ -45,6 +47,11 @@ public class Event
     }
 
     public Event( String timestamp, EventType type, String thread, long eventId, String lineOfCode )
+    {
+        this( Long.parseLong( timestamp ), type, thread, eventId, lineOfCode );
+    }
+
+    public Event( long timestamp, EventType type, String thread, long eventId, String lineOfCode )
     {
         this.timestamp = timestamp;
         this.type = type;
@@ -62,7 +69,7 @@ public class Event
 
     public Event( Event e )
     {
-        this.timestamp = e.getTimestamp();
+        this.timestamp = e.getTimestampValue();
         this.type = e.getType();
         this.thread = e.getThread();
         this.dependency = e.getDependency();
@@ -73,11 +80,21 @@ public class Event
     }
 
     public String getTimestamp()
+    {
+        return String.valueOf( timestamp );
+    }
+
+    public long getTimestampValue()
     {
         return timestamp;
     }
 
     public void setTimestamp( String timestamp )
+    {
+        this.timestamp = Long.parseLong( timestamp );
+    }
+
+    public void setTimestamp( long timestamp )
     {
         this.timestamp = timestamp;
     }
@@ -206,7 +223,7 @@ public class Event
         json.put( "loc", this.lineOfCode );
         json.put( "order", this.scheduleOrder );
         json.put( "id", this.eventId );
-        json.put( "timestamp", this.timestamp );
+        json.put( "timestamp", String.valueOf( this.timestamp ) );
         json.put( "dependency", this.dependency == null ? JSONObject.NULL : this.dependency );
         json.putOpt( "data", this.data );
 
@@ -214,7 +231,76 @@ public class Event
     }
 
     /**
-     * Event comparator based on the logical clock.
+     * Writes the event as a JSON object with the same fields as toJSONObject, without building a JSONObject.
+     *
+     * @param out the writer to which the event is written.
+     * @throws IOException
+     */
+    public void writeJSON( Writer out )
+                    throws IOException
+    {
+        out.write( '{' );
+        writeJSONFields( out );
+        out.write( '}' );
+    }
+
+    /**
+     * Writes the fields of the event, separated by commas and without the enclosing braces, so that callers can add
+     * fields of their own (e.g. a vector clock). Subclasses write the fields they add to toJSONObject after those of
+     * their superclass.
+     *
+     * @param out the writer to which the fields are written.
+     * @throws IOException
+     */
+    public void writeJSONFields( Writer out )
+                    throws IOException
+    {
+        out.write( "\"type\":" );
+        out.write( JSONObject.quote( this.type.toString() ) );
+        writeJSONField( out, "thread", this.thread );
+        writeJSONField( out, "loc", this.lineOfCode );
+        writeJSONField( out, "order", this.scheduleOrder );
+        writeJSONField( out, "id", this.eventId );
+        writeJSONField( out, "timestamp", String.valueOf( this.timestamp ) );
+        out.write( ",\"dependency\":" );
+        out.write( this.dependency == null ? "null" : JSONObject.quote( this.dependency ) );
+        if ( this.data != null )
+        {
+            out.write( ",\"data\":" );
+            out.write( this.data.toString() );
+        }
+    }
+
+    /**
+     * Writes a string field of a JSON object, preceded by a comma. As in JSONObject.put, null values are left out.
+     */
+    protected static void writeJSONField( Writer out, String key, String value )
+                    throws IOException
+    {
+        if ( value == null )
+            return;
+        out.write( ',' );
+        out.write( JSONObject.quote( key ) );
+        out.write( ':' );
+        out.write( JSONObject.quote( value ) );
+    }
+
+    /**
+     * Writes a numeric field of a JSON object, preceded by a comma.
+     */
+    protected static void writeJSONField( Writer out, String key, long value )
+                    throws IOException
+    {
+        out.write( ',' );
+        out.write( JSONObject.quote( key ) );
+        out.write( ':' );
+        out.write( Long.toString( value ) );
+    }
+
+    /**
+     * Event comparator based on the logical clock. Events with the same logical clock are ordered by node, thread,
+     * type, line of code and finally event id, so that the order is total and only the same event compares as 0.
+     * It does not allocate, as it is called for every tie when sorting timelines.
      *
      * @param o1  another event.
      * @return    an integer indicating whether the logical clock of this event is lower, equal, or higher than that
@@ -223,13 +309,57 @@ public class Event
     public int compareTo( Object o1 )
     {
         Event e = (Event) o1;
+        if ( e == this )
+            return 0;
 
-        if ( this.scheduleOrder < e.getScheduleOrder() )
-            return -1;
-        else if ( this.scheduleOrder == e.getScheduleOrder() && this.equals( e ) )
+        if ( this.scheduleOrder != e.getScheduleOrder() )
+            return ( this.scheduleOrder < e.getScheduleOrder() ) ? -1 : 1;
+
+        int cmp = compareNodes( this.thread, e.getThread() );
+        if ( cmp == 0 )
+            cmp = compareStrings( this.thread, e.getThread() );
+        if ( cmp == 0 && this.type != e.getType() )
+            cmp = ( this.type == null ) ? -1 : ( e.getType() == null ) ? 1 : this.type.compareTo( e.getType() );
+        if ( cmp == 0 )
+            cmp = compareStrings( this.lineOfCode, e.getLineOfCode() );
+        if ( cmp == 0 && this.eventId != e.getEventId() )
+            cmp = ( this.eventId < e.getEventId() ) ? -1 : 1;
+        if ( cmp == 0 )
+            cmp = Integer.compare( System.identityHashCode( this ), System.identityHashCode( e ) );
+        return cmp;
+    }
+
+    /**
+     * Compares the node parts (after '@') of two thread ids in place, as getNodeId would allocate a substring.
+     */
+    private static int compareNodes( String t1, String t2 )
+    {
+        if ( t1 == null || t2 == null )
+            return ( t1 == t2 ) ? 0 : ( t1 == null ) ? -1 : 1;
+        if ( t1 == t2 )
             return 0;
-        else
-            return 1;
+
+        int i = t1.indexOf( '@' ) + 1;
+        int j = t2.indexOf( '@' ) + 1;
+        int n1 = t1.length() - i;
+        int n2 = t2.length() - j;
+        if ( n1 == n2 && t1.regionMatches( i, t2, j, n1 ) )
+            return 0;
+        for ( int k = 0; k < Math.min( n1, n2 ); k++ )
+        {
+            char c1 = t1.charAt( i + k );
+            char c2 = t2.charAt( j + k );
+            if ( c1 != c2 )
+                return c1 - c2;
+        }
+        return n1 - n2;
+    }
+
+    private static int compareStrings( String s1, String s2 )
+    {
+        if ( s1 == null || s2 == null )
+            return ( s1 == s2 ) ? 0 : ( s1 == null ) ? -1 : 1;
+        return s1.compareTo( s2 );
     }
 
     @Override
@@ -1,9 +1,14 @@
 package pt.haslab.taz.events;
 
 import java.util.Collection;
+import java.util.Comparator;
 
 public class EventIterator extends CatIterator<Event> {
     public EventIterator (Collection<? extends Iterable<Event>> eventIterables) {
        super(eventIterables);
     }
+
+    public EventIterator (Collection<? extends Iterable<Event>> eventIterables, Comparator<? super Event> order) {
+       super(eventIterables, order);
+    }
 }
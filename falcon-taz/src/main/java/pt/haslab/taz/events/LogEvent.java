@@ -1,5 +1,7 @@
 package pt.haslab.taz.events;
 
+import java.io.IOException;
+import java.io.Writer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -50,6 +52,14 @@ public class LogEvent
         return json;
     }
 
+    @Override
+    public void writeJSONFields( Writer out )
+                    throws IOException
+    {
+        super.writeJSONFields( out );
+        writeJSONField( out, "message", message );
+    }
+
     @Override
     public boolean equals( Object o )
     {
@@ -1,5 +1,7 @@
 package pt.haslab.taz.events;
 
+import java.io.IOException;
+import java.io.Writer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -51,6 +53,14 @@ public class RWEvent
         return json;
     }
 
+    @Override
+    public void writeJSONFields( Writer out )
+                    throws IOException
+    {
+        super.writeJSONFields( out );
+        writeJSONField( out, "variable", this.var );
+    }
+
     /**
      * Indicates whether this RWEvent conflicts with another RWEvent.
      * Two RWEvents conflict if:
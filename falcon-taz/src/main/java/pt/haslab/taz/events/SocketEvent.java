@@ -1,5 +1,7 @@
 package pt.haslab.taz.events;
 
+import java.io.IOException;
+import java.io.Writer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -264,4 +266,34 @@ public class SocketEvent
         }
         return json;
     }
+
+    @Override
+    public void writeJSONFields( Writer out )
+            throws IOException
+    {
+        super.writeJSONFields( out );
+        writeJSONField( out, "socket", this.socket );
+        writeJSONField( out, "src", this.src );
+        writeJSONField( out, "src_port", this.src_port );
+        writeJSONField( out, "dst", this.dst );
+        writeJSONField( out, "dst_port", this.dst_port );
+        if ( this.socket_type != null )
+            writeJSONField( out, "socket_type", this.socket_type.toString() );
+        if ( this.dependencies != null )
+        {
+            out.write( ",\"dependencies\":[" );
+            for ( int i = 0; i < this.dependencies.size(); i++ )
+            {
+                if ( i > 0 )
+                    out.write( ',' );
+                out.write( JSONObject.quote( this.dependencies.get( i ) ) );
+            }
+            out.write( ']' );
+        }
+        if ( this.msgId != null )
+        {
+            writeJSONField( out, "size", this.size );
+            writeJSONField( out, "message", this.msgId );
+        }
+    }
 }
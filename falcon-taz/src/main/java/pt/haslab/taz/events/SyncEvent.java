@@ -1,5 +1,7 @@
 package pt.haslab.taz.events;
 
+import java.io.IOException;
+import java.io.Writer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -57,4 +59,12 @@ public class SyncEvent
 
         return json;
     }
+
+    @Override
+    public void writeJSONFields( Writer out )
+                    throws IOException
+    {
+        super.writeJSONFields( out );
+        writeJSONField( out, "variable", this.var );
+    }
 }
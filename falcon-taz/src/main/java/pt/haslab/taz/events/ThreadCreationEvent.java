@@ -1,5 +1,7 @@
 package pt.haslab.taz.events;
 
+import java.io.IOException;
+import java.io.Writer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -57,6 +59,14 @@ public class ThreadCreationEvent
         return json;
     }
 
+    @Override
+    public void writeJSONFields( Writer out )
+                    throws IOException
+    {
+        super.writeJSONFields( out );
+        writeJSONField( out, "child", this.child );
+    }
+
     @Override
     public boolean equals( Object o )
     {
@@ -3,7 +3,8 @@ package pt.haslab.taz.events;
 import java.util.Comparator;
 
 /**
- * Compares two events according to their timestamp.
+ * Compares two events according to their timestamp. Events with the same timestamp are ordered by their natural
+ * order (see Event.compareTo), so that the order is total and can be used to sort events.
  * Created by nunomachado on 05/03/18.
  */
 public class TimestampComparator
@@ -12,16 +13,28 @@ public class TimestampComparator
 
     public int compare( Event o1, Event o2 )
     {
-        Long ts1 = Long.valueOf( o1.getTimestamp() );
-        Long ts2 = Long.valueOf( o2.getTimestamp() );
-
-        int tsCompare = ts1.compareTo( ts2 );
+        int tsCompare = compareTimestamps( o1, o2 );
         if( tsCompare != 0 )
             return tsCompare;
         else
             return o1.compareTo( o2 );
     }
 
+    /**
+     * Compares two events by timestamp only, without allocating.
+     *
+     * @param o1 an event.
+     * @param o2 another event.
+     * @return an integer indicating whether the timestamp of o1 is lower, equal, or higher than that of o2.
+     */
+    public static int compareTimestamps( Event o1, Event o2 )
+    {
+        long ts1 = o1.getTimestampValue();
+        long ts2 = o2.getTimestampValue();
+
+        return ( ts1 < ts2 ) ? -1 : ( ( ts1 == ts2 ) ? 0 : 1 );
+    }
+
     public boolean equals( Object obj )
     {
         if ( this == obj )
@@ -0,0 +1,324 @@
+package pt.haslab.taz.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+import org.json.JSONObject;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.utils.SymbolTable;
+
+/**
+ * Decodes event traces written by the BinaryWriter of falcon-tracer directly into Event objects.
+ * Each record is encoded in network byte order and has the following layout:
+ * <pre>
+ *  type:u8 | timestamp:u64 | host_len:u32 | host:char[host_len] | tid:u32 | pid:u32 | comm:char[16] | payload
+ * </pre>
+ * where the payload depends on the event type:
+ * <pre>
+ *  CREATE, JOIN      : child_pid:u32
+ *  START, END        : (empty)
+ *  CONNECT, ACCEPT   : family:u16 | saddr:u64[2] | daddr:u64[2] | sport:u16 | dport:u16
+ *  SND, RCV          : family:u16 | saddr:u64[2] | daddr:u64[2] | sport:u16 | dport:u16 | size:u32
+ * </pre>
+ * The resulting events have the same fields as those obtained by parsing the JSON output of falcon-tracer.
+ */
+public class BinaryEventReader
+                implements Closeable
+{
+    /* file extension used to force the binary format, regardless of the file contents */
+    public static final String FILE_EXTENSION = ".bin";
+
+    /* socket families, as defined in linux/socket.h */
+    private static final int AF_INET = 2;
+
+    private static final int AF_INET6 = 10;
+
+    /* length of the comm field, as defined in linux/sched.h */
+    private static final int TASK_COMM_LEN = 16;
+
+    /* size of the fixed fields preceding the hostname: type, timestamp and host_len */
+    private static final int HEADER_LEN = 13;
+
+    /* hostnames are limited to 255 characters */
+    private static final int MAX_HOST_LEN = 255;
+
+    private final DataInputStream in;
+
+    /* dictionary used to intern the hostnames, thread names, comms and socket identifiers of the events */
+    private final SymbolTable symbols;
+
+    public BinaryEventReader( InputStream in )
+    {
+        this( in, new SymbolTable() );
+    }
+
+    public BinaryEventReader( InputStream in, SymbolTable symbols )
+    {
+        this.in = new DataInputStream( new BufferedInputStream( in, 1 << 16 ) );
+        this.symbols = symbols;
+    }
+
+    /**
+     * Indicates whether a trace file is in the binary format of falcon-tracer. The format is chosen by the file
+     * extension, if it is FILE_EXTENSION, or otherwise by checking whether the file starts with a valid record header.
+     * JSON traces never pass the header check, as their first bytes are printable characters.
+     *
+     * @param pathToFile an absolute path giving the location of the event trace.
+     * @return true if the trace should be decoded as binary.
+     * @throws IOException
+     */
+    public static boolean isBinaryTrace( String pathToFile )
+                    throws IOException
+    {
+        if ( pathToFile.endsWith( FILE_EXTENSION ) )
+            return true;
+
+        byte[] header = new byte[HEADER_LEN];
+        DataInputStream file = new DataInputStream( new FileInputStream( pathToFile ) );
+        try
+        {
+            file.readFully( header );
+        }
+        catch ( EOFException e )
+        {
+            return false;
+        }
+        finally
+        {
+            file.close();
+        }
+
+        EventType type = EventType.getEventType( header[0] & 0xff );
+        long hostLen = ( ( header[9] & 0xffL ) << 24 ) | ( ( header[10] & 0xff ) << 16 )
+                        | ( ( header[11] & 0xff ) << 8 ) | ( header[12] & 0xff );
+
+        return isTracerEvent( type ) && hostLen > 0 && hostLen <= MAX_HOST_LEN;
+    }
+
+    /**
+     * Decodes the next record of the trace.
+     *
+     * @param eventId the identifier to be given to the decoded event.
+     * @return the next event, or null if the end of the trace was reached.
+     * @throws IOException if the trace is truncated or contains an unknown record type.
+     */
+    public Event next( long eventId )
+                    throws IOException
+    {
+        int typeCode = in.read();
+        if ( typeCode == -1 )
+            return null;
+
+        EventType type = EventType.getEventType( typeCode );
+        if ( !isTracerEvent( type ) )
+            throw new IOException( "Unknown binary event type: " + typeCode );
+
+        long timestamp = in.readLong();
+        String host = symbols.intern( readString( in.readInt() ) );
+        long tid = readUnsignedInt();
+        long pid = readUnsignedInt();
+        String comm = symbols.intern( readString( TASK_COMM_LEN ) );
+
+        Event e = new Event( timestamp, type, threadId( tid, host ), eventId, "" );
+        try
+        {
+            JSONObject data = new JSONObject();
+            data.put( "host", host );
+            data.put( "comm", comm );
+            e.setData( data );
+        }
+        catch ( JSONException exc )
+        {
+            throw new IOException( exc.getMessage() );
+        }
+
+        switch ( type )
+        {
+            case CREATE:
+            case JOIN:
+                ThreadCreationEvent creationEvent = new ThreadCreationEvent( e );
+                creationEvent.setChildThread( threadId( readUnsignedInt(), host ) );
+                return creationEvent;
+
+            case START:
+            case END:
+                return e;
+
+            default:
+                return readSocketEvent( e );
+        }
+    }
+
+    public void close()
+                    throws IOException
+    {
+        in.close();
+    }
+
+    private SocketEvent readSocketEvent( Event e )
+                    throws IOException
+    {
+        SocketEvent socketEvent = new SocketEvent( e );
+
+        int family = in.readUnsignedShort();
+        long[] saddr = { in.readLong(), in.readLong() };
+        long[] daddr = { in.readLong(), in.readLong() };
+        int sport = in.readUnsignedShort();
+        int dport = in.readUnsignedShort();
+
+        String src = symbols.intern( addressToString( family, saddr ) );
+        String dst = symbols.intern( addressToString( family, daddr ) );
+
+        // falcon-tracer only traces TCP sockets, whose identifier is built by comparing the ports.
+        socketEvent.setSocketType( SocketEvent.SocketType.TCP );
+        socketEvent.setSocket( symbols.intern( sport < dport ? src + ":" + sport + "-" + dst + ":" + dport
+                                                             : dst + ":" + dport + "-" + src + ":" + sport ) );
+        socketEvent.setSrc( src );
+        socketEvent.setSrcPort( sport );
+        socketEvent.setDst( dst );
+        socketEvent.setDstPort( dport );
+
+        if ( e.getType() == EventType.SND || e.getType() == EventType.RCV )
+        {
+            socketEvent.setSize( in.readInt() );
+        }
+
+        return socketEvent;
+    }
+
+    private long readUnsignedInt()
+                    throws IOException
+    {
+        return in.readInt() & 0xffffffffL;
+    }
+
+    /**
+     * Reads a fixed-length string, discarding the trailing NUL padding.
+     */
+    private String readString( int length )
+                    throws IOException
+    {
+        if ( length < 0 || length > MAX_HOST_LEN + 1 )
+            throw new IOException( "Invalid string length in binary trace: " + length );
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        int end = 0;
+        while ( end < length && bytes[end] != 0 )
+            end++;
+
+        return new String( bytes, 0, end, StandardCharsets.UTF_8 );
+    }
+
+    private String threadId( long tid, String host )
+    {
+        return symbols.intern( tid + "@" + host );
+    }
+
+    /**
+     * Indicates whether the type of event can be produced by falcon-tracer.
+     */
+    private static boolean isTracerEvent( EventType type )
+    {
+        if ( type == null )
+            return false;
+
+        switch ( type )
+        {
+            case CREATE:
+            case START:
+            case END:
+            case JOIN:
+            case SND:
+            case RCV:
+            case CONNECT:
+            case ACCEPT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Converts a socket address, as stored by the eBPF probes, into its textual representation.
+     * IPv4 addresses (and IPv4-mapped IPv6 addresses) are kept in the lower half of the second word, in
+     * the byte order of the traced host (little-endian).
+     */
+    private static String addressToString( int family, long[] addr )
+                    throws IOException
+    {
+        if ( family == AF_INET )
+        {
+            return ipv4ToString( addr[1] );
+        }
+        else if ( family == AF_INET6 )
+        {
+            if ( addr[0] == 0 && ( addr[1] & 0xffff0000L ) == 0xffff0000L )
+                return ipv4ToString( addr[1] >>> 32 );
+
+            return ipv6ToString( addr );
+        }
+
+        throw new IOException( "Undefined socket family: " + family );
+    }
+
+    private static String ipv4ToString( long addr )
+    {
+        return ( addr & 0xff ) + "." + ( ( addr >>> 8 ) & 0xff ) + "." + ( ( addr >>> 16 ) & 0xff ) + "."
+                        + ( ( addr >>> 24 ) & 0xff );
+    }
+
+    /**
+     * Formats an IPv6 address as inet_ntop does, i.e. compressing the longest run of zero groups.
+     */
+    private static String ipv6ToString( long[] addr )
+    {
+        int[] groups = new int[8];
+        for ( int i = 0; i < 16; i += 2 )
+        {
+            // each word is laid out in little-endian order in memory
+            int hi = (int) ( ( addr[i / 8] >>> ( ( i % 8 ) * 8 ) ) & 0xff );
+            int lo = (int) ( ( addr[i / 8] >>> ( ( i % 8 + 1 ) * 8 ) ) & 0xff );
+            groups[i / 2] = ( hi << 8 ) | lo;
+        }
+
+        int bestStart = -1, bestLen = 0;
+        for ( int i = 0; i < 8; )
+        {
+            int j = i;
+            while ( j < 8 && groups[j] == 0 )
+                j++;
+            if ( j - i > bestLen && j - i > 1 )
+            {
+                bestStart = i;
+                bestLen = j - i;
+            }
+            i = ( j == i ) ? i + 1 : j;
+        }
+
+        StringBuilder res = new StringBuilder();
+        for ( int i = 0; i < 8; i++ )
+        {
+            if ( i == bestStart )
+            {
+                res.append( "::" );
+                i += bestLen - 1;
+                continue;
+            }
+            if ( res.length() > 0 && res.charAt( res.length() - 1 ) != ':' )
+                res.append( ':' );
+            res.append( Integer.toHexString( groups[i] ) );
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package pt.haslab.taz.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the events of a JSON event trace one at a time, so that the trace never has to be fully loaded in memory.
+ * The reader supports both traces encoded as a single JSON array of events and traces with one JSON object per line.
+ * The format is detected from the first non-whitespace character of the input.
+ */
+public class JSONEventReader
+        implements Closeable
+{
+    private static Logger logger = LoggerFactory.getLogger( JSONEventReader.class );
+
+    private final BufferedReader reader;
+
+    /* tokener used to stream the elements of a JSON array (null for line-delimited traces) */
+    private JSONTokener tokener;
+
+    /* indicates whether the trace has one JSON object per line */
+    private boolean lineDelimited;
+
+    /* indicates whether the input format was already detected */
+    private boolean started;
+
+    /* indicates whether there are no more events to read */
+    private boolean finished;
+
+    /* number of elements of the JSON array read so far */
+    private long numElements;
+
+    public JSONEventReader( Reader reader )
+    {
+        this.reader = ( reader instanceof BufferedReader ) ? (BufferedReader) reader : new BufferedReader( reader );
+        this.tokener = null;
+        this.lineDelimited = false;
+        this.started = false;
+        this.finished = false;
+        this.numElements = 0;
+    }
+
+    /**
+     * Indicates whether the trace being read has one JSON object per line (as opposed to a JSON array).
+     *
+     * @return true if the trace is line-delimited.
+     * @throws IOException
+     */
+    public boolean isLineDelimited()
+            throws IOException
+    {
+        detectFormat();
+        return lineDelimited;
+    }
+
+    /**
+     * Returns the next event of the trace. Invalid lines of line-delimited traces are logged and skipped,
+     * whereas syntax errors in JSON arrays (including missing commas and arrays truncated before their closing
+     * bracket) are propagated to the caller.
+     *
+     * @return the next JSON event, or null if the end of the trace was reached.
+     * @throws JSONException
+     * @throws IOException
+     */
+    public JSONObject next()
+            throws JSONException, IOException
+    {
+        detectFormat();
+
+        if ( finished )
+            return null;
+
+        return lineDelimited ? nextLine() : nextArrayElement();
+    }
+
+    public void close()
+            throws IOException
+    {
+        reader.close();
+    }
+
+    /**
+     * Peeks the first non-whitespace character of the input to decide whether the trace is a JSON array.
+     */
+    private void detectFormat()
+            throws IOException
+    {
+        if ( started )
+            return;
+
+        started = true;
+        int c;
+        do
+        {
+            reader.mark( 1 );
+            c = reader.read();
+        }
+        while ( c != -1 && Character.isWhitespace( c ) );
+
+        if ( c == -1 )
+        {
+            finished = true;
+            return;
+        }
+
+        reader.reset();
+        if ( c == '[' )
+        {
+            tokener = new JSONTokener( reader );
+            try
+            {
+                tokener.next( '[' );
+            }
+            catch ( JSONException e )
+            {
+                throw new IOException( e.getMessage() );
+            }
+        }
+        else
+        {
+            lineDelimited = true;
+        }
+    }
+
+    private JSONObject nextArrayElement()
+            throws JSONException
+    {
+        char c = tokener.nextClean();
+        if ( c == ']' && numElements == 0 )
+        {
+            finished = true;
+            return null;
+        }
+        if ( numElements > 0 )
+        {
+            if ( c == ']' )
+            {
+                finished = true;
+                return null;
+            }
+            if ( c == 0 )
+                throw tokener.syntaxError( "Unterminated JSON array of events" );
+            if ( c != ',' )
+                throw tokener.syntaxError( "Expected ',' or ']' after a JSON event" );
+            c = tokener.nextClean();
+        }
+        if ( c == 0 )
+            throw tokener.syntaxError( "Unterminated JSON array of events" );
+
+        tokener.back();
+        Object value = tokener.nextValue();
+        if ( !( value instanceof JSONObject ) )
+            throw tokener.syntaxError( "A JSON event must be a JSONObject" );
+
+        numElements++;
+        return (JSONObject) value;
+    }
+
+    private JSONObject nextLine()
+            throws IOException
+    {
+        String line = reader.readLine();
+        while ( line != null )
+        {
+            if ( line.trim().length() > 0 )
+            {
+                try
+                {
+                    return new JSONObject( line );
+                }
+                catch ( JSONException e )
+                {
+                    logger.error( "Invalid JSON: " + line );
+                }
+            }
+            line = reader.readLine();
+        }
+
+        finished = true;
+        return null;
+    }
+}
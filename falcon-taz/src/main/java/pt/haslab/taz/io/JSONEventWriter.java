@@ -0,0 +1,105 @@
+package pt.haslab.taz.io;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import org.json.JSONObject;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Writes events to a JSON event trace one at a time, without building a JSONObject per event, so that writing a trace
+ * never needs more memory than the events themselves. The trace is written either as a single JSON array of events or
+ * with one JSON object per line, the two formats read by JSONEventReader.
+ */
+public class JSONEventWriter
+                implements Closeable
+{
+    private final Writer writer;
+
+    /* indicates whether the trace is written with one JSON object per line (as opposed to a JSON array) */
+    private final boolean lineDelimited;
+
+    /* number of events written so far */
+    private long numEvents;
+
+    public JSONEventWriter( Writer writer, boolean lineDelimited )
+    {
+        this.writer = ( writer instanceof BufferedWriter ) ? writer : new BufferedWriter( writer );
+        this.lineDelimited = lineDelimited;
+        this.numEvents = 0;
+    }
+
+    /**
+     * Writes the next event of the trace.
+     *
+     * @param event the event.
+     * @throws IOException
+     */
+    public void write( Event event )
+                    throws IOException
+    {
+        write( event, null );
+    }
+
+    /**
+     * Writes the next event of the trace, together with its vector clock.
+     *
+     * @param event the event.
+     * @param clock the vector clock of the event (see VectorClocks), written as field vc, or null to leave it out.
+     * @throws IOException
+     */
+    public void write( Event event, Map<String, Integer> clock )
+                    throws IOException
+    {
+        if ( !lineDelimited )
+            writer.write( numEvents == 0 ? '[' : ',' );
+
+        writer.write( '{' );
+        event.writeJSONFields( writer );
+        if ( clock != null )
+        {
+            writer.write( ",\"vc\":{" );
+            boolean first = true;
+            for ( Map.Entry<String, Integer> entry : clock.entrySet() )
+            {
+                if ( !first )
+                    writer.write( ',' );
+                writer.write( JSONObject.quote( entry.getKey() ) );
+                writer.write( ':' );
+                writer.write( entry.getValue().toString() );
+                first = false;
+            }
+            writer.write( '}' );
+        }
+        writer.write( '}' );
+
+        if ( lineDelimited )
+            writer.write( '\n' );
+        numEvents++;
+    }
+
+    /**
+     * Returns the number of events written so far.
+     *
+     * @return the number of events written.
+     */
+    public long getNumberOfEvents()
+    {
+        return numEvents;
+    }
+
+    /**
+     * Ends the trace (closing the JSON array, if needed) and closes the underlying writer.
+     *
+     * @throws IOException
+     */
+    public void close()
+                    throws IOException
+    {
+        if ( !lineDelimited )
+            writer.write( numEvents == 0 ? "[]" : "]" );
+        writer.close();
+    }
+}
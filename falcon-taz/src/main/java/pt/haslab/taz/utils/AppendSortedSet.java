@@ -0,0 +1,327 @@
+package pt.haslab.taz.utils;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.function.Predicate;
+
+/**
+ * SortedSet backed by a growable array that is meant to be filled in bulk and read afterwards.
+ * Insertions append the element to the end of the array, so that building the set costs no more than an array
+ * append per element, and the array is sorted (and duplicates removed) only once, at the first read that
+ * follows a sequence of insertions. As the sort is stable and event traces are almost sorted already, this
+ * pass is typically close to linear.
+ *
+ * Unlike TreeSet, method add does not check whether the element is already in the set (and thus always returns
+ * true), and the sets returned by headSet, tailSet and subSet are snapshots of the current contents rather than
+ * views backed by this set.
+ */
+public class AppendSortedSet<E>
+                extends AbstractSet<E>
+                implements SortedSet<E>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Comparator<? super E> comparator;
+
+    /* array with the elements of the set, whose first 'size' positions are in use */
+    private Object[] elements;
+
+    private int size;
+
+    /* indicates whether the elements are sorted and without duplicates */
+    private boolean sorted;
+
+    /* number of structural modifications, used to detect concurrent modifications during iterations */
+    private int modCount;
+
+    public AppendSortedSet( Comparator<? super E> comparator )
+    {
+        this( comparator, DEFAULT_CAPACITY );
+    }
+
+    public AppendSortedSet( Comparator<? super E> comparator, int initialCapacity )
+    {
+        this.comparator = comparator;
+        this.elements = new Object[Math.max( initialCapacity, 1 )];
+        this.size = 0;
+        this.sorted = true;
+        this.modCount = 0;
+    }
+
+    /**
+     * Appends an element to the set. The set is only sorted again if the element is out of order.
+     *
+     * @param e the element to be added.
+     * @return true.
+     */
+    @Override
+    public boolean add( E e )
+    {
+        if ( size == elements.length )
+        {
+            elements = Arrays.copyOf( elements, size + ( size >> 1 ) + 1 );
+        }
+
+        if ( sorted && size > 0 && compare( elementAt( size - 1 ), e ) >= 0 )
+        {
+            sorted = false;
+        }
+
+        elements[size++] = e;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Sorts the elements appended since the last read and removes duplicates, which is otherwise done by the
+     * first read that follows the insertions.
+     */
+    public void sort()
+    {
+        ensureSorted();
+    }
+
+    @Override
+    public int size()
+    {
+        ensureSorted();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public boolean contains( Object o )
+    {
+        ensureSorted();
+        return indexOf( (E) o ) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public boolean remove( Object o )
+    {
+        ensureSorted();
+        int index = indexOf( (E) o );
+        if ( index < 0 )
+            return false;
+
+        removeAt( index );
+        return true;
+    }
+
+    /**
+     * Removes the elements that satisfy a predicate in a single pass over the array, instead of shifting the array
+     * once per element removed.
+     */
+    @Override
+    public boolean removeIf( Predicate<? super E> filter )
+    {
+        ensureSorted();
+        int kept = 0;
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( !filter.test( elementAt( i ) ) )
+                elements[kept++] = elements[i];
+        }
+        if ( kept == size )
+            return false;
+
+        Arrays.fill( elements, kept, size, null );
+        size = kept;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill( elements, 0, size, null );
+        size = 0;
+        sorted = true;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        ensureSorted();
+        return new Itr();
+    }
+
+    public Comparator<? super E> comparator()
+    {
+        return comparator;
+    }
+
+    public E first()
+    {
+        ensureSorted();
+        if ( size == 0 )
+            throw new NoSuchElementException();
+
+        return elementAt( 0 );
+    }
+
+    public E last()
+    {
+        ensureSorted();
+        if ( size == 0 )
+            throw new NoSuchElementException();
+
+        return elementAt( size - 1 );
+    }
+
+    public SortedSet<E> subSet( E fromElement, E toElement )
+    {
+        if ( compare( fromElement, toElement ) > 0 )
+            throw new IllegalArgumentException( "fromElement > toElement" );
+
+        ensureSorted();
+        return copyOfRange( lowerBound( fromElement ), lowerBound( toElement ) );
+    }
+
+    public SortedSet<E> headSet( E toElement )
+    {
+        ensureSorted();
+        return copyOfRange( 0, lowerBound( toElement ) );
+    }
+
+    public SortedSet<E> tailSet( E fromElement )
+    {
+        ensureSorted();
+        return copyOfRange( lowerBound( fromElement ), size );
+    }
+
+    /**
+     * Sorts the elements appended since the last read and removes duplicates, i.e. elements that compare
+     * equal to a previous one. As with TreeSet, the element added first is the one that is kept.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void ensureSorted()
+    {
+        if ( sorted )
+            return;
+
+        Arrays.sort( (E[]) elements, 0, size, comparator );
+
+        int unique = 1;
+        for ( int i = 1; i < size; i++ )
+        {
+            if ( compare( elementAt( unique - 1 ), elementAt( i ) ) != 0 )
+            {
+                elements[unique++] = elements[i];
+            }
+        }
+        Arrays.fill( elements, unique, size, null );
+        size = unique;
+        sorted = true;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private int compare( E e1, E e2 )
+    {
+        return ( comparator == null ) ? ( (Comparable<? super E>) e1 ).compareTo( e2 ) : comparator.compare( e1, e2 );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private E elementAt( int index )
+    {
+        return (E) elements[index];
+    }
+
+    /**
+     * Binary search for an element, assuming that the set is sorted.
+     *
+     * @return the position of the element, or a negative value if it is not in the set.
+     */
+    private int indexOf( E e )
+    {
+        int index = lowerBound( e );
+        return ( index < size && compare( elementAt( index ), e ) == 0 ) ? index : -1;
+    }
+
+    /**
+     * Returns the position of the first element that is not lower than e, assuming that the set is sorted.
+     */
+    private int lowerBound( E e )
+    {
+        int low = 0;
+        int high = size;
+        while ( low < high )
+        {
+            int mid = ( low + high ) >>> 1;
+            if ( compare( elementAt( mid ), e ) < 0 )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private void removeAt( int index )
+    {
+        System.arraycopy( elements, index + 1, elements, index, size - index - 1 );
+        elements[--size] = null;
+        modCount++;
+    }
+
+    private SortedSet<E> copyOfRange( int from, int to )
+    {
+        AppendSortedSet<E> res = new AppendSortedSet<E>( comparator, to - from );
+        System.arraycopy( elements, from, res.elements, 0, to - from );
+        res.size = to - from;
+        return res;
+    }
+
+    private class Itr
+                    implements Iterator<E>
+    {
+        /* position of the next element to be returned */
+        private int cursor = 0;
+
+        /* position of the last element returned, or -1 if there is none */
+        private int lastReturned = -1;
+
+        private int expectedModCount = modCount;
+
+        public boolean hasNext()
+        {
+            return cursor < size;
+        }
+
+        public E next()
+        {
+            if ( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+            if ( cursor >= size )
+                throw new NoSuchElementException();
+
+            lastReturned = cursor++;
+            return elementAt( lastReturned );
+        }
+
+        public void remove()
+        {
+            if ( lastReturned < 0 )
+                throw new IllegalStateException();
+            if ( modCount != expectedModCount )
+                throw new ConcurrentModificationException();
+
+            removeAt( lastReturned );
+            cursor = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package pt.haslab.taz.utils;
+
+/**
+ * Hash map from long keys to non-negative int values, with open addressing over primitive arrays, so that looking
+ * up a key allocates nothing (unlike a HashMap<Long, Integer>, which boxes the key of every lookup).
+ */
+public class LongIntHashMap
+{
+    /* value returned when looking up a key that is not in the map */
+    public static final int MISSING = -1;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+
+    /* value + 1 of each slot, or 0 if the slot is empty */
+    private int[] values;
+
+    private int size;
+
+    public LongIntHashMap()
+    {
+        keys = new long[DEFAULT_CAPACITY];
+        values = new int[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key the key.
+     * @return the value of the key, or MISSING if it is not in the map.
+     */
+    public int get( long key )
+    {
+        int mask = keys.length - 1;
+        for ( int slot = hash( key ) & mask; values[slot] != 0; slot = ( slot + 1 ) & mask )
+        {
+            if ( keys[slot] == key )
+                return values[slot] - 1;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key the key.
+     * @param value the value, which must not be negative.
+     * @return void
+     */
+    public void put( long key, int value )
+    {
+        if ( value < 0 )
+            throw new IllegalArgumentException( "Negative value: " + value );
+
+        if ( 2 * ( size + 1 ) > keys.length )
+            resize( keys.length * 2 );
+        if ( insert( keys, values, key, value + 1 ) )
+            size++;
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     *
+     * @return the number of keys.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private void resize( int capacity )
+    {
+        long[] newKeys = new long[capacity];
+        int[] newValues = new int[capacity];
+        for ( int slot = 0; slot < keys.length; slot++ )
+        {
+            if ( values[slot] != 0 )
+                insert( newKeys, newValues, keys[slot], values[slot] );
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * Stores a (key, value + 1) entry in the given arrays.
+     *
+     * @return true if the key was not there yet, false if its value was replaced.
+     */
+    private static boolean insert( long[] keys, int[] values, long key, int storedValue )
+    {
+        int mask = keys.length - 1;
+        int slot = hash( key ) & mask;
+        while ( values[slot] != 0 )
+        {
+            if ( keys[slot] == key )
+            {
+                values[slot] = storedValue;
+                return false;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = storedValue;
+        return true;
+    }
+
+    private static int hash( long key )
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+}
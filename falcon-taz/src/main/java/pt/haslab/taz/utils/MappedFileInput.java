@@ -0,0 +1,127 @@
+package pt.haslab.taz.utils;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file sequentially by memory-mapping it. A MappedByteBuffer is indexed by int and thus maps at most 2 GB,
+ * so larger files are mapped one region at a time, and values that straddle two regions are assembled byte by byte.
+ * Values are read in big-endian order, as written by a DataOutputStream.
+ */
+public class MappedFileInput
+{
+    /* size of the regions mapped by default */
+    public static final int DEFAULT_REGION_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final int regionSize;
+
+    /* region being read */
+    private MappedByteBuffer region;
+
+    /* offset in the file of the first byte of the region */
+    private long regionStart;
+
+    public MappedFileInput( FileChannel channel )
+                    throws IOException
+    {
+        this( channel, DEFAULT_REGION_SIZE );
+    }
+
+    public MappedFileInput( FileChannel channel, int regionSize )
+                    throws IOException
+    {
+        if ( regionSize <= 0 )
+            throw new IllegalArgumentException( "Invalid region size: " + regionSize );
+
+        this.channel = channel;
+        this.size = channel.size();
+        this.regionSize = regionSize;
+        map( 0 );
+    }
+
+    /**
+     * Returns the number of bytes left to read.
+     *
+     * @return the number of bytes between the current position and the end of the file.
+     */
+    public long remaining()
+    {
+        return size - regionStart - region.position();
+    }
+
+    public byte get()
+                    throws IOException
+    {
+        if ( !region.hasRemaining() )
+            nextRegion();
+        return region.get();
+    }
+
+    public int getInt()
+                    throws IOException
+    {
+        if ( region.remaining() >= 4 )
+            return region.getInt();
+
+        int value = 0;
+        for ( int i = 0; i < 4; i++ )
+            value = ( value << 8 ) | ( get() & 0xFF );
+        return value;
+    }
+
+    public long getLong()
+                    throws IOException
+    {
+        if ( region.remaining() >= 8 )
+            return region.getLong();
+
+        long high = getInt();
+        return ( high << 32 ) | ( getInt() & 0xFFFFFFFFL );
+    }
+
+    /**
+     * Fills an array with the next bytes of the file.
+     *
+     * @param dst the array to be filled.
+     * @throws IOException
+     * @throws BufferUnderflowException if fewer than dst.length bytes are left.
+     */
+    public void get( byte[] dst )
+                    throws IOException
+    {
+        if ( dst.length > remaining() )
+            throw new BufferUnderflowException();
+
+        int offset = 0;
+        while ( offset < dst.length )
+        {
+            if ( !region.hasRemaining() )
+                nextRegion();
+            int length = Math.min( region.remaining(), dst.length - offset );
+            region.get( dst, offset, length );
+            offset += length;
+        }
+    }
+
+    private void nextRegion()
+                    throws IOException
+    {
+        long next = regionStart + region.limit();
+        if ( next >= size )
+            throw new BufferUnderflowException();
+        map( next );
+    }
+
+    private void map( long start )
+                    throws IOException
+    {
+        regionStart = start;
+        region = channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( regionSize, size - start ) );
+    }
+}
@@ -0,0 +1,121 @@
+package pt.haslab.taz.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the identifiers that repeat across the events of a trace (threads, sockets, IPs, variables,
+ * lines of code, etc.). Each distinct identifier is kept as a single canonical String and given a compact
+ * integer id, numbered from 0 in order of insertion, with reverse lookup from the id to the identifier.
+ * Events built with the canonical Strings share them instead of holding their own copies, which also allows
+ * comparing identifiers by reference.
+ *
+ * The table can be used concurrently, e.g. by the workers that decode trace files in parallel.
+ */
+public class SymbolTable
+{
+    /* value returned when looking up an identifier that is not in the table */
+    public static final int UNDEFINED_ID = -1;
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    /* Map: identifier -> id */
+    private final ConcurrentHashMap<String, Integer> ids;
+
+    /* canonical identifiers indexed by id; only replaced or extended while holding the table's lock */
+    private volatile String[] symbols;
+
+    private int size;
+
+    public SymbolTable()
+    {
+        ids = new ConcurrentHashMap<String, Integer>();
+        symbols = new String[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns the canonical instance of an identifier, adding it to the table if it is not there yet.
+     *
+     * @param symbol an identifier (may be null).
+     * @return the canonical String equal to symbol, or null if symbol is null.
+     */
+    public String intern( String symbol )
+    {
+        if ( symbol == null )
+            return null;
+
+        int id = getOrAddId( symbol );
+        return symbols[id];
+    }
+
+    /**
+     * Returns the integer id of an identifier, adding it to the table if it is not there yet.
+     *
+     * @param symbol an identifier.
+     * @return the id of the identifier.
+     */
+    public int getOrAddId( String symbol )
+    {
+        Integer id = ids.get( symbol );
+        if ( id != null )
+            return id;
+
+        synchronized ( this )
+        {
+            id = ids.get( symbol );
+            if ( id != null )
+                return id;
+
+            String[] table = symbols;
+            if ( size == table.length )
+            {
+                table = Arrays.copyOf( table, size * 2 );
+            }
+            table[size] = symbol;
+            symbols = table;
+            ids.put( symbol, size );
+
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the integer id of an identifier, without adding it to the table.
+     *
+     * @param symbol an identifier.
+     * @return the id of the identifier, or UNDEFINED_ID if it is not in the table.
+     */
+    public int getId( String symbol )
+    {
+        Integer id = ids.get( symbol );
+        return ( id == null ) ? UNDEFINED_ID : id;
+    }
+
+    /**
+     * Returns the identifier with a given id.
+     *
+     * @param id the id of the identifier.
+     * @return the canonical String of the identifier.
+     * @throws IndexOutOfBoundsException if there is no identifier with that id.
+     */
+    public String getSymbol( int id )
+    {
+        String[] table = symbols;
+        String symbol = ( id >= 0 && id < table.length ) ? table[id] : null;
+        if ( symbol == null )
+            throw new IndexOutOfBoundsException( "Undefined symbol id: " + id );
+
+        return symbol;
+    }
+
+    /**
+     * Returns the number of distinct identifiers in the table.
+     *
+     * @return the number of identifiers.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,117 @@
+package pt.haslab.taz.test;
+
+import org.junit.Test;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.TimestampComparator;
+import pt.haslab.taz.utils.AppendSortedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class AppendSortedSetTest
+{
+    @Test
+    public void testSortOnRead()
+    {
+        AppendSortedSet<Integer> set = new AppendSortedSet<Integer>( null );
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for ( Integer i : Arrays.asList( 1, 2, 4, 3, 5, 5, 0, 9, 7, 8 ) )
+        {
+            set.add( i );
+            expected.add( i );
+        }
+
+        assertEquals( "Unexpected contents", expected.toString(), set.toString() );
+        assertEquals( 9, set.size() );
+        assertEquals( Integer.valueOf( 0 ), set.first() );
+        assertEquals( Integer.valueOf( 9 ), set.last() );
+        assertTrue( set.contains( 7 ) );
+        assertFalse( set.contains( 6 ) );
+        assertEquals( "[3, 4, 5]", set.subSet( 3, 6 ).toString() );
+        assertEquals( "[7, 8, 9]", set.tailSet( 7 ).toString() );
+
+        // appending after a read triggers a new sort at the next read
+        set.add( 6 );
+        assertEquals( "[0, 1, 2, 3, 4, 5, 6]", set.headSet( 7 ).toString() );
+    }
+
+    @Test
+    public void testIteratorRemove()
+    {
+        SortedSet<Integer> set = new AppendSortedSet<Integer>( null );
+        set.addAll( Arrays.asList( 3, 1, 2 ) );
+
+        Iterator<Integer> it = set.iterator();
+        it.next();
+        it.remove();
+        assertEquals( "[2, 3]", set.toString() );
+
+        assertTrue( set.remove( 3 ) );
+        assertFalse( set.remove( 3 ) );
+        assertEquals( "[2]", set.toString() );
+    }
+
+    @Test
+    public void testEventsWithCollidingTimestampsAndIds()
+    {
+        // few timestamps and ids (e.g. from files that number their events from 0), so that most events tie
+        Random random = new Random( 7 );
+        TimestampComparator comparator = new TimestampComparator();
+        List<Event> events = new ArrayList<Event>();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            String thread = "T" + random.nextInt( 4 ) + "@N" + random.nextInt( 3 );
+            EventType type = random.nextBoolean() ? EventType.READ : EventType.WRITE;
+            events.add( new Event( random.nextInt( 5 ), type, thread, random.nextInt( 3 ), "loc" + random.nextInt( 2 ) ) );
+        }
+
+        for ( Event e1 : events.subList( 0, 300 ) )
+        {
+            for ( Event e2 : events.subList( 0, 300 ) )
+            {
+                assertEquals( Integer.signum( comparator.compare( e1, e2 ) ),
+                              -Integer.signum( comparator.compare( e2, e1 ) ) );
+            }
+        }
+
+        AppendSortedSet<Event> set = new AppendSortedSet<Event>( comparator );
+        TreeSet<Event> expected = new TreeSet<Event>( comparator );
+        for ( Event e : events )
+        {
+            set.add( e );
+            expected.add( e );
+        }
+        assertEquals( expected.size(), set.size() );
+        Iterator<Event> it = expected.iterator();
+        for ( Event e : set )
+        {
+            assertEquals( 0, comparator.compare( it.next(), e ) );
+        }
+    }
+
+    @Test
+    public void testOnlyTheSameEventIsDuplicate()
+    {
+        // distinct events with the same fields are kept, as the baseline compared threads by reference
+        Event e1 = new Event( 1, EventType.LOG, new String( "T1@N1" ), 1, "loc" );
+        Event e2 = new Event( 1, EventType.LOG, new String( "T1@N1" ), 2, "loc" );
+        AppendSortedSet<Event> set = new AppendSortedSet<Event>( new TimestampComparator() );
+        set.add( e2 );
+        set.add( e1 );
+        set.add( e2 );
+
+        assertEquals( 2, set.size() );
+        assertTrue( set.first() == e1 );
+        assertTrue( set.last() == e2 );
+    }
+}
@@ -0,0 +1,130 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.ThreadCreationEvent;
+import pt.haslab.taz.io.BinaryEventReader;
+
+/**
+ * Tests the decoding of traces in falcon-tracer's binary format.
+ */
+public class BinaryEventReaderTest
+{
+    private static final String HOST = "tests";
+
+    /**
+     * Writes a record header the same way as falcon-tracer's Event.to_bytes().
+     */
+    private static void writeHeader( DataOutputStream out, EventType type, long timestamp, int tid, int pid )
+                    throws IOException
+    {
+        out.writeByte( type.getCode() );
+        out.writeLong( timestamp );
+        out.writeInt( HOST.length() );
+        out.writeBytes( HOST );
+        out.writeInt( tid );
+        out.writeInt( pid );
+        byte[] comm = new byte[16];
+        System.arraycopy( "java".getBytes(), 0, comm, 0, 4 );
+        out.write( comm );
+    }
+
+    private static void writeSocket( DataOutputStream out, int sport, int dport )
+                    throws IOException
+    {
+        out.writeShort( 2 ); // AF_INET
+        out.writeLong( 0x0 );
+        out.writeLong( 0x0100007fL ); // 127.0.0.1
+        out.writeLong( 0x0 );
+        out.writeLong( 0x0201A8C0L ); // 192.168.1.2
+        out.writeShort( sport );
+        out.writeShort( dport );
+    }
+
+    private static byte[] sampleTrace()
+                    throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+
+        writeHeader( out, EventType.CREATE, 100, 1000, 999 );
+        out.writeInt( 1001 );
+
+        writeHeader( out, EventType.START, 101, 1001, 999 );
+
+        writeHeader( out, EventType.SND, 102, 1001, 999 );
+        writeSocket( out, 4201, 1024 );
+        out.writeInt( 64 );
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testDecodeRecords()
+                    throws IOException
+    {
+        BinaryEventReader reader = new BinaryEventReader( new ByteArrayInputStream( sampleTrace() ) );
+
+        Event create = reader.next( 0 );
+        assertTrue( "First event should be a CREATE", create instanceof ThreadCreationEvent );
+        assertEquals( "1000@tests", create.getThread() );
+        assertEquals( "1001@tests", ( (ThreadCreationEvent) create ).getChildThread() );
+        assertEquals( "100", create.getTimestamp() );
+        assertEquals( "java", create.getData().optString( "comm" ) );
+
+        Event start = reader.next( 1 );
+        assertEquals( EventType.START, start.getType() );
+        assertEquals( "1001@tests", start.getThread() );
+        assertEquals( 1, start.getEventId() );
+
+        Event snd = reader.next( 2 );
+        assertTrue( "Third event should be a SocketEvent", snd instanceof SocketEvent );
+        SocketEvent socketEvent = (SocketEvent) snd;
+        assertEquals( EventType.SND, socketEvent.getType() );
+        assertEquals( "127.0.0.1", socketEvent.getSrc() );
+        assertEquals( 4201, socketEvent.getSrcPort() );
+        assertEquals( "192.168.1.2", socketEvent.getDst() );
+        assertEquals( 1024, socketEvent.getDstPort() );
+        assertEquals( "192.168.1.2:1024-127.0.0.1:4201", socketEvent.getSocket() );
+        assertEquals( SocketEvent.SocketType.TCP, socketEvent.getSocketType() );
+        assertEquals( 64, socketEvent.getSize() );
+
+        assertNull( "Trace should have no more events", reader.next( 3 ) );
+        reader.close();
+    }
+
+    @Test
+    public void testFormatDetection()
+                    throws IOException
+    {
+        File binary = File.createTempFile( "falcon-trace", ".log" );
+        File json = File.createTempFile( "falcon-trace", ".log" );
+        binary.deleteOnExit();
+        json.deleteOnExit();
+
+        FileOutputStream out = new FileOutputStream( binary );
+        out.write( sampleTrace() );
+        out.close();
+
+        out = new FileOutputStream( json );
+        out.write( "{\"timestamp\":1,\"thread\":\"T1@N1\",\"type\":\"START\"}\n".getBytes() );
+        out.close();
+
+        assertTrue( "Binary trace not detected", BinaryEventReader.isBinaryTrace( binary.getAbsolutePath() ) );
+        assertFalse( "JSON trace detected as binary", BinaryEventReader.isBinaryTrace( json.getAbsolutePath() ) );
+    }
+}
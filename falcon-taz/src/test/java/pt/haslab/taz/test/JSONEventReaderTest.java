@@ -0,0 +1,114 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.StringReader;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.taz.io.JSONEventReader;
+
+/**
+ * Tests that JSONEventReader reads well-formed traces in both formats and rejects malformed JSON arrays.
+ */
+public class JSONEventReaderTest
+{
+    @Test
+    public void testArray()
+                    throws Exception
+    {
+        JSONEventReader reader = new JSONEventReader( new StringReader( " [ {\"id\":1} ,\n{\"id\":2}]\n" ) );
+        assertFalse( reader.isLineDelimited() );
+        assertEquals( 1, reader.next().getInt( "id" ) );
+        assertEquals( 2, reader.next().getInt( "id" ) );
+        assertNull( reader.next() );
+        assertNull( reader.next() );
+        reader.close();
+    }
+
+    @Test
+    public void testEmptyInput()
+                    throws Exception
+    {
+        assertNull( new JSONEventReader( new StringReader( "[ ]" ) ).next() );
+        assertNull( new JSONEventReader( new StringReader( "  \n" ) ).next() );
+    }
+
+    @Test
+    public void testLineDelimited()
+                    throws Exception
+    {
+        // invalid lines are logged and skipped
+        JSONEventReader reader = new JSONEventReader( new StringReader( "{\"id\":1}\n\nnot json\n{\"id\":2}\n" ) );
+        assertTrue( reader.isLineDelimited() );
+        JSONObject first = reader.next();
+        assertEquals( 1, first.getInt( "id" ) );
+        assertEquals( 2, reader.next().getInt( "id" ) );
+        assertNull( reader.next() );
+        reader.close();
+    }
+
+    @Test
+    public void testMissingComma()
+                    throws Exception
+    {
+        assertMalformed( "[{\"id\":1} {\"id\":2}]", 1 );
+    }
+
+    @Test
+    public void testTruncatedArray()
+                    throws Exception
+    {
+        assertMalformed( "[{\"id\":1},{\"id\":2}", 2 );
+        assertMalformed( "[{\"id\":1},", 1 );
+        assertMalformed( "[", 0 );
+    }
+
+    @Test
+    public void testTruncatedEvent()
+                    throws Exception
+    {
+        assertMalformed( "[{\"id\":1},{\"id\":", 1 );
+    }
+
+    @Test
+    public void testTrailingComma()
+                    throws Exception
+    {
+        assertMalformed( "[{\"id\":1},]", 1 );
+    }
+
+    @Test
+    public void testNonObjectElement()
+                    throws Exception
+    {
+        assertMalformed( "[{\"id\":1},2]", 1 );
+    }
+
+    /**
+     * Checks that the first events of a malformed trace are read and that the next read fails.
+     */
+    private static void assertMalformed( String trace, int validEvents )
+                    throws Exception
+    {
+        JSONEventReader reader = new JSONEventReader( new StringReader( trace ) );
+        for ( int i = 0; i < validEvents; i++ )
+        {
+            assertEquals( i + 1, reader.next().getInt( "id" ) );
+        }
+        try
+        {
+            reader.next();
+            fail( "Malformed trace was accepted: " + trace );
+        }
+        catch ( JSONException e )
+        {
+            // expected
+        }
+        reader.close();
+    }
+}
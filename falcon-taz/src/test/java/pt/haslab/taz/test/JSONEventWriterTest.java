@@ -0,0 +1,165 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.io.JSONEventReader;
+import pt.haslab.taz.io.JSONEventWriter;
+
+/**
+ * Tests that the events streamed by JSONEventWriter are read back with the same fields as Event.toJSONObject.
+ */
+public class JSONEventWriterTest
+{
+    private static TraceProcessor loadTrace()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( new File( JSONEventWriterTest.class.getClassLoader()
+                                                                      .getResource( "testEventTrace.txt" )
+                                                                      .getFile() ).getAbsolutePath() );
+        return processor;
+    }
+
+    @Test
+    public void testArrayRoundTrip()
+                    throws Exception
+    {
+        assertRoundTrip( false );
+    }
+
+    @Test
+    public void testLineDelimitedRoundTrip()
+                    throws Exception
+    {
+        assertRoundTrip( true );
+    }
+
+    @Test
+    public void testEmptyTrace()
+                    throws Exception
+    {
+        StringWriter out = new StringWriter();
+        new JSONEventWriter( out, false ).close();
+        assertEquals( "[]", out.toString() );
+
+        JSONEventReader reader = new JSONEventReader( new StringReader( out.toString() ) );
+        assertNull( reader.next() );
+        reader.close();
+    }
+
+    @Test
+    public void testVectorClock()
+                    throws Exception
+    {
+        Event event = loadTrace().sortedByTimestamp.first();
+        Map<String, Integer> clock = new HashMap<String, Integer>();
+        clock.put( event.getThread(), 1 );
+        clock.put( "T2@node\"2", 3 );
+
+        StringWriter out = new StringWriter();
+        JSONEventWriter writer = new JSONEventWriter( out, true );
+        writer.write( event, clock );
+        writer.close();
+
+        JSONObject json = new JSONObject( out.toString().trim() );
+        JSONObject vc = json.getJSONObject( "vc" );
+        assertEquals( 2, vc.length() );
+        assertEquals( 1, vc.getInt( event.getThread() ) );
+        assertEquals( 3, vc.getInt( "T2@node\"2" ) );
+        json.remove( "vc" );
+        assertSameJSON( event.toJSONObject(), json );
+    }
+
+    private void assertRoundTrip( boolean lineDelimited )
+                    throws Exception
+    {
+        TraceProcessor processor = loadTrace();
+        StringWriter out = new StringWriter();
+        JSONEventWriter writer = new JSONEventWriter( out, lineDelimited );
+        List<Event> events = new ArrayList<Event>();
+        for ( SortedSet<Event> timeline : processor.eventsPerThread.values() )
+        {
+            events.addAll( timeline );
+        }
+        for ( Event e : events )
+        {
+            writer.write( e );
+        }
+        writer.close();
+        assertEquals( events.size(), writer.getNumberOfEvents() );
+
+        JSONEventReader reader = new JSONEventReader( new StringReader( out.toString() ) );
+        assertEquals( lineDelimited, reader.isLineDelimited() );
+        for ( Event e : events )
+        {
+            assertSameJSON( e.toJSONObject(), reader.next() );
+        }
+        assertNull( reader.next() );
+        reader.close();
+    }
+
+    private static void assertSameJSON( Object expected, Object actual )
+                    throws Exception
+    {
+        if ( expected instanceof Collection )
+            expected = new JSONArray( (Collection) expected );
+
+        if ( expected instanceof JSONObject )
+        {
+            assertTrue( actual instanceof JSONObject );
+            JSONObject expectedObject = (JSONObject) expected;
+            JSONObject actualObject = (JSONObject) actual;
+            assertEquals( keys( expectedObject ), keys( actualObject ) );
+            for ( String key : keys( expectedObject ) )
+            {
+                assertSameJSON( expectedObject.get( key ), actualObject.get( key ) );
+            }
+        }
+        else if ( expected instanceof JSONArray )
+        {
+            assertTrue( actual instanceof JSONArray );
+            JSONArray expectedArray = (JSONArray) expected;
+            JSONArray actualArray = (JSONArray) actual;
+            assertEquals( expectedArray.length(), actualArray.length() );
+            for ( int i = 0; i < expectedArray.length(); i++ )
+            {
+                assertSameJSON( expectedArray.get( i ), actualArray.get( i ) );
+            }
+        }
+        else
+        {
+            // numbers are read back as the narrowest type that fits them
+            assertEquals( String.valueOf( expected ), String.valueOf( actual ) );
+        }
+    }
+
+    private static Set<String> keys( JSONObject json )
+    {
+        Set<String> keys = new HashSet<String>();
+        Iterator it = json.keys();
+        while ( it.hasNext() )
+        {
+            keys.add( (String) it.next() );
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,33 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import pt.haslab.taz.utils.LongIntHashMap;
+
+public class LongIntHashMapTest
+{
+    @Test
+    public void testSameAsHashMap()
+    {
+        // keys packed like the endpoints of TraceProcessor, plus random ones, growing the map many times
+        Random random = new Random( 7 );
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for ( int i = 0; i < 20000; i++ )
+        {
+            long key = ( i % 2 == 0 ) ? ( (long) random.nextInt( 100 ) << 32 ) | random.nextInt( 65536 ) : random.nextLong();
+            int value = random.nextInt( Integer.MAX_VALUE );
+            map.put( key, value );
+            expected.put( key, value );
+        }
+        assertEquals( expected.size(), map.size() );
+        for ( Map.Entry<Long, Integer> entry : expected.entrySet() )
+            assertEquals( entry.getValue().intValue(), map.get( entry.getKey() ) );
+        assertEquals( LongIntHashMap.MISSING, map.get( 1L << 40 ) );
+        assertEquals( LongIntHashMap.MISSING, new LongIntHashMap().get( 0 ) );
+    }
+}
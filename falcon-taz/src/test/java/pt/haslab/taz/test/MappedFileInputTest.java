@@ -0,0 +1,75 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.BufferUnderflowException;
+import java.util.Arrays;
+import org.junit.Test;
+import pt.haslab.taz.utils.MappedFileInput;
+
+/**
+ * Tests that MappedFileInput reads values that straddle the regions in which a file is mapped.
+ */
+public class MappedFileInputTest
+{
+    @Test
+    public void testValuesAcrossRegions()
+                    throws Exception
+    {
+        File file = File.createTempFile( "taz", ".bin" );
+        file.deleteOnExit();
+        byte[] bytes = new byte[23];
+        for ( int i = 0; i < bytes.length; i++ )
+            bytes[i] = (byte) ( i * 37 );
+
+        DataOutputStream out = new DataOutputStream( new FileOutputStream( file ) );
+        for ( int i = 0; i < 10; i++ )
+        {
+            out.writeByte( i );
+            out.writeInt( -123456789 * i );
+            out.writeLong( 0x0123456789ABCDEFL * i );
+            out.write( bytes );
+        }
+        out.close();
+
+        // every region size up to the size of a record puts values across region boundaries
+        for ( int regionSize = 1; regionSize <= 36; regionSize++ )
+        {
+            FileInputStream stream = new FileInputStream( file );
+            try
+            {
+                MappedFileInput in = new MappedFileInput( stream.getChannel(), regionSize );
+                assertEquals( file.length(), in.remaining() );
+                for ( int i = 0; i < 10; i++ )
+                {
+                    assertEquals( i, in.get() );
+                    assertEquals( -123456789 * i, in.getInt() );
+                    assertEquals( 0x0123456789ABCDEFL * i, in.getLong() );
+                    byte[] read = new byte[bytes.length];
+                    in.get( read );
+                    assertTrue( Arrays.equals( bytes, read ) );
+                }
+                assertEquals( 0, in.remaining() );
+                try
+                {
+                    in.getInt();
+                    fail( "Read past the end of the file" );
+                }
+                catch ( BufferUnderflowException e )
+                {
+                    // expected
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.message;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import org.junit.Test;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.analysis.MessageRace;
+import pt.haslab.taz.analysis.MessageRaceDetector;
+import pt.haslab.taz.causality.ReachabilityIndex;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.EventType;
+import pt.haslab.taz.events.SocketEvent;
+
+/**
+ * Tests the message races found by MessageRaceDetector.
+ */
+public class MessageRaceDetectorTest
+{
+    @Test
+    public void testTraceWithoutRaces()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( new File( getClass().getClassLoader().getResource( "testEventTrace.txt" )
+                                                      .getFile() ).getAbsolutePath() );
+
+        // each endpoint only receives in one thread
+        assertTrue( MessageRaceDetector.detect( processor.getProcessedTrace() ).isEmpty() );
+    }
+
+    @Test
+    public void testEveryConcurrentRcvOfAThreadIsReported()
+                    throws Exception
+    {
+        // T1@N2 receives two messages before T2@N2 receives a third one, unordered with both
+        TraceProcessor processor = new TraceProcessor();
+        long ts = 1;
+        for ( int i = 0; i < 3; i++ )
+            processor.accept( message( "SND", "T1@N1", ts++, "UDP", 1000 + i, 2000, "msg" + i, 8 ) );
+        processor.accept( message( "RCV", "T1@N2", ts++, "UDP", 1000, 2000, "msg0", 8 ) );
+        processor.accept( message( "RCV", "T1@N2", ts++, "UDP", 1001, 2000, "msg1", 8 ) );
+        processor.accept( message( "RCV", "T2@N2", ts++, "UDP", 1002, 2000, "msg2", 8 ) );
+        processor.completeTrace();
+
+        List<MessageRace> races = MessageRaceDetector.detect( processor.getProcessedTrace() ).get( "10.0.0.2:2000" );
+        assertEquals( 2, races.size() );
+        assertEquals( "msg0", races.get( 0 ).getFirst().getMessageId() );
+        assertEquals( "msg2", races.get( 0 ).getSecond().getMessageId() );
+        assertEquals( "msg1", races.get( 1 ).getFirst().getMessageId() );
+        assertEquals( "msg2", races.get( 1 ).getSecond().getMessageId() );
+    }
+
+    @Test
+    public void testRacesMatchPairwiseCheck()
+                    throws Exception
+    {
+        // clients sending to two endpoints of a server with a few handler threads, some receiving inside a lock
+        Random random = new Random( 42 );
+        TraceProcessor processor = new TraceProcessor();
+        long ts = 1;
+        for ( int i = 0; i < 500; i++ )
+        {
+            String client = "C" + random.nextInt( 4 ) + "@N1";
+            String handler = "S" + random.nextInt( 3 ) + "@N2";
+            int port = 2000 + random.nextInt( 2 );
+            boolean locked = random.nextInt( 4 ) != 0;
+            processor.accept( message( "SND", client, ts++, "UDP", 1000 + i, port, "msg" + i, 8 ) );
+            if ( locked )
+                processor.accept( event( "LOCK", handler, ts++ ).put( "variable", "queue" ) );
+            processor.accept( message( "RCV", handler, ts++, "UDP", 1000 + i, port, "msg" + i, 8 ) );
+            if ( locked )
+                processor.accept( event( "UNLOCK", handler, ts++ ).put( "variable", "queue" ) );
+        }
+        processor.completeTrace();
+        ProcessedTrace trace = processor.getProcessedTrace();
+        ReachabilityIndex index = trace.getReachabilityIndex();
+
+        List<SocketEvent> rcvs = new ArrayList<SocketEvent>();
+        for ( SortedSet<Event> timeline : trace.getEventsPerThread().values() )
+        {
+            for ( Event e : timeline )
+            {
+                if ( e.getType() == EventType.RCV )
+                    rcvs.add( (SocketEvent) e );
+            }
+        }
+        Set<List<SocketEvent>> expected = new HashSet<List<SocketEvent>>();
+        for ( SocketEvent e1 : rcvs )
+        {
+            for ( SocketEvent e2 : rcvs )
+            {
+                if ( e1.conflictsWith( e2 ) && index.concurrent( e1, e2 )
+                                && e1.getTimestampValue() < e2.getTimestampValue() )
+                    expected.add( Arrays.asList( e1, e2 ) );
+            }
+        }
+
+        // exactly the concurrent pairs are reported, each once and in timestamp order
+        Map<String, List<MessageRace>> races = MessageRaceDetector.detect( trace );
+        List<List<SocketEvent>> found = new ArrayList<List<SocketEvent>>();
+        for ( Map.Entry<String, List<MessageRace>> entry : races.entrySet() )
+        {
+            for ( MessageRace race : entry.getValue() )
+            {
+                assertEquals( entry.getKey(), race.getEndpoint() );
+                found.add( Arrays.asList( race.getFirst(), race.getSecond() ) );
+            }
+        }
+        assertTrue( expected.size() > 0 );
+        assertEquals( expected.size(), found.size() );
+        assertEquals( expected, new HashSet<List<SocketEvent>>( found ) );
+        assertEquals( 2, races.size() );
+    }
+}
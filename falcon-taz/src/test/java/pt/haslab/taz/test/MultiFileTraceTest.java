@@ -0,0 +1,128 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import org.json.JSONException;
+import org.junit.Test;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests loading a trace split in multiple files (e.g. one per node).
+ */
+public class MultiFileTraceTest
+{
+    @Test
+    public void testCollidingIdsAreRenumbered()
+                    throws Exception
+    {
+        // both nodes number their events from 0
+        List<String> files = new ArrayList<String>();
+        files.add( writeTrace( "T1@N1", 0, 1 ) );
+        files.add( writeTrace( "T1@N2", 0, 2 ) );
+        files.add( writeTrace( "T1@N3", 10, 3 ) );
+
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( files );
+
+        Set<Long> ids = new HashSet<Long>();
+        int numEvents = 0;
+        for ( SortedSet<Event> timeline : processor.eventsPerThread.values() )
+        {
+            for ( Event e : timeline )
+            {
+                ids.add( e.getEventId() );
+                numEvents++;
+            }
+        }
+        assertEquals( 9, numEvents );
+        assertEquals( numEvents, ids.size() );
+
+        // the first event using an id keeps it, and the others get the lowest ids not used yet
+        Event first = processor.eventsPerThread.get( "T1@N1" ).first();
+        assertEquals( 0, first.getEventId() );
+        assertEquals( Arrays.asList( 0L, 2L, 4L ), ids( processor.eventsPerThread.get( "T1@N1" ) ) );
+        assertEquals( Arrays.asList( 1L, 3L, 5L ), ids( processor.eventsPerThread.get( "T1@N2" ) ) );
+        assertEquals( Arrays.asList( 10L, 11L, 12L ), ids( processor.eventsPerThread.get( "T1@N3" ) ) );
+    }
+
+    @Test
+    public void testFilesLargerThanTheirQueues()
+                    throws Exception
+    {
+        // the files are streamed in batches, with a single decoder running at a time
+        List<String> files = new ArrayList<String>();
+        files.add( writeTrace( "T1@N1", 0, 1, 5000 ) );
+        files.add( writeTrace( "T1@N2", 5000, 2, 5000 ) );
+
+        TraceProcessor processor = TraceProcessor.builder().maxDecodeWorkers( 1 ).build();
+        processor.loadEventTrace( files );
+
+        // the ids of the files do not collide, so every event keeps its own
+        assertEquals( 10000, processor.sortedByTimestamp.size() );
+        Iterator<Event> events = processor.sortedByTimestamp.iterator();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            assertEquals( i, events.next().getEventId() );
+            assertEquals( 5000 + i, events.next().getEventId() );
+        }
+    }
+
+    @Test( expected = JSONException.class )
+    public void testDecodingErrorIsThrown()
+                    throws Exception
+    {
+        File broken = File.createTempFile( "taz", ".txt" );
+        broken.deleteOnExit();
+        FileWriter writer = new FileWriter( broken );
+        writer.write( "[{\"type\":\"LOG\",\"thread\":\"T1@N2\",\"timestamp\":1,\"message\":\"m\"}, 42]" );
+        writer.close();
+
+        List<String> files = new ArrayList<String>();
+        files.add( writeTrace( "T1@N1", 0, 1, 5000 ) );
+        files.add( broken.getAbsolutePath() );
+        new TraceProcessor().loadEventTrace( files );
+    }
+
+    private static List<Long> ids( SortedSet<Event> timeline )
+    {
+        List<Long> ids = new ArrayList<Long>();
+        for ( Event e : timeline )
+            ids.add( e.getEventId() );
+        return ids;
+    }
+
+    private static String writeTrace( String thread, int firstId, int firstTimestamp )
+                    throws Exception
+    {
+        return writeTrace( thread, firstId, firstTimestamp, 3 );
+    }
+
+    /**
+     * Writes a trace with LOG events of a thread, with consecutive ids and timestamps 3 apart.
+     */
+    private static String writeTrace( String thread, int firstId, int firstTimestamp, int numEvents )
+                    throws Exception
+    {
+        File file = File.createTempFile( "taz", ".txt" );
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter( file );
+        for ( int i = 0; i < numEvents; i++ )
+        {
+            writer.write( "{\"type\":\"LOG\",\"thread\":\"" + thread + "\",\"id\":" + ( firstId + i )
+                                          + ",\"timestamp\":" + ( firstTimestamp + 3 * i ) + ",\"message\":\"m\"}\n" );
+        }
+        writer.close();
+        return file.getAbsolutePath();
+    }
+}
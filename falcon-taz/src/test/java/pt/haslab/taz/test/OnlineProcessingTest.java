@@ -0,0 +1,193 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.message;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.CausalPairListener;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.RWEvent;
+import pt.haslab.taz.events.SocketEvent;
+import pt.haslab.taz.events.SyncEvent;
+import pt.haslab.taz.io.JSONEventReader;
+
+/**
+ * Tests pushing events one at a time into a TraceProcessor.
+ */
+public class OnlineProcessingTest
+{
+    @Test
+    public void testPairCallbacks()
+                    throws Exception
+    {
+        final List<String> messages = new ArrayList<String>();
+        final List<String> connections = new ArrayList<String>();
+        final Set<CausalPair<SyncEvent, SyncEvent>> locks =
+                        Collections.newSetFromMap( new IdentityHashMap<CausalPair<SyncEvent, SyncEvent>, Boolean>() );
+
+        TraceProcessor processor = new TraceProcessor();
+        processor.addCausalPairListener( new CausalPairListener()
+        {
+            @Override
+            public void onMessagePair( String messageId, MessageCausalPair pair )
+            {
+                assertTrue( "Message pair reported before being complete", pair.isFinished() );
+                messages.add( messageId );
+            }
+
+            @Override
+            public void onConnectAccept( String socket, CausalPair<SocketEvent, SocketEvent> pair )
+            {
+                connections.add( socket );
+            }
+
+            @Override
+            public void onLockPair( String variable, CausalPair<SyncEvent, SyncEvent> pair )
+            {
+                // reentrant UNLOCKs report the same pair again
+                locks.add( pair );
+            }
+        } );
+
+        File file = new File( getClass().getClassLoader().getResource( "testEventTrace.txt" ).getFile() );
+        JSONEventReader reader = new JSONEventReader( new FileReader( file ) );
+        JSONObject event = reader.next();
+        while ( event != null )
+        {
+            processor.accept( event );
+            event = reader.next();
+        }
+        reader.close();
+        processor.completeTrace();
+
+        // same pairs as when loading the whole trace (see TazTest)
+        assertEquals( 3, messages.size() );
+        assertEquals( processor.sndRcvPairs.size(), messages.size() );
+        assertEquals( 2, connections.size() );
+        assertEquals( 5, locks.size() );
+
+        int closeShutPairs = 0;
+        for ( CausalPair<SocketEvent, SocketEvent> pair : processor.closeShutEvents.values() )
+        {
+            if ( pair.getFirst() != null && pair.getSecond() != null )
+                closeShutPairs++;
+        }
+
+        // the last locking pair of each variable is kept
+        int released = processor.releaseCompletedPairs();
+        assertEquals( 3 + 2 + 5 - processor.lockEvents.size() + closeShutPairs, released );
+        assertTrue( processor.sndRcvPairs.isEmpty() );
+        assertTrue( processor.connAcptEvents.isEmpty() );
+    }
+
+    @Test
+    public void testIncompleteClosePairsAreReleasedWithTheirEvents()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.accept( event( "START", "T1@N1", 1 ) );
+        processor.accept( close( "CLOSE", "T1@N1", 2, 7001 ) );
+        processor.accept( event( "END", "T1@N1", 3 ) );
+        // the RCV waits for its SND, so it holds back the CLOSE that follows it
+        processor.accept( udp( "RCV", "T2@N1", 4, "m" ) );
+        processor.accept( close( "CLOSE", "T2@N1", 5, 7002 ) );
+
+        // the CLOSE of T1@N1 is released with its thread, along with its pair
+        assertEquals( 1, processor.releaseCompletedPairs() );
+        assertEquals( 1, processor.closeShutEvents.size() );
+        assertFalse( processor.eventsPerThread.containsKey( "T1@N1" ) );
+        for ( CausalPair<SocketEvent, SocketEvent> pair : processor.closeShutEvents.values() )
+        {
+            assertTrue( processor.eventsPerThread.get( pair.getFirst().getThread() ).contains( pair.getFirst() ) );
+        }
+
+        // the CLOSE that was held is still matched with its SHUTDOWN
+        processor.accept( close( "SHUTDOWN", "T1@N2", 6, 7002 ) );
+        CausalPair<SocketEvent, SocketEvent> pair = processor.closeShutEvents.values().iterator().next();
+        assertEquals( "T2@N1", pair.getFirst().getThread() );
+        assertEquals( "T1@N2", pair.getSecond().getThread() );
+    }
+
+    /**
+     * Returns a CLOSE or SHUTDOWN of the TCP socket from 10.0.0.1:srcPort to 10.0.0.2:6000.
+     */
+    private static JSONObject close( String type, String thread, long timestamp, int srcPort )
+                    throws Exception
+    {
+        return message( type, thread, timestamp, "TCP", srcPort, 6000, null, 0 );
+    }
+
+    @Test
+    public void testReleasedEventsBoundMemory()
+                    throws Exception
+    {
+        // clients send UDP messages to server threads, which receive them (some late) and update shared state
+        Random random = new Random( 3 );
+        TraceProcessor processor = new TraceProcessor();
+        List<JSONObject> delayed = new ArrayList<JSONObject>();
+        int maxHeld = 0;
+        long ts = 1;
+        for ( int i = 0; i < 100000; i++ )
+        {
+            String client = "C" + random.nextInt( 4 ) + "@N1";
+            String server = "S" + random.nextInt( 4 ) + "@N2";
+            processor.accept( udp( "SND", client, ts++, "msg" + i ) );
+            JSONObject rcv = udp( "RCV", server, ts++, "msg" + i );
+            if ( random.nextInt( 10 ) == 0 )
+                delayed.add( rcv );
+            else
+                processor.accept( rcv );
+            processor.accept( event( "LOCK", server, ts++ ).put( "variable", "state" ) );
+            processor.accept( event( random.nextBoolean() ? "R" : "W", server, ts++ ).put( "variable", "x" ) );
+            processor.accept( event( "UNLOCK", server, ts++ ).put( "variable", "state" ) );
+
+            if ( i % 1000 == 999 )
+            {
+                for ( JSONObject late : delayed )
+                {
+                    late.put( "timestamp", ts++ );
+                    processor.accept( late );
+                }
+                delayed.clear();
+                processor.releaseCompletedPairs();
+                maxHeld = Math.max( maxHeld, countHeldEvents( processor ) );
+            }
+        }
+
+        // 5000 events are pushed between releases, 500000 in total
+        assertTrue( "Too many events held: " + maxHeld, maxHeld < 100 );
+        assertTrue( processor.sndRcvPairs.isEmpty() );
+        assertEquals( 500000, processor.getNumberOfEvents() );
+    }
+
+    private static int countHeldEvents( TraceProcessor processor )
+    {
+        int held = processor.sortedByTimestamp.size();
+        for ( SortedSet<Event> timeline : processor.eventsPerThread.values() )
+            held += timeline.size();
+        for ( List<RWEvent> accesses : processor.readEvents.values() )
+            held += accesses.size();
+        for ( List<RWEvent> accesses : processor.writeEvents.values() )
+            held += accesses.size();
+        for ( List<CausalPair<SyncEvent, SyncEvent>> pairs : processor.lockEvents.values() )
+            held += pairs.size();
+        return held + processor.sndRcvPairs.size();
+    }
+}
@@ -0,0 +1,86 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static pt.haslab.taz.test.TestEvents.access;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.analysis.DataRace;
+import pt.haslab.taz.analysis.RaceDetector;
+import pt.haslab.taz.causality.ReachabilityIndex;
+import pt.haslab.taz.events.RWEvent;
+
+/**
+ * Tests the data races found by RaceDetector.
+ */
+public class RaceDetectorTest
+{
+    @Test
+    public void testTraceRaces()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( new File( getClass().getClassLoader().getResource( "testEventTrace.txt" )
+                                                      .getFile() ).getAbsolutePath() );
+        Map<String, List<DataRace>> races = RaceDetector.detect( processor.getProcessedTrace() );
+
+        // the write of T1@N1 inside lockA races with the read of T2@N1 before taking the lock
+        assertEquals( 1, races.size() );
+        assertEquals( 1, races.get( "x" ).size() );
+        DataRace race = races.get( "x" ).get( 0 );
+        assertEquals( "test.taz.run.5", race.getFirstLineOfCode() );
+        assertEquals( "test.taz.run.10", race.getSecondLineOfCode() );
+        assertEquals( 1, race.getOccurrences() );
+    }
+
+    @Test
+    public void testRacyVariablesMatchPairwiseCheck()
+                    throws Exception
+    {
+        // threads accessing a few variables, some of them always inside a lock
+        Random random = new Random( 42 );
+        TraceProcessor processor = new TraceProcessor();
+        long ts = 1;
+        for ( int i = 0; i < 2000; i++ )
+        {
+            String thread = "T" + random.nextInt( 4 ) + "@N1";
+            int variable = random.nextInt( 6 );
+            boolean locked = variable < 3 || random.nextInt( 10 ) == 0;
+            if ( locked )
+                processor.accept( access( "LOCK", thread, ts++, "lock" ) );
+            processor.accept( access( random.nextBoolean() ? "W" : "R", thread, ts++, "v" + variable ) );
+            if ( locked )
+                processor.accept( access( "UNLOCK", thread, ts++, "lock" ) );
+        }
+        processor.completeTrace();
+        ProcessedTrace trace = processor.getProcessedTrace();
+        ReachabilityIndex index = trace.getReachabilityIndex();
+
+        Set<String> expected = new TreeSet<String>();
+        List<RWEvent> accesses = new ArrayList<RWEvent>();
+        for ( List<RWEvent> events : trace.getReadEvents().values() )
+            accesses.addAll( events );
+        for ( List<RWEvent> events : trace.getWriteEvents().values() )
+            accesses.addAll( events );
+        for ( RWEvent e1 : accesses )
+        {
+            for ( RWEvent e2 : accesses )
+            {
+                if ( e1.conflictsWith( e2 ) && index.concurrent( e1, e2 ) )
+                    expected.add( e1.getVariable() );
+            }
+        }
+
+        Map<String, List<DataRace>> races = RaceDetector.detect( trace );
+        assertEquals( expected, races.keySet() );
+        assertEquals( "[v3, v4, v5]", races.keySet().toString() );
+    }
+}
@@ -0,0 +1,96 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.message;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import org.junit.Test;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.ReachabilityIndex;
+import pt.haslab.taz.causality.VectorClocks;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests the happens-before queries of ReachabilityIndex against the vector clocks of the events.
+ */
+public class ReachabilityIndexTest
+{
+    @Test
+    public void testTraceQueries()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( new File( getClass().getClassLoader().getResource( "testEventTrace.txt" )
+                                                      .getFile() ).getAbsolutePath() );
+        ProcessedTrace trace = processor.getProcessedTrace();
+
+        assertAllPairs( trace, VectorClocks.compute( trace ), trace.getReachabilityIndex() );
+        assertFalse( trace.happensBefore( new Event(), trace.getSortedByTimestamp().first() ) );
+    }
+
+    @Test
+    public void testSequentialThreadsShareChain()
+                    throws Exception
+    {
+        // a main thread that forks and joins one worker at a time, and a server thread receiving from each worker
+        int workers = 10;
+        TraceProcessor processor = new TraceProcessor();
+        long ts = 1;
+        processor.accept( event( "START", "T0@N1", ts++ ) );
+        processor.accept( event( "START", "S@N2", ts++ ) );
+        for ( int i = 1; i <= workers; i++ )
+        {
+            String worker = "T" + i + "@N1";
+            processor.accept( event( "CREATE", "T0@N1", ts++ ).put( "child", worker ) );
+            processor.accept( event( "START", worker, ts++ ) );
+            processor.accept( message( "SND", worker, ts++, "UDP", 1000 + i, 2000, "msg" + i, 8 ) );
+            processor.accept( message( "RCV", "S@N2", ts++, "UDP", 1000 + i, 2000, "msg" + i, 8 ) );
+            processor.accept( event( "END", worker, ts++ ) );
+            processor.accept( event( "JOIN", "T0@N1", ts++ ).put( "child", worker ) );
+        }
+        processor.completeTrace();
+        ProcessedTrace trace = processor.getProcessedTrace();
+        ReachabilityIndex index = trace.getReachabilityIndex();
+
+        // the workers run one after the other, after the START of the main thread
+        assertEquals( 2 + 1, index.getNumChains() );
+        assertAllPairs( trace, VectorClocks.compute( trace ), index );
+
+        List<Event> server = new ArrayList<Event>( trace.getEventsPerThread().get( "S@N2" ) );
+        Event firstSnd = trace.getEventsPerThread().get( "T1@N1" ).first();
+        Event lastStart = trace.getEventsPerThread().get( "T" + workers + "@N1" ).first();
+        assertTrue( index.happensBefore( firstSnd, lastStart ) );
+        assertTrue( index.happensBefore( lastStart, server.get( workers ) ) );
+        assertTrue( index.concurrent( lastStart, server.get( workers - 1 ) ) );
+    }
+
+    /**
+     * Checks every pair of events: e1 happens before e2 iff the clock of e2 counts e1's position in its thread.
+     */
+    private static void assertAllPairs( ProcessedTrace trace, VectorClocks clocks, ReachabilityIndex index )
+    {
+        List<Event> all = new ArrayList<Event>();
+        for ( SortedSet<Event> timeline : trace.getEventsPerThread().values() )
+            all.addAll( timeline );
+
+        for ( Event e1 : all )
+        {
+            int count = clocks.getClock( e1 ).get( e1.getThread() );
+            for ( Event e2 : all )
+            {
+                Map<String, Integer> clock = clocks.getClock( e2 );
+                boolean expected = e1 != e2 && clock.containsKey( e1.getThread() )
+                                && clock.get( e1.getThread() ) >= count;
+                assertEquals( e1 + " -> " + e2, expected, index.happensBefore( e1, e2 ) );
+            }
+        }
+    }
+}
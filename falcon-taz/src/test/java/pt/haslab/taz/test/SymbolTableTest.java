@@ -0,0 +1,39 @@
+package pt.haslab.taz.test;
+
+import org.junit.Test;
+import pt.haslab.taz.utils.SymbolTable;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+
+public class SymbolTableTest
+{
+    @Test
+    public void testInterning()
+    {
+        SymbolTable symbols = new SymbolTable();
+
+        String thread = symbols.intern( new String( "T1@N1" ) );
+        assertSame( "Equal identifiers should share the same instance", thread,
+                    symbols.intern( new String( "T1@N1" ) ) );
+        assertNull( symbols.intern( null ) );
+
+        assertEquals( 0, symbols.getId( "T1@N1" ) );
+        assertEquals( 1, symbols.getOrAddId( "T2@N1" ) );
+        assertEquals( SymbolTable.UNDEFINED_ID, symbols.getId( "T3@N1" ) );
+        assertEquals( "T2@N1", symbols.getSymbol( 1 ) );
+        assertEquals( 2, symbols.size() );
+
+        // grow past the initial capacity
+        for ( int i = 0; i < 1000; i++ )
+            symbols.intern( "var" + i );
+        assertEquals( "var999", symbols.getSymbol( symbols.getId( "var999" ) ) );
+    }
+
+    @Test( expected = IndexOutOfBoundsException.class )
+    public void testUndefinedSymbol()
+    {
+        new SymbolTable().getSymbol( 0 );
+    }
+}
@@ -0,0 +1,44 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static pt.haslab.taz.test.TestEvents.message;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.SocketEvent;
+
+/**
+ * Tests that the SND and RCV events of TCP connections are matched by bytes, per directed channel.
+ */
+public class TcpMessageMatchingTest
+{
+    @Test
+    public void testInterleavedChannels()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        // the message of channel A is still partially received when channel B sends and receives its own
+        processor.accept( message( "SND", "T1@N1", 1, "TCP", 1000, 80, null, 10 ) );
+        processor.accept( message( "RCV", "T1@N2", 2, "TCP", 1000, 80, null, 5 ) );
+        processor.accept( message( "SND", "T2@N1", 3, "TCP", 2000, 80, null, 3 ) );
+        processor.accept( message( "RCV", "T2@N2", 4, "TCP", 2000, 80, null, 3 ) );
+        processor.accept( message( "RCV", "T1@N2", 5, "TCP", 1000, 80, null, 5 ) );
+        processor.completeTrace();
+
+        assertEquals( 2, processor.sndRcvPairs.size() );
+        for ( MessageCausalPair pair : processor.sndRcvPairs.values() )
+        {
+            assertEquals( pair.getSndList().size() == 1 && pair.getSnd( 0 ).getSize() == 10 ? 2 : 1,
+                          pair.getRcvList().size() );
+            Set<String> channels = new HashSet<String>();
+            for ( SocketEvent e : pair.getSndList() )
+                channels.add( e.getDirectedSocket() );
+            for ( SocketEvent e : pair.getRcvList() )
+                channels.add( e.getDirectedSocket() );
+            assertEquals( 1, channels.size() );
+        }
+    }
+}
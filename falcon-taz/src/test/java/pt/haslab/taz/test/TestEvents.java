@@ -0,0 +1,85 @@
+package pt.haslab.taz.test;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the JSON events of small test traces, as written by the tracer, to be pushed with TraceProcessor.accept.
+ * Also used by the tests of falcon-solver (through the test jar of falcon-taz).
+ */
+public final class TestEvents
+{
+    private TestEvents()
+    {
+    }
+
+    /**
+     * Returns an event with only a type, a thread and a timestamp, to which the fields of its type can be added.
+     */
+    public static JSONObject event( String type, String thread, long timestamp )
+                    throws JSONException
+    {
+        JSONObject event = new JSONObject();
+        event.put( "type", type );
+        event.put( "thread", thread );
+        event.put( "timestamp", timestamp );
+        return event;
+    }
+
+    /**
+     * Returns a LOCK, UNLOCK, WAIT or NOTIFY event on a variable.
+     */
+    public static JSONObject sync( String type, String thread, long timestamp, String variable )
+                    throws JSONException
+    {
+        JSONObject event = event( type, thread, timestamp );
+        event.put( "variable", variable );
+        event.put( "counter", 0 );
+        event.put( "loc", "test." + variable + "." + timestamp );
+        return event;
+    }
+
+    /**
+     * Returns a read (R) or write (W) of a variable, with a line of code per variable and type of access.
+     */
+    public static JSONObject access( String type, String thread, long timestamp, String variable )
+                    throws JSONException
+    {
+        JSONObject event = event( type, thread, timestamp );
+        event.put( "variable", variable );
+        event.put( "counter", 0 );
+        event.put( "loc", "test." + variable + "." + type );
+        return event;
+    }
+
+    /**
+     * Returns an 8-byte UDP SND or RCV of a message, on the socket from 10.0.0.1:5000 to 10.0.0.2:6000.
+     */
+    public static JSONObject udp( String type, String thread, long timestamp, String id )
+                    throws JSONException
+    {
+        return message( type, thread, timestamp, "UDP", 5000, 6000, id, 8 );
+    }
+
+    /**
+     * Returns a SND or RCV on the socket from 10.0.0.1:srcPort to 10.0.0.2:dstPort.
+     *
+     * @param id the id of the message, or null for TCP messages matched by their bytes.
+     */
+    public static JSONObject message( String type, String thread, long timestamp, String socketType, int srcPort,
+                                      int dstPort, String id, int size )
+                    throws JSONException
+    {
+        JSONObject event = event( type, thread, timestamp );
+        event.put( "socket", "10.0.0.1:" + srcPort + "-10.0.0.2:" + dstPort );
+        event.put( "socket_type", socketType );
+        event.put( "src", "10.0.0.1" );
+        event.put( "src_port", srcPort );
+        event.put( "dst", "10.0.0.2" );
+        event.put( "dst_port", dstPort );
+        if ( id != null )
+            event.put( "message", id );
+        event.put( "size", size );
+        return event;
+    }
+}
@@ -0,0 +1,143 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.json.JSONObject;
+import org.junit.Test;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests that independent TraceProcessor instances can process traces in parallel.
+ */
+public class TraceProcessorSessionTest
+{
+    private static String traceFile()
+    {
+        return new File( TraceProcessorSessionTest.class.getClassLoader().getResource( "testEventTrace.txt" )
+                                                          .getFile() ).getAbsolutePath();
+    }
+
+    @Test
+    public void testParallelSessions()
+                    throws Exception
+    {
+        int numSessions = 4;
+        ExecutorService pool = Executors.newFixedThreadPool( numSessions );
+        List<Future<ProcessedTrace>> results = new ArrayList<Future<ProcessedTrace>>();
+        for ( int i = 0; i < numSessions; i++ )
+        {
+            final boolean appendSorted = ( i % 2 == 0 );
+            results.add( pool.submit( new Callable<ProcessedTrace>()
+            {
+                public ProcessedTrace call()
+                                throws Exception
+                {
+                    TraceProcessor processor = TraceProcessor.builder().appendSortedTimelines( appendSorted ).build();
+                    processor.loadEventTrace( traceFile() );
+                    return processor.getProcessedTrace();
+                }
+            } ) );
+        }
+        pool.shutdown();
+
+        List<ProcessedTrace> traces = new ArrayList<ProcessedTrace>();
+        for ( Future<ProcessedTrace> result : results )
+            traces.add( result.get() );
+
+        ProcessedTrace first = traces.get( 0 );
+        for ( ProcessedTrace trace : traces )
+        {
+            assertEquals( 45, countEvents( trace ) );
+            assertEquals( 8, trace.getEventsPerThread().get( "T1@N1" ).size() );
+            assertEquals( 3, trace.getSndRcvPairs().size() );
+            assertEquals( 5, countLockPairs( trace ) );
+            assertEquals( first.getNumberOfEvents(), trace.getNumberOfEvents() );
+        }
+        assertNotSame( first.getSymbolTable(), traces.get( 1 ).getSymbolTable() );
+    }
+
+    @Test
+    public void testReadOnlyView()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( traceFile() );
+        ProcessedTrace trace = processor.getProcessedTrace();
+
+        try
+        {
+            trace.getEventsPerThread().get( "T1@N1" ).add( new Event() );
+            fail( "Timelines of a ProcessedTrace should not be modifiable" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            trace.getSndRcvPairs().clear();
+            fail( "Maps of a ProcessedTrace should not be modifiable" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedByLaterEvents()
+                    throws Exception
+    {
+        TraceProcessor processor = TraceProcessor.builder().appendSortedTimelines( true ).build();
+        processor.loadEventTrace( traceFile() );
+        ProcessedTrace trace = processor.getProcessedTrace();
+        int numEvents = countEvents( trace );
+        int numT1Events = trace.getEventsPerThread().get( "T1@N1" ).size();
+        int numLockPairs = countLockPairs( trace );
+
+        JSONObject lock = new JSONObject();
+        lock.put( "type", "LOCK" );
+        lock.put( "thread", "T1@N1" );
+        lock.put( "timestamp", 1000 );
+        lock.put( "variable", "lockA" );
+        JSONObject unlock = new JSONObject( lock.toString() );
+        unlock.put( "type", "UNLOCK" );
+        unlock.put( "timestamp", 1001 );
+        processor.accept( lock );
+        processor.accept( unlock );
+
+        assertEquals( numEvents, countEvents( trace ) );
+        assertEquals( numT1Events, trace.getEventsPerThread().get( "T1@N1" ).size() );
+        assertEquals( numLockPairs, countLockPairs( trace ) );
+        assertEquals( numEvents + 2, countEvents( processor.getProcessedTrace() ) );
+    }
+
+    private static int countEvents( ProcessedTrace trace )
+    {
+        int total = 0;
+        for ( SortedSet<Event> events : trace.getEventsPerThread().values() )
+            total += events.size();
+        return total;
+    }
+
+    private static int countLockPairs( ProcessedTrace trace )
+    {
+        int total = 0;
+        for ( List<?> pairs : trace.getLockEvents().values() )
+            total += pairs.size();
+        return total;
+    }
+}
@@ -0,0 +1,219 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import org.json.JSONException;
+import org.junit.Test;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.CausalPair;
+import pt.haslab.taz.causality.MessageCausalPair;
+import pt.haslab.taz.events.Event;
+import pt.haslab.taz.events.SyncEvent;
+
+/**
+ * Tests that the snapshots written by a TraceProcessor are loaded back into the same data structures.
+ */
+public class TraceSnapshotTest
+{
+    private static String traceFile()
+    {
+        return new File( TraceSnapshotTest.class.getClassLoader().getResource( "testEventTrace.txt" )
+                                                   .getFile() ).getAbsolutePath();
+    }
+
+    @Test
+    public void testSnapshotRoundTrip()
+                    throws Exception
+    {
+        File snapshot = File.createTempFile( "taz", ".tazsnap" );
+        snapshot.deleteOnExit();
+
+        TraceProcessor original = new TraceProcessor();
+        original.loadEventTrace( traceFile() );
+        original.writeSnapshot( snapshot.getAbsolutePath(), traceFile() );
+
+        TraceProcessor restored = new TraceProcessor();
+        assertTrue( restored.loadSnapshot( snapshot.getAbsolutePath(), traceFile() ) );
+
+        assertEquals( original.getNumberOfEvents(), restored.getNumberOfEvents() );
+        assertEquals( original.eventsPerThread.keySet(), restored.eventsPerThread.keySet() );
+        for ( String thread : original.eventsPerThread.keySet() )
+        {
+            assertSameEvents( original.eventsPerThread.get( thread ), restored.eventsPerThread.get( thread ) );
+        }
+        assertSameEvents( original.sortedByTimestamp, restored.sortedByTimestamp );
+
+        assertEquals( original.sndRcvPairs.keySet(), restored.sndRcvPairs.keySet() );
+        for ( String msgId : original.sndRcvPairs.keySet() )
+        {
+            MessageCausalPair expected = original.sndRcvPairs.get( msgId );
+            MessageCausalPair actual = restored.sndRcvPairs.get( msgId );
+            assertEquals( expected.getSndList().toString(), actual.getSndList().toString() );
+            assertEquals( expected.getRcvList().toString(), actual.getRcvList().toString() );
+        }
+
+        assertEquals( original.connAcptEvents.keySet(), restored.connAcptEvents.keySet() );
+        assertEquals( original.handlerEvents.size(), restored.handlerEvents.size() );
+        assertEquals( original.lockEvents.keySet(), restored.lockEvents.keySet() );
+        for ( String variable : original.lockEvents.keySet() )
+        {
+            List<CausalPair<SyncEvent, SyncEvent>> expected = original.lockEvents.get( variable );
+            List<CausalPair<SyncEvent, SyncEvent>> actual = restored.lockEvents.get( variable );
+            assertEquals( expected.toString(), actual.toString() );
+        }
+    }
+
+    @Test
+    public void testSnapshotOfOtherTrace()
+                    throws Exception
+    {
+        File snapshot = File.createTempFile( "taz", ".tazsnap" );
+        snapshot.deleteOnExit();
+        File otherTrace = File.createTempFile( "taz", ".txt" );
+        otherTrace.deleteOnExit();
+
+        TraceProcessor original = new TraceProcessor();
+        original.loadEventTrace( traceFile() );
+        original.writeSnapshot( snapshot.getAbsolutePath(), traceFile() );
+
+        TraceProcessor restored = new TraceProcessor();
+        assertFalse( restored.loadSnapshot( snapshot.getAbsolutePath(), otherTrace.getAbsolutePath() ) );
+    }
+
+    @Test
+    public void testAppendWithSnapshots()
+                    throws Exception
+    {
+        File base = File.createTempFile( "taz", ".txt" );
+        base.deleteOnExit();
+        new File( base.getAbsolutePath() + ".tazsnap" ).deleteOnExit();
+        Files.copy( new File( traceFile() ).toPath(), base.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        File appended = File.createTempFile( "taz", ".txt" );
+        appended.deleteOnExit();
+        FileWriter writer = new FileWriter( appended );
+        writer.write( "[{\"timestamp\":100,\"thread\":\"T9@N1\",\"type\":\"START\"},\n"
+                                      + "{\"timestamp\":101,\"thread\":\"T9@N1\",\"type\":\"END\"}]" );
+        writer.close();
+
+        TraceProcessor processor = TraceProcessor.builder().useSnapshots( true ).build();
+        processor.loadEventTrace( base.getAbsolutePath() );
+        int numThreads = processor.eventsPerThread.size();
+        processor.appendEventTrace( appended.getAbsolutePath() );
+
+        // the appended events are added to the loaded ones, and no snapshot is written for them
+        assertEquals( numThreads + 1, processor.eventsPerThread.size() );
+        assertEquals( 2, processor.eventsPerThread.get( "T9@N1" ).size() );
+        assertFalse( new File( appended.getAbsolutePath() + ".tazsnap" ).exists() );
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsReparsed()
+                    throws Exception
+    {
+        File trace = File.createTempFile( "taz", ".txt" );
+        trace.deleteOnExit();
+        File snapshot = new File( trace.getAbsolutePath() + ".tazsnap" );
+        snapshot.deleteOnExit();
+        Files.copy( new File( traceFile() ).toPath(), trace.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        TraceProcessor original = TraceProcessor.builder().useSnapshots( true ).build();
+        original.loadEventTrace( trace.getAbsolutePath() );
+        long snapshotSize = snapshot.length();
+        RandomAccessFile file = new RandomAccessFile( snapshot, "rw" );
+        file.setLength( snapshotSize / 2 );
+        file.close();
+
+        // the broken snapshot is dropped, the trace parsed again and a new snapshot written
+        TraceProcessor reparsed = TraceProcessor.builder().useSnapshots( true ).build();
+        reparsed.loadEventTrace( trace.getAbsolutePath() );
+        assertEquals( original.getNumberOfEvents(), reparsed.getNumberOfEvents() );
+        assertSameEvents( original.sortedByTimestamp, reparsed.sortedByTimestamp );
+        assertEquals( original.sndRcvPairs.keySet(), reparsed.sndRcvPairs.keySet() );
+        assertEquals( snapshotSize, snapshot.length() );
+
+        TraceProcessor restored = new TraceProcessor();
+        assertTrue( restored.loadSnapshot( snapshot.getAbsolutePath(), trace.getAbsolutePath() ) );
+        assertSameEvents( original.sortedByTimestamp, restored.sortedByTimestamp );
+    }
+
+    @Test
+    public void testInvalidLengthsInSnapshot()
+                    throws Exception
+    {
+        File snapshot = File.createTempFile( "taz", ".tazsnap" );
+        snapshot.deleteOnExit();
+        TraceProcessor original = new TraceProcessor();
+        original.loadEventTrace( traceFile() );
+        original.writeSnapshot( snapshot.getAbsolutePath(), traceFile() );
+
+        // magic, version, hash length and hash, followed by the event number, the TCP message id and the strings
+        RandomAccessFile file = new RandomAccessFile( snapshot, "rw" );
+        file.seek( 8 );
+        long numStrings = 12 + file.readInt() + 4 + 8;
+        file.close();
+        long firstString = numStrings + 4;
+
+        assertCorrupted( snapshot, numStrings, -5 );
+        assertCorrupted( snapshot, numStrings, Integer.MAX_VALUE );
+        assertCorrupted( snapshot, firstString, -2 );
+        assertCorrupted( snapshot, firstString, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Overwrites an int of a snapshot and checks that loading it fails and leaves the processor empty.
+     */
+    private static void assertCorrupted( File snapshot, long offset, int value )
+                    throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( snapshot, "rw" );
+        file.seek( offset );
+        int previous = file.readInt();
+        file.seek( offset );
+        file.writeInt( value );
+        file.close();
+
+        TraceProcessor processor = new TraceProcessor();
+        try
+        {
+            processor.loadSnapshot( snapshot.getAbsolutePath(), traceFile() );
+            fail( "Loaded a snapshot with " + value + " at offset " + offset );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertEquals( 0, processor.getNumberOfEvents() );
+        assertTrue( processor.eventsPerThread.isEmpty() );
+        assertTrue( processor.sortedByTimestamp.isEmpty() );
+
+        file = new RandomAccessFile( snapshot, "rw" );
+        file.seek( offset );
+        file.writeInt( previous );
+        file.close();
+    }
+
+    private static void assertSameEvents( SortedSet<Event> expected, SortedSet<Event> actual )
+                    throws JSONException
+    {
+        assertEquals( expected.size(), actual.size() );
+        Iterator<Event> it = actual.iterator();
+        for ( Event e : expected )
+        {
+            Event other = it.next();
+            assertEquals( e.getClass(), other.getClass() );
+            assertEquals( e.toJSONObject().toString(), other.toJSONObject().toString() );
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package pt.haslab.taz.test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static pt.haslab.taz.test.TestEvents.event;
+import static pt.haslab.taz.test.TestEvents.sync;
+import static pt.haslab.taz.test.TestEvents.udp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import pt.haslab.taz.ProcessedTrace;
+import pt.haslab.taz.TraceProcessor;
+import pt.haslab.taz.causality.VectorClocks;
+import pt.haslab.taz.events.Event;
+
+/**
+ * Tests the vector clocks computed for a processed trace.
+ */
+public class VectorClocksTest
+{
+    @Test
+    public void testTraceClocks()
+                    throws Exception
+    {
+        TraceProcessor processor = new TraceProcessor();
+        processor.loadEventTrace( new File( getClass().getClassLoader().getResource( "testEventTrace.txt" )
+                                                      .getFile() ).getAbsolutePath() );
+        ProcessedTrace trace = processor.getProcessedTrace();
+        VectorClocks clocks = VectorClocks.compute( trace );
+        assertEquals( 0, clocks.getNumIgnoredEdges() );
+
+        List<Event> t1n1 = new ArrayList<Event>( trace.getEventsPerThread().get( "T1@N1" ) );
+        List<Event> t2n1 = new ArrayList<Event>( trace.getEventsPerThread().get( "T2@N1" ) );
+        List<Event> t1n2 = new ArrayList<Event>( trace.getEventsPerThread().get( "T1@N2" ) );
+
+        // the first event of a thread only knows itself
+        assertEquals( "{T1@N1=1}", clocks.getClock( t1n1.get( 0 ) ).toString() );
+
+        // START of T2@N1 follows the fork, which is the second event of T1@N1
+        assertEquals( "{T1@N1=2, T2@N1=1}", clocks.getClock( t2n1.get( 0 ) ).toString() );
+
+        // the first LOCK of T2@N1 follows the UNLOCK of T1@N1 (6th event)
+        Map<String, Integer> lock = clocks.getClock( t2n1.get( 3 ) );
+        assertEquals( 6, lock.get( "T1@N1" ).intValue() );
+
+        // the first RCV of T1@N2 follows the SND of msg1 (5th event of T2@N1)
+        Map<String, Integer> rcv = clocks.getClock( t1n2.get( 3 ) );
+        assertEquals( 5, rcv.get( "T2@N1" ).intValue() );
+        assertFalse( rcv.containsKey( "T2@N2" ) );
+
+        // events of other traces have no clock
+        assertNull( clocks.getClock( new Event() ) );
+    }
+
+    @Test
+    public void testSnapshotsAndDeltas()
+                    throws Exception
+    {
+        // two threads passing a lock back and forth, with a third thread that only synchronizes once
+        int rounds = 50;
+        TraceProcessor processor = new TraceProcessor();
+        long ts = 1;
+        processor.accept( event( "START", "T3@N1", ts++ ) );
+        for ( int i = 0; i < rounds; i++ )
+        {
+            String thread = ( i % 2 == 0 ) ? "T1@N1" : "T2@N1";
+            processor.accept( sync( "LOCK", thread, ts++, "lock" ) );
+            processor.accept( sync( "UNLOCK", thread, ts++, "lock" ) );
+            if ( i == 0 )
+            {
+                processor.accept( sync( "LOCK", "T3@N1", ts++, "lock" ) );
+                processor.accept( sync( "UNLOCK", "T3@N1", ts++, "lock" ) );
+            }
+        }
+        processor.completeTrace();
+        ProcessedTrace trace = processor.getProcessedTrace();
+        VectorClocks clocks = VectorClocks.compute( trace );
+
+        List<Event> t1 = new ArrayList<Event>( trace.getEventsPerThread().get( "T1@N1" ) );
+        List<Event> t2 = new ArrayList<Event>( trace.getEventsPerThread().get( "T2@N1" ) );
+        for ( int i = 1; i < rounds; i++ )
+        {
+            // the i-th critical section follows all the previous ones
+            List<Event> own = ( i % 2 == 0 ) ? t1 : t2;
+            Event lock = own.get( 2 * ( i / 2 ) );
+            Map<String, Integer> clock = clocks.getClock( lock );
+            int ownCount = 2 * ( i / 2 ) + 1;
+            int otherCount = ( i % 2 == 0 ) ? i : i + 1;
+            assertEquals( ( i % 2 == 0 ) ? ownCount : otherCount, clock.get( "T1@N1" ).intValue() );
+            assertEquals( ( i % 2 == 0 ) ? otherCount : ownCount, clock.get( "T2@N1" ).intValue() );
+            assertEquals( 3, clock.get( "T3@N1" ).intValue() );
+        }
+
+        // about one entry per stored clock (the other thread), plus the third thread in snapshots
+        assertEquals( rounds, clocks.getNumStoredEntries(), rounds / 16 + 2 );
+    }
+
+    @Test
+    public void testCycleBrokenOnItsOwnEdges()
+                    throws Exception
+    {
+        // T1@N2 and T1@N3 receive each other's message before sending theirs, and T1@N1 (visited first) is only
+        // blocked because it receives a message that T1@N2 sends after the cycle
+        TraceProcessor processor = new TraceProcessor();
+        processor.accept( udp( "RCV", "T1@N2", 1, "m1" ) );
+        processor.accept( udp( "SND", "T1@N2", 2, "m2" ) );
+        processor.accept( udp( "RCV", "T1@N3", 3, "m2" ) );
+        processor.accept( udp( "SND", "T1@N3", 4, "m1" ) );
+        processor.accept( udp( "SND", "T1@N2", 5, "m3" ) );
+        processor.accept( event( "START", "T1@N1", 6 ) );
+        processor.accept( udp( "RCV", "T1@N1", 7, "m3" ) );
+        processor.completeTrace();
+        ProcessedTrace trace = processor.getProcessedTrace();
+        VectorClocks clocks = VectorClocks.compute( trace );
+
+        // only one edge of the cycle is left out, and the edge into T1@N1 is kept
+        assertEquals( 1, clocks.getNumIgnoredEdges() );
+        Event rcv = trace.getEventsPerThread().get( "T1@N1" ).last();
+        assertEquals( 3, clocks.getClock( rcv ).get( "T1@N2" ).intValue() );
+    }
+}